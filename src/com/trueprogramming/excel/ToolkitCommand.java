@@ -22,8 +22,16 @@
 
 package com.trueprogramming.excel;
 
+import com.trueprogramming.excel.parser.Diagnostic;
+import com.trueprogramming.excel.parser.Diagnostics;
+import com.trueprogramming.excel.parser.Evaluator;
+import com.trueprogramming.excel.parser.JavaWriter;
+import com.trueprogramming.excel.parser.ParsedWorkbook;
 import com.trueprogramming.excel.parser.Parser;
+import com.trueprogramming.excel.parser.Profile;
+import com.trueprogramming.excel.parser.Snapshot;
 import com.trueprogramming.excel.parser.StartList;
+import com.trueprogramming.excel.grammar.nonterm.Renderer;
 import com.trueprogramming.excel.grammar.nonterm.Start;
 import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
 
@@ -32,7 +40,13 @@ import java.nio.charset.StandardCharsets;
 
 public class ToolkitCommand {
 
-    private final Parser parser;
+    private final Parser parser;//null when loaded from the snapshot
+    private final ParsedWorkbook workbook;
+    private final boolean profile;
+    private final boolean evaluate;
+    private Evaluator evaluator;//null until execute() with evaluation
+    private final File snapshot;//null without cache
+    private final String hash;
 
     private long elapsed = 0;
 
@@ -40,47 +54,149 @@ public class ToolkitCommand {
         ToolkitOptions options = new ToolkitOptions();
         parser = new Parser(name);
         parser.setVerbose(options.isVerbose());
+        workbook = parser;
+        profile = options.isProfile();
+        evaluate = options.isEvaluate();
+        snapshot = null;
+        hash = null;
     }
 
     public ToolkitCommand(String name, ToolkitOptions options) throws IOException, InvalidFormatException {
-        parser = new Parser(name);
+        this(name, options, null);
+    }
+
+    /**
+     * Command on a new version of the workbook of previous: execute() parses again only the sheets that have changed.
+     *
+     * @param previous executed command, null or loaded from its snapshot for a full parse
+     */
+    public ToolkitCommand(String name, ToolkitOptions options, ToolkitCommand previous) throws IOException, InvalidFormatException {
+        profile = options.isProfile();
+        evaluate = options.isEvaluate();
+        snapshot = options.isCache() ? new File(name + ".efs") : null;
+        hash = options.isCache() ? Snapshot.hash(new File(name)) : null;
+        Snapshot cached = !evaluate && snapshot != null && snapshot.isFile() ? read(snapshot, name, hash) : null;
+        if(cached != null) {
+            parser = null;
+            workbook = cached;
+            return;
+        }
+        parser = new Parser(name, options.isStreaming(), previous != null ? previous.parser : null);
         parser.setVerbose(options.isVerbose());
+        if(options.isSilent()) parser.setDiagnostics(Diagnostics.SILENT);
+        workbook = parser;
     }
 
+    /**
+     * @return null when the snapshot is stale or unreadable, the workbook is then parsed again
+     */
+    private static Snapshot read(File snapshot, String name, String hash) {
+        try {
+            return Snapshot.read(snapshot, name, hash);
+        } catch(IOException e) {
+            return null;
+        }
+    }
 
+    /**
+     * Parse and sort, nothing to do when the workbook has been loaded from its snapshot.
+     */
     public void execute() {
+        if(this.parser == null) return;
         long t = System.currentTimeMillis();
         this.parser.parse();
         this.parser.sort();
         this.elapsed = System.currentTimeMillis() - t;
+        if(this.evaluate) {
+            this.evaluator = new Evaluator(this.parser);
+            this.evaluator.evaluate();
+        }
+        if(this.snapshot != null) {
+            try {
+                Snapshot.of(this.parser, this.hash).write(this.snapshot);
+            } catch(IOException e) {
+                this.parser.getDiagnostics().report(new Diagnostic(Diagnostic.Kind.ERROR, this.snapshot.getPath(), "Cannot write the snapshot: " + e.getMessage()));
+            }
+        }
+        this.parser.getDiagnostics().flush();
+    }
+
+    /**
+     * Has the workbook been loaded from its snapshot?
+     */
+    public boolean isCached() {
+        return this.parser == null;
     }
 
     public void write(String filename) throws IOException {
-        StartList list = parser.getList();
+        long begin = System.nanoTime();
+        StartList list = workbook.getList();
         try(Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(filename), StandardCharsets.UTF_8))) {
             writer.write("' \n");
             writer.write("' Text File: " + filename + '\n');
-            writer.write("' Excel File: " + parser.getFilename() + '\n');
-            writer.write("' Excel Formulas Number: " + parser.getCounterFormulas() + '\n');
+            writer.write("' Excel File: " + workbook.getFilename() + '\n');
+            writer.write("' Excel Formulas Number: " + workbook.getCounterFormulas() + '\n');
             writer.write("' Elapsed Time (parsing + topological sort): " + (elapsed / 1000 + " s. or " + (elapsed / 1000 / 60) + " min.") + '\n');
             //As Raw Text
             writer.write("' As Raw Text - Start\n");
-            writer.write(parser.getRaw());
+            workbook.writeRaw(writer);
             writer.write("' As Raw Text - End\n");
+            Renderer renderer = new Renderer();
             for(Start start : list) {
                 try {
-                    writer.write(start.id() + " = " + start);
+                    CharSequence text = renderer.render(start);
+                    writer.write(start.id() + " = ");
+                    writer.append(text);
                 } catch(Exception e) {
                     writer.write("' Error when compile " + start.id());
                 }
                 writer.write("\n");
             }
+            if(evaluator != null) {
+                writer.write("' Values - Start\n");
+                for(int i = 0; i < evaluator.size(); i++)
+                    writer.write("' " + evaluator.getFormula(i).id() + " = " + evaluator.getText(i) + '\n');
+                writer.write("' Values - End\n");
+            }
+            writer.flush();
+            workbook.getProfile().add(Profile.Phase.WRITE, null, System.nanoTime() - begin, list.size());
+            if(profile) {
+                writer.write("' Profile - Start\n");
+                for(String line : workbook.getProfile().toString().split("\n")) writer.write("' " + line + '\n');
+                writer.write("' Profile - End\n");
+            }
         }
     }
 
+    /**
+     * Write the numeric formulas as the Java class named after the file (Model.java), see JavaWriter.
+     * The values of the inputs come from the evaluation, execute with ToolkitOptions.setEvaluate(true).
+     */
+    public void writeJava(String filename) throws IOException {
+        if(evaluator == null) throw new IllegalStateException("Not evaluated, execute with ToolkitOptions.setEvaluate(true)");
+        String className = new File(filename).getName().replaceFirst("\\.java$", "");
+        try(Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(filename), StandardCharsets.UTF_8))) {
+            new JavaWriter(evaluator).write(writer, className);
+        }
+    }
+
+    /**
+     * Values of the formulas, null unless executed with ToolkitOptions.setEvaluate(true).
+     */
+    public Evaluator getEvaluator() {
+        return evaluator;
+    }
+
+    /**
+     * Time and counters of load, parsing, sorting and writing, see Profile.
+     */
+    public Profile getProfile() {
+        return workbook.getProfile();
+    }
+
 
     private StartList getStartList() {
-        return parser.getList();
+        return workbook.getList();
     }
 
     public boolean testToFormula(int offset, String... text) {
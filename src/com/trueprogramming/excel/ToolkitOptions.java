@@ -25,9 +25,19 @@ package com.trueprogramming.excel;
 public class ToolkitOptions {
 
     private boolean verbose;
+    private boolean streaming;
+    private boolean silent;
+    private boolean profile;
+    private boolean cache;
+    private boolean evaluate;
 
     public ToolkitOptions() {
         this.verbose = false;
+        this.streaming = false;
+        this.silent = false;
+        this.profile = false;
+        this.cache = false;
+        this.evaluate = false;
     }
 
     public boolean isVerbose() {
@@ -38,4 +48,60 @@ public class ToolkitOptions {
         this.verbose = verbose;
     }
 
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    /**
+     * Read .xlsx files with the SAX event reader, keeping in memory only formulas and referenced cells.
+     */
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    public boolean isSilent() {
+        return silent;
+    }
+
+    /**
+     * Do not print the formulas found and the parse errors.
+     */
+    public void setSilent(boolean silent) {
+        this.silent = silent;
+    }
+
+    public boolean isProfile() {
+        return profile;
+    }
+
+    /**
+     * Append the time and counters of each phase to the written file, see Profile.
+     */
+    public void setProfile(boolean profile) {
+        this.profile = profile;
+    }
+
+    public boolean isCache() {
+        return cache;
+    }
+
+    /**
+     * Keep a snapshot of the result next to the workbook (name.efs), an unchanged workbook is loaded from it instead of parsed.
+     */
+    public void setCache(boolean cache) {
+        this.cache = cache;
+    }
+
+    public boolean isEvaluate() {
+        return evaluate;
+    }
+
+    /**
+     * Compute the values of the formulas after sorting and append them to the written file, see Evaluator.
+     * A workbook is parsed even when its snapshot is up to date, the snapshot keeps no AST to evaluate.
+     */
+    public void setEvaluate(boolean evaluate) {
+        this.evaluate = evaluate;
+    }
+
 }
@@ -45,6 +45,10 @@ public final class BOOL extends Constant {
         return true;
     }
 
+    public Boolean getValue() {
+        return value;
+    }
+
     @Override
     public int hashCode() {
         int hash = 7;
@@ -47,6 +47,10 @@ public final class DATE extends Constant {
         return true;
     }
 
+    public Date getValue() {
+        return value;
+    }
+
     @Override
     public int hashCode() {
         int hash = 3;
@@ -47,7 +47,14 @@ public abstract class EXCEL_FUNCTION extends FunctionCall {
     @NotNull
     @Override
     public String toString() {
-        return getName() + "(" + argumentsToFormula() + ")";
+        return Renderer.toString(this);
+    }
+
+    @Override
+    public void render(Renderer renderer) {
+        renderer.append(getName()).append('(');
+        argumentsToFormula(renderer);
+        renderer.append(')');
     }
 
 
@@ -55,20 +62,23 @@ public abstract class EXCEL_FUNCTION extends FunctionCall {
         return getClass().getSimpleName();
     }
 
-    private String argumentsToFormula() {
-        if(args == null || args.length == 0) return "Missing";
-        var buff = new StringBuilder();
-        for(Formula arg : args) buff.append(argumentToFormula(arg)).append(",");
-        if(buff.charAt(buff.length() - 1) == ',') buff.deleteCharAt(buff.length() - 1);
-        return buff.toString();
+    private void argumentsToFormula(Renderer renderer) {
+        if(args == null || args.length == 0) {
+            renderer.append("Missing");
+            return;
+        }
+        for(int i = 0; i < args.length; i++) {
+            if(i > 0) renderer.append(',');
+            argumentToFormula(renderer, args[i]);
+        }
     }
 
-    private String argumentToFormula(@Nullable Formula operand) {
-        if(operand == null) return "Missing";
-        if(operand instanceof RangeReference || operand instanceof NamedRange || operand instanceof PrefixReferenceItem)
-            return operand.id();
-        else if(operand instanceof CELL) return operand.id();
-        else return operand.toString();
+    private void argumentToFormula(Renderer renderer, @Nullable Formula operand) {
+        if(operand == null) renderer.append("Missing");
+        else if(operand instanceof RangeReference || operand instanceof NamedRange || operand instanceof PrefixReferenceItem)
+            renderer.append(operand.id());
+        else if(operand instanceof CELL) renderer.append(operand.id());
+        else renderer.append(operand);
     }
 
 }
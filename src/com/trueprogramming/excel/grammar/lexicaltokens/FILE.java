@@ -41,6 +41,14 @@ public final class FILE extends Prefix {
         this.sheet = sheet;
     }
 
+    public int getExt() {
+        return ext;
+    }
+
+    public SHEET getSheet() {
+        return sheet;
+    }
+
     public boolean isTerminal() {
         return true;
     }
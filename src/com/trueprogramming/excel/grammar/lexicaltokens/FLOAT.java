@@ -44,6 +44,10 @@ public final class FLOAT extends Constant {//Number {
         return true;
     }
 
+    public Double getValue() {
+        return value;
+    }
+
     @Override
     public int hashCode() {
         int hash = 7;
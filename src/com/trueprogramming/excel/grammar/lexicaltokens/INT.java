@@ -44,6 +44,10 @@ public final class INT extends Constant {//Number {
         return true;
     }
 
+    public Integer getValue() {
+        return value;
+    }
+
     @Override
     public int hashCode() {
         int hash = 3;
@@ -43,7 +43,7 @@ public class RANGE extends Reference {
     }
 
     public void add(Object values) {
-        vals.add(values);
+        writable().add(values);
     }
 
     public CELL getFirst() {
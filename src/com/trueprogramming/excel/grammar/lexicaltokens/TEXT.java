@@ -44,6 +44,10 @@ public final class TEXT extends Constant {
         return true;
     }
 
+    public String getValue() {
+        return value;
+    }
+
     @Override
     public int hashCode() {
         int hash = 5;
@@ -47,6 +47,19 @@ public class NamedRange extends ReferenceItem {
         setAsArea();
     }
 
+    /**
+     * The named rectangle, as for a RangeReference: names of different areas of a sheet are different elements.
+     */
+    @Override
+    public long key() {
+        return key(true, getSheetIndex(), getFirstRow(), getFirstColumn());
+    }
+
+    @Override
+    public long lastKey() {
+        return key(true, getSheetIndex(), getLastRow(), getLastColumn());
+    }
+
     public String id() {
         return this.singleSheet ?
                 value :
@@ -58,5 +71,15 @@ public class NamedRange extends ReferenceItem {
         return values();
     }
 
+    @Override
+    public void render(Renderer renderer) {
+        values(renderer);
+    }
+
+    @Override
+    protected boolean rendersValues() {
+        return true;
+    }
+
 
 }
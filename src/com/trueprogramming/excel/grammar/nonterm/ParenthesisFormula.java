@@ -42,7 +42,12 @@ public final class ParenthesisFormula extends Formula {
 
     @Override
     public String toString() {
-        return "(" + formula.toString() + ")";
+        return Renderer.toString(this);
+    }
+
+    @Override
+    public void render(Renderer renderer) {
+        renderer.append('(').append(formula).append(')');
     }
 
     public Formula getFormula() {
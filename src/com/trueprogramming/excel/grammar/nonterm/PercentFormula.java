@@ -38,9 +38,18 @@ public final class PercentFormula extends FunctionCall {
         this.formula = formula;
     }
 
+    public Formula getFormula() {
+        return formula;
+    }
+
     @Override
     public String toString() {
-        return formula.toString() + "%";
+        return Renderer.toString(this);
+    }
+
+    @Override
+    public void render(Renderer renderer) {
+        renderer.append(formula).append('%');
     }
 
 
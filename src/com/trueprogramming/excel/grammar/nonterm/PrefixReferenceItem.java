@@ -24,7 +24,9 @@ package com.trueprogramming.excel.grammar.nonterm;
 
 import com.trueprogramming.excel.grammar.annotations.NonTerminal;
 import com.trueprogramming.excel.grammar.annotations.Production;
+import com.trueprogramming.excel.grammar.lexicaltokens.FILE;
 import com.trueprogramming.excel.grammar.lexicaltokens.RANGE;
+import com.trueprogramming.excel.grammar.lexicaltokens.SHEET;
 
 /**
  * PrefixReferenceItem::= Prefix ReferenceItem
@@ -41,6 +43,11 @@ public final class PrefixReferenceItem extends Reference {
     private final RANGE range;
 
 
+    private final long key;
+
+    private final long lastKey;
+
+
     public PrefixReferenceItem(Prefix prefix, String reference, RANGE range) {
         this.prefix = prefix;
         this.reference = reference;
@@ -48,32 +55,66 @@ public final class PrefixReferenceItem extends Reference {
         if(this.range != null) {
             setAsArea();
             add(this.range.values());
+            this.key = key(book(prefix), key(true, sheetIndex(prefix), range.getFirst().getRow(), range.getFirst().getColumn()));
+            this.lastKey = key(book(prefix), key(true, sheetIndex(prefix), range.getLast().getRow(), range.getLast().getColumn()));
+        } else {
+            this.key = 0;
+            this.lastKey = 0;
         }
     }
 
+    public Prefix getPrefix() {
+        return prefix;
+    }
+
+    public String getReference() {
+        return reference;
+    }
+
+    private static int book(Prefix prefix) {
+        return prefix instanceof FILE file ? file.getExt() : 0;
+    }
+
+    private static int sheetIndex(Prefix prefix) {
+        if(prefix instanceof FILE file) return file.getSheet().getIndex();
+        return prefix instanceof SHEET sheet ? sheet.getIndex() : -1;
+    }
+
     @Override
     public String toString() {
-        return isArea() ? values() : prefix + reference;
+        return Renderer.toString(this);
     }
 
+    @Override
+    public void render(Renderer renderer) {
+        if(isArea()) values(renderer);
+        else renderer.append(prefix + reference);
+    }
+
+    @Override
+    protected boolean rendersValues() {
+        return isArea();
+    }
+
+    /**
+     * The referenced area for areas, the cell of the formula for cell references (as id())
+     */
+    @Override
+    public long key() {
+        return isArea() ? this.key : super.key();
+    }
 
     @Override
-    public boolean equals(Object o) {
-        if(this == o) return true;
-        if(o == null || getClass() != o.getClass()) return false;
-        PrefixReferenceItem that = (PrefixReferenceItem) o;
-
-        return this.prefix.equals(that.prefix) &&
-                this.reference.equals(that.reference) &&
-                this.sheetName.equals(that.sheetName);
+    public long lastKey() {
+        return isArea() ? this.lastKey : super.lastKey();
     }
 
     public String id() {
         return !isArea() ? getAddress(!this.singleSheet) : prefix + reference;
     }
 
-    private String values() {
-        return values(this.range.getFirst().getRow(),
+    private void values(Renderer renderer) {
+        values(renderer, this.range.getFirst().getRow(),
                 this.range.getFirst().getColumn(),
                 this.range.getLast().getRow(),
                 this.range.getLast().getColumn(),
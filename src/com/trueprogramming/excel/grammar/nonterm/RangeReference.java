@@ -26,8 +26,6 @@ import com.trueprogramming.excel.grammar.annotations.NonTerminal;
 import com.trueprogramming.excel.grammar.annotations.Production;
 import com.trueprogramming.excel.grammar.lexicaltokens.RANGE;
 
-import java.util.Objects;
-
 
 /**
  * RangeReference::= Reference : Reference
@@ -46,24 +44,32 @@ public final class RangeReference extends Reference {
     }
 
     @Override
-    public boolean equals(Object o) {
-        if(this == o) return true;
-        if(o == null || getClass() != o.getClass()) return false;
-        RangeReference that = (RangeReference) o;
-        return Objects.requireNonNull(that.toString()).equals(this.toString());
+    public long key() {
+        return key(true, getSheetIndex(), range.getFirst().getRow(), range.getFirst().getColumn());
+    }
+
+    @Override
+    public long lastKey() {
+        return key(true, getSheetIndex(), range.getLast().getRow(), range.getLast().getColumn());
     }
 
     @Override
     public String toString() {
-        return values();
+        return Renderer.toString(this);
     }
 
-    private String values() {
-        return values(range.getFirst().getRow(), range.getFirst().getColumn(),
+    @Override
+    public void render(Renderer renderer) {
+        values(renderer, range.getFirst().getRow(), range.getFirst().getColumn(),
                 range.getLast().getRow(), range.getLast().getColumn(), vals,
                 (range.isHorizzontal() || range.isVertical()));
     }
 
+    @Override
+    protected boolean rendersValues() {
+        return true;
+    }
+
     public String id() {
         return this.singleSheet ? range.toString() : sheetName + "!" + range.toString();
     }
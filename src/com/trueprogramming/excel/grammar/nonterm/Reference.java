@@ -46,38 +46,92 @@ import java.util.List;
 @NonTerminal
 public abstract class Reference extends Formula {
 
-    protected final List<Object> vals = new ArrayList<>();
+    protected List<Object> vals = new ArrayList<>();
+    private boolean shared;//vals is a cached vector owned by the parser, copy before writing
 
     public void add(List<Object> values) {
-        vals.addAll(values);
+        if(vals.isEmpty() && !shared) {
+            vals = values;
+            shared = true;
+        } else {
+            writable().addAll(values);
+        }
+    }
+
+    protected List<Object> writable() {
+        if(shared) {
+            vals = new ArrayList<>(vals);
+            shared = false;
+        }
+        return vals;
+    }
+
+    /**
+     * True when the text of the element is the rendering of its values.
+     */
+    protected boolean rendersValues() {
+        return false;
+    }
+
+    /**
+     * Elements of the same class rendering the same shared vector have the same text: a shared vector is the cached
+     * values of exactly one range, compared without rendering it.
+     */
+    @Override
+    public boolean sameText(Start other) {
+        if(other instanceof Reference that && getClass() == that.getClass() && rendersValues() && that.rendersValues()
+                && shared && that.shared && vals == that.vals) return true;
+        return super.sameText(other);
     }
 
     protected String values(int fRow, int fCol, int lRow, int lCol, List<Object> list, boolean isHorizzontalOrVerticalRange) {
-        if(list.isEmpty()) return "[]";
-        if(isHorizzontalOrVerticalRange) {
-            StringBuilder buff = new StringBuilder();
-            buff.append("[").append(" ");
-            for(Object element : list) buff.append(toString(element)).append(" ");
-            if(buff.length() > 1) buff.deleteCharAt(buff.length() - 1);
-            buff.append(" ").append("]");
-            return buff.toString();
+        Renderer renderer = new Renderer();
+        values(renderer, fRow, fCol, lRow, lCol, list, isHorizzontalOrVerticalRange);
+        return renderer.toString();
+    }
+
+    protected void values(Renderer renderer, int fRow, int fCol, int lRow, int lCol, List<Object> list, boolean isHorizzontalOrVerticalRange) {
+        if(list.isEmpty()) {
+            renderer.append("[]");
+        } else if(isHorizzontalOrVerticalRange) {
+            renderer.append("[ ");
+            for(int i = 0; i < list.size(); i++) {
+                if(i > 0) renderer.append(' ');
+                value(renderer, list, i);
+            }
+            renderer.append(" ]");
         } else {
-            StringBuilder buff = new StringBuilder();
-            buff.append("[");
+            renderer.append('[');
             int index = 0;
             for(int row = fRow; row <= lRow; row++) {
-                buff.append("[");
+                renderer.append('[');
                 for(int col = fCol; col <= lCol; col++) {
-                    Object element = list.get(index);
-                    buff.append(toString(element)).append(" ");
+                    if(col > fCol) renderer.append(' ');
+                    value(renderer, list, index);
                     index++;
                 }
-                if(buff.length() > 1) buff.deleteCharAt(buff.length() - 1);
-                buff.append("]");
+                renderer.append(']');
+            }
+            renderer.append(']');
+        }
+    }
+
+    /**
+     * Numbers and texts of a ValueBlock are appended without boxing them.
+     */
+    private void value(Renderer renderer, List<Object> list, int index) {
+        if(list instanceof ValueBlock block) {
+            byte type = block.type(index);
+            if(type == ValueBlock.NUMBER) {
+                renderer.append(block.number(index));
+                return;
+            }
+            if(type == ValueBlock.TEXT) {
+                renderer.append(AbstractParser.quote(block.text(index)));
+                return;
             }
-            buff.append("]");
-            return buff.toString();
         }
+        renderer.append(toString(list.get(index)));
     }
 
     private String toString(Object value) {
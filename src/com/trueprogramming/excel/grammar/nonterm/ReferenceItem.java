@@ -69,6 +69,26 @@ public class ReferenceItem extends Reference {
         return values(firstRow, firstColumn, lastRow, lastColumn, vals, (horizzontal_range() || vertical_range()));
     }
 
+    protected void values(Renderer renderer) {
+        values(renderer, firstRow, firstColumn, lastRow, lastColumn, vals, (horizzontal_range() || vertical_range()));
+    }
+
+    public int getFirstRow() {
+        return firstRow;
+    }
+
+    public int getFirstColumn() {
+        return firstColumn;
+    }
+
+    public int getLastRow() {
+        return lastRow;
+    }
+
+    public int getLastColumn() {
+        return lastColumn;
+    }
+
     public void setFirstRow(int firstRow) {
         this.firstRow = firstRow;
     }
@@ -0,0 +1,86 @@
+/*
+ * Efesto - Excel Formula Extractor System and Topological Ordering algorithm.
+ * Copyright (C) 2017 Massimo Caliman mcaliman@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * If AGPL Version 3.0 terms are incompatible with your use of
+ * Efesto, alternative license terms are available from Massimo Caliman
+ * please direct inquiries about Efesto licensing to mcaliman@gmail.com
+ */
+
+package com.trueprogramming.excel.grammar.nonterm;
+
+/**
+ * Renders elements into a text buffer.
+ * Composite elements stream the text of their operands into the same buffer with append(Start), and a writer
+ * reuses the buffer for every formula, so the memory used to write a workbook is bounded by its longest formula.
+ *
+ * @author Massimo Caliman
+ */
+public final class Renderer {
+
+    private final StringBuilder out = new StringBuilder();
+
+    /**
+     * Text of a single element, the value of toString() of the composite elements.
+     */
+    public static String toString(Start start) {
+        Renderer renderer = new Renderer();
+        start.render(renderer);
+        return renderer.toString();
+    }
+
+    /**
+     * Text of start, in a buffer reused by the next call: a writer appends it to its sink only once it is complete,
+     * an element that fails to render leaves the sink untouched.
+     */
+    public CharSequence render(Start start) {
+        out.setLength(0);
+        append(start);
+        return out;
+    }
+
+    public Renderer append(String text) {
+        out.append(text);
+        return this;
+    }
+
+    /**
+     * Appends a number as Double.toString.
+     */
+    public Renderer append(double number) {
+        out.append(number);
+        return this;
+    }
+
+    public Renderer append(char c) {
+        out.append(c);
+        return this;
+    }
+
+    /**
+     * Appends the text of an operand.
+     */
+    public Renderer append(Start start) {
+        start.render(this);
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return out.toString();
+    }
+
+}
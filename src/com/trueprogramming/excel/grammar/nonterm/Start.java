@@ -41,11 +41,14 @@ import static com.trueprogramming.excel.parser.AbstractParser.cellAddress;
 @Production(symbol = "Start", expression = "ArrayFormula")
 public abstract class Start {
 
+    private static final long AREA = 1L << 63;
+
     protected String sheetName;
     protected boolean singleSheet;
     private int sheetIndex;
     private int row;
     private int column;
+    private int level;//topological level
 
 
     public void setSingleSheet(boolean singleSheet) {
@@ -57,7 +60,7 @@ public abstract class Start {
     }
 
 
-    protected int getRow() {
+    public int getRow() {
         return row;
     }
 
@@ -65,7 +68,7 @@ public abstract class Start {
         this.row = row;
     }
 
-    protected int getColumn() {
+    public int getColumn() {
         return column;
     }
 
@@ -73,10 +76,26 @@ public abstract class Start {
         this.column = column;
     }
 
+    public int getLevel() {
+        return level;
+    }
+
+    public void setLevel(int level) {
+        this.level = level;
+    }
+
+    public int getSheetIndex() {
+        return sheetIndex;
+    }
+
     public void setSheetIndex(int sheetIndex) {
         this.sheetIndex = sheetIndex;
     }
 
+    public String getSheetName() {
+        return sheetName;
+    }
+
     public void setSheetName(String sheetName) {
         this.sheetName = sheetName;
     }
@@ -100,11 +119,7 @@ public abstract class Start {
 
     @Override
     public int hashCode() {
-        int hash = 5;
-        hash = 53 * hash + this.row;
-        hash = 53 * hash + this.column;
-        hash = 53 * hash + this.sheetIndex;
-        return hash;
+        return Long.hashCode(31 * key() + lastKey());
     }
 
     protected boolean isArea() {
@@ -118,10 +133,33 @@ public abstract class Start {
 
     @Override
     public boolean equals(final Object obj) {
+        if(this == obj) return true;
         if(!(obj instanceof final Start that)) return false;
-        if(this.row == -1 || that.row == -1)
-            return (this.column == that.column && this.row == that.row && this.sheetIndex == that.sheetIndex);
-        else return this.getAddress().equalsIgnoreCase(that.getAddress());
+        return this.key() == that.key() && this.lastKey() == that.lastKey();
+    }
+
+    /**
+     * Packed identity of the element, used by hashCode() and equals():
+     * area flag (bit 63, references to areas), external workbook (bits 50-62), sheet index (bits 34-49),
+     * row (bits 14-33), column (bits 0-13).
+     */
+    public long key() {
+        return key(false, this.sheetIndex, getRow(), getColumn());
+    }
+
+    /**
+     * Key of the last cell for areas, key() otherwise.
+     */
+    public long lastKey() {
+        return key();
+    }
+
+    public static long key(boolean area, int sheetIndex, int row, int column) {
+        return (area ? AREA : 0L) | ((long) (sheetIndex & 0xFFFF) << 34) | ((long) (row & 0xFFFFF) << 14) | (column & 0x3FFF);
+    }
+
+    public static long key(int book, long key) {
+        return ((long) (book & 0x1FFF) << 50) | key;
     }
 
     @Override
@@ -129,6 +167,20 @@ public abstract class Start {
         return "";
     }
 
+    /**
+     * Appends the text of the element, composite elements override it to append their operands through the renderer.
+     */
+    public void render(Renderer renderer) {
+        renderer.append(toString());
+    }
+
+    /**
+     * True when the element renders as the same text of other.
+     */
+    public boolean sameText(Start other) {
+        return this == other || toString().equals(other.toString());
+    }
+
     public boolean testToFunctional(String text) {
         return (this.id() + " = " + this).equals(text);
     }
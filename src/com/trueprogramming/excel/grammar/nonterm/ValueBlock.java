@@ -0,0 +1,208 @@
+/*
+ * Efesto - Excel Formula Extractor System and Topological Ordering algorithm.
+ * Copyright (C) 2017 Massimo Caliman mcaliman@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * If AGPL Version 3.0 terms are incompatible with your use of
+ * Efesto, alternative license terms are available from Massimo Caliman
+ * please direct inquiries about Efesto licensing to mcaliman@gmail.com
+ */
+
+package com.trueprogramming.excel.grammar.nonterm;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.function.Consumer;
+
+/**
+ * Values of a range in columns: a double per cell for numbers, dates (epoch milliseconds) and the dictionary code of
+ * texts, a type tag per cell only when the range holds something else than numbers, and bitsets for booleans and
+ * blanks (null values). An all numeric range costs a double per cell instead of a boxed Double and its pointer.
+ * <p>
+ * The values are read on first access through load, once; get boxes them again for the List readers, typed readers
+ * use type, number and text. RANGE, RangeReference, NamedRange and PrefixReferenceItem share the block of their area.
+ *
+ * @author Massimo Caliman
+ */
+public class ValueBlock extends AbstractList<Object> implements RandomAccess {
+
+    public static final byte NUMBER = 0;
+    public static final byte TEXT = 1;
+    public static final byte BOOLEAN = 2;
+    public static final byte DATE = 3;
+    public static final byte BLANK = 4;
+    public static final byte OTHER = 5;//any other object, kept in the dictionary as the texts
+
+    private volatile Columns columns;
+
+    /**
+     * A block read by load on first access.
+     */
+    protected ValueBlock() {
+    }
+
+    private ValueBlock(Columns columns) {
+        this.columns = columns;
+    }
+
+    public static ValueBlock of(Iterable<?> values) {
+        Builder builder = new Builder();
+        values.forEach(builder);
+        return new ValueBlock(builder.build());
+    }
+
+    /**
+     * Passes the values of the block in order to consumer, for the lazy blocks.
+     */
+    protected void load(Consumer<Object> consumer) {
+    }
+
+    private Columns columns() {
+        Columns columns = this.columns;
+        if(columns == null) {
+            Builder builder = new Builder();
+            load(builder);
+            columns = builder.build();
+            this.columns = columns;
+        }
+        return columns;
+    }
+
+    @Override
+    public int size() {
+        return columns().size;
+    }
+
+    public byte type(int index) {
+        Columns columns = columns();
+        Objects.checkIndex(index, columns.size);
+        if(Columns.test(columns.blanks, index)) return BLANK;
+        return columns.types == null ? NUMBER : columns.types[index];
+    }
+
+    /**
+     * The number of a NUMBER, the epoch milliseconds of a DATE.
+     */
+    public double number(int index) {
+        return columns().numbers[index];
+    }
+
+    /**
+     * The text of a TEXT.
+     */
+    public String text(int index) {
+        Columns columns = columns();
+        return (String) columns.dictionary[(int) columns.numbers[index]];
+    }
+
+    @Override
+    public Object get(int index) {
+        Columns columns = columns();
+        return switch(type(index)) {
+            case NUMBER -> columns.numbers[index];
+            case BOOLEAN -> Columns.test(columns.booleans, index);
+            case DATE -> new Date((long) columns.numbers[index]);
+            case BLANK -> null;
+            default -> columns.dictionary[(int) columns.numbers[index]];
+        };
+    }
+
+    private static final class Columns {
+        private final int size;
+        private final byte[] types;//null if every value is a number or blank
+        private final double[] numbers;
+        private final long[] booleans;//bit set for TRUE, null if no value is TRUE
+        private final long[] blanks;//null if there are no blanks
+        private final Object[] dictionary;//distinct texts and other objects
+
+        Columns(int size, byte[] types, double[] numbers, long[] booleans, long[] blanks, Object[] dictionary) {
+            this.size = size;
+            this.types = types;
+            this.numbers = numbers;
+            this.booleans = booleans;
+            this.blanks = blanks;
+            this.dictionary = dictionary;
+        }
+
+        static boolean test(long[] bits, int index) {
+            return bits != null && (bits[index >>> 6] & 1L << index) != 0;
+        }
+    }
+
+    private static final class Builder implements Consumer<Object> {
+        private int size;
+        private byte[] types;
+        private double[] numbers = new double[16];
+        private long[] booleans;
+        private long[] blanks;
+        private final Map<Object, Integer> codes = new HashMap<>();
+        private Object[] dictionary = new Object[0];
+
+        @Override
+        public void accept(Object value) {
+            if(size == numbers.length) {
+                numbers = Arrays.copyOf(numbers, size * 2);
+                if(types != null) types = Arrays.copyOf(types, numbers.length);
+            }
+            if(value instanceof Double number) numbers[size] = number;
+            else if(value == null) blanks = set(blanks, size);
+            else if(value instanceof Boolean bool) {
+                type(BOOLEAN);
+                if(bool) booleans = set(booleans, size);
+            } else if(value instanceof Date date) {
+                type(DATE);
+                numbers[size] = date.getTime();
+            } else {
+                type(value instanceof String ? TEXT : OTHER);
+                numbers[size] = codes.computeIfAbsent(value, this::code);
+            }
+            size++;
+        }
+
+        private int code(Object value) {
+            int code = codes.size();
+            if(code == dictionary.length) dictionary = Arrays.copyOf(dictionary, Math.max(8, code * 2));
+            dictionary[code] = value;
+            return code;
+        }
+
+        private void type(byte type) {
+            if(types == null) types = new byte[numbers.length];
+            types[size] = type;
+        }
+
+        private long[] set(long[] bits, int index) {
+            int word = index >>> 6;
+            if(bits == null || word >= bits.length) bits = Arrays.copyOf(bits == null ? new long[0] : bits, Math.max(word + 1, numbers.length + 63 >>> 6));
+            bits[word] |= 1L << index;
+            return bits;
+        }
+
+        Columns build() {
+            int words = size + 63 >>> 6;
+            return new Columns(size,
+                    types == null ? null : Arrays.copyOf(types, size),
+                    Arrays.copyOf(numbers, size),
+                    booleans == null ? null : Arrays.copyOf(booleans, words),
+                    blanks == null ? null : Arrays.copyOf(blanks, words),
+                    Arrays.copyOf(dictionary, codes.size()));
+        }
+    }
+}
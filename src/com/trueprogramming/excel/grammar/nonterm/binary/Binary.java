@@ -28,6 +28,7 @@ import com.trueprogramming.excel.grammar.lexicaltokens.CELL;
 import com.trueprogramming.excel.grammar.nonterm.Formula;
 import com.trueprogramming.excel.grammar.nonterm.FunctionCall;
 import com.trueprogramming.excel.grammar.nonterm.ParenthesisFormula;
+import com.trueprogramming.excel.grammar.nonterm.Renderer;
 import com.trueprogramming.excel.grammar.nonterm.unary.Unary;
 import org.jetbrains.annotations.NotNull;
 
@@ -65,20 +66,28 @@ public abstract class Binary extends FunctionCall {
     @NotNull
     @Override
     public String toString() {
-        return operandToFormula(lFormula) + op + operandToFormula(rFormula);
+        return Renderer.toString(this);
     }
 
-    private String operandToFormula(Formula operand) {
-        if(operand instanceof CELL || operand instanceof Unary) return operand.id();
+    @Override
+    public void render(Renderer renderer) {
+        operandToFormula(renderer, lFormula);
+        renderer.append(op);
+        operandToFormula(renderer, rFormula);
+    }
+
+    private void operandToFormula(Renderer renderer, Formula operand) {
+        if(operand instanceof CELL || operand instanceof Unary) renderer.append(operand.id());
         else if(operand instanceof ParenthesisFormula)
-            return operandToFormulaParenthesisFormula((ParenthesisFormula) operand);
-        else return operand.toString();
+            operandToFormulaParenthesisFormula(renderer, (ParenthesisFormula) operand);
+        else renderer.append(operand);
     }
 
-    private String operandToFormulaParenthesisFormula(ParenthesisFormula operand) {
-        return operand.getFormula() instanceof Binary ?
-                "(" + operand.getFormula() + ")" :
-                "(" + operand.getFormula().getAddress(false) + ")";
+    private void operandToFormulaParenthesisFormula(Renderer renderer, ParenthesisFormula operand) {
+        renderer.append('(');
+        if(operand.getFormula() instanceof Binary) renderer.append(operand.getFormula());
+        else renderer.append(operand.getFormula().getAddress(false));
+        renderer.append(')');
     }
 
     public Formula getlFormula() {
@@ -27,6 +27,7 @@ import com.trueprogramming.excel.grammar.annotations.Production;
 import com.trueprogramming.excel.grammar.lexicaltokens.CELL;
 import com.trueprogramming.excel.grammar.nonterm.Formula;
 import com.trueprogramming.excel.grammar.nonterm.FunctionCall;
+import com.trueprogramming.excel.grammar.nonterm.Renderer;
 
 /**
  * UnOpPrefix = + | -
@@ -49,10 +50,20 @@ public abstract class Unary extends FunctionCall {
         this.formula = formula;
     }
 
+    public Formula getFormula() {
+        return formula;
+    }
+
     @Override
     public String toString() {
-        if(formula instanceof CELL) return unOpPrefix + ((CELL) formula).getValue();
-        else return unOpPrefix + formula.toString();
+        return Renderer.toString(this);
+    }
+
+    @Override
+    public void render(Renderer renderer) {
+        renderer.append(unOpPrefix);
+        if(formula instanceof CELL) renderer.append(String.valueOf(((CELL) formula).getValue()));
+        else renderer.append(formula);
     }
 
 }
@@ -0,0 +1,66 @@
+/*
+ * Efesto - Excel Formula Extractor System and Topological Ordering algorithm.
+ * Copyright (C) 2017 Massimo Caliman mcaliman@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * If AGPL Version 3.0 terms are incompatible with your use of
+ * Efesto, alternative license terms are available from Massimo Caliman
+ * please direct inquiries about Efesto licensing to mcaliman@gmail.com
+ */
+
+package com.trueprogramming.excel.graph;
+
+import com.trueprogramming.excel.grammar.nonterm.Start;
+import com.trueprogramming.excel.parser.StartList;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Group of elements that reference each other (strongly connected component of the StartGraph).
+ *
+ * @author Massimo Caliman
+ */
+public final class CircularReference {
+
+    @NotNull
+    private final StartList cells;
+
+    public CircularReference(@NotNull StartList cells) {
+        this.cells = cells;
+    }
+
+    /**
+     * @return the elements of the cycle, in sort order
+     */
+    @NotNull
+    public StartList getCells() {
+        return this.cells;
+    }
+
+    @NotNull
+    public List<String> getAddresses() {
+        List<String> addresses = new ArrayList<>(this.cells.size());
+        for(Start start : this.cells) addresses.add(start.getAddress());
+        return addresses;
+    }
+
+    @NotNull
+    @Override
+    public String toString() {
+        return "circular reference: " + String.join(", ", getAddresses());
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Efesto - Excel Formula Extractor System and Topological Ordering algorithm.
+ * Copyright (C) 2017 Massimo Caliman mcaliman@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * If AGPL Version 3.0 terms are incompatible with your use of
+ * Efesto, alternative license terms are available from Massimo Caliman
+ * please direct inquiries about Efesto licensing to mcaliman@gmail.com
+ */
+
+package com.trueprogramming.excel.graph;
+
+import com.trueprogramming.excel.grammar.nonterm.Start;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Frozen, int indexed copy of a StartGraph in compressed sparse row form.
+ * Nodes with equal Start (same cell key) stand for the same cell even when they are different
+ * entries of the graph, so the adjacency is kept per cell:
+ * the successors of cell c are the nodes targets[offsets[c]..offsets[c+1]).
+ * Cell order and successor order follow the order of the source graph.
+ * <p>
+ * Cycles are found with Tarjan strongly connected components and each one is sorted as a single unit.
+ *
+ * @author Massimo Caliman
+ */
+final class CompactGraph {
+
+    private final Node[] nodes;
+    private final int[] cell;//node -> cell
+    private final int[] first;//cell -> first node of the cell
+    private final int[] offsets;
+    private final int[] targets;
+    private final int cells;
+    private int[] component;//cell -> strongly connected component
+    private int[] componentSize;
+    private int[] level;//per component
+    private boolean[] loop;//per component, has an edge to itself
+
+    CompactGraph(@NotNull Collection<Node> values) {
+        int n = values.size();
+        this.nodes = values.toArray(new Node[n]);
+        this.cell = new int[n];
+        Map<Start, Integer> ids = new HashMap<>(n * 2);
+        for(int i = 0; i < n; i++) {
+            this.nodes[i].index = i;
+            Integer c = ids.putIfAbsent(this.nodes[i].value(), ids.size());
+            this.cell[i] = c == null ? ids.size() - 1 : c;
+        }
+        this.cells = ids.size();
+        this.first = new int[this.cells];
+        Arrays.fill(this.first, -1);
+        this.offsets = new int[this.cells + 1];
+        for(int i = 0; i < n; i++) {
+            if(this.first[this.cell[i]] < 0) this.first[this.cell[i]] = i;
+            this.offsets[this.cell[i] + 1] += this.nodes[i].edges().size();
+        }
+        for(int c = 0; c < this.cells; c++) this.offsets[c + 1] += this.offsets[c];
+        this.targets = new int[this.offsets[this.cells]];
+        int[] fill = Arrays.copyOf(this.offsets, this.cells);
+        for(int i = 0; i < n; i++)
+            for(Edge edge : this.nodes[i].edges())
+                this.targets[fill[this.cell[i]]++] = edge.dest().index;
+    }
+
+    int size() {
+        return this.nodes.length;
+    }
+
+    int edges() {
+        return this.targets.length;
+    }
+
+    Node node(int i) {
+        return this.nodes[i];
+    }
+
+    /**
+     * Tarjan strongly connected components of the cells, iterative, O(V+E).
+     */
+    private void components() {
+        int m = this.cells;
+        this.component = new int[m];
+        Arrays.fill(this.component, -1);
+        int[] index = new int[m];
+        Arrays.fill(index, -1);
+        int[] low = new int[m];
+        int[] next = new int[m];//next successor to visit
+        boolean[] onStack = new boolean[m];
+        int[] stack = new int[m];
+        int[] calls = new int[m];
+        int sp = 0, counter = 0, components = 0;
+        int[] sizes = new int[m];
+        for(int root = 0; root < m; root++) {
+            if(index[root] >= 0) continue;
+            int depth = 0;
+            calls[depth++] = root;
+            index[root] = low[root] = counter++;
+            next[root] = this.offsets[root];
+            stack[sp++] = root;
+            onStack[root] = true;
+            while(depth > 0) {
+                int v = calls[depth - 1];
+                if(next[v] < this.offsets[v + 1]) {
+                    int w = this.cell[this.targets[next[v]++]];
+                    if(index[w] < 0) {
+                        index[w] = low[w] = counter++;
+                        next[w] = this.offsets[w];
+                        stack[sp++] = w;
+                        onStack[w] = true;
+                        calls[depth++] = w;
+                    } else if(onStack[w] && index[w] < low[v]) low[v] = index[w];
+                    continue;
+                }
+                depth--;
+                if(depth > 0) {
+                    int parent = calls[depth - 1];
+                    if(low[v] < low[parent]) low[parent] = low[v];
+                }
+                if(low[v] == index[v]) {
+                    int w;
+                    do {
+                        w = stack[--sp];
+                        onStack[w] = false;
+                        this.component[w] = components;
+                        sizes[components]++;
+                    } while(w != v);
+                    components++;
+                }
+            }
+        }
+        this.componentSize = Arrays.copyOf(sizes, components);
+    }
+
+    /**
+     * Kahn top sort in O(V+E) of the strongly connected components, one node for each cell.
+     * The cells of a cycle are emitted together, the first reached followed by the others in graph order.
+     * Computes also the level of each component: 0 for components without predecessors,
+     * 1 + the highest level of its predecessors otherwise.
+     *
+     * @return node indices in topological order
+     */
+    int[] topologicalOrder() {
+        components();
+        int n = this.nodes.length;
+        int count = this.componentSize.length;
+        int[] members = new int[this.cells];//component -> cells, in graph order
+        int[] memberOffsets = new int[count + 1];
+        for(int c = 0; c < this.cells; c++) memberOffsets[this.component[c] + 1]++;
+        for(int k = 0; k < count; k++) memberOffsets[k + 1] += memberOffsets[k];
+        int[] fill = Arrays.copyOf(memberOffsets, count);
+        for(int c = 0; c < this.cells; c++) members[fill[this.component[c]]++] = c;
+
+        int[] degree = new int[count];
+        this.loop = new boolean[count];
+        for(int c = 0; c < this.cells; c++)
+            for(int k = this.offsets[c]; k < this.offsets[c + 1]; k++) {
+                int d = this.component[this.cell[this.targets[k]]];
+                if(d != this.component[c]) degree[d]++;
+                else this.loop[d] = true;
+            }
+        this.level = new int[count];
+        Arrays.fill(this.level, -1);
+        int[] depth = new int[count];
+        int[] queue = new int[n + count];
+        int[] order = new int[this.cells];
+        int head = 0, tail = 0, size = 0;
+        for(int i = 0; i < n; i++)
+            if(degree[this.component[this.cell[i]]] == 0) queue[tail++] = i;
+        while(head < tail) {
+            int v = queue[head++];
+            int k = this.component[this.cell[v]];
+            if(this.level[k] >= 0) continue;
+            this.level[k] = depth[k];
+            order[size++] = v;
+            for(int p = memberOffsets[k]; p < memberOffsets[k + 1]; p++)
+                if(members[p] != this.cell[v]) order[size++] = this.first[members[p]];
+            for(int p = memberOffsets[k]; p < memberOffsets[k + 1]; p++) {
+                int c = members[p];
+                for(int e = this.offsets[c]; e < this.offsets[c + 1]; e++) {
+                    int t = this.targets[e];
+                    int d = this.component[this.cell[t]];
+                    if(d == k) continue;
+                    if(depth[d] <= depth[k]) depth[d] = depth[k] + 1;
+                    if(--degree[d] == 0) queue[tail++] = t;
+                }
+            }
+        }
+        return order;
+    }
+
+    /**
+     * @return level of node i computed by the last topologicalOrder()
+     */
+    int level(int i) {
+        return this.level[component(i)];
+    }
+
+    /**
+     * @return strongly connected component of node i
+     */
+    int component(int i) {
+        return this.component[this.cell[i]];
+    }
+
+    /**
+     * @return true if node i is part of a cycle (a component of two or more cells or with a self reference)
+     */
+    boolean cyclic(int i) {
+        int k = component(i);
+        return this.componentSize[k] > 1 || this.loop[k];
+    }
+}
@@ -27,7 +27,9 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Simple node implementation.
@@ -38,14 +40,19 @@ public class Node {
 
     @NotNull
     private final List<Edge> neighbors;
+    @NotNull
+    private final Set<Node> targets;
     private Start data;
+    int index;//position in the CompactGraph
 
     public Node(Start data) {
         this.data = data;
         this.neighbors = new ArrayList<>();
+        this.targets = new HashSet<>();
     }
 
     private Edge getEdgeTo(Node dest) {
+        if(!targets.contains(dest)) return null;
         for(Edge current : neighbors) if(current.dest().equals(dest)) return current;
         return null;
     }
@@ -57,10 +64,7 @@ public class Node {
 
     @Override
     public int hashCode() {
-        final int prime = 31;
-        int result = 1;
-        result = prime * result + (data == null ? 0 : data.hashCode());
-        return result;
+        return data == null ? 0 : data.hashCode();
     }
 
     @Override
@@ -74,13 +78,13 @@ public class Node {
     }
 
     public void addEdge(Edge edge) {
-        if(!neighbors.contains(edge))
+        if(targets.add(edge.dest()))
             neighbors.add(edge);
     }
 
     public void removeEdgeTo(Node neighbor) {
         Edge edge = getEdgeTo(neighbor);
-        neighbors.remove(edge);
+        if(neighbors.remove(edge)) targets.remove(neighbor);
     }
 
     public Start value() {
@@ -23,6 +23,7 @@
 package com.trueprogramming.excel.graph;
 
 import com.trueprogramming.excel.parser.StartList;
+import com.trueprogramming.excel.grammar.lexicaltokens.CELL;
 import com.trueprogramming.excel.grammar.lexicaltokens.EXCEL_FUNCTION;
 import com.trueprogramming.excel.grammar.nonterm.Formula;
 import com.trueprogramming.excel.grammar.nonterm.Start;
@@ -30,11 +31,17 @@ import com.trueprogramming.excel.grammar.nonterm.binary.Binary;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 public class StartGraph {
 
     @NotNull
     private final HashMap<Start, Node> graph;
+    @NotNull
+    private List<CircularReference> circularReferences = new ArrayList<>();
+    @NotNull
+    private List<StartList> levels = new ArrayList<>();
 
     public StartGraph() {
         graph = new HashMap<>();
@@ -46,7 +53,7 @@ public class StartGraph {
         if(u == null) {
             u = new Node(start);
             graph.put(start, u);
-        } else if(notEquals(u, start)) {
+        } else if(!(start instanceof CELL) && notEquals(u, start)) {//a reference to a cell does not replace the cell
             u.setValue(start);
             graph.put(start, u);
         }
@@ -81,66 +88,67 @@ public class StartGraph {
     }
 
     /**
-     * Use kahn Top Sort
+     * Use kahn Top Sort over the CompactGraph, O(V+E).
+     * Cycles (Tarjan strongly connected components) are sorted as a single unit, so every node is in the result;
+     * they are reported by getCircularReferences().
+     * Each node is tagged with its level (Start.getLevel()), the sorted nodes partitioned by level are returned by getLevels()
      *
      * @return sorted StartList
      */
     @NotNull
     public StartList topologicalSort() {
         var result = new StartList();
-        Queue<Node> queue = new ArrayDeque<>();
-        Collection<Node> nodes = graph.values();
-        List<Edge> edges = edges();
-        for(Node v : nodes)
-            if(notHasIncomingEdges(v, edges))
-                queue.add(v);
-        while(!queue.isEmpty()) {
-            Node v = queue.poll();
-            result.add(v.value());
-            List<Edge> outgoingEdges = outgoingEdges(v);
-            for(Edge e : outgoingEdges) {
-                Node s = e.src();
-                Node t = e.dest();
-                removeEdge(s.value(), t.value());
-                Node end = e.dest();
-                List<Edge> edges1 = this.edges();
-                if(notHasIncomingEdges(end, edges1))
-                    queue.add(end);
-            }
-        }
-        if(!edges().isEmpty()) {
-            System.err.println("error when sort!. this.edges().size()=" + this.edges().size());
-            return result;
+        List<Node> nodes = new ArrayList<>(graph.values());
+        nodes.sort(Comparator.comparingLong((Node node) -> node.value().key()));
+        var compact = new CompactGraph(nodes);
+        int[] order = compact.topologicalOrder();
+        this.levels = new ArrayList<>();
+        Map<Integer, StartList> cycles = new LinkedHashMap<>();
+        for(int i : order) {
+            Start start = compact.node(i).value();
+            result.add(start);
+            int level = compact.level(i);
+            while(this.levels.size() <= level) this.levels.add(new StartList());
+            this.levels.get(level).add(start);
+            if(compact.cyclic(i))
+                cycles.computeIfAbsent(compact.component(i), k -> new StartList()).add(start);
         }
+        for(int i = 0; i < compact.size(); i++) compact.node(i).value().setLevel(compact.level(i));
+        this.circularReferences = new ArrayList<>(cycles.size());
+        for(StartList cells : cycles.values()) this.circularReferences.add(new CircularReference(cells));
         return result;
     }
 
-    private void removeEdge(Start x, Start y) {
-        Node u = graph.get(x);
-        Node v = graph.get(y);
-        u.removeEdgeTo(v);
+    /**
+     * @return the cycles found by the last topologicalSort()
+     */
+    @NotNull
+    public List<CircularReference> getCircularReferences() {
+        return this.circularReferences;
     }
 
+    /**
+     * Wavefront order of the last topologicalSort(): every element of a level depends only on elements of earlier levels,
+     * the elements of a level can be processed in parallel.
+     */
     @NotNull
-    private List<Edge> edges() {
-        List<Edge> results = new ArrayList<>();
-        Collection<Node> nodes = graph.values();
-        for(var node : nodes) results.addAll(node.edges());
-        return results;
+    public List<StartList> getLevels() {
+        return this.levels;
     }
 
-    private boolean notHasIncomingEdges(Node v, List<Edge> allEdges) {
-        for(var edge : allEdges)
-            if(edge.dest().equals(v)) return false;
-        return true;
+    /**
+     * Apply action to the elements level by level, the elements of a level run in parallel on the common ForkJoinPool.
+     */
+    public static void forEachByLevel(@NotNull List<StartList> levels, @NotNull Consumer<? super Start> action) {
+        for(StartList level : levels) level.parallelStream().forEach(action);
     }
 
-    @NotNull
-    private List<Edge> outgoingEdges(Node v) {
-        List<Edge> outgoingEdges = new ArrayList<>();
-        List<Edge> edges = edges();
-        edges.stream().filter((edge) -> (edge.src().equals(v))).forEachOrdered(outgoingEdges::add);
-        return outgoingEdges;
+    /**
+     * Visit the edges, from the element referenced to the element referencing it.
+     */
+    public void forEachEdge(@NotNull BiConsumer<? super Start, ? super Start> action) {
+        for(Node node : graph.values())
+            for(Edge edge : node.edges()) action.accept(node.value(), edge.dest().value());
     }
 
     private boolean notEquals(Node u, @NotNull Start start) {
@@ -149,7 +157,7 @@ public class StartGraph {
     }
 
     private boolean notEquals(Start start1, Start start) {
-        return !Objects.requireNonNull(start1.toString()).equals(start.toString());
+        return !start1.sameText(start);
     }
 
 }
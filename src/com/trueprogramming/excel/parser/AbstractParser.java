@@ -24,81 +24,28 @@ package com.trueprogramming.excel.parser;
 
 import com.trueprogramming.excel.grammar.lexicaltokens.CELL;
 import com.trueprogramming.excel.grammar.lexicaltokens.RANGE;
-import org.apache.poi.hssf.usermodel.HSSFDateUtil;
+import com.trueprogramming.excel.grammar.nonterm.Start;
+import com.trueprogramming.excel.grammar.nonterm.ValueBlock;
 import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
-import org.apache.poi.ss.SpreadsheetVersion;
-import org.apache.poi.ss.formula.EvaluationCell;
-import org.apache.poi.ss.formula.EvaluationName;
 import org.apache.poi.ss.formula.FormulaParseException;
 import org.apache.poi.ss.formula.ptg.*;
-import org.apache.poi.ss.usermodel.*;
-import org.apache.poi.ss.util.AreaReference;
-import org.apache.poi.ss.util.CellReference;
-import org.apache.poi.xssf.usermodel.XSSFEvaluationWorkbook;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
-import java.util.Objects;
-import java.util.function.Consumer;
-import java.util.function.Predicate;
-import java.util.stream.Stream;
-import java.util.stream.StreamSupport;
-
-import static java.lang.System.err;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 import static org.apache.poi.ss.formula.ptg.ErrPtg.*;
-import static org.apache.poi.ss.usermodel.Cell.*;
 
 public abstract class AbstractParser {
 
-    final Predicate<Ptg> arrayPtg = (Ptg t) -> t instanceof ArrayPtg;
-    final Predicate<Ptg> addPtg = (Ptg t) -> t instanceof AddPtg;
-    final Predicate<Ptg> area3DPxg = (Ptg t) -> t instanceof Area3DPxg;
-    final Predicate<Ptg> areaErrPtg = (Ptg t) -> t instanceof AreaErrPtg;
-    final Predicate<Ptg> areaPtg = (Ptg t) -> t instanceof AreaPtg;
-    final Predicate<Ptg> attrPtg = (Ptg t) -> t instanceof AttrPtg;
-    final Predicate<Ptg> boolPtg = (Ptg t) -> t instanceof BoolPtg;
-    final Predicate<Ptg> concatPtg = (Ptg t) -> t instanceof ConcatPtg;
-    final Predicate<Ptg> deleted3DPxg = (Ptg t) -> t instanceof Deleted3DPxg;
-    final Predicate<Ptg> deletedArea3DPtg = (Ptg t) -> t instanceof DeletedArea3DPtg;
-    final Predicate<Ptg> deletedRef3DPtg = (Ptg t) -> t instanceof DeletedRef3DPtg;
-    final Predicate<Ptg> dividePtg = (Ptg t) -> t instanceof DividePtg;
-    final Predicate<Ptg> equalPtg = (Ptg t) -> t instanceof EqualPtg;
-    final Predicate<Ptg> errPtg = (Ptg t) -> t instanceof ErrPtg;
-    final Predicate<Ptg> funcPtg = (Ptg t) -> t instanceof FuncPtg;
-    final Predicate<Ptg> funcVarPtg = (Ptg t) -> t instanceof FuncVarPtg;
-    final Predicate<Ptg> greaterEqualPtg = (Ptg t) -> t instanceof GreaterEqualPtg;
-    final Predicate<Ptg> greaterThanPtg = (Ptg t) -> t instanceof GreaterThanPtg;
-    final Predicate<Ptg> intersectionPtg = (Ptg t) -> t instanceof IntersectionPtg;
-    final Predicate<Ptg> intPtg = (Ptg t) -> t instanceof IntPtg;
-    final Predicate<Ptg> lessEqualPtg = (Ptg t) -> t instanceof LessEqualPtg;
-    final Predicate<Ptg> lessThanPtg = (Ptg t) -> t instanceof LessThanPtg;
-    final Predicate<Ptg> memErrPtg = (Ptg t) -> t instanceof MemErrPtg;
-    final Predicate<Ptg> missingArgPtg = (Ptg t) -> t instanceof MissingArgPtg;
-    final Predicate<Ptg> multiplyPtg = (Ptg t) -> t instanceof MultiplyPtg;
-    final Predicate<Ptg> namePtg = (Ptg t) -> t instanceof NamePtg;
-    final Predicate<Ptg> notEqualPtg = (Ptg t) -> t instanceof NotEqualPtg;
-    final Predicate<Ptg> numberPtg = (Ptg t) -> t instanceof NumberPtg;
-    final Predicate<Ptg> parenthesisPtg = (Ptg t) -> t instanceof ParenthesisPtg;
-    final Predicate<Ptg> percentPtg = (Ptg t) -> t instanceof PercentPtg;
-    final Predicate<Ptg> powerPtg = (Ptg t) -> t instanceof PowerPtg;
-    final Predicate<Ptg> ref3DPxg = (Ptg t) -> t instanceof Ref3DPxg;
-    final Predicate<Ptg> refErrorPtg = (Ptg t) -> t instanceof RefErrorPtg;
-    final Predicate<Ptg> refPtg = (Ptg t) -> t instanceof RefPtg;
-    final Predicate<Ptg> stringPtg = (Ptg t) -> t instanceof StringPtg;
-    final Predicate<Ptg> subtractPtg = (Ptg t) -> t instanceof SubtractPtg;
-    final Predicate<Ptg> unaryMinusPtg = (Ptg t) -> t instanceof UnaryMinusPtg;
-    final Predicate<Ptg> unaryPlusPtg = (Ptg t) -> t instanceof UnaryPlusPtg;
-    final Predicate<Ptg> unionPtg = (Ptg t) -> t instanceof UnionPtg;
-    final Predicate<Ptg> unknownPtg = (Ptg t) -> t instanceof UnknownPtg;
-    private final SpreadsheetVersion SPREADSHEET_VERSION = SpreadsheetVersion.EXCEL2007;
     private final String filename;
 
-    Workbook workbook;
-    Sheet sheet;
+    WorkbookSource workbook;
+    int sheetIndex;//Current Sheet
     Ptg[] formulaPtgs;
     String formulaAddress;
     String formulaPlainText;
@@ -106,13 +53,72 @@ public abstract class AbstractParser {
     boolean singleSheet;//is single sheet or not?
     int column;//Current Formula Column
     int row;//Current Formula Row
-    private XSSFEvaluationWorkbook evaluation;
+    Diagnostics diagnostics;
+    Profile profile;
+    final long[] phaseNanos = new long[Profile.Phase.values().length];//current sheet, added to profile when it is done
+    final long[] phaseCounts = new long[Profile.Phase.values().length];
+    private final Map<String, long[]> functions = new HashMap<>();//current sheet: name -> nanos, count
+    final BitSet dependencies = new BitSet();//sheets whose cells have been read
+    boolean names;//a defined name has been resolved
+
+    private static final Object NULL = new Object();//null cell value in the values cache
+    private Map<Long, Object> values;//cell key -> value, shared by the sheet contexts
+    private Map<Long, Map<Long, ValueBlock>> ranges;//first cell key -> last cell key -> values
 
 
     AbstractParser(String filename) throws IOException, InvalidFormatException {
+        this(filename, false);
+    }
+
+    /**
+     * @param streaming read the .xlsx with the SAX event reader instead of loading the whole workbook
+     */
+    AbstractParser(String filename, boolean streaming) throws IOException, InvalidFormatException {
+        long start = System.nanoTime();
         this.filename = filename;
         File file = new File(this.filename);
-        this.workbook = WorkbookFactory.create(file);
+        this.workbook = streaming ? new StreamingWorkbookSource(file) : new DomWorkbookSource(file);
+        this.values = new ConcurrentHashMap<>();
+        this.ranges = new ConcurrentHashMap<>();
+        this.diagnostics = Diagnostics.console();
+        this.profile = new Profile();
+        this.profile.add(Profile.Phase.LOAD, null, System.nanoTime() - start, this.workbook.getNumberOfSheets());
+    }
+
+    /**
+     * Context for parsing one sheet of the workbook of parent, the workbook (see WorkbookSource.forSheet) and the caches
+     * are shared.
+     */
+    AbstractParser(AbstractParser parent, int sheetIndex) {
+        this.filename = parent.filename;
+        this.workbook = parent.workbook.forSheet(sheetIndex);
+        this.values = parent.values;
+        this.ranges = parent.ranges;
+        this.diagnostics = parent.diagnostics;
+        this.profile = parent.profile;
+        this.sheetIndex = sheetIndex;
+    }
+
+    /**
+     * Binds a context of a previous parse, reused for an unchanged sheet, to the workbook and the caches of parent,
+     * so that it does not keep the previous workbook reachable.
+     */
+    void rebind(AbstractParser parent) {
+        this.workbook = parent.workbook.forSheet(this.sheetIndex);
+        this.values = parent.values;
+        this.ranges = parent.ranges;
+        this.diagnostics = parent.diagnostics;
+        this.profile = parent.profile;
+    }
+
+    /**
+     * Moves the blocks of values created by previous, not read yet, to the workbook of this parser: the elements of
+     * the reused sheets keep them, and the sheets they read have the same cells in both workbooks.
+     */
+    void rebindRanges(AbstractParser previous) {
+        for(Map<Long, ValueBlock> blocks : previous.ranges.values())
+            for(ValueBlock block : blocks.values())
+                if(block instanceof RangeValues values) values.rebind(this.workbook, this.profile);
     }
 
     public static String cellAddress(final int row, final int column, final String sheetName) {
@@ -158,38 +164,61 @@ public abstract class AbstractParser {
     }
 
     public void parse() {
-        this.evaluation = XSSFEvaluationWorkbook.create((XSSFWorkbook) this.workbook);
         int noOfSheets = this.workbook.getNumberOfSheets();
         this.singleSheet = noOfSheets == 1;
-        Stream<Sheet> stream = StreamSupport.stream(this.workbook.spliterator(), false);
-        stream.forEach(
-                (sheet) -> {
-                    this.sheet = sheet;
-                    parseRows();
-                }
-        );
+        for(int index = 0; index < noOfSheets; index++) {
+            this.sheetIndex = index;
+            parseSheet();
+        }
+    }
+
+    void parseSheet() {
+        Arrays.fill(this.phaseNanos, 0);
+        Arrays.fill(this.phaseCounts, 0);
+        this.functions.clear();
+        long start = System.nanoTime();
+        this.workbook.forEachCell(this.sheetIndex, cell -> {
+            this.phaseCounts[Profile.Phase.SCAN.ordinal()]++;
+            parse(cell);
+        });
+        this.phaseNanos[Profile.Phase.SCAN.ordinal()] = System.nanoTime() - start
+                - this.phaseNanos[Profile.Phase.TOKENIZE.ordinal()] - this.phaseNanos[Profile.Phase.BUILD.ordinal()];
+        String sheet = getSheetName();
+        for(Profile.Phase phase : Profile.Phase.values())
+            if(this.phaseCounts[phase.ordinal()] > 0) this.profile.add(phase, sheet, this.phaseNanos[phase.ordinal()], this.phaseCounts[phase.ordinal()]);
+        this.functions.forEach((name, counter) -> this.profile.addFunction(sheet, name, counter[0], counter[1]));
     }
 
-    private void parseRows() {
-        Stream<Row> stream = StreamSupport.stream(this.sheet.spliterator(), false);
-        stream.forEachOrdered(this::parse);
+    /**
+     * Adds the time since start to the phase of the current sheet.
+     *
+     * @return the elapsed nanoseconds
+     */
+    long elapsed(Profile.Phase phase, long start) {
+        long nanos = System.nanoTime() - start;
+        this.phaseNanos[phase.ordinal()] += nanos;
+        this.phaseCounts[phase.ordinal()]++;
+        return nanos;
     }
 
-    private void parse(Row row) {
-        Stream<Cell> stream = StreamSupport.stream(row.spliterator(), false);
-        stream.parallel().filter(this::nonEmpty).forEachOrdered(this::parse);
+    void elapsed(String function, long start) {
+        long[] counter = this.functions.computeIfAbsent(function, k -> new long[2]);
+        counter[0] += System.nanoTime() - start;
+        counter[1]++;
     }
 
-    protected abstract void parse(Cell cell);
+    protected abstract void parse(WorkbookSource.SheetCell cell);
 
-    void parseFormula(Cell cell) {
+    void parseFormula(WorkbookSource.SheetCell cell) {
         this.noOfFormulas++;
-        this.column = cell.getColumnIndex();
-        this.row = cell.getRowIndex();
+        this.column = cell.getColumn();
+        this.row = cell.getRow();
         this.formulaAddress = getCellAddress();
-        this.formulaPlainText = cell.getCellFormula();
-        System.out.println("Formula Plain Text: " + this.formulaAddress + " = " + formulaPlainText);
+        this.formulaPlainText = cell.getFormula();
+        report(Diagnostic.Kind.FORMULA, this.formulaAddress, this.formulaPlainText);
+        long start = System.nanoTime();
         this.formulaPtgs = tokens();
+        elapsed(Profile.Phase.TOKENIZE, start);
 
     }
 
@@ -207,26 +236,24 @@ public abstract class AbstractParser {
     }
 
     private Ptg[] tokens() {
-        int index = this.getSheetIndex();
         var name = this.getSheetName();
-        var evaluationSheet = this.evaluation.getSheet(index);
         Ptg[] ptgs = null;
         try {
-            EvaluationCell evaluationCell = evaluationSheet.getCell(this.row, this.column);
-            ptgs = this.evaluation.getFormulaTokens(evaluationCell);
+            ptgs = this.workbook.getFormulaTokens(this.sheetIndex, this.row, this.column);
         } catch(FormulaParseException e) {
-            err.println("" + e.getMessage() + name + this.row + this.column);
+            if(this.diagnostics.isEnabled())
+                report(Diagnostic.Kind.FORMULA_PARSE_ERROR, this.formulaAddress, "" + e.getMessage() + name + this.row + this.column);
         }
         return ptgs;
     }
 
     Ptg[] getName(NamePtg t) {
-        EvaluationName evaluationName = this.evaluation.getName(t);
-        return evaluationName.getNameDefinition();
+        this.names = true;
+        return this.workbook.getNameDefinition(t);
     }
 
     String getNameText(NamePtg t) {
-        return this.evaluation.getNameText(t);
+        return this.workbook.getNameText(t);
     }
 
     private String cellAddress(final String sheetName) {
@@ -243,130 +270,75 @@ public abstract class AbstractParser {
     }
 
     int getSheetIndex() {
-        return this.workbook.getSheetIndex(this.sheet);
+        return this.sheetIndex;
     }
 
     int getSheetIndex(String sheetName) {
-        return this.evaluation.getSheetIndex(sheetName);
-    }
-
-    int getSheetIndex(Cell cell) {
-        return getSheetIndex(cell.getSheet().getSheetName());
+        int index = this.workbook.getSheetIndex(sheetName);
+        if(index >= 0) this.dependencies.set(index);
+        return index;
     }
 
     String getSheetName() {
-        return this.sheet.getSheetName();
-    }
-
-    String getSheetName(Cell cell) {
-        return cell.getSheet().getSheetName();
+        return this.workbook.getSheetName(this.sheetIndex);
     }
 
-    boolean isFormula(final Cell cell) {
-        return cell.getCellType() == CELL_TYPE_FORMULA;
+    static long cellKey(int sheetIndex, int row, int column) {
+        return Start.key(false, sheetIndex, row, column);
     }
 
-    boolean nonEmpty(final Cell cell) {
-        return !empty(cell);
+    static int rowOf(long cellKey) {
+        return (int) (cellKey >>> 14) & 0xFFFFF;
     }
 
-    private boolean empty(final Cell cell) {
-        return emptyCell(cell) && emptyTextCell(cell);
-    }
-
-    private boolean emptyCell(Cell cell) {
-        return cell == null || cell.getCellType() == CELL_TYPE_BLANK;
-    }
-
-    private boolean emptyTextCell(Cell cell) {
-        return cell.getCellType() == CELL_TYPE_STRING && cell.getStringCellValue().trim().isEmpty();
+    static int columnOf(long cellKey) {
+        return (int) cellKey & 0x3FFF;
     }
 
     void doesFormulaReferToDeletedCell() {
-        err.println(getCellAddress() + " does formula refer to deleted cell");
+        if(this.diagnostics.isEnabled()) report(Diagnostic.Kind.DELETED_REFERENCE, getCellAddress(), null);
     }
 
     void parseErrPtg(Ptg t) {
-        err.println(t.getClass().getName() + ": " + t);
+        if(this.diagnostics.isEnabled()) report(Diagnostic.Kind.UNKNOWN_TOKEN, getCellAddress(), t.getClass().getName() + ": " + t);
     }
 
     void parseMissingArguments() {
-        err.println("Missing ExcelFunction Arguments for cell: " + getCellAddress());
-    }
-
-    Object parseCellValue(Cell cell) {
-        if(cell == null) return null;
-        if(isDataType(cell)) return cell.getDateCellValue();
-        switch(cell.getCellType()) {
-            case CELL_TYPE_STRING:
-            case CELL_TYPE_BLANK:
-                return cell.getStringCellValue();
-            case CELL_TYPE_NUMERIC:
-                return cell.getNumericCellValue();
-            case CELL_TYPE_BOOLEAN:
-                return cell.getBooleanCellValue();
-            case CELL_TYPE_FORMULA:
-                if(cellToStringEqualsTo(cell, "TRUE")) return true;
-                else if(cellToStringEqualsTo(cell, "FALSE")) return true;
-                return cell.toString();
-            default:
-                return null;
-        }
-    }
-
-    private boolean cellToStringEqualsTo(Cell cell, String text) {
-        return cell.toString() != null && cell.toString().equalsIgnoreCase(text);
-
+        if(this.diagnostics.isEnabled()) report(Diagnostic.Kind.MISSING_ARGUMENTS, getCellAddress(), null);
     }
 
-    private boolean isDataType(Cell cell) {
-        return cell.getCellType() == CELL_TYPE_NUMERIC && HSSFDateUtil.isCellDateFormatted(cell);
+    void report(Diagnostic.Kind kind, String address, String message) {
+        if(this.diagnostics.isEnabled()) this.diagnostics.report(new Diagnostic(kind, address, message));
     }
 
-    private List<Cell> list(String reference) {
-        AreaReference area = new AreaReference(reference, SPREADSHEET_VERSION);
-        return list(area);
-    }
-
-    private List<Cell> list(AreaReference ar) {
-        CellReference[] allReferencedCells = ar.getAllReferencedCells();
-        return list(allReferencedCells);
-    }
-
-    private List<Cell> list(CellReference[] allReferencedCells) {
-        Stream<CellReference> stream = Arrays.stream(allReferencedCells);
-        return list(stream);
-    }
-
-    private List<Cell> list(Stream<CellReference> stream) {
-        List<Cell> list = new ArrayList<>();
-        stream.forEach(
-                referencedCell -> {
-                    Row row = getRow(referencedCell);
-                    if(row != null) {
-                        Cell cell = getCell(row, referencedCell);
-                        list.add(cell);
-                    }
-                }
-        );
-        return list;
-    }
-
-    private Row getRow(CellReference cell) {
-        Sheet sheet = getSheet(cell);
-        return getRow(sheet, cell);
-    }
-
-    private Sheet getSheet(CellReference cell) {
-        return this.workbook.getSheet(cell.getSheetName());
+    /**
+     * Time and counters of the phases so far, see Profile.
+     */
+    public Profile getProfile() {
+        return this.profile;
     }
 
-    private Row getRow(Sheet sheet, CellReference cell) {
-        return sheet.getRow(cell.getRow());
+    public Diagnostics getDiagnostics() {
+        return this.diagnostics;
     }
 
-    private Cell getCell(Row row, CellReference cell) {
-        return row.getCell(cell.getCol());
+    /**
+     * Where the parser reports formulas and errors, Diagnostics.console() by default.
+     */
+    public void setDiagnostics(Diagnostics diagnostics) {
+        this.diagnostics = diagnostics;
+    }
+
+    Object parseCellValue(int sheetIndex, int row, int column) {
+        this.dependencies.set(sheetIndex);
+        long key = cellKey(sheetIndex, row, column);
+        Object value = this.values.get(key);
+        if(value == null) {
+            if(!this.workbook.hasRow(sheetIndex, row)) throw new RuntimeException("Row value is null!");
+            value = this.workbook.getValue(sheetIndex, row, column);
+            this.values.put(key, value == null ? NULL : value);
+        }
+        return value == NULL ? null : value;
     }
 
     /**
@@ -380,40 +352,29 @@ public abstract class AbstractParser {
      * parseSheetPlusArea
      */
     RANGE parseRange(String sheetnamne, Area3DPxg t) {
-        var rangeFirstRow = t.getFirstRow();
-        var rangeFirstColumn = t.getFirstColumn();
-        var rangeLastRow = t.getLastRow();
-        var rangeLastColumn = t.getLastColumn();
-
-        var range = emptyRange(rangeFirstRow, rangeFirstColumn, rangeLastRow, rangeLastColumn);
-
-        String reference = range.toString();
-        List<Cell> cells = list(sheetnamne + "!" + reference);
-
-        Stream<Cell> stream = cells.stream().parallel();
-        stream.filter(Objects::nonNull).map(this::parseCellValue).forEachOrdered(range::add);
-        return range;
+        return parseRange(getSheetIndex(sheetnamne), t.getFirstRow(), t.getFirstColumn(), t.getLastRow(), t.getLastColumn());
     }
 
     /**
      * AreaPtg t Specifies a rectangular area of cells A1:A4 for instance.
      */
-    RANGE parseRange(Sheet sheet, AreaPtg t) {
-        RANGE range;
-        var rangeFirstRow = t.getFirstRow();
-        var rangeFirstColumn = t.getFirstColumn();
-        var rangeLastRow = t.getLastRow();
-        var rangeLastColumn = t.getLastColumn();
-
-        range = emptyRange(rangeFirstRow, rangeFirstColumn, rangeLastRow, rangeLastColumn);
-
-        String reference = range.toString();
+    RANGE parseRange(int sheetIndex, AreaPtg t) {
+        return parseRange(sheetIndex, t.getFirstRow(), t.getFirstColumn(), t.getLastRow(), t.getLastColumn());
+    }
 
-        List<Cell> cells = range(sheet, reference);
-        Stream<Cell> stream = cells.stream().parallel();
-        stream.filter(Objects::nonNull).map(this::parseCellValue).forEachOrdered(range::add);
+    /**
+     * One lazy RangeValues block per (sheet, area), later references share the same block.
+     * Only the rectangle is kept at parse time, the values are read on first use.
+     */
+    private RANGE parseRange(int sheetIndex, int rangeFirstRow, int rangeFirstColumn, int rangeLastRow, int rangeLastColumn) {
+        this.dependencies.set(sheetIndex);
+        var range = emptyRange(rangeFirstRow, rangeFirstColumn, rangeLastRow, rangeLastColumn);
+        long first = Start.key(true, sheetIndex, rangeFirstRow, rangeFirstColumn);
+        long last = Start.key(true, sheetIndex, rangeLastRow, rangeLastColumn);
+        ValueBlock values = this.ranges.computeIfAbsent(first, k -> new ConcurrentHashMap<>())
+                .computeIfAbsent(last, k -> new RangeValues(this.workbook, this.profile, sheetIndex, rangeFirstRow, rangeFirstColumn, rangeLastRow, rangeLastColumn));
+        range.add(values);
         return range;
-
     }
 
     private RANGE emptyRange(int rangeFirstRow, int rangeFirstColumn, int rangeLastRow, int rangeLastColumn) {
@@ -423,22 +384,4 @@ public abstract class AbstractParser {
         range = new RANGE(cellFirst, cellLast);
         return range;
     }
-
-    private List<Cell> range(Sheet sheet, String refs) {
-        AreaReference area = new AreaReference(sheet.getSheetName() + "!" + refs, SPREADSHEET_VERSION);
-        return list(area);
-    }
-
-    class WhatIf {
-
-        final Ptg ptg;
-        final Predicate<Ptg> predicate;
-        final Consumer<Ptg> consumer;
-
-        WhatIf(Ptg ptg, Predicate<Ptg> predicate, Consumer<Ptg> consumer) {
-            this.ptg = ptg;
-            this.predicate = predicate;
-            this.consumer = consumer;
-        }
-    }
 }
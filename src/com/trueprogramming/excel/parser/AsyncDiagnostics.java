@@ -0,0 +1,109 @@
+/*
+ * Efesto - Excel Formula Extractor System and Topological Ordering algorithm.
+ * Copyright (C) 2017 Massimo Caliman mcaliman@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * If AGPL Version 3.0 terms are incompatible with your use of
+ * Efesto, alternative license terms are available from Massimo Caliman
+ * please direct inquiries about Efesto licensing to mcaliman@gmail.com
+ */
+
+package com.trueprogramming.excel.parser;
+
+import java.io.PrintStream;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Diagnostics written by a daemon thread, the parser threads only enqueue.
+ * The queue is lock free and bounded for the listing: when it is full the FORMULA and VERBOSE events
+ * are dropped and counted, the count is printed by flush(); errors are never dropped.
+ *
+ * @author Massimo Caliman
+ */
+final class AsyncDiagnostics implements Diagnostics {
+
+    static final AsyncDiagnostics CONSOLE = new AsyncDiagnostics(System.out, System.err, 1 << 16);
+
+    private final PrintStream out;
+    private final PrintStream err;
+    private final int capacity;
+    private final Queue<Diagnostic> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final LongAdder dropped = new LongAdder();
+    private final Thread drainer;
+    private volatile boolean parked;//the drainer found the queue empty and is about to park
+
+    AsyncDiagnostics(PrintStream out, PrintStream err, int capacity) {
+        this.out = out;
+        this.err = err;
+        this.capacity = capacity;
+        this.drainer = new Thread(this::drain, "diagnostics");
+        this.drainer.setDaemon(true);
+        this.drainer.start();
+    }
+
+    @Override
+    public void report(Diagnostic diagnostic) {
+        int n = size.incrementAndGet();
+        if(n > capacity && diagnostic.isOutput()) {
+            size.decrementAndGet();
+            dropped.increment();
+            return;
+        }
+        submitted.incrementAndGet();
+        queue.offer(diagnostic);
+        if(parked) LockSupport.unpark(drainer);
+    }
+
+    @Override
+    public void flush() {
+        long target = submitted.get();
+        while(completed.get() < target) {
+            LockSupport.unpark(drainer);
+            LockSupport.parkNanos(100_000);
+        }
+        long lost = dropped.sumThenReset();
+        if(lost > 0) err.println(lost + " diagnostics dropped");
+        out.flush();
+        err.flush();
+    }
+
+    private void drain() {
+        while(true) {
+            Diagnostic diagnostic = queue.poll();
+            if(diagnostic == null) {
+                out.flush();
+                err.flush();
+                parked = true;
+                if(queue.isEmpty()) LockSupport.park();//an offer after the check unparks, before it is seen here
+                parked = false;
+                continue;
+            }
+            size.decrementAndGet();
+            try {
+                (diagnostic.isOutput() ? out : err).println(diagnostic);
+            } finally {
+                completed.incrementAndGet();
+            }
+        }
+    }
+}
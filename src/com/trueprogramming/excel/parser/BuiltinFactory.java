@@ -29,401 +29,388 @@ import com.trueprogramming.excel.grammar.functions.referencefunction.OFFSET;
 import com.trueprogramming.excel.grammar.functions.conditionalreferencefunction.CHOOSE;
 import com.trueprogramming.excel.grammar.functions.conditionalreferencefunction.IF;
 import com.trueprogramming.excel.grammar.nonterm.Formula;
-import com.trueprogramming.excel.grammar.nonterm.Start;
-
-import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import com.trueprogramming.excel.grammar.lexicaltokens.EXCEL_FUNCTION;
 
+/**
+ * Constructors of the builtin functions by name.
+ * The dispatch is a string switch (hash lookup) with a new expression per case, so the class of a function
+ * is loaded only when the function is found in a workbook and not when the factory is loaded.
+ *
+ * @author Massimo Caliman
+ */
 final class BuiltinFactory {
 
-    private final static Logger LOG = Logger.getLogger(BuiltinFactory.class.getName());
-    private final static Map<String, Class> clazzMap = new HashMap<>();
-
-    static {
-        clazzMap.put("ABS", ABS.class);
-        clazzMap.put("ACCRINT", ACCRINT.class);
-        clazzMap.put("ACCRINTM", ACCRINTM.class);
-        clazzMap.put("ACOS", ACOS.class);
-        clazzMap.put("ACOSH", ACOSH.class);
-        clazzMap.put("ADDRESS", ADDRESS.class);
-        clazzMap.put("AMORDEGRC", AMORDEGRC.class);
-        clazzMap.put("AMORLINC", AMORLINC.class);
-        clazzMap.put("AND", AND.class);
-        clazzMap.put("AREAS", AREAS.class);
-        clazzMap.put("ASC", ASC.class);
-        clazzMap.put("ASIN", ASIN.class);
-        clazzMap.put("ASINH", ASINH.class);
-        clazzMap.put("ATAN", ATAN.class);
-        clazzMap.put("ATAN2", ATAN2.class);
-        clazzMap.put("ATANH", ATANH.class);
-        clazzMap.put("AVEDEV", AVEDEV.class);
-        clazzMap.put("AVERAGE", AVERAGE.class);
-        clazzMap.put("AVERAGEA", AVERAGEA.class);
-        clazzMap.put("AVERAGEIF", AVERAGEIF.class);
-        clazzMap.put("AVERAGEIFS", AVERAGEIFS.class);
-        clazzMap.put("BAHTTEXT", BAHTTEXT.class);
-        clazzMap.put("BESSELI", BESSELI.class);
-        clazzMap.put("BESSELJ", BESSELJ.class);
-        clazzMap.put("BESSELK", BESSELK.class);
-        clazzMap.put("BESSELY", BESSELY.class);
-        clazzMap.put("BETADIST", BETADIST.class);
-        clazzMap.put("BETAINV", BETAINV.class);
-        clazzMap.put("BIN2DEC", BIN2DEC.class);
-        clazzMap.put("BIN2HEX", BIN2HEX.class);
-        clazzMap.put("BIN2OCT", BIN2OCT.class);
-        clazzMap.put("BINOMDIST", BINOMDIST.class);
-        clazzMap.put("CALL", CALL.class);
-        clazzMap.put("CEILING", CEILING.class);
-        clazzMap.put("CELL", CELL.class);
-        clazzMap.put("CHAR", CHAR.class);
-        clazzMap.put("CHIDIST", CHIDIST.class);
-        clazzMap.put("CHIINV", CHIINV.class);
-        clazzMap.put("CHITEST", CHITEST.class);
-        clazzMap.put("CHOOSE", CHOOSE.class);
-        clazzMap.put("CLEAN", CLEAN.class);
-        clazzMap.put("CODE", CODE.class);
-        clazzMap.put("COLUMN", COLUMN.class);
-        clazzMap.put("COLUMNS", COLUMNS.class);
-        clazzMap.put("COMBIN", COMBIN.class);
-        clazzMap.put("COMPLEX", COMPLEX.class);
-        clazzMap.put("CONCATENATE", CONCATENATE.class);
-        clazzMap.put("CONFIDENCE", CONFIDENCE.class);
-        clazzMap.put("CONVERT", CONVERT.class);
-        clazzMap.put("CORREL", CORREL.class);
-        clazzMap.put("COS", COS.class);
-        clazzMap.put("COSH", COSH.class);
-        clazzMap.put("COUNT", COUNT.class);
-        clazzMap.put("COUNTA", COUNTA.class);
-        clazzMap.put("COUNTBLANK", COUNTBLANK.class);
-        clazzMap.put("COUNTIF", COUNTIF.class);
-        clazzMap.put("COUNTIFS", COUNTIFS.class);
-        clazzMap.put("COUPDAYBS", COUPDAYBS.class);
-        clazzMap.put("COUPDAYS", COUPDAYS.class);
-        clazzMap.put("COUPDAYSNC", COUPDAYSNC.class);
-        clazzMap.put("COUPNCD", COUPNCD.class);
-        clazzMap.put("COUPNUM", COUPNUM.class);
-        clazzMap.put("COUPPCD", COUPPCD.class);
-        clazzMap.put("COVAR", COVAR.class);
-        clazzMap.put("CRITBINOM", CRITBINOM.class);
-        clazzMap.put("CUBEKPIMEMBER", CUBEKPIMEMBER.class);
-        clazzMap.put("CUBEMEMBER", CUBEMEMBER.class);
-        clazzMap.put("CUBEMEMBERPROPERTY", CUBEMEMBERPROPERTY.class);
-        clazzMap.put("CUBERANKEDMEMBER", CUBERANKEDMEMBER.class);
-        clazzMap.put("CUBESET", CUBESET.class);
-        clazzMap.put("CUBESETCOUNT", CUBESETCOUNT.class);
-        clazzMap.put("CUBEVALUE", CUBEVALUE.class);
-        clazzMap.put("CUMIPMT", CUMIPMT.class);
-        clazzMap.put("CUMPRINC", CUMPRINC.class);
-        clazzMap.put("DATE", DATE.class);
-        clazzMap.put("DATEVALUE", DATEVALUE.class);
-        clazzMap.put("DAVERAGE", DAVERAGE.class);
-        clazzMap.put("DAY", DAY.class);
-        clazzMap.put("DAYS360", DAYS360.class);
-        clazzMap.put("DB", DB.class);
-        clazzMap.put("DCOUNT", DCOUNT.class);
-        clazzMap.put("DCOUNTA", DCOUNTA.class);
-        clazzMap.put("DDB", DDB.class);
-        clazzMap.put("DEC2BIN", DEC2BIN.class);
-        clazzMap.put("DEC2HEX", DEC2HEX.class);
-        clazzMap.put("DEC2OCT", DEC2OCT.class);
-        clazzMap.put("DEGREES", DEGREES.class);
-        clazzMap.put("DELTA", DELTA.class);
-        clazzMap.put("DEVSQ", DEVSQ.class);
-        clazzMap.put("DGET", DGET.class);
-        clazzMap.put("DISC", DISC.class);
-        clazzMap.put("DMAX", DMAX.class);
-        clazzMap.put("DMIN", DMIN.class);
-        clazzMap.put("DOLLAR", DOLLAR.class);
-        clazzMap.put("DOLLARDE", DOLLARDE.class);
-        clazzMap.put("DOLLARFR", DOLLARFR.class);
-        clazzMap.put("DPRODUCT", DPRODUCT.class);
-        clazzMap.put("DSTDEV", DSTDEV.class);
-        clazzMap.put("DSTDEVP", DSTDEVP.class);
-        clazzMap.put("DSUM", DSUM.class);
-        clazzMap.put("DURATION", DURATION.class);
-        clazzMap.put("DVAR", DVAR.class);
-        clazzMap.put("DVARP", DVARP.class);
-        clazzMap.put("EDATEEFFECT", EDATEEFFECT.class);
-        clazzMap.put("EOMONTH", EOMONTH.class);
-        clazzMap.put("ERF", ERF.class);
-        clazzMap.put("ERFC", ERFC.class);
-        clazzMap.put("ERROR_TYPE", ERROR_TYPE.class);
-        clazzMap.put("EUROCONVERT", EUROCONVERT.class);
-        clazzMap.put("EVEN", EVEN.class);
-        clazzMap.put("EXACT", EXACT.class);
-        clazzMap.put("EXP", EXP.class);
-        clazzMap.put("EXPONDIST", EXPONDIST.class);
-        clazzMap.put("FACT", FACT.class);
-        clazzMap.put("FACTDOUBLE", FACTDOUBLE.class);
-        clazzMap.put("FALSE", FALSE.class);
-        clazzMap.put("FDIST", FDIST.class);
-        clazzMap.put("FIND", FIND.class);
-        clazzMap.put("FINV", FINV.class);
-        clazzMap.put("FISHER", FISHER.class);
-        clazzMap.put("FISHERINV", FISHERINV.class);
-        clazzMap.put("FIXED", FIXED.class);
-        clazzMap.put("FLOOR", FLOOR.class);
-        clazzMap.put("FORECAST", FORECAST.class);
-        clazzMap.put("FREQUENCY", FREQUENCY.class);
-        clazzMap.put("FTEST", FTEST.class);
-        clazzMap.put("FV", FV.class);
-        clazzMap.put("FVSCHEDULE", FVSCHEDULE.class);
-        clazzMap.put("GAMMADIST", GAMMADIST.class);
-        clazzMap.put("GAMMAINV", GAMMAINV.class);
-        clazzMap.put("GAMMALN", GAMMALN.class);
-        clazzMap.put("GCD", GCD.class);
-        clazzMap.put("GEOMEAN", GEOMEAN.class);
-        clazzMap.put("GESTEP", GESTEP.class);
-        clazzMap.put("GETPIVOTDATA", GETPIVOTDATA.class);
-        clazzMap.put("GROWTH", GROWTH.class);
-        clazzMap.put("HARMEAN", HARMEAN.class);
-        clazzMap.put("HEX2BIN", HEX2BIN.class);
-        clazzMap.put("HEX2DEC", HEX2DEC.class);
-        clazzMap.put("HEX2OCT", HEX2OCT.class);
-        clazzMap.put("HLOOKUP", HLOOKUP.class);
-        clazzMap.put("HOUR", HOUR.class);
-        clazzMap.put("HYPERLINK", HYPERLINK.class);
-        clazzMap.put("HYPGEOMDIST", HYPGEOMDIST.class);
-        clazzMap.put("IF", IF.class);
-        clazzMap.put("IFERROR", IFERROR.class);
-        clazzMap.put("IMABS", IMABS.class);
-        clazzMap.put("IMAGINARY", IMAGINARY.class);
-        clazzMap.put("IMARGUMENT", IMARGUMENT.class);
-        clazzMap.put("IMCONJUGATE", IMCONJUGATE.class);
-        clazzMap.put("IMCOS", IMCOS.class);
-        clazzMap.put("IMDIV", IMDIV.class);
-        clazzMap.put("IMEXP", IMEXP.class);
-        clazzMap.put("IMLN", IMLN.class);
-        clazzMap.put("IMLOG10", IMLOG10.class);
-        clazzMap.put("IMLOG2", IMLOG2.class);
-        clazzMap.put("IMPOWER", IMPOWER.class);
-        clazzMap.put("IMPRODUCT", IMPRODUCT.class);
-        clazzMap.put("IMREAL", IMREAL.class);
-        clazzMap.put("IMSIN", IMSIN.class);
-        clazzMap.put("IMSQRT", IMSQRT.class);
-        clazzMap.put("IMSUB", IMSUB.class);
-        clazzMap.put("IMSUM", IMSUM.class);
-        clazzMap.put("INDEX", INDEX.class);
-        clazzMap.put("INDIRECT", INDIRECT.class);
-        clazzMap.put("INFO", INFO.class);
-        clazzMap.put("parseINT", INT.class);
-        clazzMap.put("INTERCEPT", INTERCEPT.class);
-        clazzMap.put("INTRATE", INTRATE.class);
-        clazzMap.put("IPMT", IPMT.class);
-        clazzMap.put("IRR", IRR.class);
-        clazzMap.put("IS", IS.class);
-        clazzMap.put("ISB", ISB.class);
-        clazzMap.put("ISBLANK", ISBLANK.class);
-        clazzMap.put("ISERROR", ISERROR.class);
-        clazzMap.put("ISNA", ISNA.class);
-        clazzMap.put("ISNUMBER", ISNUMBER.class);
-        clazzMap.put("ISPMT", ISPMT.class);
-        clazzMap.put("JIS", JIS.class);
-        clazzMap.put("KURT", KURT.class);
-        clazzMap.put("LARGE", LARGE.class);
-        clazzMap.put("LCM", LCM.class);
-        clazzMap.put("LEFT", LEFT.class);
-        clazzMap.put("LEFTB", LEFTB.class);
-        clazzMap.put("LEN", LEN.class);
-        clazzMap.put("LENB", LENB.class);
-        clazzMap.put("LINEST", LINEST.class);
-        clazzMap.put("LN", LN.class);
-        clazzMap.put("LOG", LOG.class);
-        clazzMap.put("LOG10", LOG10.class);
-        clazzMap.put("LOGEST", LOGEST.class);
-        clazzMap.put("LOGINV", LOGINV.class);
-        clazzMap.put("LOGNORMDIST", LOGNORMDIST.class);
-        clazzMap.put("LOOKUP", LOOKUP.class);
-        clazzMap.put("LOWER", LOWER.class);
-        clazzMap.put("MATCH", MATCH.class);
-        clazzMap.put("MAX", MAX.class);
-        clazzMap.put("MAXA", MAXA.class);
-        clazzMap.put("MDETERM", MDETERM.class);
-        clazzMap.put("MDURATION", MDURATION.class);
-        clazzMap.put("MEDIAN", MEDIAN.class);
-        clazzMap.put("MID", MID.class);
-        clazzMap.put("MIDB", MIDB.class);
-        clazzMap.put("MIN", MIN.class);
-        clazzMap.put("MINA", MINA.class);
-        clazzMap.put("MINUTE", MINUTE.class);
-        clazzMap.put("MINVERSE", MINVERSE.class);
-        clazzMap.put("MIRR", MIRR.class);
-        clazzMap.put("MMULT", MMULT.class);
-        clazzMap.put("MOD", MOD.class);
-        clazzMap.put("MODE", MODE.class);
-        clazzMap.put("MONTH", MONTH.class);
-        clazzMap.put("MROUND", MROUND.class);
-        clazzMap.put("MULTINOMIAL", MULTINOMIAL.class);
-        clazzMap.put("N", N.class);
-        clazzMap.put("NA", NA.class);
-        clazzMap.put("NEGBINOMDIST", NEGBINOMDIST.class);
-        clazzMap.put("NETWORKDAYS", NETWORKDAYS.class);
-        clazzMap.put("NOMINAL", NOMINAL.class);
-        clazzMap.put("NORMDIST", NORMDIST.class);
-        clazzMap.put("NORMINV", NORMINV.class);
-        clazzMap.put("NORMSDIST", NORMSDIST.class);
-        clazzMap.put("NORMSINV", NORMSINV.class);
-        clazzMap.put("NOT", NOT.class);
-        clazzMap.put("NOW", NOW.class);
-        clazzMap.put("NPER", NPER.class);
-        clazzMap.put("NPV", NPV.class);
-        clazzMap.put("OCT2BIN", OCT2BIN.class);
-        clazzMap.put("OCT2DEC", OCT2DEC.class);
-        clazzMap.put("OCT2HEX", OCT2HEX.class);
-        clazzMap.put("ODD", ODD.class);
-        clazzMap.put("ODDFPRICE", ODDFPRICE.class);
-        clazzMap.put("ODDFYIELD", ODDFYIELD.class);
-        clazzMap.put("ODDLPRICE", ODDLPRICE.class);
-        clazzMap.put("ODDLYIELD", ODDLYIELD.class);
-        clazzMap.put("OFFSET", OFFSET.class);
-        clazzMap.put("OR", OR.class);
-        clazzMap.put("PEARSON", PEARSON.class);
-        clazzMap.put("PERCENTILE", PERCENTILE.class);
-        clazzMap.put("PERCENTRANK", PERCENTRANK.class);
-        clazzMap.put("PERMUT", PERMUT.class);
-        clazzMap.put("PHONETIC", PHONETIC.class);
-        clazzMap.put("PI", PI.class);
-        clazzMap.put("PMT", PMT.class);
-        clazzMap.put("POISSON", POISSON.class);
-        clazzMap.put("POWER", POWER.class);
-        clazzMap.put("PPMT", PPMT.class);
-        clazzMap.put("PRICE", PRICE.class);
-        clazzMap.put("PRICEDISC", PRICEDISC.class);
-        clazzMap.put("PRICEMAT", PRICEMAT.class);
-        clazzMap.put("PROB", PROB.class);
-        clazzMap.put("PRODUCT", PRODUCT.class);
-        clazzMap.put("PROPER", PROPER.class);
-        clazzMap.put("PV", PV.class);
-        clazzMap.put("QUOTIENT", QUOTIENT.class);
-        clazzMap.put("RADIANS", RADIANS.class);
-        clazzMap.put("RAND", RAND.class);
-        clazzMap.put("RANDBETWEEN", RANDBETWEEN.class);
-        clazzMap.put("RANK", RANK.class);
-        clazzMap.put("RATE", RATE.class);
-        clazzMap.put("RECEIVED", RECEIVED.class);
-        clazzMap.put("REGISTER_ID", REGISTER_ID.class);
-        clazzMap.put("REPLACE", REPLACE.class);
-        clazzMap.put("REPLACEB", REPLACEB.class);
-        clazzMap.put("REPT", REPT.class);
-        clazzMap.put("RIGHT", RIGHT.class);
-        clazzMap.put("RIGHTB", RIGHTB.class);
-        clazzMap.put("ROMAN", ROMAN.class);
-        clazzMap.put("ROUND", ROUND.class);
-        clazzMap.put("ROUNDDOWN", ROUNDDOWN.class);
-        clazzMap.put("ROUNDUP", ROUNDUP.class);
-        clazzMap.put("ROW", ROW.class);
-        clazzMap.put("ROWS", ROWS.class);
-        clazzMap.put("RSQ", RSQ.class);
-        clazzMap.put("RTD", RTD.class);
-        clazzMap.put("SEARCH", SEARCH.class);
-        clazzMap.put("SEARCHB", SEARCHB.class);
-        clazzMap.put("SECOND", SECOND.class);
-        clazzMap.put("SERIESSUM", SERIESSUM.class);
-        clazzMap.put("SIGN", SIGN.class);
-        clazzMap.put("SIN", SIN.class);
-        clazzMap.put("SINH", SINH.class);
-        clazzMap.put("SKEW", SKEW.class);
-        clazzMap.put("SLN", SLN.class);
-        clazzMap.put("SLOPE", SLOPE.class);
-        clazzMap.put("SMALL", SMALL.class);
-        clazzMap.put("SQL_REQUEST", SQL_REQUEST.class);
-        clazzMap.put("SQRT", SQRT.class);
-        clazzMap.put("SQRTPI", SQRTPI.class);
-        clazzMap.put("STANDARDIZE", STANDARDIZE.class);
-        clazzMap.put("STDEV", STDEV.class);
-        clazzMap.put("STDEVA", STDEVA.class);
-        clazzMap.put("STDEVP", STDEVP.class);
-        clazzMap.put("STDEVPA", STDEVPA.class);
-        clazzMap.put("STEYX", STEYX.class);
-        clazzMap.put("SUBSTITUTE", SUBSTITUTE.class);
-        clazzMap.put("SUBTOTAL", SUBTOTAL.class);
-        clazzMap.put("SUM", SUM.class);
-        clazzMap.put("SUMIF", SUMIF.class);
-        clazzMap.put("SUMIFS", SUMIFS.class);
-        clazzMap.put("SUMPRODUCT", SUMPRODUCT.class);
-        clazzMap.put("SUMSQ", SUMSQ.class);
-        clazzMap.put("SUMX2MY2", SUMX2MY2.class);
-        clazzMap.put("SUMX2PY2", SUMX2PY2.class);
-        clazzMap.put("SUMXMY2", SUMXMY2.class);
-        clazzMap.put("SYD", SYD.class);
-        clazzMap.put("T", T.class);
-        clazzMap.put("TAN", TAN.class);
-        clazzMap.put("TANH", TANH.class);
-        clazzMap.put("TBILLEQ", TBILLEQ.class);
-        clazzMap.put("TBILLPRICE", TBILLPRICE.class);
-        clazzMap.put("TBILLYIELD", TBILLYIELD.class);
-        clazzMap.put("TDIST", TDIST.class);
-        clazzMap.put("TEXT", TEXT.class);
-        clazzMap.put("TIME", TIME.class);
-        clazzMap.put("TIMEVALUE", TIMEVALUE.class);
-        clazzMap.put("TINV", TINV.class);
-        clazzMap.put("TODAY", TODAY.class);
-        clazzMap.put("TRANSPOSE", TRANSPOSE.class);
-        clazzMap.put("TREND", TREND.class);
-        clazzMap.put("TRIM", TRIM.class);
-        clazzMap.put("TRIMMEAN", TRIMMEAN.class);
-        clazzMap.put("TRUE", TRUE.class);
-        clazzMap.put("TRUNC", TRUNC.class);
-        clazzMap.put("TTEST", TTEST.class);
-        clazzMap.put("TYPE", TYPE.class);
-        clazzMap.put("UPPER", UPPER.class);
-        clazzMap.put("VALUE", VALUE.class);
-        clazzMap.put("VAR", VAR.class);
-        clazzMap.put("VARA", VARA.class);
-        clazzMap.put("VARP", VARP.class);
-        clazzMap.put("VARPA", VARPA.class);
-        clazzMap.put("VDB", VDB.class);
-        clazzMap.put("VLOOKUP", VLOOKUP.class);
-        clazzMap.put("WEEKDAY", WEEKDAY.class);
-        clazzMap.put("WEEKNUM", WEEKNUM.class);
-        clazzMap.put("WEIBULL", WEIBULL.class);
-        clazzMap.put("WORKDAY", WORKDAY.class);
-        clazzMap.put("XIRR", XIRR.class);
-        clazzMap.put("XNPV", XNPV.class);
-        clazzMap.put("YEAR", YEAR.class);
-        clazzMap.put("YEARFRAC", YEARFRAC.class);
-        clazzMap.put("YIELD", YIELD.class);
-        clazzMap.put("YIELDDISC", YIELDDISC.class);
-        clazzMap.put("YIELDMAT", YIELDMAT.class);
-        clazzMap.put("ZTEST", ZTEST.class);
-    }
-
-    private Start builtInFunction;
-    private Formula[] args;
-
-    public BuiltinFactory() {
-    }
-
-    public Start getBuiltInFunction() {
-        return builtInFunction;
+    private BuiltinFactory() {
     }
 
-    public Start[] getArgs() {
-        return args;
+    /**
+     * The function name with the given arguments, the arguments array is kept by the function
+     * and can be filled after the call.
+     */
+    static EXCEL_FUNCTION create(String name, Formula[] args) throws UnsupportedBuiltinException {
+        Object function = switch(name) {//Object: the verifier does not load the class of each case
+            case "ABS" -> new ABS(args);
+            case "ACCRINT" -> new ACCRINT(args);
+            case "ACCRINTM" -> new ACCRINTM(args);
+            case "ACOS" -> new ACOS(args);
+            case "ACOSH" -> new ACOSH(args);
+            case "ADDRESS" -> new ADDRESS(args);
+            case "AMORDEGRC" -> new AMORDEGRC(args);
+            case "AMORLINC" -> new AMORLINC(args);
+            case "AND" -> new AND(args);
+            case "AREAS" -> new AREAS(args);
+            case "ASC" -> new ASC(args);
+            case "ASIN" -> new ASIN(args);
+            case "ASINH" -> new ASINH(args);
+            case "ATAN" -> new ATAN(args);
+            case "ATAN2" -> new ATAN2(args);
+            case "ATANH" -> new ATANH(args);
+            case "AVEDEV" -> new AVEDEV(args);
+            case "AVERAGE" -> new AVERAGE(args);
+            case "AVERAGEA" -> new AVERAGEA(args);
+            case "AVERAGEIF" -> new AVERAGEIF(args);
+            case "AVERAGEIFS" -> new AVERAGEIFS(args);
+            case "BAHTTEXT" -> new BAHTTEXT(args);
+            case "BESSELI" -> new BESSELI(args);
+            case "BESSELJ" -> new BESSELJ(args);
+            case "BESSELK" -> new BESSELK(args);
+            case "BESSELY" -> new BESSELY(args);
+            case "BETADIST" -> new BETADIST(args);
+            case "BETAINV" -> new BETAINV(args);
+            case "BIN2DEC" -> new BIN2DEC(args);
+            case "BIN2HEX" -> new BIN2HEX(args);
+            case "BIN2OCT" -> new BIN2OCT(args);
+            case "BINOMDIST" -> new BINOMDIST(args);
+            case "CALL" -> new CALL(args);
+            case "CEILING" -> new CEILING(args);
+            case "CELL" -> new CELL(args);
+            case "CHAR" -> new CHAR(args);
+            case "CHIDIST" -> new CHIDIST(args);
+            case "CHIINV" -> new CHIINV(args);
+            case "CHITEST" -> new CHITEST(args);
+            case "CHOOSE" -> new CHOOSE(args);
+            case "CLEAN" -> new CLEAN(args);
+            case "CODE" -> new CODE(args);
+            case "COLUMN" -> new COLUMN(args);
+            case "COLUMNS" -> new COLUMNS(args);
+            case "COMBIN" -> new COMBIN(args);
+            case "COMPLEX" -> new COMPLEX(args);
+            case "CONCATENATE" -> new CONCATENATE(args);
+            case "CONFIDENCE" -> new CONFIDENCE(args);
+            case "CONVERT" -> new CONVERT(args);
+            case "CORREL" -> new CORREL(args);
+            case "COS" -> new COS(args);
+            case "COSH" -> new COSH(args);
+            case "COUNT" -> new COUNT(args);
+            case "COUNTA" -> new COUNTA(args);
+            case "COUNTBLANK" -> new COUNTBLANK(args);
+            case "COUNTIF" -> new COUNTIF(args);
+            case "COUNTIFS" -> new COUNTIFS(args);
+            case "COUPDAYBS" -> new COUPDAYBS(args);
+            case "COUPDAYS" -> new COUPDAYS(args);
+            case "COUPDAYSNC" -> new COUPDAYSNC(args);
+            case "COUPNCD" -> new COUPNCD(args);
+            case "COUPNUM" -> new COUPNUM(args);
+            case "COUPPCD" -> new COUPPCD(args);
+            case "COVAR" -> new COVAR(args);
+            case "CRITBINOM" -> new CRITBINOM(args);
+            case "CUBEKPIMEMBER" -> new CUBEKPIMEMBER(args);
+            case "CUBEMEMBER" -> new CUBEMEMBER(args);
+            case "CUBEMEMBERPROPERTY" -> new CUBEMEMBERPROPERTY(args);
+            case "CUBERANKEDMEMBER" -> new CUBERANKEDMEMBER(args);
+            case "CUBESET" -> new CUBESET(args);
+            case "CUBESETCOUNT" -> new CUBESETCOUNT(args);
+            case "CUBEVALUE" -> new CUBEVALUE(args);
+            case "CUMIPMT" -> new CUMIPMT(args);
+            case "CUMPRINC" -> new CUMPRINC(args);
+            case "DATE" -> new DATE(args);
+            case "DATEVALUE" -> new DATEVALUE(args);
+            case "DAVERAGE" -> new DAVERAGE(args);
+            case "DAY" -> new DAY(args);
+            case "DAYS360" -> new DAYS360(args);
+            case "DB" -> new DB(args);
+            case "DCOUNT" -> new DCOUNT(args);
+            case "DCOUNTA" -> new DCOUNTA(args);
+            case "DDB" -> new DDB(args);
+            case "DEC2BIN" -> new DEC2BIN(args);
+            case "DEC2HEX" -> new DEC2HEX(args);
+            case "DEC2OCT" -> new DEC2OCT(args);
+            case "DEGREES" -> new DEGREES(args);
+            case "DELTA" -> new DELTA(args);
+            case "DEVSQ" -> new DEVSQ(args);
+            case "DGET" -> new DGET(args);
+            case "DISC" -> new DISC(args);
+            case "DMAX" -> new DMAX(args);
+            case "DMIN" -> new DMIN(args);
+            case "DOLLAR" -> new DOLLAR(args);
+            case "DOLLARDE" -> new DOLLARDE(args);
+            case "DOLLARFR" -> new DOLLARFR(args);
+            case "DPRODUCT" -> new DPRODUCT(args);
+            case "DSTDEV" -> new DSTDEV(args);
+            case "DSTDEVP" -> new DSTDEVP(args);
+            case "DSUM" -> new DSUM(args);
+            case "DURATION" -> new DURATION(args);
+            case "DVAR" -> new DVAR(args);
+            case "DVARP" -> new DVARP(args);
+            case "EDATEEFFECT" -> new EDATEEFFECT(args);
+            case "EOMONTH" -> new EOMONTH(args);
+            case "ERF" -> new ERF(args);
+            case "ERFC" -> new ERFC(args);
+            case "ERROR_TYPE" -> new ERROR_TYPE(args);
+            case "EUROCONVERT" -> new EUROCONVERT(args);
+            case "EVEN" -> new EVEN(args);
+            case "EXACT" -> new EXACT(args);
+            case "EXP" -> new EXP(args);
+            case "EXPONDIST" -> new EXPONDIST(args);
+            case "FACT" -> new FACT(args);
+            case "FACTDOUBLE" -> new FACTDOUBLE(args);
+            case "FALSE" -> new FALSE(args);
+            case "FDIST" -> new FDIST(args);
+            case "FIND" -> new FIND(args);
+            case "FINV" -> new FINV(args);
+            case "FISHER" -> new FISHER(args);
+            case "FISHERINV" -> new FISHERINV(args);
+            case "FIXED" -> new FIXED(args);
+            case "FLOOR" -> new FLOOR(args);
+            case "FORECAST" -> new FORECAST(args);
+            case "FREQUENCY" -> new FREQUENCY(args);
+            case "FTEST" -> new FTEST(args);
+            case "FV" -> new FV(args);
+            case "FVSCHEDULE" -> new FVSCHEDULE(args);
+            case "GAMMADIST" -> new GAMMADIST(args);
+            case "GAMMAINV" -> new GAMMAINV(args);
+            case "GAMMALN" -> new GAMMALN(args);
+            case "GCD" -> new GCD(args);
+            case "GEOMEAN" -> new GEOMEAN(args);
+            case "GESTEP" -> new GESTEP(args);
+            case "GETPIVOTDATA" -> new GETPIVOTDATA(args);
+            case "GROWTH" -> new GROWTH(args);
+            case "HARMEAN" -> new HARMEAN(args);
+            case "HEX2BIN" -> new HEX2BIN(args);
+            case "HEX2DEC" -> new HEX2DEC(args);
+            case "HEX2OCT" -> new HEX2OCT(args);
+            case "HLOOKUP" -> new HLOOKUP(args);
+            case "HOUR" -> new HOUR(args);
+            case "HYPERLINK" -> new HYPERLINK(args);
+            case "HYPGEOMDIST" -> new HYPGEOMDIST(args);
+            case "IF" -> new IF(args);
+            case "IFERROR" -> new IFERROR(args);
+            case "IMABS" -> new IMABS(args);
+            case "IMAGINARY" -> new IMAGINARY(args);
+            case "IMARGUMENT" -> new IMARGUMENT(args);
+            case "IMCONJUGATE" -> new IMCONJUGATE(args);
+            case "IMCOS" -> new IMCOS(args);
+            case "IMDIV" -> new IMDIV(args);
+            case "IMEXP" -> new IMEXP(args);
+            case "IMLN" -> new IMLN(args);
+            case "IMLOG10" -> new IMLOG10(args);
+            case "IMLOG2" -> new IMLOG2(args);
+            case "IMPOWER" -> new IMPOWER(args);
+            case "IMPRODUCT" -> new IMPRODUCT(args);
+            case "IMREAL" -> new IMREAL(args);
+            case "IMSIN" -> new IMSIN(args);
+            case "IMSQRT" -> new IMSQRT(args);
+            case "IMSUB" -> new IMSUB(args);
+            case "IMSUM" -> new IMSUM(args);
+            case "INDEX" -> new INDEX(args);
+            case "INDIRECT" -> new INDIRECT(args);
+            case "INFO" -> new INFO(args);
+            case "parseINT" -> new INT(args);
+            case "INTERCEPT" -> new INTERCEPT(args);
+            case "INTRATE" -> new INTRATE(args);
+            case "IPMT" -> new IPMT(args);
+            case "IRR" -> new IRR(args);
+            case "IS" -> new IS(args);
+            case "ISB" -> new ISB(args);
+            case "ISBLANK" -> new ISBLANK(args);
+            case "ISERROR" -> new ISERROR(args);
+            case "ISNA" -> new ISNA(args);
+            case "ISNUMBER" -> new ISNUMBER(args);
+            case "ISPMT" -> new ISPMT(args);
+            case "JIS" -> new JIS(args);
+            case "KURT" -> new KURT(args);
+            case "LARGE" -> new LARGE(args);
+            case "LCM" -> new LCM(args);
+            case "LEFT" -> new LEFT(args);
+            case "LEFTB" -> new LEFTB(args);
+            case "LEN" -> new LEN(args);
+            case "LENB" -> new LENB(args);
+            case "LINEST" -> new LINEST(args);
+            case "LN" -> new LN(args);
+            case "LOG" -> new LOG(args);
+            case "LOG10" -> new LOG10(args);
+            case "LOGEST" -> new LOGEST(args);
+            case "LOGINV" -> new LOGINV(args);
+            case "LOGNORMDIST" -> new LOGNORMDIST(args);
+            case "LOOKUP" -> new LOOKUP(args);
+            case "LOWER" -> new LOWER(args);
+            case "MATCH" -> new MATCH(args);
+            case "MAX" -> new MAX(args);
+            case "MAXA" -> new MAXA(args);
+            case "MDETERM" -> new MDETERM(args);
+            case "MDURATION" -> new MDURATION(args);
+            case "MEDIAN" -> new MEDIAN(args);
+            case "MID" -> new MID(args);
+            case "MIDB" -> new MIDB(args);
+            case "MIN" -> new MIN(args);
+            case "MINA" -> new MINA(args);
+            case "MINUTE" -> new MINUTE(args);
+            case "MINVERSE" -> new MINVERSE(args);
+            case "MIRR" -> new MIRR(args);
+            case "MMULT" -> new MMULT(args);
+            case "MOD" -> new MOD(args);
+            case "MODE" -> new MODE(args);
+            case "MONTH" -> new MONTH(args);
+            case "MROUND" -> new MROUND(args);
+            case "MULTINOMIAL" -> new MULTINOMIAL(args);
+            case "N" -> new N(args);
+            case "NA" -> new NA(args);
+            case "NEGBINOMDIST" -> new NEGBINOMDIST(args);
+            case "NETWORKDAYS" -> new NETWORKDAYS(args);
+            case "NOMINAL" -> new NOMINAL(args);
+            case "NORMDIST" -> new NORMDIST(args);
+            case "NORMINV" -> new NORMINV(args);
+            case "NORMSDIST" -> new NORMSDIST(args);
+            case "NORMSINV" -> new NORMSINV(args);
+            case "NOT" -> new NOT(args);
+            case "NOW" -> new NOW(args);
+            case "NPER" -> new NPER(args);
+            case "NPV" -> new NPV(args);
+            case "OCT2BIN" -> new OCT2BIN(args);
+            case "OCT2DEC" -> new OCT2DEC(args);
+            case "OCT2HEX" -> new OCT2HEX(args);
+            case "ODD" -> new ODD(args);
+            case "ODDFPRICE" -> new ODDFPRICE(args);
+            case "ODDFYIELD" -> new ODDFYIELD(args);
+            case "ODDLPRICE" -> new ODDLPRICE(args);
+            case "ODDLYIELD" -> new ODDLYIELD(args);
+            case "OFFSET" -> new OFFSET(args);
+            case "OR" -> new OR(args);
+            case "PEARSON" -> new PEARSON(args);
+            case "PERCENTILE" -> new PERCENTILE(args);
+            case "PERCENTRANK" -> new PERCENTRANK(args);
+            case "PERMUT" -> new PERMUT(args);
+            case "PHONETIC" -> new PHONETIC(args);
+            case "PI" -> new PI(args);
+            case "PMT" -> new PMT(args);
+            case "POISSON" -> new POISSON(args);
+            case "POWER" -> new POWER(args);
+            case "PPMT" -> new PPMT(args);
+            case "PRICE" -> new PRICE(args);
+            case "PRICEDISC" -> new PRICEDISC(args);
+            case "PRICEMAT" -> new PRICEMAT(args);
+            case "PROB" -> new PROB(args);
+            case "PRODUCT" -> new PRODUCT(args);
+            case "PROPER" -> new PROPER(args);
+            case "PV" -> new PV(args);
+            case "QUOTIENT" -> new QUOTIENT(args);
+            case "RADIANS" -> new RADIANS(args);
+            case "RAND" -> new RAND(args);
+            case "RANDBETWEEN" -> new RANDBETWEEN(args);
+            case "RANK" -> new RANK(args);
+            case "RATE" -> new RATE(args);
+            case "RECEIVED" -> new RECEIVED(args);
+            case "REGISTER_ID" -> new REGISTER_ID(args);
+            case "REPLACE" -> new REPLACE(args);
+            case "REPLACEB" -> new REPLACEB(args);
+            case "REPT" -> new REPT(args);
+            case "RIGHT" -> new RIGHT(args);
+            case "RIGHTB" -> new RIGHTB(args);
+            case "ROMAN" -> new ROMAN(args);
+            case "ROUND" -> new ROUND(args);
+            case "ROUNDDOWN" -> new ROUNDDOWN(args);
+            case "ROUNDUP" -> new ROUNDUP(args);
+            case "ROW" -> new ROW(args);
+            case "ROWS" -> new ROWS(args);
+            case "RSQ" -> new RSQ(args);
+            case "RTD" -> new RTD(args);
+            case "SEARCH" -> new SEARCH(args);
+            case "SEARCHB" -> new SEARCHB(args);
+            case "SECOND" -> new SECOND(args);
+            case "SERIESSUM" -> new SERIESSUM(args);
+            case "SIGN" -> new SIGN(args);
+            case "SIN" -> new SIN(args);
+            case "SINH" -> new SINH(args);
+            case "SKEW" -> new SKEW(args);
+            case "SLN" -> new SLN(args);
+            case "SLOPE" -> new SLOPE(args);
+            case "SMALL" -> new SMALL(args);
+            case "SQL_REQUEST" -> new SQL_REQUEST(args);
+            case "SQRT" -> new SQRT(args);
+            case "SQRTPI" -> new SQRTPI(args);
+            case "STANDARDIZE" -> new STANDARDIZE(args);
+            case "STDEV" -> new STDEV(args);
+            case "STDEVA" -> new STDEVA(args);
+            case "STDEVP" -> new STDEVP(args);
+            case "STDEVPA" -> new STDEVPA(args);
+            case "STEYX" -> new STEYX(args);
+            case "SUBSTITUTE" -> new SUBSTITUTE(args);
+            case "SUBTOTAL" -> new SUBTOTAL(args);
+            case "SUM" -> new SUM(args);
+            case "SUMIF" -> new SUMIF(args);
+            case "SUMIFS" -> new SUMIFS(args);
+            case "SUMPRODUCT" -> new SUMPRODUCT(args);
+            case "SUMSQ" -> new SUMSQ(args);
+            case "SUMX2MY2" -> new SUMX2MY2(args);
+            case "SUMX2PY2" -> new SUMX2PY2(args);
+            case "SUMXMY2" -> new SUMXMY2(args);
+            case "SYD" -> new SYD(args);
+            case "T" -> new T(args);
+            case "TAN" -> new TAN(args);
+            case "TANH" -> new TANH(args);
+            case "TBILLEQ" -> new TBILLEQ(args);
+            case "TBILLPRICE" -> new TBILLPRICE(args);
+            case "TBILLYIELD" -> new TBILLYIELD(args);
+            case "TDIST" -> new TDIST(args);
+            case "TEXT" -> new TEXT(args);
+            case "TIME" -> new TIME(args);
+            case "TIMEVALUE" -> new TIMEVALUE(args);
+            case "TINV" -> new TINV(args);
+            case "TODAY" -> new TODAY(args);
+            case "TRANSPOSE" -> new TRANSPOSE(args);
+            case "TREND" -> new TREND(args);
+            case "TRIM" -> new TRIM(args);
+            case "TRIMMEAN" -> new TRIMMEAN(args);
+            case "TRUE" -> new TRUE(args);
+            case "TRUNC" -> new TRUNC(args);
+            case "TTEST" -> new TTEST(args);
+            case "TYPE" -> new TYPE(args);
+            case "UPPER" -> new UPPER(args);
+            case "VALUE" -> new VALUE(args);
+            case "VAR" -> new VAR(args);
+            case "VARA" -> new VARA(args);
+            case "VARP" -> new VARP(args);
+            case "VARPA" -> new VARPA(args);
+            case "VDB" -> new VDB(args);
+            case "VLOOKUP" -> new VLOOKUP(args);
+            case "WEEKDAY" -> new WEEKDAY(args);
+            case "WEEKNUM" -> new WEEKNUM(args);
+            case "WEIBULL" -> new WEIBULL(args);
+            case "WORKDAY" -> new WORKDAY(args);
+            case "XIRR" -> new XIRR(args);
+            case "XNPV" -> new XNPV(args);
+            case "YEAR" -> new YEAR(args);
+            case "YEARFRAC" -> new YEARFRAC(args);
+            case "YIELD" -> new YIELD(args);
+            case "YIELDDISC" -> new YIELDDISC(args);
+            case "YIELDMAT" -> new YIELDMAT(args);
+            case "ZTEST" -> new ZTEST(args);
+            default -> null;
+        };
+        if(function == null) throw new UnsupportedBuiltinException("Unsupported " + name);
+        return (EXCEL_FUNCTION) function;
     }
 
-    public void create(int arity, String name) throws UnsupportedBuiltinException {
-        Class<?> clazz;
-        try {
-            clazz = clazzMap.get(name);
-            if(clazz == null)
-                throw new UnsupportedBuiltinException("Unsupported " + name);
-            if(arity == 0) {
-                Constructor<?> constructor = clazz.getConstructor();
-                builtInFunction = (Start) constructor.newInstance();
-                return;
-            }
-            args = new Formula[arity];
-            Constructor<?> constructor = clazz.getConstructor(Formula[].class);
-            builtInFunction = (Start) constructor.newInstance(new Object[]{args});
-        } catch(NoSuchMethodException | SecurityException | InstantiationException | IllegalAccessException | IllegalArgumentException | InvocationTargetException ex) {
-            LOG.log(Level.SEVERE, null, ex);
-            throw new UnsupportedBuiltinException(ex.getMessage());
-        }
+    /**
+     * The function name called without arguments, only for functions with a no-argument constructor.
+     */
+    static EXCEL_FUNCTION create(String name) throws UnsupportedBuiltinException {
+        Object function = switch(name) {
+            case "NOW" -> new NOW();
+            case "TODAY" -> new TODAY();
+            default -> throw new UnsupportedBuiltinException("Unsupported " + name);
+        };
+        return (EXCEL_FUNCTION) function;
     }
 
 }
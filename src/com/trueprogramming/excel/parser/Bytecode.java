@@ -0,0 +1,261 @@
+/*
+ * Efesto - Excel Formula Extractor System and Topological Ordering algorithm.
+ * Copyright (C) 2017 Massimo Caliman mcaliman@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * If AGPL Version 3.0 terms are incompatible with your use of
+ * Efesto, alternative license terms are available from Massimo Caliman
+ * please direct inquiries about Efesto licensing to mcaliman@gmail.com
+ */
+
+package com.trueprogramming.excel.parser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Minimal class file writer for a final class with a single static method of straight-line code:
+ * no branches, so no stack map frames are needed, the operand stack depth is tracked as instructions are emitted.
+ *
+ * @author Massimo Caliman
+ */
+final class Bytecode {
+
+    static final int ALOAD_0 = 0x2a;
+    static final int DCONST_0 = 0x0e;
+    static final int DCONST_1 = 0x0f;
+    static final int DALOAD = 0x31;
+    static final int DASTORE = 0x52;
+    static final int DADD = 0x63;
+    static final int DSUB = 0x67;
+    static final int DMUL = 0x6b;
+    static final int DDIV = 0x6f;
+    static final int DNEG = 0x77;
+    static final int RETURN = 0xb1;
+
+    private static final int MAGIC = 0xCAFEBABE;
+    private static final int VERSION = 61;//Java 17
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_STATIC = 0x0008;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream poolOut = new DataOutputStream(pool);
+    private final Map<Object, Integer> constants = new HashMap<>();
+    private int count = 1;//constant pool entries, 0 is not used
+
+    private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+    private int stack;
+    private int maxStack;
+
+    private final String className;
+
+    /**
+     * @param className internal name, e.g. com/trueprogramming/excel/parser/Compiled
+     */
+    Bytecode(String className) {
+        this.className = className;
+    }
+
+    //<editor-fold desc="Constant pool">
+
+    private int constant(Object key, int tag, int slots, Writer writer) {
+        Integer index = constants.get(key);
+        if(index != null) return index;
+        try {
+            poolOut.writeByte(tag);
+            writer.write(poolOut);
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        index = count;
+        count += slots;
+        constants.put(key, index);
+        return index;
+    }
+
+    private int utf8(String value) {
+        return constant("U" + value, CONSTANT_UTF8, 1, out -> out.writeUTF(value));
+    }
+
+    private int classRef(String name) {
+        int utf8 = utf8(name);
+        return constant("C" + name, CONSTANT_CLASS, 1, out -> out.writeShort(utf8));
+    }
+
+    private int integer(int value) {
+        return constant(value, CONSTANT_INTEGER, 1, out -> out.writeInt(value));
+    }
+
+    private int decimal(double value) {
+        return constant(Double.doubleToRawLongBits(value), CONSTANT_DOUBLE, 2, out -> out.writeDouble(value));
+    }
+
+    private int methodRef(String owner, String name, String descriptor) {
+        int ownerIndex = classRef(owner);
+        int nameIndex = utf8(name), descriptorIndex = utf8(descriptor);
+        int nameAndType = constant("N" + name + descriptor, CONSTANT_NAME_AND_TYPE, 1, out -> {
+            out.writeShort(nameIndex);
+            out.writeShort(descriptorIndex);
+        });
+        return constant("M" + owner + "." + name + descriptor, CONSTANT_METHODREF, 1, out -> {
+            out.writeShort(ownerIndex);
+            out.writeShort(nameAndType);
+        });
+    }
+
+    private interface Writer {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    //</editor-fold>
+
+    //<editor-fold desc="Code">
+
+    /**
+     * An instruction without operands, delta is its effect on the stack depth in slots.
+     */
+    void op(int opcode, int delta) {
+        code.write(opcode);
+        stack(delta);
+    }
+
+    void pushInt(int value) {
+        if(value >= -1 && value <= 5) code.write(0x03 + value);//iconst_<n>
+        else if(value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            code.write(0x10);//bipush
+            code.write(value);
+        } else if(value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            code.write(0x11);//sipush
+            u2(value);
+        } else {
+            code.write(0x13);//ldc_w
+            u2(integer(value));
+        }
+        stack(1);
+    }
+
+    void pushDouble(double value) {
+        if(Double.doubleToRawLongBits(value) == 0L) code.write(DCONST_0);
+        else if(value == 1) code.write(DCONST_1);
+        else {
+            code.write(0x14);//ldc2_w
+            u2(decimal(value));
+        }
+        stack(2);
+    }
+
+    void dload(int local) {
+        local(0x18, local);
+        stack(2);
+    }
+
+    void dstore(int local) {
+        local(0x39, local);
+        stack(-2);
+    }
+
+    /**
+     * invokestatic, delta is the stack effect of the call: result slots less argument slots.
+     */
+    void invokestatic(String owner, String name, String descriptor, int delta) {
+        code.write(0xb8);
+        u2(methodRef(owner, name, descriptor));
+        stack(delta);
+    }
+
+    private void local(int opcode, int local) {
+        if(local <= 0xFF) {
+            code.write(opcode);
+            code.write(local);
+        } else {
+            code.write(0xc4);//wide
+            code.write(opcode);
+            u2(local);
+        }
+    }
+
+    private void u2(int value) {
+        code.write(value >>> 8);
+        code.write(value);
+    }
+
+    private void stack(int delta) {
+        stack += delta;
+        maxStack = Math.max(maxStack, stack);
+    }
+
+    /**
+     * Bytes of code emitted so far.
+     */
+    int size() {
+        return code.size();
+    }
+
+    //</editor-fold>
+
+    /**
+     * The class with the code as public static method name, ending with return.
+     */
+    byte[] toByteArray(String name, String descriptor, int maxLocals) {
+        try {
+            op(RETURN, 0);
+            int thisClass = classRef(className), superClass = classRef("java/lang/Object");
+            int nameIndex = utf8(name), descriptorIndex = utf8(descriptor), attribute = utf8("Code");
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(pool.size() + code.size() + 64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+            out.writeShort(count);
+            pool.writeTo(out);
+            out.writeShort(ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0);//interfaces
+            out.writeShort(0);//fields
+            out.writeShort(1);//methods
+            out.writeShort(ACC_PUBLIC | ACC_STATIC);
+            out.writeShort(nameIndex);
+            out.writeShort(descriptorIndex);
+            out.writeShort(1);//attributes
+            out.writeShort(attribute);
+            out.writeInt(12 + code.size());
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(code.size());
+            code.writeTo(out);
+            out.writeShort(0);//exception table
+            out.writeShort(0);//attributes
+            out.writeShort(0);//class attributes
+            out.flush();
+            return bytes.toByteArray();
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,548 @@
+/*
+ * Efesto - Excel Formula Extractor System and Topological Ordering algorithm.
+ * Copyright (C) 2017 Massimo Caliman mcaliman@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * If AGPL Version 3.0 terms are incompatible with your use of
+ * Efesto, alternative license terms are available from Massimo Caliman
+ * please direct inquiries about Efesto licensing to mcaliman@gmail.com
+ */
+
+package com.trueprogramming.excel.parser;
+
+import com.trueprogramming.excel.grammar.lexicaltokens.BOOL;
+import com.trueprogramming.excel.grammar.lexicaltokens.CELL;
+import com.trueprogramming.excel.grammar.lexicaltokens.EXCEL_FUNCTION;
+import com.trueprogramming.excel.grammar.lexicaltokens.FLOAT;
+import com.trueprogramming.excel.grammar.lexicaltokens.INT;
+import com.trueprogramming.excel.grammar.nonterm.Formula;
+import com.trueprogramming.excel.grammar.nonterm.ParenthesisFormula;
+import com.trueprogramming.excel.grammar.nonterm.PercentFormula;
+import com.trueprogramming.excel.grammar.nonterm.PrefixReferenceItem;
+import com.trueprogramming.excel.grammar.nonterm.Start;
+import com.trueprogramming.excel.grammar.nonterm.binary.Add;
+import com.trueprogramming.excel.grammar.nonterm.binary.Binary;
+import com.trueprogramming.excel.grammar.nonterm.binary.Concat;
+import com.trueprogramming.excel.grammar.nonterm.binary.Divide;
+import com.trueprogramming.excel.grammar.nonterm.binary.Eq;
+import com.trueprogramming.excel.grammar.nonterm.binary.Gt;
+import com.trueprogramming.excel.grammar.nonterm.binary.GtEq;
+import com.trueprogramming.excel.grammar.nonterm.binary.Leq;
+import com.trueprogramming.excel.grammar.nonterm.binary.Lt;
+import com.trueprogramming.excel.grammar.nonterm.binary.Mult;
+import com.trueprogramming.excel.grammar.nonterm.binary.Neq;
+import com.trueprogramming.excel.grammar.nonterm.binary.Power;
+import com.trueprogramming.excel.grammar.nonterm.binary.Sub;
+import com.trueprogramming.excel.grammar.nonterm.unary.Minus;
+import com.trueprogramming.excel.grammar.nonterm.unary.Plus;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The numeric formulas of an evaluated workbook, in dependency order, and the layout of their values, shared by
+ * the backends: FormulaCompiler (bytecode) and JavaWriter (Java source).
+ * <p>
+ * Compiled are the formulas made of numbers, booleans, references to numeric, boolean or blank cells and to compiled
+ * formulas, the arithmetic and comparison operators, % and the functions of function(); the others are left to the
+ * Evaluator. An error is NaN, a boolean 1 or 0.
+ * <p>
+ * The values array holds the inputs (the cells read by the formulas), the formula results and, for every area read by
+ * SUM, AVERAGE, MIN, MAX, COUNT or PRODUCT, a region with a copy of its numeric cells: a backend writes a value at
+ * its index and at the indexes of its copies.
+ *
+ * @author Massimo Caliman
+ */
+final class Compilation {
+
+    private static final byte UNKNOWN = 0;
+    private static final byte VISITING = 1;
+    private static final byte COMPILED = 2;
+    private static final byte REJECTED = 3;
+
+    private static final int[] NO_COPIES = new int[0];
+
+    private final Evaluator evaluator;
+    private final WorkbookSource workbook;
+    private final byte[] states;//by slot of the evaluator
+    private final byte[] kinds;//NUMBER or BOOLEAN
+    private final int[] indexes;//in values
+    private final int[] order;//compiled slots in dependency order
+    private int compiled;
+
+    private final Map<Long, Integer> inputs = new LinkedHashMap<>();//cell key -> index in values
+    private final Set<Long> booleans = new HashSet<>();//keys of the boolean inputs
+    private final Map<Long, List<Integer>> copies = new HashMap<>();//cell key -> indexes in regions
+    private final Map<Evaluator.Area, Region> regions = new HashMap<>();
+
+    private double[] values = new double[64];
+    private int size;
+
+    /**
+     * @param evaluator an evaluator after evaluate(), for the values of the inputs
+     */
+    Compilation(Evaluator evaluator) {
+        this.evaluator = evaluator;
+        this.workbook = evaluator.getWorkbook();
+        int slots = evaluator.size();
+        this.states = new byte[slots];
+        this.kinds = new byte[slots];
+        this.indexes = new int[slots];
+        this.order = new int[slots];
+        for(int slot = 0; slot < slots; slot++) analyze(slot);
+        this.values = Arrays.copyOf(values, size);
+    }
+
+    /**
+     * Number of formulas compiled.
+     */
+    int size() {
+        return compiled;
+    }
+
+    /**
+     * Slot in the evaluator of the i-th compiled formula.
+     */
+    int slot(int i) {
+        return order[i];
+    }
+
+    Start getFormula(int slot) {
+        return evaluator.getFormula(slot);
+    }
+
+    byte kind(int slot) {
+        return kinds[slot];
+    }
+
+    int index(int slot) {
+        return indexes[slot];
+    }
+
+    /**
+     * Slot of a compiled formula at key, -1 if there is none.
+     */
+    int compiled(long key) {
+        int slot = evaluator.slot(key);
+        return slot >= 0 && states[slot] == COMPILED ? slot : -1;
+    }
+
+    /**
+     * Index of the input at key, -1 if key is not read by the compiled formulas.
+     */
+    int input(long key) {
+        Integer input = inputs.get(key);
+        return input == null ? -1 : input;
+    }
+
+    /**
+     * Keys of the inputs, by index.
+     */
+    Iterable<Long> inputs() {
+        return inputs.keySet();
+    }
+
+    boolean isBoolean(long key) {
+        return booleans.contains(key);
+    }
+
+    int[] copies(long key) {
+        List<Integer> positions = copies.get(key);
+        return positions == null ? NO_COPIES : positions.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Values of the inputs and of their copies, the formula results are 0.
+     */
+    double[] values() {
+        return values;
+    }
+
+    long key(String sheetName, int row, int column) {
+        return AbstractParser.cellKey(workbook.getSheetIndex(sheetName), row, column);
+    }
+
+    String getSheetName(long key) {
+        return workbook.getSheetName((int) (key >>> 34) & 0xFFFF);
+    }
+
+    private int allocate(double value) {
+        if(size == values.length) values = Arrays.copyOf(values, size * 2);
+        values[size] = value;
+        return size++;
+    }
+
+    //<editor-fold desc="Analysis">
+
+    private void analyze(int slot) {
+        if(states[slot] != UNKNOWN) return;
+        states[slot] = VISITING;
+        int kind = evaluator.getFormula(slot) instanceof Formula formula ? kind(formula) : -1;
+        if(kind < 0) {
+            states[slot] = REJECTED;
+            return;
+        }
+        kinds[slot] = (byte) kind;
+        indexes[slot] = allocate(0);
+        order[compiled++] = slot;
+        states[slot] = COMPILED;
+    }
+
+    /**
+     * NUMBER or BOOLEAN, the type of the value of a formula that can be compiled, -1 otherwise.
+     */
+    @SuppressWarnings("deprecation")
+    private int kind(Formula formula) {
+        if(formula instanceof INT || formula instanceof FLOAT) return Evaluator.NUMBER;
+        if(formula instanceof BOOL) return Evaluator.BOOLEAN;
+        if(formula instanceof ParenthesisFormula parenthesis) return kind(parenthesis.getFormula());
+        if(formula instanceof Plus plus) return kind(plus.getFormula());
+        if(formula instanceof Minus minus) return number(kind(minus.getFormula()));
+        if(formula instanceof PercentFormula percent) return number(kind(percent.getFormula()));
+        if(formula instanceof Concat) return -1;
+        if(formula instanceof Binary binary) {
+            int left = kind(binary.getlFormula()), right = kind(binary.getrFormula());
+            if(left < 0 || right < 0) return -1;
+            if(comparison(binary)) return left == right ? Evaluator.BOOLEAN : -1;
+            return arithmetic(binary) ? Evaluator.NUMBER : -1;
+        }
+        if(formula instanceof CELL || formula instanceof PrefixReferenceItem && formula.key() >= 0) return reference(formula);
+        if(formula instanceof EXCEL_FUNCTION function) return function(function);
+        return -1;
+    }
+
+    private static int number(int kind) {
+        return kind < 0 ? -1 : Evaluator.NUMBER;
+    }
+
+    private static boolean comparison(Binary binary) {
+        return binary instanceof Eq || binary instanceof Neq || binary instanceof Lt || binary instanceof Leq
+                || binary instanceof Gt || binary instanceof GtEq;
+    }
+
+    private static boolean arithmetic(Binary binary) {
+        return binary instanceof Add || binary instanceof Sub || binary instanceof Mult || binary instanceof Divide
+                || binary instanceof Power;
+    }
+
+    /**
+     * Kind of a referenced cell: a compiled formula, or an input registered on first use.
+     */
+    private int reference(Formula formula) {
+        Evaluator.Area area = evaluator.area(formula);
+        if(area == null || area.sheet() < 0) return -1;
+        long key = AbstractParser.cellKey(area.sheet(), area.firstRow(), area.firstColumn());
+        int slot = evaluator.slot(key);
+        if(slot >= 0) {
+            analyze(slot);
+            return states[slot] == COMPILED ? kinds[slot] : -1;
+        }
+        if(inputs.containsKey(key)) return booleans.contains(key) ? Evaluator.BOOLEAN : Evaluator.NUMBER;
+        if(literal(area.sheet(), area.firstRow(), area.firstColumn())) return -1;
+        byte type = evaluator.type(area.sheet(), area.firstRow(), area.firstColumn());
+        if(type != Evaluator.NUMBER && type != Evaluator.BOOLEAN && type != Evaluator.BLANK) return -1;
+        inputs.put(key, allocate(evaluator.number()));
+        if(type != Evaluator.BOOLEAN) return Evaluator.NUMBER;
+        booleans.add(key);
+        return Evaluator.BOOLEAN;
+    }
+
+    /**
+     * Formula cell out of the sorted list (=TRUE, =B1), left to the evaluator.
+     */
+    private boolean literal(int sheetIndex, int row, int column) {
+        return !workbook.hasValue(sheetIndex, row, column) && workbook.getValue(sheetIndex, row, column) != null;
+    }
+
+    private int function(EXCEL_FUNCTION function) {
+        Formula[] args = function.getArgs() == null ? new Formula[0] : function.getArgs();
+        for(Formula arg : args) if(arg == null) return -1;//missing argument
+        switch(function.getClass().getSimpleName()) {
+            case "SUM", "SUMSQ", "AVERAGE", "MIN", "MAX", "COUNT", "PRODUCT" -> {
+                if(args.length == 0) return -1;
+                for(Formula arg : args) {
+                    Evaluator.Area area = evaluator.area(arg);
+                    if(area != null ? region(area) == null : kind(arg) < 0) return -1;
+                }
+                return Evaluator.NUMBER;
+            }
+            case "IF" -> {
+                if(args.length != 3 || kind(args[0]) < 0) return -1;
+                int kind = kind(args[1]);
+                return kind == kind(args[2]) ? kind : -1;
+            }
+            case "AND", "OR" -> {
+                if(args.length == 0) return -1;
+                for(Formula arg : args) if(kind(arg) < 0) return -1;
+                return Evaluator.BOOLEAN;
+            }
+            case "NOT" -> {
+                return args.length == 1 && kind(args[0]) >= 0 ? Evaluator.BOOLEAN : -1;
+            }
+            case "TRUE", "FALSE" -> {
+                return args.length == 0 ? Evaluator.BOOLEAN : -1;
+            }
+            case "PI" -> {
+                return args.length == 0 ? Evaluator.NUMBER : -1;
+            }
+            case "ABS", "SQRT", "EXP", "LN", "INT" -> {
+                return args.length == 1 ? number(kind(args[0])) : -1;
+            }
+            case "MOD", "POWER" -> {
+                return args.length == 2 && kind(args[0]) >= 0 ? number(kind(args[1])) : -1;
+            }
+            case "ROUND", "ROUNDUP", "ROUNDDOWN" -> {
+                if(args.length < 1 || args.length > 2 || args.length == 2 && kind(args[1]) < 0) return -1;
+                return number(kind(args[0]));
+            }
+            default -> {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Region of the numeric cells of an area, inside the used range; null if a cell cannot be compiled.
+     * Text, boolean and blank cells are left out, as the aggregates skip them.
+     */
+    private Region region(Evaluator.Area area) {
+        if(regions.containsKey(area)) return regions.get(area);
+        Region region = null;
+        if(area.sheet() >= 0) {
+            List<Long> keys = cells(area);
+            if(keys != null) {
+                int from = size;
+                for(long key : keys) {
+                    Integer input = inputs.get(key);
+                    int position = allocate(input != null ? values[input] : 0);
+                    copies.computeIfAbsent(key, k -> new ArrayList<>()).add(position);
+                }
+                region = new Region(from, size);
+            }
+        }
+        regions.put(area, region);
+        return region;
+    }
+
+    private List<Long> cells(Evaluator.Area area) {
+        List<Long> keys = new ArrayList<>();
+        int lastRow = Math.min(area.lastRow(), workbook.getLastRow(area.sheet()));
+        int lastColumn = Math.min(area.lastColumn(), workbook.getLastColumn(area.sheet()));
+        for(int row = area.firstRow(); row <= lastRow; row++)
+            for(int column = area.firstColumn(); column <= lastColumn; column++) {
+                long key = AbstractParser.cellKey(area.sheet(), row, column);
+                int slot = evaluator.slot(key);
+                if(slot >= 0) {
+                    analyze(slot);
+                    if(states[slot] != COMPILED) return null;
+                    if(kinds[slot] == Evaluator.NUMBER) keys.add(key);
+                    continue;
+                }
+                if(literal(area.sheet(), row, column)) return null;
+                byte type = evaluator.type(area.sheet(), row, column);
+                if(type == Evaluator.ERROR_VALUE) return null;
+                if(type != Evaluator.NUMBER) continue;
+                if(!inputs.containsKey(key)) inputs.put(key, allocate(evaluator.number()));
+                keys.add(key);
+            }
+        return keys;
+    }
+
+    private record Region(int from, int to) {
+
+        boolean isEmpty() {
+            return from == to;
+        }
+    }
+
+    //</editor-fold>
+
+    //<editor-fold desc="Code generation">
+
+    /**
+     * Code of a backend, as the instructions of a stack machine on doubles.
+     */
+    interface Target {
+
+        void constant(double value);
+
+        /**
+         * values[index], the result of the compiled formula slot or an input when slot is -1.
+         */
+        void load(int index, int slot);
+
+        /**
+         * Bytecode.DADD, DSUB, DMUL, DDIV on the two values on top, DNEG on the top.
+         */
+        void operator(int opcode);
+
+        /**
+         * Static method of owner taking arity doubles and returning a double.
+         */
+        void call(Class<?> owner, String name, int arity);
+
+        /**
+         * Kernel of Kernels on the region [from, to) of values.
+         */
+        void region(String kernel, int from, int to);
+    }
+
+    /**
+     * Code computing the value of a formula accepted by kind().
+     */
+    @SuppressWarnings("deprecation")
+    void emit(Formula formula, Target target) {
+        if(formula instanceof INT constant) target.constant(constant.getValue());
+        else if(formula instanceof FLOAT constant) target.constant(constant.getValue());
+        else if(formula instanceof BOOL constant) target.constant(constant.getValue() != null && constant.getValue() ? 1 : 0);
+        else if(formula instanceof ParenthesisFormula parenthesis) emit(parenthesis.getFormula(), target);
+        else if(formula instanceof Plus plus) emit(plus.getFormula(), target);
+        else if(formula instanceof Minus minus) {
+            emit(minus.getFormula(), target);
+            target.operator(Bytecode.DNEG);
+        } else if(formula instanceof PercentFormula percent) {
+            emit(percent.getFormula(), target);
+            target.constant(100);
+            target.operator(Bytecode.DDIV);
+        } else if(formula instanceof Binary binary) {
+            emit(binary.getlFormula(), target);
+            emit(binary.getrFormula(), target);
+            if(binary instanceof Add) target.operator(Bytecode.DADD);
+            else if(binary instanceof Sub) target.operator(Bytecode.DSUB);
+            else if(binary instanceof Mult) target.operator(Bytecode.DMUL);
+            else if(binary instanceof Divide) target.call(Kernels.class, "divide", 2);
+            else if(binary instanceof Power) target.call(Kernels.class, "power", 2);
+            else if(binary instanceof Eq) target.call(Kernels.class, "eq", 2);
+            else if(binary instanceof Neq) target.call(Kernels.class, "neq", 2);
+            else if(binary instanceof Lt) target.call(Kernels.class, "lt", 2);
+            else if(binary instanceof Leq) target.call(Kernels.class, "leq", 2);
+            else if(binary instanceof Gt) target.call(Kernels.class, "gt", 2);
+            else target.call(Kernels.class, "geq", 2);
+        } else if(formula instanceof EXCEL_FUNCTION function) emitFunction(function, target);
+        else {
+            Evaluator.Area area = evaluator.area(formula);
+            long key = AbstractParser.cellKey(area.sheet(), area.firstRow(), area.firstColumn());
+            int slot = evaluator.slot(key);
+            target.load(slot >= 0 ? indexes[slot] : inputs.get(key), slot);
+        }
+    }
+
+    private void emitFunction(EXCEL_FUNCTION function, Target target) {
+        Formula[] args = function.getArgs() == null ? new Formula[0] : function.getArgs();
+        String name = function.getClass().getSimpleName();
+        switch(name) {
+            case "SUM" -> aggregate(args, "sum", null, false, target);
+            case "SUMSQ" -> aggregate(args, "sumsq", null, false, target);
+            case "PRODUCT" -> aggregate(args, "product", null, true, target);
+            case "MIN" -> aggregate(args, "min", "min", true, target);
+            case "MAX" -> aggregate(args, "max", "max", true, target);
+            case "COUNT" -> count(args, target);
+            case "AVERAGE" -> {
+                aggregate(args, "sum", null, false, target);
+                count(args, target);
+                target.call(Kernels.class, "divide", 2);
+            }
+            case "IF" -> {
+                for(Formula arg : args) emit(arg, target);
+                target.call(Kernels.class, "choose", 3);
+            }
+            case "AND", "OR" -> {
+                String kernel = name.toLowerCase();
+                emit(args[0], target);
+                target.constant(name.equals("AND") ? 1 : 0);
+                target.call(Kernels.class, kernel, 2);
+                for(int i = 1; i < args.length; i++) {
+                    emit(args[i], target);
+                    target.call(Kernels.class, kernel, 2);
+                }
+            }
+            case "NOT" -> unary(args, Kernels.class, "not", target);
+            case "TRUE" -> target.constant(1);
+            case "FALSE" -> target.constant(0);
+            case "PI" -> target.constant(Math.PI);
+            case "ABS" -> unary(args, Math.class, "abs", target);
+            case "EXP" -> unary(args, Math.class, "exp", target);
+            case "INT" -> unary(args, Math.class, "floor", target);
+            case "SQRT" -> unary(args, Kernels.class, "sqrt", target);
+            case "LN" -> unary(args, Kernels.class, "ln", target);
+            case "MOD" -> binary(args, "mod", target);
+            case "POWER" -> binary(args, "power", target);
+            default -> {//ROUND, ROUNDUP, ROUNDDOWN
+                emit(args[0], target);
+                if(args.length > 1) emit(args[1], target);
+                else target.constant(0);
+                target.call(Kernels.class, name.equals("ROUND") ? "round" : name.equals("ROUNDUP") ? "roundUp" : "roundDown", 2);
+            }
+        }
+    }
+
+    private void unary(Formula[] args, Class<?> owner, String name, Target target) {
+        emit(args[0], target);
+        target.call(owner, name, 1);
+    }
+
+    private void binary(Formula[] args, String name, Target target) {
+        emit(args[0], target);
+        emit(args[1], target);
+        target.call(Kernels.class, name, 2);
+    }
+
+    /**
+     * The parts of an aggregate, areas through the kernel and single values, added or combined by a Math method.
+     * An empty area is left out, nothing at all is 0 when empty is true.
+     */
+    private void aggregate(Formula[] args, String kernel, String combine, boolean empty, Target target) {
+        int parts = 0;
+        for(Formula arg : args) {
+            Evaluator.Area area = evaluator.area(arg);
+            if(area != null) {
+                Region region = regions.get(area);
+                if(empty && region.isEmpty()) continue;
+                target.region(kernel, region.from(), region.to());
+            } else {
+                emit(arg, target);
+                if(kernel.equals("sumsq")) target.call(Kernels.class, "sumsq", 1);
+            }
+            if(parts++ > 0) {
+                if(combine != null) target.call(Math.class, combine, 2);
+                else if(kernel.equals("product")) target.operator(Bytecode.DMUL);
+                else target.operator(Bytecode.DADD);
+            }
+        }
+        if(parts == 0) target.constant(0);
+    }
+
+    private void count(Formula[] args, Target target) {
+        for(int i = 0; i < args.length; i++) {
+            Evaluator.Area area = evaluator.area(args[i]);
+            if(area != null) {
+                Region region = regions.get(area);
+                target.region("count", region.from(), region.to());
+            } else {
+                emit(args[i], target);
+                target.call(Kernels.class, "counted", 1);
+            }
+            if(i > 0) target.operator(Bytecode.DADD);
+        }
+    }
+
+    //</editor-fold>
+}
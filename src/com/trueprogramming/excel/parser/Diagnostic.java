@@ -0,0 +1,84 @@
+/*
+ * Efesto - Excel Formula Extractor System and Topological Ordering algorithm.
+ * Copyright (C) 2017 Massimo Caliman mcaliman@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * If AGPL Version 3.0 terms are incompatible with your use of
+ * Efesto, alternative license terms are available from Massimo Caliman
+ * please direct inquiries about Efesto licensing to mcaliman@gmail.com
+ */
+
+package com.trueprogramming.excel.parser;
+
+/**
+ * An event reported by the parser, the text is built only when the event is printed.
+ *
+ * @author Massimo Caliman
+ */
+public final class Diagnostic {
+
+    public enum Kind {
+        FORMULA,//formula found, printed on the standard output
+        VERBOSE,//trace of the parser in verbose mode, printed on the standard output
+        FORMULA_PARSE_ERROR,//formula text not tokenized by POI
+        PARSE_ERROR,//token not parsed
+        DELETED_REFERENCE,
+        UNKNOWN_TOKEN,
+        MISSING_ARGUMENTS,
+        UNSUPPORTED_FUNCTION,
+        CIRCULAR_REFERENCE,//cells of a cycle found by the sort
+        ERROR
+    }
+
+    private final Kind kind;
+    private final String address;
+    private final String message;
+
+    public Diagnostic(Kind kind, String address, String message) {
+        this.kind = kind;
+        this.address = address;
+        this.message = message;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * Is it printed on the standard output instead of the standard error?
+     */
+    public boolean isOutput() {
+        return kind == Kind.FORMULA || kind == Kind.VERBOSE;
+    }
+
+    @Override
+    public String toString() {
+        return switch(kind) {
+            case FORMULA -> "Formula Plain Text: " + address + " = " + message;
+            case DELETED_REFERENCE -> address + " does formula refer to deleted cell";
+            case MISSING_ARGUMENTS -> "Missing ExcelFunction Arguments for cell: " + address;
+            case UNSUPPORTED_FUNCTION, ERROR -> address + " error: " + message;
+            default -> message;
+        };
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Efesto - Excel Formula Extractor System and Topological Ordering algorithm.
+ * Copyright (C) 2017 Massimo Caliman mcaliman@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * If AGPL Version 3.0 terms are incompatible with your use of
+ * Efesto, alternative license terms are available from Massimo Caliman
+ * please direct inquiries about Efesto licensing to mcaliman@gmail.com
+ */
+
+package com.trueprogramming.excel.parser;
+
+/**
+ * Sink of the parser diagnostics.
+ *
+ * @author Massimo Caliman
+ */
+public interface Diagnostics {
+
+    /**
+     * Drops everything, the parser does not even build the events.
+     */
+    Diagnostics SILENT = new Diagnostics() {
+        @Override
+        public void report(Diagnostic diagnostic) {
+        }
+
+        @Override
+        public boolean isEnabled() {
+            return false;
+        }
+    };
+
+    void report(Diagnostic diagnostic);
+
+    default boolean isEnabled() {
+        return true;
+    }
+
+    /**
+     * Wait until the events reported so far have been written.
+     */
+    default void flush() {
+    }
+
+    /**
+     * Events printed on System.out and System.err by a background thread.
+     */
+    static Diagnostics console() {
+        return AsyncDiagnostics.CONSOLE;
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Efesto - Excel Formula Extractor System and Topological Ordering algorithm.
+ * Copyright (C) 2017 Massimo Caliman mcaliman@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * If AGPL Version 3.0 terms are incompatible with your use of
+ * Efesto, alternative license terms are available from Massimo Caliman
+ * please direct inquiries about Efesto licensing to mcaliman@gmail.com
+ */
+
+package com.trueprogramming.excel.parser;
+
+import org.apache.poi.hssf.usermodel.HSSFDateUtil;
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.ss.formula.FormulaParseException;
+import org.apache.poi.ss.formula.FormulaParser;
+import org.apache.poi.ss.formula.FormulaType;
+import org.apache.poi.ss.formula.ptg.NamePtg;
+import org.apache.poi.ss.formula.ptg.Ptg;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.usermodel.WorkbookFactory;
+import org.apache.poi.xssf.usermodel.XSSFEvaluationWorkbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.function.Consumer;
+
+import static org.apache.poi.ss.usermodel.Cell.*;
+
+/**
+ * WorkbookSource over the POI usermodel, the whole workbook is loaded in memory.
+ * The POI usermodel is not documented as thread safe, so the sheets are not read concurrently (isConcurrent).
+ * The formula evaluation workbook caches its sheets lazily: its accessors are synchronized,
+ * and each sheet context gets its own evaluation workbook and templates (forSheet).
+ *
+ * @author Massimo Caliman
+ */
+final class DomWorkbookSource implements WorkbookSource {
+
+    private final Workbook workbook;
+    private final XSSFEvaluationWorkbook evaluation;
+    private final int[] lastColumns;
+    private final FormulaTemplates templates = new FormulaTemplates();
+
+    DomWorkbookSource(File file) throws IOException, InvalidFormatException {
+        this.workbook = WorkbookFactory.create(file);
+        this.evaluation = XSSFEvaluationWorkbook.create((XSSFWorkbook) this.workbook);
+        this.lastColumns = new int[this.workbook.getNumberOfSheets()];
+        for(int sheetIndex = 0; sheetIndex < this.lastColumns.length; sheetIndex++) {
+            int last = -1;
+            for(Row row : this.workbook.getSheetAt(sheetIndex)) last = Math.max(last, row.getLastCellNum() - 1);
+            this.lastColumns[sheetIndex] = last;
+        }
+    }
+
+    private DomWorkbookSource(DomWorkbookSource parent) {
+        this.workbook = parent.workbook;
+        this.evaluation = XSSFEvaluationWorkbook.create((XSSFWorkbook) this.workbook);
+        this.lastColumns = parent.lastColumns;
+    }
+
+    @Override
+    public WorkbookSource forSheet(int sheetIndex) {
+        return new DomWorkbookSource(this);
+    }
+
+    @Override
+    public int getNumberOfSheets() {
+        return this.workbook.getNumberOfSheets();
+    }
+
+    @Override
+    public String getSheetName(int sheetIndex) {
+        return this.workbook.getSheetName(sheetIndex);
+    }
+
+    @Override
+    public synchronized int getSheetIndex(String sheetName) {
+        return this.evaluation.getSheetIndex(sheetName);
+    }
+
+    @Override
+    public void forEachCell(int sheetIndex, Consumer<SheetCell> consumer) {
+        Sheet sheet = this.workbook.getSheetAt(sheetIndex);
+        CellView view = new CellView();
+        for(Row row : sheet)
+            for(Cell cell : row) {
+                if(cell == null) continue;
+                view.cell = cell;
+                consumer.accept(view);
+            }
+    }
+
+    @Override
+    public boolean hasRow(int sheetIndex, int row) {
+        return this.workbook.getSheetAt(sheetIndex).getRow(row) != null;
+    }
+
+    @Override
+    public int getLastRow(int sheetIndex) {
+        Sheet sheet = this.workbook.getSheetAt(sheetIndex);
+        return sheet.getPhysicalNumberOfRows() == 0 ? -1 : sheet.getLastRowNum();
+    }
+
+    @Override
+    public int getLastColumn(int sheetIndex) {
+        return this.lastColumns[sheetIndex];
+    }
+
+    @Override
+    public Object getValue(int sheetIndex, int row, int column) {
+        Row r = this.workbook.getSheetAt(sheetIndex).getRow(row);
+        return r == null ? null : parseCellValue(r.getCell(column));
+    }
+
+    @Override
+    public boolean hasValue(int sheetIndex, int row, int column) {
+        Row r = this.workbook.getSheetAt(sheetIndex).getRow(row);
+        Cell cell = r == null ? null : r.getCell(column);
+        return cell != null && cell.getCellType() != CELL_TYPE_FORMULA;
+    }
+
+    @Override
+    public void forEachValue(int sheetIndex, int firstRow, int firstColumn, int lastRow, int lastColumn, Consumer<Object> consumer) {
+        Sheet sheet = this.workbook.getSheetAt(sheetIndex);
+        for(int row = firstRow; row <= lastRow; row++) {
+            Row r = sheet.getRow(row);
+            if(r == null) continue;
+            for(int column = firstColumn; column <= lastColumn; column++) {
+                Cell cell = r.getCell(column);
+                if(cell != null) consumer.accept(parseCellValue(cell));
+            }
+        }
+    }
+
+    @Override
+    public synchronized Ptg[] getFormulaTokens(int sheetIndex, int row, int column) throws FormulaParseException {
+        String formula = this.workbook.getSheetAt(sheetIndex).getRow(row).getCell(column).getCellFormula();
+        return this.templates.tokens(sheetIndex, row, column, formula, text -> FormulaParser.parse(text, this.evaluation, FormulaType.CELL, sheetIndex));
+    }
+
+    @Override
+    public synchronized Ptg[] getNameDefinition(NamePtg t) {
+        return this.evaluation.getName(t).getNameDefinition();
+    }
+
+    @Override
+    public synchronized String getNameText(NamePtg t) {
+        return this.evaluation.getNameText(t);
+    }
+
+    private static Object parseCellValue(Cell cell) {
+        if(cell == null) return null;
+        if(isDataType(cell)) return cell.getDateCellValue();
+        switch(cell.getCellType()) {
+            case CELL_TYPE_STRING:
+            case CELL_TYPE_BLANK:
+                return cell.getStringCellValue();
+            case CELL_TYPE_NUMERIC:
+                return cell.getNumericCellValue();
+            case CELL_TYPE_BOOLEAN:
+                return cell.getBooleanCellValue();
+            case CELL_TYPE_FORMULA:
+                return WorkbookSource.formulaValue(cell.toString());
+            default:
+                return null;
+        }
+    }
+
+    private static boolean isDataType(Cell cell) {
+        return cell.getCellType() == CELL_TYPE_NUMERIC && HSSFDateUtil.isCellDateFormatted(cell);
+    }
+
+    private static final class CellView implements SheetCell {
+
+        private Cell cell;
+
+        @Override
+        public int getRow() {
+            return cell.getRowIndex();
+        }
+
+        @Override
+        public int getColumn() {
+            return cell.getColumnIndex();
+        }
+
+        @Override
+        public boolean isFormula() {
+            return cell.getCellType() == CELL_TYPE_FORMULA;
+        }
+
+        @Override
+        public String getFormula() {
+            return cell.getCellFormula();
+        }
+
+        @Override
+        public Object getValue() {
+            return parseCellValue(cell);
+        }
+
+        @Override
+        public String getText() {
+            return cell.toString();
+        }
+    }
+}
@@ -0,0 +1,1247 @@
+/*
+ * Efesto - Excel Formula Extractor System and Topological Ordering algorithm.
+ * Copyright (C) 2017 Massimo Caliman mcaliman@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * If AGPL Version 3.0 terms are incompatible with your use of
+ * Efesto, alternative license terms are available from Massimo Caliman
+ * please direct inquiries about Efesto licensing to mcaliman@gmail.com
+ */
+
+package com.trueprogramming.excel.parser;
+
+import com.trueprogramming.excel.grammar.lexicaltokens.BOOL;
+import com.trueprogramming.excel.grammar.lexicaltokens.CELL;
+import com.trueprogramming.excel.grammar.lexicaltokens.DATE;
+import com.trueprogramming.excel.grammar.lexicaltokens.ERROR;
+import com.trueprogramming.excel.grammar.lexicaltokens.ERRORREF;
+import com.trueprogramming.excel.grammar.lexicaltokens.EXCEL_FUNCTION;
+import com.trueprogramming.excel.grammar.lexicaltokens.FLOAT;
+import com.trueprogramming.excel.grammar.lexicaltokens.INT;
+import com.trueprogramming.excel.grammar.lexicaltokens.SHEET;
+import com.trueprogramming.excel.grammar.lexicaltokens.TEXT;
+import com.trueprogramming.excel.grammar.nonterm.Formula;
+import com.trueprogramming.excel.grammar.nonterm.NamedRange;
+import com.trueprogramming.excel.grammar.nonterm.ParenthesisFormula;
+import com.trueprogramming.excel.grammar.nonterm.PercentFormula;
+import com.trueprogramming.excel.grammar.nonterm.PrefixReferenceItem;
+import com.trueprogramming.excel.grammar.nonterm.RangeReference;
+import com.trueprogramming.excel.grammar.nonterm.Start;
+import com.trueprogramming.excel.grammar.nonterm.binary.Add;
+import com.trueprogramming.excel.grammar.nonterm.binary.Binary;
+import com.trueprogramming.excel.grammar.nonterm.binary.Concat;
+import com.trueprogramming.excel.grammar.nonterm.binary.Divide;
+import com.trueprogramming.excel.grammar.nonterm.binary.Eq;
+import com.trueprogramming.excel.grammar.nonterm.binary.Gt;
+import com.trueprogramming.excel.grammar.nonterm.binary.GtEq;
+import com.trueprogramming.excel.grammar.nonterm.binary.Leq;
+import com.trueprogramming.excel.grammar.nonterm.binary.Lt;
+import com.trueprogramming.excel.grammar.nonterm.binary.Mult;
+import com.trueprogramming.excel.grammar.nonterm.binary.Neq;
+import com.trueprogramming.excel.grammar.nonterm.binary.Power;
+import com.trueprogramming.excel.grammar.nonterm.binary.Sub;
+import com.trueprogramming.excel.grammar.nonterm.unary.Minus;
+import com.trueprogramming.excel.grammar.nonterm.unary.Plus;
+import org.apache.poi.ss.formula.ptg.BoolPtg;
+import org.apache.poi.ss.formula.ptg.ErrPtg;
+import org.apache.poi.ss.formula.ptg.IntPtg;
+import org.apache.poi.ss.formula.ptg.NumberPtg;
+import org.apache.poi.ss.formula.ptg.Ptg;
+import org.apache.poi.ss.formula.ptg.RefPtg;
+import org.apache.poi.ss.formula.ptg.StringPtg;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.ss.util.CellReference;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Values of the formulas of a parsed and sorted workbook, computed over the AST in topological order.
+ * <p>
+ * A value lives in registers: a type tag, a double (numbers, booleans as 1 and 0) and a String (text, error code);
+ * the results are kept in parallel arrays indexed by slot, so computing numbers does not box.
+ * The areas read by functions are materialized once per area as blocks of the same layout.
+ * The sorted list has no edges from the cells inside an area to the formulas reading the area:
+ * a formula cell read before its turn is evaluated on demand, a cell reached again while it is being evaluated
+ * (a circular reference) reads as 0, as shown by Excel without iterative calculation.
+ * <p>
+ * Constants, references, the Binary and Unary operators, % and the builtin functions of function() are supported,
+ * anything else evaluates to #NAME?. A formula made of a reference to a cell of its sheet (=B1) is listed as the
+ * referenced CELL and is not evaluated.
+ *
+ * @author Massimo Caliman
+ */
+public final class Evaluator {
+
+    static final byte BLANK = 0;
+    static final byte NUMBER = 1;
+    static final byte TEXT_VALUE = 2;
+    static final byte BOOLEAN = 3;
+    static final byte ERROR_VALUE = 4;
+
+    private static final byte PENDING = 0;
+    private static final byte RUNNING = 1;
+    private static final byte DONE = 2;
+
+    private static final String DIV0 = "#DIV/0!";
+    private static final String VALUE = "#VALUE!";
+    private static final String REF = "#REF!";
+    private static final String NAME = "#NAME?";
+    private static final String NA = "#N/A";
+    private static final String NUM = "#NUM!";
+
+    private static final int MAX_REFERENCES = 64;
+    private static final int MIN_INDEXED = 16;//shorter lines are scanned
+
+    private static final MathContext GENERAL = new MathContext(15);//significant digits shown by Excel
+
+    private final WorkbookSource workbook;
+    private final Profile profile;
+    private final Map<Long, Integer> slots = new HashMap<>();//formula cell key -> slot
+    private final Start[] formulas;
+    private final byte[] states;
+    private final byte[] types;
+    private final double[] numbers;
+    private final String[] texts;
+    private final Map<Area, Block> blocks = new HashMap<>();
+
+    private int references;//depth of the chain of literal references being followed
+
+    private byte type;
+    private double number;
+    private String text;
+
+    /**
+     * @param parser a parser after sort()
+     */
+    public Evaluator(Parser parser) {
+        this.workbook = parser.workbook;
+        this.profile = parser.getProfile();
+        StartList list = parser.getList();
+        Start[] found = new Start[list.size()];
+        int size = 0;
+        for(Start start : list) {
+            if(start instanceof CELL || start.getRow() < 0 || start.key() < 0) continue;//values and areas
+            long key = start.key();
+            if(workbook.hasValue(sheetOf(key), AbstractParser.rowOf(key), AbstractParser.columnOf(key))) continue;//e.g. +A1 listed at A1
+            if(this.slots.putIfAbsent(key, size) == null) found[size++] = start;
+        }
+        this.formulas = Arrays.copyOf(found, size);
+        this.states = new byte[size];
+        this.types = new byte[size];
+        this.numbers = new double[size];
+        this.texts = new String[size];
+    }
+
+    public void evaluate() {
+        long start = System.nanoTime();
+        for(int slot = 0; slot < formulas.length; slot++) if(states[slot] == PENDING) compute(slot);
+        this.profile.add(Profile.Phase.EVALUATE, null, System.nanoTime() - start, formulas.length);
+    }
+
+    /**
+     * Number of formulas evaluated.
+     */
+    public int size() {
+        return formulas.length;
+    }
+
+    /**
+     * Formula in evaluation order.
+     */
+    public Start getFormula(int index) {
+        return formulas[index];
+    }
+
+    /**
+     * Value of getFormula(index) as text: numbers as shown by Excel, text quoted, error codes.
+     */
+    public String getText(int index) {
+        return switch(types[index]) {
+            case NUMBER -> format(numbers[index]);
+            case BOOLEAN -> numbers[index] != 0 ? "TRUE" : "FALSE";
+            case TEXT_VALUE -> AbstractParser.quote(texts[index]);
+            case ERROR_VALUE -> texts[index];
+            default -> "";
+        };
+    }
+
+    /**
+     * Value of a formula cell: Double, String, Boolean or the error code as String, null if the cell is not a formula.
+     */
+    public Object getValue(String sheetName, int row, int column) {
+        Integer slot = slots.get(AbstractParser.cellKey(workbook.getSheetIndex(sheetName), row, column));
+        if(slot == null) return null;
+        return switch(types[slot]) {
+            case NUMBER -> numbers[slot];
+            case BOOLEAN -> numbers[slot] != 0;
+            case TEXT_VALUE, ERROR_VALUE -> texts[slot];
+            default -> null;
+        };
+    }
+
+    public boolean isError(String sheetName, int row, int column) {
+        Integer slot = slots.get(AbstractParser.cellKey(workbook.getSheetIndex(sheetName), row, column));
+        return slot != null && types[slot] == ERROR_VALUE;
+    }
+
+    WorkbookSource getWorkbook() {
+        return workbook;
+    }
+
+    Profile getProfile() {
+        return profile;
+    }
+
+    /**
+     * Slot of the formula at key, -1 if key is not a formula cell of the list.
+     */
+    int slot(long key) {
+        Integer slot = slots.get(key);
+        return slot == null ? -1 : slot;
+    }
+
+    /**
+     * Type of the value of a cell, evaluated on demand; the number of a NUMBER or BOOLEAN is then number().
+     */
+    byte type(int sheetIndex, int row, int column) {
+        cell(sheetIndex, row, column);
+        return type;
+    }
+
+    double number() {
+        return number;
+    }
+
+    /**
+     * Number as shown by the General format: up to 15 significant digits, scientific notation for large and tiny values.
+     */
+    static String format(double value) {
+        if(value == Math.rint(value) && Math.abs(value) < 1e15) return Long.toString((long) value);
+        BigDecimal decimal = BigDecimal.valueOf(value).round(GENERAL).stripTrailingZeros();
+        return Math.abs(value) >= 1e15 || Math.abs(value) < 1e-9 ? decimal.toString() : decimal.toPlainString();
+    }
+
+    //<editor-fold desc="Registers">
+
+    private void blank() {
+        type = BLANK;
+        number = 0;
+        text = null;
+    }
+
+    private void number(double value) {
+        if(!Double.isFinite(value)) {
+            error(NUM);
+            return;
+        }
+        type = NUMBER;
+        number = value;
+        text = null;
+    }
+
+    private void bool(boolean value) {
+        type = BOOLEAN;
+        number = value ? 1 : 0;
+        text = null;
+    }
+
+    private void text(String value) {
+        type = TEXT_VALUE;
+        number = 0;
+        text = value;
+    }
+
+    private void error(String code) {
+        type = ERROR_VALUE;
+        number = 0;
+        text = code;
+    }
+
+    private void value(Object value) {
+        if(value instanceof Double d) number(d);
+        else if(value instanceof Number n) number(n.doubleValue());
+        else if(value instanceof Boolean b) bool(b);
+        else if(value instanceof Date date) number(DateUtil.getExcelDate(date));
+        else if(value instanceof String s && !s.isEmpty()) text(s);
+        else blank();
+    }
+
+    /**
+     * Converts the registers to a number, false with the error in the registers when not possible.
+     */
+    private boolean toNumber() {
+        switch(type) {
+            case NUMBER, BOOLEAN -> type = NUMBER;
+            case BLANK -> number(0);
+            case TEXT_VALUE -> {
+                double parsed = parse(text);
+                if(Double.isNaN(parsed)) {
+                    error(VALUE);
+                    return false;
+                }
+                number(parsed);
+            }
+            default -> {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean toText() {
+        switch(type) {
+            case NUMBER -> text(format(number));
+            case BOOLEAN -> text(number != 0 ? "TRUE" : "FALSE");
+            case BLANK -> text("");
+            case TEXT_VALUE -> {
+            }
+            default -> {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean toBoolean() {
+        switch(type) {
+            case NUMBER, BOOLEAN, BLANK -> bool(number != 0);
+            case TEXT_VALUE -> {
+                if(text.equalsIgnoreCase("TRUE")) bool(true);
+                else if(text.equalsIgnoreCase("FALSE")) bool(false);
+                else {
+                    error(VALUE);
+                    return false;
+                }
+            }
+            default -> {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static double parse(String text) {
+        try {
+            return Double.parseDouble(text.trim());
+        } catch(NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    //</editor-fold>
+
+    //<editor-fold desc="Cells">
+
+    private void compute(int slot) {
+        states[slot] = RUNNING;
+        try {
+            if(formulas[slot] instanceof Formula formula) eval(formula);
+            else error(NAME);
+            if(type == BLANK) number(0);
+        } catch(RuntimeException e) {
+            error(VALUE);
+        }
+        types[slot] = type;
+        numbers[slot] = number;
+        texts[slot] = text;
+        states[slot] = DONE;
+    }
+
+    private void load(int slot) {
+        switch(states[slot]) {
+            case PENDING -> compute(slot);
+            case RUNNING -> number(0);
+            default -> {
+                type = types[slot];
+                number = numbers[slot];
+                text = texts[slot];
+            }
+        }
+    }
+
+    private void cell(int sheetIndex, int row, int column) {
+        Integer slot = slots.get(AbstractParser.cellKey(sheetIndex, row, column));
+        if(slot != null) load(slot);
+        else if(sheetIndex < 0) error(REF);
+        else if(workbook.hasValue(sheetIndex, row, column)) value(workbook.getValue(sheetIndex, row, column));
+        else if(workbook.getValue(sheetIndex, row, column) != null) literal(sheetIndex, row, column);
+        else blank();
+    }
+
+    /**
+     * Formula cell out of the sorted list: a constant (=TRUE) or a reference to a cell of its sheet (=B1).
+     */
+    private void literal(int sheetIndex, int row, int column) {
+        Ptg[] ptgs;
+        try {
+            ptgs = workbook.getFormulaTokens(sheetIndex, row, column);
+        } catch(RuntimeException e) {
+            ptgs = null;
+        }
+        Ptg ptg = ptgs != null && ptgs.length == 1 ? ptgs[0] : null;
+        if(ptg instanceof BoolPtg bool) bool(bool.getValue());
+        else if(ptg instanceof IntPtg integer) number(integer.getValue());
+        else if(ptg instanceof NumberPtg decimal) number(decimal.getValue());
+        else if(ptg instanceof StringPtg string) text(string.getValue());
+        else if(ptg instanceof ErrPtg error) error(error.toFormulaString());
+        else if(ptg instanceof RefPtg reference && references < MAX_REFERENCES) {
+            references++;
+            try {
+                cell(sheetIndex, reference.getRow(), reference.getColumn());
+            } finally {
+                references--;
+            }
+        } else if(ptg instanceof RefPtg) number(0);//circular
+        else error(VALUE);
+    }
+
+    private static int sheetOf(long key) {
+        return (int) (key >>> 34) & 0xFFFF;
+    }
+
+    private static int bookOf(long key) {
+        return (int) (key >>> 50) & 0x1FFF;
+    }
+
+    //</editor-fold>
+
+    //<editor-fold desc="Formulas">
+
+    @SuppressWarnings("deprecation")
+    private void eval(Formula formula) {
+        if(formula == null) blank();//missing argument
+        else if(formula instanceof CELL cell) cell(sheetOf(cell.key()), cell.getRow(), cell.getColumn());
+        else if(formula instanceof INT constant) number(constant.getValue());
+        else if(formula instanceof FLOAT constant) number(constant.getValue());
+        else if(formula instanceof TEXT constant) text(constant.getValue());
+        else if(formula instanceof BOOL constant) bool(constant.getValue() != null && constant.getValue());
+        else if(formula instanceof DATE constant) value(constant.getValue());
+        else if(formula instanceof ERROR constant) error(constant.toString());
+        else if(formula instanceof ERRORREF) error(REF);
+        else if(formula instanceof ParenthesisFormula parenthesis) eval(parenthesis.getFormula());
+        else if(formula instanceof PercentFormula percent) {
+            eval(percent.getFormula());
+            if(toNumber()) number(number / 100);
+        } else if(formula instanceof Minus minus) {
+            eval(minus.getFormula());
+            if(toNumber()) number(-number);
+        } else if(formula instanceof Plus plus) eval(plus.getFormula());
+        else if(formula instanceof Concat concat) concat(concat);
+        else if(formula instanceof Binary binary) binary(binary);
+        else if(formula instanceof EXCEL_FUNCTION function) function(function);
+        else if(formula instanceof PrefixReferenceItem reference && reference.key() >= 0) prefix(reference);
+        else if(area(formula) != null) error(VALUE);//an area where a single value is expected
+        else error(NAME);
+    }
+
+    /**
+     * Sheet2!A1, [1]Sheet2!A1 is an external workbook.
+     */
+    private void prefix(PrefixReferenceItem reference) {
+        if(!(reference.getPrefix() instanceof SHEET sheet)) {
+            error(REF);
+            return;
+        }
+        CellReference cell = new CellReference(reference.getReference());
+        cell(sheet.getIndex(), cell.getRow(), cell.getCol());
+    }
+
+    private void concat(Concat concat) {
+        eval(concat.getlFormula());
+        if(!toText()) return;
+        String left = text;
+        eval(concat.getrFormula());
+        if(!toText()) return;
+        text(left + text);
+    }
+
+    private void binary(Binary binary) {
+        eval(binary.getlFormula());
+        byte lType = type;
+        double lNumber = number;
+        String lText = text;
+        eval(binary.getrFormula());
+        if(lType == ERROR_VALUE) {
+            error(lText);
+            return;
+        }
+        if(type == ERROR_VALUE) return;
+        if(binary instanceof Eq) bool(compare(lType, lNumber, lText, type, number, text) == 0);
+        else if(binary instanceof Neq) bool(compare(lType, lNumber, lText, type, number, text) != 0);
+        else if(binary instanceof Lt) bool(compare(lType, lNumber, lText, type, number, text) < 0);
+        else if(binary instanceof Leq) bool(compare(lType, lNumber, lText, type, number, text) <= 0);
+        else if(binary instanceof Gt) bool(compare(lType, lNumber, lText, type, number, text) > 0);
+        else if(binary instanceof GtEq) bool(compare(lType, lNumber, lText, type, number, text) >= 0);
+        else {
+            if(!toNumber()) return;
+            double right = number;
+            type = lType;
+            number = lNumber;
+            text = lText;
+            if(!toNumber()) return;
+            double left = number;
+            if(binary instanceof Add) number(left + right);
+            else if(binary instanceof Sub) number(left - right);
+            else if(binary instanceof Mult) number(left * right);
+            else if(binary instanceof Divide) {
+                if(right == 0) error(DIV0);
+                else number(left / right);
+            } else if(binary instanceof Power) number(Math.pow(left, right));
+            else error(VALUE);//Intersection, Union: areas where a single value is expected
+        }
+    }
+
+    /**
+     * Excel ordering: numbers before text before booleans, text without case, a blank is 0, "" or FALSE.
+     */
+    private static int compare(byte lType, double lNumber, String lText, byte rType, double rNumber, String rText) {
+        if(lType == BLANK) {
+            lType = rType == BLANK ? NUMBER : rType;
+            lText = "";
+        }
+        if(rType == BLANK) {
+            rType = lType;
+            rText = "";
+        }
+        if(lType != rType) return Integer.compare(rank(lType), rank(rType));
+        if(lType == TEXT_VALUE) return lText.compareToIgnoreCase(rText);
+        return Double.compare(lNumber, rNumber);
+    }
+
+    private static int rank(byte type) {
+        return switch(type) {
+            case NUMBER -> 0;
+            case TEXT_VALUE -> 1;
+            default -> 2;
+        };
+    }
+
+    //</editor-fold>
+
+    //<editor-fold desc="Areas">
+
+    /**
+     * Cells of a reference, null if formula is not a reference.
+     */
+    Area area(Formula formula) {
+        if(formula instanceof NamedRange range)
+            return new Area(range.getSheetIndex(), range.getFirstRow(), range.getFirstColumn(), range.getLastRow(), range.getLastColumn());
+        if(formula instanceof RangeReference || formula instanceof PrefixReferenceItem && formula.key() < 0) {
+            long first = formula.key(), last = formula.lastKey();
+            int sheet = bookOf(first) != 0 ? -1 : sheetOf(first);//external workbook
+            return new Area(sheet, AbstractParser.rowOf(first), AbstractParser.columnOf(first), AbstractParser.rowOf(last), AbstractParser.columnOf(last));
+        }
+        if(formula instanceof CELL cell)
+            return new Area(sheetOf(cell.key()), cell.getRow(), cell.getColumn(), cell.getRow(), cell.getColumn());
+        if(formula instanceof PrefixReferenceItem reference) {
+            if(!(reference.getPrefix() instanceof SHEET sheet)) return new Area(-1, 0, 0, 0, 0);
+            CellReference cell = new CellReference(reference.getReference());
+            return new Area(sheet.getIndex(), cell.getRow(), cell.getCol(), cell.getRow(), cell.getCol());
+        }
+        return null;
+    }
+
+    private Block block(Area area) {
+        Block block = blocks.get(area);
+        if(block != null) return block;
+        int lastRow = area.sheet < 0 ? -1 : Math.min(area.lastRow, workbook.getLastRow(area.sheet));
+        int lastColumn = area.sheet < 0 ? -1 : Math.min(area.lastColumn, workbook.getLastColumn(area.sheet));
+        block = new Block(area.lastRow - area.firstRow + 1, area.lastColumn - area.firstColumn + 1,
+                Math.max(0, lastRow - area.firstRow + 1), Math.max(0, lastColumn - area.firstColumn + 1));
+        for(int row = 0; row < block.height; row++)
+            for(int column = 0; column < block.width; column++) {
+                cell(area.sheet, area.firstRow + row, area.firstColumn + column);
+                block.set(row * block.width + column, type, number, text);
+            }
+        blocks.put(area, block);
+        return block;
+    }
+
+    private void load(Block block, int row, int column) {
+        if(row >= block.height || column >= block.width) {
+            blank();
+            return;
+        }
+        int index = row * block.width + column;
+        type = block.types[index];
+        number = block.numbers[index];
+        text = block.texts == null ? null : block.texts[index];
+    }
+
+    record Area(int sheet, int firstRow, int firstColumn, int lastRow, int lastColumn) {
+    }
+
+    /**
+     * Values of an area, stored for the part inside the used range of the sheet, blank outside.
+     */
+    private static final class Block {
+
+        private final int rows;
+        private final int columns;
+        private final int height;
+        private final int width;
+        private final byte[] types;
+        private final double[] numbers;
+        private String[] texts;//null until a text or an error is stored
+        private final long[] valid;//bit i set if types[i] is NUMBER, for the aggregate kernels
+        private int count;//numbers
+        private int values;//not blank
+        private int firstError = -1;
+        private Map<Integer, Map<Object, Integer>> indexes;//exact match positions by line, built on first lookup
+
+        Block(int rows, int columns, int height, int width) {
+            this.rows = rows;
+            this.columns = columns;
+            this.height = height;
+            this.width = width;
+            this.types = new byte[height * width];
+            this.numbers = new double[height * width];
+            this.valid = new long[(types.length + 63) >>> 6];
+        }
+
+        void set(int index, byte type, double number, String text) {
+            types[index] = type;
+            numbers[index] = number;
+            if(type != BLANK) values++;
+            if(type == NUMBER) {
+                valid[index >>> 6] |= 1L << index;
+                count++;
+            } else if(type == ERROR_VALUE && firstError < 0) firstError = index;
+            if(text != null) {
+                if(texts == null) texts = new String[types.length];
+                texts[index] = text;
+            }
+        }
+
+        String text(int index) {
+            return texts == null ? null : texts[index];
+        }
+
+        /**
+         * First position of each number and text along a column (vertical) or a row, texts keyed case insensitive.
+         */
+        Map<Object, Integer> index(int line, boolean vertical) {
+            if(indexes == null) indexes = new HashMap<>();
+            return indexes.computeIfAbsent(vertical ? line : -line - 1, key -> {
+                int length = vertical ? height : width;
+                Map<Object, Integer> index = new HashMap<>(length * 2);
+                for(int i = 0; i < length; i++) {
+                    int at = vertical ? i * width + line : line * width + i;
+                    if(types[at] == NUMBER) index.putIfAbsent(numbers[at], i);
+                    else if(types[at] == TEXT_VALUE) index.putIfAbsent(fold(texts[at]), i);
+                }
+                return index;
+            });
+        }
+
+        /**
+         * Text with the case folding of {@link String#compareToIgnoreCase(String)}.
+         */
+        static String fold(String text) {
+            char[] chars = text.toCharArray();
+            for(int i = 0; i < chars.length; i++) chars[i] = Character.toLowerCase(Character.toUpperCase(chars[i]));
+            return new String(chars);
+        }
+    }
+
+    //</editor-fold>
+
+    //<editor-fold desc="Functions">
+
+    private void function(EXCEL_FUNCTION function) {
+        Formula[] args = function.getArgs() == null ? new Formula[0] : function.getArgs();
+        switch(function.getClass().getSimpleName()) {
+            case "SUM" -> {
+                Aggregate aggregate = aggregate(args, Kernels.SUM, true);
+                if(aggregate != null) number(aggregate.result);
+            }
+            case "SUMSQ" -> {
+                Aggregate aggregate = aggregate(args, Kernels.SUMSQ, true);
+                if(aggregate != null) number(aggregate.result);
+            }
+            case "AVERAGE" -> {
+                Aggregate aggregate = aggregate(args, Kernels.SUM, true);
+                if(aggregate != null) {
+                    if(aggregate.count == 0) error(DIV0);
+                    else number(aggregate.result / aggregate.count);
+                }
+            }
+            case "MIN" -> {
+                Aggregate aggregate = aggregate(args, Kernels.MIN, true);
+                if(aggregate != null) number(aggregate.count == 0 ? 0 : aggregate.result);
+            }
+            case "MAX" -> {
+                Aggregate aggregate = aggregate(args, Kernels.MAX, true);
+                if(aggregate != null) number(aggregate.count == 0 ? 0 : aggregate.result);
+            }
+            case "PRODUCT" -> {
+                Aggregate aggregate = aggregate(args, Kernels.PRODUCT, true);
+                if(aggregate != null) number(aggregate.count == 0 ? 0 : aggregate.result);
+            }
+            case "COUNT" -> number(aggregate(args, Kernels.SUM, false).count);
+            case "COUNTA" -> number(aggregate(args, Kernels.SUM, false).values);
+            case "IF" -> {
+                if(!booleanOf(arg(args, 0))) return;
+                if(number != 0) eval(arg(args, 1));
+                else if(args.length > 2) eval(args[2]);
+                else bool(false);
+            }
+            case "IFERROR" -> {
+                eval(arg(args, 0));
+                if(type == ERROR_VALUE) eval(arg(args, 1));
+            }
+            case "AND", "OR" -> logical(args, function.getClass().getSimpleName().equals("AND"));
+            case "NOT" -> {
+                if(booleanOf(arg(args, 0))) bool(number == 0);
+            }
+            case "TRUE" -> bool(true);
+            case "FALSE" -> bool(false);
+            case "ISERROR" -> {
+                eval(arg(args, 0));
+                bool(type == ERROR_VALUE);
+            }
+            case "ISNA" -> {
+                eval(arg(args, 0));
+                bool(type == ERROR_VALUE && NA.equals(text));
+            }
+            case "ISBLANK" -> {
+                eval(arg(args, 0));
+                bool(type == BLANK);
+            }
+            case "ISNUMBER" -> {
+                eval(arg(args, 0));
+                bool(type == NUMBER);
+            }
+            case "NA" -> error(NA);
+            case "PI" -> number(Math.PI);
+            case "ABS" -> {
+                if(numberOf(arg(args, 0))) number(Math.abs(number));
+            }
+            case "SIGN" -> {
+                if(numberOf(arg(args, 0))) number(Math.signum(number));
+            }
+            case "INT" -> {
+                if(numberOf(arg(args, 0))) number(Math.floor(number));
+            }
+            case "SQRT" -> {
+                if(numberOf(arg(args, 0))) {
+                    if(number < 0) error(NUM);
+                    else number(Math.sqrt(number));
+                }
+            }
+            case "EXP" -> {
+                if(numberOf(arg(args, 0))) number(Math.exp(number));
+            }
+            case "LN" -> {
+                if(numberOf(arg(args, 0))) {
+                    if(number <= 0) error(NUM);
+                    else number(Math.log(number));
+                }
+            }
+            case "LOG10" -> {
+                if(numberOf(arg(args, 0))) {
+                    if(number <= 0) error(NUM);
+                    else number(Math.log10(number));
+                }
+            }
+            case "LOG" -> log(args);
+            case "ROUND" -> round(args, RoundingMode.HALF_UP);
+            case "ROUNDUP" -> round(args, RoundingMode.UP);
+            case "ROUNDDOWN", "TRUNC" -> round(args, RoundingMode.DOWN);
+            case "MOD" -> mod(args);
+            case "POWER" -> power(args);
+            case "CONCATENATE" -> concatenate(args);
+            case "LEN" -> {
+                if(textOf(arg(args, 0))) number(text.length());
+            }
+            case "LEFT", "RIGHT" -> leftRight(args, function.getClass().getSimpleName().equals("LEFT"));
+            case "MID" -> mid(args);
+            case "UPPER" -> {
+                if(textOf(arg(args, 0))) text(text.toUpperCase());
+            }
+            case "LOWER" -> {
+                if(textOf(arg(args, 0))) text(text.toLowerCase());
+            }
+            case "TRIM" -> {
+                if(textOf(arg(args, 0))) text(text.trim().replaceAll(" +", " "));
+            }
+            case "EXACT" -> {
+                if(!textOf(arg(args, 0))) return;
+                String left = text;
+                if(textOf(arg(args, 1))) bool(left.equals(text));
+            }
+            case "VALUE" -> {
+                eval(arg(args, 0));
+                toNumber();
+            }
+            case "CHOOSE" -> {
+                if(!numberOf(arg(args, 0))) return;
+                int index = (int) number;
+                if(index < 1 || index >= args.length) error(VALUE);
+                else eval(args[index]);
+            }
+            case "DAY" -> datePart(args, Calendar.DAY_OF_MONTH);
+            case "MONTH" -> datePart(args, Calendar.MONTH);
+            case "YEAR" -> datePart(args, Calendar.YEAR);
+            case "DATE" -> date(args);
+            case "INDEX" -> index(args);
+            case "MATCH" -> match(args);
+            case "VLOOKUP" -> lookup(args, true);
+            case "HLOOKUP" -> lookup(args, false);
+            case "SUMIF" -> conditional(args, 0);
+            case "COUNTIF" -> conditional(args, 1);
+            case "AVERAGEIF" -> conditional(args, 2);
+            default -> error(NAME);
+        }
+    }
+
+    private static Formula arg(Formula[] args, int index) {
+        return index < args.length ? args[index] : null;
+    }
+
+    private boolean numberOf(Formula arg) {
+        eval(arg);
+        return toNumber();
+    }
+
+    private boolean textOf(Formula arg) {
+        eval(arg);
+        return toText();
+    }
+
+    private boolean booleanOf(Formula arg) {
+        eval(arg);
+        return toBoolean();
+    }
+
+    /**
+     * A statistic of the numbers of the arguments: in areas only numbers count, reduced by Kernels over the block
+     * bitmap; an error stops the aggregate when strict (SUM, not COUNT).
+     *
+     * @return null with the error in the registers
+     */
+    private Aggregate aggregate(Formula[] args, int statistic, boolean strict) {
+        Aggregate aggregate = new Aggregate(statistic);
+        for(Formula arg : args) {
+            Area area = area(arg);
+            if(area != null) {
+                if(area.sheet < 0) {
+                    if(!strict) continue;
+                    error(REF);
+                    return null;
+                }
+                Block block = block(area);
+                if(block.firstError >= 0 && strict) {
+                    error(block.text(block.firstError));
+                    return null;
+                }
+                aggregate.add(block);
+            } else {
+                eval(arg);
+                if(type == BLANK) continue;
+                if(type == ERROR_VALUE && strict) return null;
+                aggregate.values++;
+                if(type == NUMBER || type == BOOLEAN) aggregate.add(number);
+                else if(type == TEXT_VALUE) {
+                    double parsed = parse(text);
+                    if(!Double.isNaN(parsed)) aggregate.add(parsed);
+                    else if(strict) {
+                        error(VALUE);
+                        return null;
+                    }
+                }
+            }
+        }
+        return aggregate;
+    }
+
+    private static final class Aggregate {
+        private final int statistic;
+        private double result;
+        private int count;//numbers
+        private int values;//not blank
+
+        Aggregate(int statistic) {
+            this.statistic = statistic;
+            this.result = Kernels.identity(statistic);
+        }
+
+        void add(double value) {
+            result = Kernels.combine(statistic, result, statistic == Kernels.SUMSQ ? value * value : value);
+            count++;
+        }
+
+        void add(Block block) {
+            if(block.count > 0) result = Kernels.combine(statistic, result, Kernels.reduce(statistic, block.numbers, block.valid, block.types.length));
+            count += block.count;
+            values += block.values;
+        }
+    }
+
+    private void logical(Formula[] args, boolean and) {
+        boolean result = and;
+        boolean found = false;
+        for(Formula arg : args) {
+            Area area = area(arg);
+            if(area != null) {
+                Block block = block(area);
+                for(int i = 0; i < block.types.length; i++) {
+                    byte type = block.types[i];
+                    if(type == ERROR_VALUE) {
+                        error(block.text(i));
+                        return;
+                    }
+                    if(type != NUMBER && type != BOOLEAN) continue;
+                    found = true;
+                    result = and ? result && block.numbers[i] != 0 : result || block.numbers[i] != 0;
+                }
+            } else {
+                if(!booleanOf(arg)) return;
+                found = true;
+                result = and ? result && number != 0 : result || number != 0;
+            }
+        }
+        if(found) bool(result);
+        else error(VALUE);
+    }
+
+    private void log(Formula[] args) {
+        if(!numberOf(arg(args, 0))) return;
+        double value = number;
+        double base = 10;
+        if(args.length > 1) {
+            if(!numberOf(args[1])) return;
+            base = number;
+        }
+        if(value <= 0 || base <= 0 || base == 1) error(NUM);
+        else number(Math.log(value) / Math.log(base));
+    }
+
+    private void round(Formula[] args, RoundingMode mode) {
+        if(!numberOf(arg(args, 0))) return;
+        double value = number;
+        int digits = 0;
+        if(args.length > 1) {
+            if(!numberOf(args[1])) return;
+            digits = (int) number;
+        }
+        number(BigDecimal.valueOf(value).setScale(digits, mode).doubleValue());
+    }
+
+    private void mod(Formula[] args) {
+        if(!numberOf(arg(args, 0))) return;
+        double value = number;
+        if(!numberOf(arg(args, 1))) return;
+        if(number == 0) error(DIV0);
+        else number(value - number * Math.floor(value / number));
+    }
+
+    private void power(Formula[] args) {
+        if(!numberOf(arg(args, 0))) return;
+        double value = number;
+        if(numberOf(arg(args, 1))) number(Math.pow(value, number));
+    }
+
+    private void concatenate(Formula[] args) {
+        StringBuilder buff = new StringBuilder();
+        for(Formula arg : args) {
+            if(!textOf(arg)) return;
+            buff.append(text);
+        }
+        text(buff.toString());
+    }
+
+    private void leftRight(Formula[] args, boolean left) {
+        if(!textOf(arg(args, 0))) return;
+        String value = text;
+        int count = 1;
+        if(args.length > 1) {
+            if(!numberOf(args[1])) return;
+            count = (int) number;
+        }
+        if(count < 0) error(VALUE);
+        else if(count >= value.length()) text(value);
+        else text(left ? value.substring(0, count) : value.substring(value.length() - count));
+    }
+
+    private void mid(Formula[] args) {
+        if(!textOf(arg(args, 0))) return;
+        String value = text;
+        if(!numberOf(arg(args, 1))) return;
+        int start = (int) number;
+        if(!numberOf(arg(args, 2))) return;
+        int count = (int) number;
+        if(start < 1 || count < 0) error(VALUE);
+        else if(start > value.length()) text("");
+        else text(value.substring(start - 1, Math.min(value.length(), start - 1 + count)));
+    }
+
+    private void datePart(Formula[] args, int field) {
+        if(!numberOf(arg(args, 0))) return;
+        Calendar calendar = number < 0 ? null : DateUtil.getJavaCalendar(number, false);
+        if(calendar == null) error(NUM);
+        else number(calendar.get(field) + (field == Calendar.MONTH ? 1 : 0));
+    }
+
+    /**
+     * DATE(year, month, day), months and days out of range roll over.
+     */
+    private void date(Formula[] args) {
+        if(!numberOf(arg(args, 0))) return;
+        int year = (int) number;
+        if(!numberOf(arg(args, 1))) return;
+        int month = (int) number;
+        if(!numberOf(arg(args, 2))) return;
+        int day = (int) number;
+        if(year < 1900) year += 1900;
+        Calendar calendar = new GregorianCalendar(year, month - 1, day);
+        number(DateUtil.getExcelDate(calendar, false));
+    }
+
+    /**
+     * INDEX(area, row, column), a single row or column area is indexed by the second argument.
+     */
+    private void index(Formula[] args) {
+        Area area = area(arg(args, 0));
+        if(area == null) {
+            error(VALUE);
+            return;
+        }
+        if(!numberOf(arg(args, 1))) return;
+        int row = (int) number;
+        int column = 1;
+        if(args.length > 2) {
+            if(!numberOf(args[2])) return;
+            column = (int) number;
+        }
+        Block block = block(area);
+        if(block.rows == 1 && args.length == 2) {
+            column = row;
+            row = 1;
+        }
+        if(row < 1 || column < 1) error(VALUE);
+        else if(row > block.rows || column > block.columns) error(REF);
+        else load(block, row - 1, column - 1);
+    }
+
+    /**
+     * MATCH(value, area, type): 0 first equal, 1 (default) last not greater in ascending order,
+     * -1 last not smaller in descending order.
+     */
+    private void match(Formula[] args) {
+        eval(arg(args, 0));
+        if(type == ERROR_VALUE) return;
+        byte lookupType = type;
+        double lookupNumber = number;
+        String lookupText = text;
+        Area area = area(arg(args, 1));
+        if(area == null) {
+            error(NA);
+            return;
+        }
+        int matchType = 1;
+        if(args.length > 2) {
+            if(!numberOf(args[2])) return;
+            matchType = (int) Math.signum(number);
+        }
+        Block block = block(area);
+        boolean vertical = block.columns == 1;
+        int found = find(block, 0, vertical, lookupType, lookupNumber, lookupText, matchType);
+        if(found < 0) error(NA);
+        else number(found + 1);
+    }
+
+    /**
+     * VLOOKUP(value, table, column, approximate) and HLOOKUP(value, table, row, approximate).
+     */
+    private void lookup(Formula[] args, boolean vertical) {
+        eval(arg(args, 0));
+        if(type == ERROR_VALUE) return;
+        byte lookupType = type;
+        double lookupNumber = number;
+        String lookupText = text;
+        Area area = area(arg(args, 1));
+        if(area == null) {
+            error(NA);
+            return;
+        }
+        if(!numberOf(arg(args, 2))) return;
+        int index = (int) number;
+        boolean approximate = true;
+        if(args.length > 3 && args[3] != null) {
+            if(!booleanOf(args[3])) return;
+            approximate = number != 0;
+        }
+        Block block = block(area);
+        if(index < 1) {
+            error(VALUE);
+            return;
+        }
+        if(index > (vertical ? block.columns : block.rows)) {
+            error(REF);
+            return;
+        }
+        int found = find(block, 0, vertical, lookupType, lookupNumber, lookupText, approximate ? 1 : 0);
+        if(found < 0) error(NA);
+        else if(vertical) load(block, found, index - 1);
+        else load(block, index - 1, found);
+    }
+
+    /**
+     * Position of the lookup value along a column (vertical) or a row of the block, -1 if not found.
+     * Values of another type than the lookup value are skipped.
+     */
+    private int find(Block block, int line, boolean vertical, byte lookupType, double lookupNumber, String lookupText, int matchType) {
+        int found = -1;
+        int length = vertical ? block.height : block.width;
+        if(matchType == 0 && length > MIN_INDEXED && (lookupType == NUMBER || lookupType == TEXT_VALUE)) {
+            Integer position = block.index(line, vertical).get(lookupType == NUMBER ? (Object) lookupNumber : Block.fold(lookupText));
+            return position == null ? -1 : position;
+        }
+        for(int i = 0; i < length; i++) {
+            int index = vertical ? i * block.width + line : line * block.width + i;
+            byte type = block.types[index];
+            if(type == BLANK || rank(type) != rank(lookupType)) continue;
+            int compare = compare(type, block.numbers[index], block.text(index), lookupType, lookupNumber, lookupText);
+            if(matchType == 0) {
+                if(compare == 0) return i;
+            } else if(matchType > 0 ? compare <= 0 : compare >= 0) found = i;
+            else break;
+        }
+        return found;
+    }
+
+    /**
+     * SUMIF (0), COUNTIF (1) and AVERAGEIF (2) of an area matching a criteria, the cells added are those of the third
+     * argument with the layout of the area, when present.
+     */
+    private void conditional(Formula[] args, int kind) {
+        Area area = area(arg(args, 0));
+        if(area == null) {
+            error(VALUE);
+            return;
+        }
+        eval(arg(args, 1));
+        if(type == ERROR_VALUE) return;
+        Criteria criteria = Criteria.of(type, number, text);
+        Block block = block(area);
+        Block values = block;
+        if(kind != 1 && args.length > 2 && args[2] != null) {
+            Area sum = area(args[2]);
+            if(sum == null) {
+                error(VALUE);
+                return;
+            }
+            values = block(new Area(sum.sheet, sum.firstRow, sum.firstColumn, sum.firstRow + block.rows - 1, sum.firstColumn + block.columns - 1));
+        }
+        double total = 0;
+        int count = 0;
+        for(int row = 0; row < block.height; row++)
+            for(int column = 0; column < block.width; column++) {
+                int index = row * block.width + column;
+                if(!criteria.test(block.types[index], block.numbers[index], block.text(index))) continue;
+                if(kind == 1) {
+                    count++;
+                    continue;
+                }
+                load(values, row, column);
+                if(type == ERROR_VALUE) return;
+                if(type == NUMBER) {
+                    total += number;
+                    count++;
+                }
+            }
+        if(kind == 0) number(total);
+        else if(kind == 1) number(count);
+        else if(count == 0) error(DIV0);
+        else number(total / count);
+    }
+
+    /**
+     * Criteria of SUMIF and COUNTIF: a value or a comparison as text (">=2", "<>x"), * and ? are wildcards.
+     */
+    private static final class Criteria {
+
+        private final String operator;
+        private final boolean numeric;
+        private final double number;
+        private final String text;
+        private final Pattern pattern;
+
+        private Criteria(String operator, boolean numeric, double number, String text) {
+            this.operator = operator;
+            this.numeric = numeric;
+            this.number = number;
+            this.text = text;
+            boolean wildcards = !numeric && (operator.equals("=") || operator.equals("<>")) && (text.contains("*") || text.contains("?"));
+            this.pattern = wildcards ? Pattern.compile(wildcards(text), Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE) : null;
+        }
+
+        static Criteria of(byte type, double number, String text) {
+            if(type == NUMBER || type == BOOLEAN) return new Criteria("=", true, number, null);
+            String criteria = type == TEXT_VALUE ? text : "";
+            String operator = "=";
+            for(String prefix : new String[]{"<=", ">=", "<>", "<", ">", "="})
+                if(criteria.startsWith(prefix)) {
+                    operator = prefix;
+                    criteria = criteria.substring(prefix.length());
+                    break;
+                }
+            double parsed = criteria.isBlank() ? Double.NaN : parse(criteria);
+            return Double.isNaN(parsed) ? new Criteria(operator, false, 0, criteria) : new Criteria(operator, true, parsed, null);
+        }
+
+        private static String wildcards(String text) {
+            StringBuilder regex = new StringBuilder();
+            for(char c : text.toCharArray()) {
+                if(c == '*') regex.append(".*");
+                else if(c == '?') regex.append('.');
+                else regex.append(Pattern.quote(String.valueOf(c)));
+            }
+            return regex.toString();
+        }
+
+        boolean test(byte type, double number, String text) {
+            if(numeric) return type == NUMBER ? holds(Double.compare(number, this.number)) : operator.equals("<>");
+            if(this.text.isEmpty() && operator.equals("=")) return type == BLANK || type == TEXT_VALUE && text.isEmpty();
+            if(this.text.isEmpty() && operator.equals("<>")) return type != BLANK && !(type == TEXT_VALUE && text.isEmpty());
+            if(type != TEXT_VALUE) return operator.equals("<>");
+            int compare = pattern != null ? (pattern.matcher(text).matches() ? 0 : 1) : text.compareToIgnoreCase(this.text);
+            return holds(compare);
+        }
+
+        private boolean holds(int compare) {
+            return switch(operator) {
+                case "<=" -> compare <= 0;
+                case ">=" -> compare >= 0;
+                case "<>" -> compare != 0;
+                case "<" -> compare < 0;
+                case ">" -> compare > 0;
+                default -> compare == 0;
+            };
+        }
+    }
+
+    //</editor-fold>
+}
@@ -0,0 +1,219 @@
+/*
+ * Efesto - Excel Formula Extractor System and Topological Ordering algorithm.
+ * Copyright (C) 2017 Massimo Caliman mcaliman@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * If AGPL Version 3.0 terms are incompatible with your use of
+ * Efesto, alternative license terms are available from Massimo Caliman
+ * please direct inquiries about Efesto licensing to mcaliman@gmail.com
+ */
+
+package com.trueprogramming.excel.parser;
+
+import com.trueprogramming.excel.grammar.nonterm.Formula;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compiles the numeric formulas of an evaluated workbook into JVM bytecode, for recalculation after the inputs change.
+ * <p>
+ * The formulas of the Compilation are emitted in dependency order as straight-line code, a static run(double[] values)
+ * method of a hidden class per chunk; a formula result is kept in a local double of its chunk and stored in values,
+ * where the other chunks and the aggregates read it.
+ * Chunks stay below the size the JIT compiles (8000 bytes of code), so a recalculation runs as compiled Java.
+ * The formulas not compiled keep the values of the Evaluator.
+ *
+ * @author Massimo Caliman
+ */
+public final class FormulaCompiler {
+
+    private static final int MAX_CODE = 6000;//bytes of a chunk, the JIT does not compile methods over 8000
+    private static final String CLASS_NAME = FormulaCompiler.class.getPackageName().replace('.', '/') + "/Compiled";
+    private static final MethodType RUN = MethodType.methodType(void.class, double[].class);
+
+    private final Evaluator evaluator;
+    private Compilation compilation;
+    private double[] values = new double[0];
+    private MethodHandle[] chunks = new MethodHandle[0];
+
+
+    /**
+     * @param evaluator an evaluator after evaluate(), for the values of the inputs
+     */
+    public FormulaCompiler(Evaluator evaluator) {
+        this.evaluator = evaluator;
+    }
+
+    public void compile() {
+        long start = System.nanoTime();
+        this.compilation = new Compilation(evaluator);
+        this.values = compilation.values();
+        List<MethodHandle> handles = new ArrayList<>();
+        Emitter emitter = new Emitter(evaluator.size());
+        for(int i = 0; i < compilation.size(); i++) {
+            emitter.emit(compilation.slot(i));
+            if(emitter.code.size() > MAX_CODE || i == compilation.size() - 1) handles.add(emitter.define());
+        }
+        this.chunks = handles.toArray(new MethodHandle[0]);
+        evaluator.getProfile().add(Profile.Phase.COMPILE, null, System.nanoTime() - start, compilation.size());
+    }
+
+    /**
+     * Computes the compiled formulas from the current values.
+     */
+    public void recalculate() {
+        try {
+            for(MethodHandle run : chunks) run.invokeExact(values);
+        } catch(RuntimeException | Error e) {
+            throw e;
+        } catch(Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Number of formulas compiled.
+     */
+    public int size() {
+        return compilation == null ? 0 : compilation.size();
+    }
+
+    /**
+     * Number of hidden classes defined.
+     */
+    public int getChunks() {
+        return chunks.length;
+    }
+
+    public boolean isCompiled(String sheetName, int row, int column) {
+        return compilation != null && compilation.compiled(compilation.key(sheetName, row, column)) >= 0;
+    }
+
+    /**
+     * Value of a compiled formula or of an input after recalculate(): NaN for an error, 1 or 0 for a boolean.
+     */
+    public double getValue(String sheetName, int row, int column) {
+        long key = compilation.key(sheetName, row, column);
+        int slot = compilation.compiled(key);
+        if(slot >= 0) return values[compilation.index(slot)];
+        int input = compilation.input(key);
+        if(input < 0) throw new IllegalArgumentException(sheetName + "!" + AbstractParser.cellAddress(row, column) + " is not compiled");
+        return values[input];
+    }
+
+    /**
+     * Changes an input, a numeric, boolean or blank cell read by the compiled formulas.
+     */
+    public void setValue(String sheetName, int row, int column, double value) {
+        long key = compilation.key(sheetName, row, column);
+        int input = compilation.input(key);
+        if(input < 0) throw new IllegalArgumentException(sheetName + "!" + AbstractParser.cellAddress(row, column) + " is not an input");
+        values[input] = value;
+        for(int position : compilation.copies(key)) values[position] = value;
+    }
+
+    //<editor-fold desc="Code generation">
+
+    /**
+     * Code of the chunks, one at a time.
+     */
+    private final class Emitter implements Compilation.Target {
+
+        private final int[] chunkOf;//by slot
+        private final int[] locals;
+        private Bytecode code = new Bytecode(CLASS_NAME);
+        private int chunk;
+        private int local = 1;//0 is values
+
+        Emitter(int slots) {
+            this.chunkOf = new int[slots];
+            this.locals = new int[slots];
+        }
+
+        void emit(int slot) {
+            chunkOf[slot] = chunk;
+            locals[slot] = local;
+            compilation.emit((Formula) compilation.getFormula(slot), this);
+            call(Kernels.class, "finite", 1);
+            code.dstore(local);
+            store(compilation.index(slot));
+            for(int position : compilation.copies(compilation.getFormula(slot).key())) store(position);
+            local += 2;
+        }
+
+        /**
+         * The hidden class of the chunk, the next formulas go to a new chunk.
+         */
+        MethodHandle define() {
+            byte[] bytes = code.toByteArray("run", RUN.toMethodDescriptorString(), local);
+            code = new Bytecode(CLASS_NAME);
+            chunk++;
+            local = 1;
+            try {
+                MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+                return lookup.findStatic(lookup.lookupClass(), "run", RUN);
+            } catch(IllegalAccessException | NoSuchMethodException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private void store(int index) {
+            code.op(Bytecode.ALOAD_0, 1);
+            code.pushInt(index);
+            code.dload(local);
+            code.op(Bytecode.DASTORE, -4);
+        }
+
+        @Override
+        public void constant(double value) {
+            code.pushDouble(value);
+        }
+
+        @Override
+        public void load(int index, int slot) {
+            if(slot >= 0 && chunkOf[slot] == chunk && locals[slot] > 0) {//emitted before in this chunk
+                code.dload(locals[slot]);
+                return;
+            }
+            code.op(Bytecode.ALOAD_0, 1);
+            code.pushInt(index);
+            code.op(Bytecode.DALOAD, 0);
+        }
+
+        @Override
+        public void operator(int opcode) {
+            code.op(opcode, opcode == Bytecode.DNEG ? 0 : -2);
+        }
+
+        @Override
+        public void call(Class<?> owner, String name, int arity) {
+            code.invokestatic(owner.getName().replace('.', '/'), name, "(" + "D".repeat(arity) + ")D", 2 - 2 * arity);
+        }
+
+        @Override
+        public void region(String kernel, int from, int to) {
+            code.op(Bytecode.ALOAD_0, 1);
+            code.pushInt(from);
+            code.pushInt(to);
+            code.invokestatic(Kernels.class.getName().replace('.', '/'), kernel, "([DII)D", -1);
+        }
+    }
+
+    //</editor-fold>
+}
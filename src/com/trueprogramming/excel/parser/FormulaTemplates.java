@@ -0,0 +1,215 @@
+/*
+ * Efesto - Excel Formula Extractor System and Topological Ordering algorithm.
+ * Copyright (C) 2017 Massimo Caliman mcaliman@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * If AGPL Version 3.0 terms are incompatible with your use of
+ * Efesto, alternative license terms are available from Massimo Caliman
+ * please direct inquiries about Efesto licensing to mcaliman@gmail.com
+ */
+
+package com.trueprogramming.excel.parser;
+
+import org.apache.poi.ss.formula.ptg.AreaPtgBase;
+import org.apache.poi.ss.formula.ptg.OperandPtg;
+import org.apache.poi.ss.formula.ptg.Ptg;
+import org.apache.poi.ss.formula.ptg.RefPtgBase;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Cache of parsed formulas by relative R1C1 template.
+ * A formula copied down (or across) has the same template in every cell: the first cell is parsed by POI,
+ * the others get a copy of its tokens with the relative references moved by the row and column offset.
+ * <p>
+ * A template is used only if every reference token of the parsed formula comes from a reference
+ * recognized in the text (A1, $A$1, Sheet!A1, A1:B2), other forms (A:A, 1:1, ...) are always parsed.
+ * <p>
+ * The cache is bounded, least recently used first out: the templates of the formulas copied over many cells stay,
+ * the one-off formulas do not accumulate for the whole run.
+ *
+ * @author Massimo Caliman
+ */
+final class FormulaTemplates {
+
+    private static final int MAX_ROWS = 1048576;
+    private static final int MAX_COLUMNS = 16384;
+    private static final Template UNCACHEABLE = new Template(null, 0, 0);
+    private static final int CAPACITY = 1 << 12;
+
+    private final Map<String, Template> templates;
+
+    FormulaTemplates() {
+        this(CAPACITY);
+    }
+
+    FormulaTemplates(int capacity) {
+        this.templates = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Template> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    private record Template(Ptg[] ptgs, int row, int column) {
+    }
+
+    /**
+     * Tokens of formula in the given cell, parser is called for the first cell of a template only.
+     */
+    Ptg[] tokens(int sheetIndex, int row, int column, String formula, Function<String, Ptg[]> parser) {
+        StringBuilder key = new StringBuilder(formula.length() + 16).append(sheetIndex).append('|');
+        int references = template(formula, row, column, key);
+        Template template = this.templates.get(key.toString());
+        if(template == null) {
+            Ptg[] ptgs = parser.apply(formula);
+            if(ptgs != null)
+                this.templates.put(key.toString(), references == references(ptgs) ? new Template(ptgs, row, column) : UNCACHEABLE);
+            return ptgs;
+        }
+        if(template == UNCACHEABLE) return parser.apply(formula);
+        return shift(template.ptgs, row - template.row, column - template.column);
+    }
+
+    int size() {
+        return this.templates.size();
+    }
+
+    private static int references(Ptg[] ptgs) {
+        int count = 0;
+        for(Ptg ptg : ptgs) if(ptg instanceof RefPtgBase || ptg instanceof AreaPtgBase) count++;
+        return count;
+    }
+
+    private static Ptg[] shift(Ptg[] ptgs, int rows, int columns) {
+        Ptg[] shifted = new Ptg[ptgs.length];
+        for(int i = 0; i < ptgs.length; i++) {
+            Ptg ptg = ptgs[i];
+            if(ptg instanceof RefPtgBase) {
+                RefPtgBase ref = (RefPtgBase) ((OperandPtg) ptg).copy();
+                if(ref.isRowRelative()) ref.setRow(ref.getRow() + rows);
+                if(ref.isColRelative()) ref.setColumn(ref.getColumn() + columns);
+                ptg = ref;
+            } else if(ptg instanceof AreaPtgBase) {
+                AreaPtgBase area = (AreaPtgBase) ((OperandPtg) ptg).copy();
+                if(area.isFirstRowRelative()) area.setFirstRow(area.getFirstRow() + rows);
+                if(area.isLastRowRelative()) area.setLastRow(area.getLastRow() + rows);
+                if(area.isFirstColRelative()) area.setFirstColumn(area.getFirstColumn() + columns);
+                if(area.isLastColRelative()) area.setLastColumn(area.getLastColumn() + columns);
+                ptg = area;
+            }
+            shifted[i] = ptg;
+        }
+        return shifted;
+    }
+
+    /**
+     * Append the template of formula to key: relative cell references become offsets from (row, column),
+     * strings, quoted names and bracketed parts are copied as they are.
+     *
+     * @return the number of references, an area A1:B2 counts as one
+     */
+    static int template(String formula, int row, int column, StringBuilder key) {
+        int references = 0;
+        boolean range = false;//previous token was a reference followed by ':'
+        int length = formula.length();
+        int i = 0;
+        while(i < length) {
+            char c = formula.charAt(i);
+            if(c == '"' || c == '\'') {
+                int end = i + 1;
+                while(end < length) {
+                    if(formula.charAt(end) == c) {
+                        if(end + 1 < length && formula.charAt(end + 1) == c) end += 2;
+                        else break;
+                    } else end++;
+                }
+                end = Math.min(end + 1, length);
+                key.append(formula, i, end);
+                i = end;
+                range = false;
+            } else if(c == '[') {//external book or structured reference
+                int end = i, depth = 0;
+                do {
+                    char d = formula.charAt(end++);
+                    if(d == '[') depth++;
+                    else if(d == ']') depth--;
+                } while(depth > 0 && end < length);
+                key.append(formula, i, end);
+                i = end;
+                range = false;
+            } else if(isNameChar(c)) {
+                int end = i;
+                while(end < length && isNameChar(formula.charAt(end))) end++;
+                int next = end;
+                while(next < length && formula.charAt(next) == ' ') next++;
+                boolean call = next < length && (formula.charAt(next) == '(' || formula.charAt(next) == '!');
+                if(call || !reference(formula, i, end, row, column, key)) {
+                    key.append(formula, i, end);
+                    range = false;
+                } else {
+                    if(!range) references++;
+                    range = end < length && formula.charAt(end) == ':';
+                }
+                i = end;
+            } else {
+                key.append(c);
+                if(c != ':') range = false;
+                i++;
+            }
+        }
+        return references;
+    }
+
+    private static boolean isNameChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '.' || c == '$' || c == '\\';
+    }
+
+    /**
+     * Append the R1C1 form of the A1 reference formula[start, end) if it is one.
+     */
+    private static boolean reference(String formula, int start, int end, int row, int column, StringBuilder key) {
+        int i = start;
+        boolean absoluteColumn = i < end && formula.charAt(i) == '$';
+        if(absoluteColumn) i++;
+        int col = 0, letters = 0;
+        while(i < end && letters < 4 && isLetter(formula.charAt(i))) {
+            col = col * 26 + (Character.toUpperCase(formula.charAt(i)) - 'A' + 1);
+            letters++;
+            i++;
+        }
+        if(letters == 0 || letters > 3 || col > MAX_COLUMNS) return false;
+        boolean absoluteRow = i < end && formula.charAt(i) == '$';
+        if(absoluteRow) i++;
+        if(i == end || formula.charAt(i) == '0') return false;
+        long r = 0;
+        while(i < end && Character.isDigit(formula.charAt(i)) && r <= MAX_ROWS) r = r * 10 + (formula.charAt(i++) - '0');
+        if(i != end || r > MAX_ROWS) return false;
+        key.append('R');
+        if(absoluteRow) key.append(r);
+        else key.append('[').append(r - 1 - row).append(']');
+        key.append('C');
+        if(absoluteColumn) key.append(col);
+        else key.append('[').append(col - 1 - column).append(']');
+        return true;
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z');
+    }
+}
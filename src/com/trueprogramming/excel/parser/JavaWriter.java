@@ -0,0 +1,260 @@
+/*
+ * Efesto - Excel Formula Extractor System and Topological Ordering algorithm.
+ * Copyright (C) 2017 Massimo Caliman mcaliman@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * If AGPL Version 3.0 terms are incompatible with your use of
+ * Efesto, alternative license terms are available from Massimo Caliman
+ * please direct inquiries about Efesto licensing to mcaliman@gmail.com
+ */
+
+package com.trueprogramming.excel.parser;
+
+import com.trueprogramming.excel.grammar.nonterm.Formula;
+import com.trueprogramming.excel.grammar.nonterm.Start;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes the numeric formulas of an evaluated workbook as the source of a standalone Java class,
+ * that needs only Kernels at run time.
+ * <p>
+ * The class has typed accessors for the inputs (getSheet1_A1, setSheet1_A1 with double or boolean) and for the
+ * results (getSheet1_C1, a double), and a method per formula cell, called by calculate() in dependency order.
+ * As in FormulaCompiler, the values live in an array holding the copies read by the aggregates, an error is NaN,
+ * a boolean 1 or 0; the formulas not compiled are listed in a comment.
+ * The cell methods and the initial values are in nested classes of CHUNK statements, within the 64 KB of code of a
+ * method and the 65535 constants of a class; the accessors are in the class itself, so a workbook with more than
+ * about 20000 of them does not fit and is left to FormulaCompiler.
+ *
+ * @author Massimo Caliman
+ */
+public final class JavaWriter {
+
+    private static final int CHUNK = 1000;//statements of a generated method
+    private static final int MAX_ACCESSORS = 20000;//names and index constants in the constant pool of a class, at most 65535
+
+    private final Evaluator evaluator;
+    private final Map<Integer, String> sheets = new HashMap<>();//sheet index -> identifier
+    private final Set<String> identifiers = new HashSet<>();
+
+    /**
+     * @param evaluator an evaluator after evaluate(), for the values of the inputs
+     */
+    public JavaWriter(Evaluator evaluator) {
+        this.evaluator = evaluator;
+    }
+
+    /**
+     * @param className simple or qualified name of the class
+     */
+    public void write(Appendable out, String className) throws IOException {
+        Compilation compilation = new Compilation(evaluator);
+        int dot = className.lastIndexOf('.');
+        String simpleName = className.substring(dot + 1);
+        if(!isIdentifier(simpleName)) throw new IllegalArgumentException("Not a class name: " + className);
+        int inputs = 0;
+        for(Long ignored : compilation.inputs()) inputs++;
+        if(2 * inputs + compilation.size() > MAX_ACCESSORS)
+            throw new IllegalArgumentException(inputs + " inputs and " + compilation.size() + " formulas are too many accessors for a class, see FormulaCompiler");
+        out.append("/*\n * Generated by Efesto: ").append(String.valueOf(inputs)).append(" inputs, ")
+                .append(String.valueOf(compilation.size())).append(" formulas in evaluation order.\n");
+        boolean skipped = false;
+        for(int slot = 0; slot < evaluator.size(); slot++) {
+            Start start = evaluator.getFormula(slot);
+            if(compilation.compiled(start.key()) >= 0) continue;
+            if(!skipped) out.append(" * Not compiled, see the Evaluator:\n");
+            skipped = true;
+            out.append(" * ").append(comment(label(start.key()) + " = " + start)).append('\n');
+        }
+        out.append(" */\n");
+        if(dot > 0) out.append("package ").append(className, 0, dot).append(";\n\n");
+        out.append("import ").append(Kernels.class.getName()).append(";\n\n");
+        out.append("public final class ").append(simpleName).append(" {\n\n");
+        double[] values = compilation.values();
+        out.append("    private final double[] values = new double[").append(String.valueOf(values.length)).append("];\n\n");
+        out.append("    public ").append(simpleName).append("() {\n");
+        for(int from = 0; from < values.length; from += CHUNK)
+            out.append("        Inputs").append(String.valueOf(from / CHUNK)).append(".initialize(values);\n");
+        out.append("        calculate();\n    }\n\n");
+        out.append("    public void calculate() {\n");
+        for(int from = 0; from < compilation.size(); from += CHUNK)
+            out.append("        Formulas").append(String.valueOf(from / CHUNK)).append(".calculate(values);\n");
+        out.append("    }\n");
+        writeInputs(out, compilation);
+        writeResults(out, compilation);
+        for(int from = 0; from < values.length; from += CHUNK) {
+            out.append("\n    private static final class Inputs").append(String.valueOf(from / CHUNK)).append(" {\n\n");
+            out.append("        static void initialize(double[] values) {\n");
+            for(int index = from; index < Math.min(values.length, from + CHUNK); index++)
+                if(values[index] != 0)
+                    out.append("            values[").append(String.valueOf(index)).append("] = ").append(literal(values[index])).append(";\n");
+            out.append("        }\n    }\n");
+        }
+        for(int from = 0; from < compilation.size(); from += CHUNK) writeFormulas(out, compilation, from, Math.min(compilation.size(), from + CHUNK));
+        out.append("}\n");
+    }
+
+    private void writeInputs(Appendable out, Compilation compilation) throws IOException {
+        for(long key : compilation.inputs()) {
+            String name = name(key), index = String.valueOf(compilation.input(key));
+            boolean bool = compilation.isBoolean(key);
+            out.append("\n    /**\n     * ").append(comment(label(key))).append("\n     */\n");
+            if(bool) out.append("    public boolean get").append(name).append("() {\n        return values[").append(index).append("] != 0;\n    }\n\n");
+            else out.append("    public double get").append(name).append("() {\n        return values[").append(index).append("];\n    }\n\n");
+            out.append("    public void set").append(name).append(bool ? "(boolean value) {\n" : "(double value) {\n");
+            String value = bool ? "value ? 1 : 0" : "value";
+            out.append("        values[").append(index).append("] = ").append(value).append(";\n");
+            for(int position : compilation.copies(key))
+                out.append("        values[").append(String.valueOf(position)).append("] = ").append(value).append(";\n");
+            out.append("    }\n");
+        }
+    }
+
+    private void writeResults(Appendable out, Compilation compilation) throws IOException {
+        for(int i = 0; i < compilation.size(); i++) {
+            int slot = compilation.slot(i);
+            Start start = compilation.getFormula(slot);
+            out.append("\n    /**\n     * ").append(comment(label(start.key()) + " = " + start)).append("\n     */\n");
+            out.append("    public double get").append(name(start.key())).append("() {\n        return values[")
+                    .append(String.valueOf(compilation.index(slot))).append("];\n    }\n");
+        }
+    }
+
+    /**
+     * The formulas from..to as methods of a nested class, with their own constant pool.
+     */
+    private void writeFormulas(Appendable out, Compilation compilation, int from, int to) throws IOException {
+        out.append("\n    private static final class Formulas").append(String.valueOf(from / CHUNK)).append(" {\n\n");
+        out.append("        static void calculate(double[] values) {\n");
+        for(int i = from; i < to; i++)
+            out.append("            calculate").append(name(compilation.getFormula(compilation.slot(i)).key())).append("(values);\n");
+        out.append("        }\n");
+        Source source = new Source();
+        for(int i = from; i < to; i++) {
+            int slot = compilation.slot(i);
+            Start start = compilation.getFormula(slot);
+            compilation.emit((Formula) start, source);
+            out.append("\n        private static void calculate").append(name(start.key())).append("(double[] values) {\n");
+            out.append("            double value = Kernels.finite(").append(source.pop()).append(");\n");
+            out.append("            values[").append(String.valueOf(compilation.index(slot))).append("] = value;\n");
+            for(int position : compilation.copies(start.key()))
+                out.append("            values[").append(String.valueOf(position)).append("] = value;\n");
+            out.append("        }\n");
+        }
+        out.append("    }\n");
+    }
+
+    //<editor-fold desc="Names">
+
+    /**
+     * Sheet and cell as an identifier: Sheet1_A1, the sheet name with _ for the characters not allowed.
+     */
+    private String name(long key) {
+        int sheet = (int) (key >>> 34) & 0xFFFF;
+        String identifier = sheets.get(sheet);
+        if(identifier == null) {
+            StringBuilder buff = new StringBuilder();
+            for(char c : evaluator.getWorkbook().getSheetName(sheet).toCharArray())
+                buff.append(Character.isJavaIdentifierPart(c) && c != '$' ? c : '_');
+            if(buff.length() == 0 || !Character.isJavaIdentifierStart(buff.charAt(0))) buff.insert(0, '_');
+            identifier = buff.toString();
+            while(!identifiers.add(identifier)) identifier += "_";//another sheet with the same identifier
+            sheets.put(sheet, identifier);
+        }
+        return identifier + "_" + AbstractParser.cellAddress(AbstractParser.rowOf(key), AbstractParser.columnOf(key));
+    }
+
+    private String label(long key) {
+        return evaluator.getWorkbook().getSheetName((int) (key >>> 34) & 0xFFFF) + "!"
+                + AbstractParser.cellAddress(AbstractParser.rowOf(key), AbstractParser.columnOf(key));
+    }
+
+    /**
+     * Text safe in a comment: no end of comment, no line break, no unicode escape.
+     */
+    private static String comment(String text) {
+        return text.replace("\\", "\\\\").replace("*/", "*\\/").replace('\n', ' ').replace('\r', ' ');
+    }
+
+    private static boolean isIdentifier(String name) {
+        if(name.isEmpty() || !Character.isJavaIdentifierStart(name.charAt(0))) return false;
+        for(char c : name.toCharArray()) if(!Character.isJavaIdentifierPart(c)) return false;
+        return true;
+    }
+
+    private static String literal(double value) {
+        if(Double.isNaN(value)) return "Double.NaN";
+        return Double.toString(value);
+    }
+
+    //</editor-fold>
+
+    /**
+     * Java expression of a formula, built on a stack of operands.
+     */
+    private static final class Source implements Compilation.Target {
+
+        private final Deque<String> stack = new ArrayDeque<>();
+
+        String pop() {
+            return stack.pop();
+        }
+
+        @Override
+        public void constant(double value) {
+            stack.push(literal(value));
+        }
+
+        @Override
+        public void load(int index, int slot) {
+            stack.push("values[" + index + "]");
+        }
+
+        @Override
+        public void operator(int opcode) {
+            if(opcode == Bytecode.DNEG) {
+                stack.push("(-" + stack.pop() + ")");
+                return;
+            }
+            String right = stack.pop(), left = stack.pop();
+            String operator = switch(opcode) {
+                case Bytecode.DADD -> " + ";
+                case Bytecode.DSUB -> " - ";
+                case Bytecode.DMUL -> " * ";
+                default -> " / ";
+            };
+            stack.push("(" + left + operator + right + ")");
+        }
+
+        @Override
+        public void call(Class<?> owner, String name, int arity) {
+            String[] args = new String[arity];
+            for(int i = arity - 1; i >= 0; i--) args[i] = stack.pop();
+            stack.push(owner.getSimpleName() + "." + name + "(" + String.join(", ", args) + ")");
+        }
+
+        @Override
+        public void region(String kernel, int from, int to) {
+            stack.push("Kernels." + kernel + "(values, " + from + ", " + to + ")");
+        }
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ * Efesto - Excel Formula Extractor System and Topological Ordering algorithm.
+ * Copyright (C) 2017 Massimo Caliman mcaliman@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * If AGPL Version 3.0 terms are incompatible with your use of
+ * Efesto, alternative license terms are available from Massimo Caliman
+ * please direct inquiries about Efesto licensing to mcaliman@gmail.com
+ */
+
+package com.trueprogramming.excel.parser;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Runtime of the compiled formulas: numbers only, an error is NaN and goes through every operation,
+ * a boolean is 1 or 0. The aggregates read a region [from, to) of the values array.
+ * Public for the classes written by JavaWriter, which need nothing else at run time.
+ *
+ * @author Massimo Caliman
+ */
+public final class Kernels {
+
+    private Kernels() {
+    }
+
+    //<editor-fold desc="Aggregates">
+
+    static final int SUM = 0;
+    static final int SUMSQ = 1;
+    static final int PRODUCT = 2;
+    static final int MIN = 3;
+    static final int MAX = 4;
+
+    /*
+     * The loops keep four independent accumulators, so the additions do not wait on each other and the JIT can
+     * schedule them on the SIMD units; errors (NaN) go through Math.min and Math.max as through the arithmetic.
+     */
+
+    public static double sum(double[] values, int from, int to) {
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = from;
+        for(; i < to - 3; i += 4) {
+            s0 += values[i];
+            s1 += values[i + 1];
+            s2 += values[i + 2];
+            s3 += values[i + 3];
+        }
+        for(; i < to; i++) s0 += values[i];
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    public static double sumsq(double[] values, int from, int to) {
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = from;
+        for(; i < to - 3; i += 4) {
+            s0 += values[i] * values[i];
+            s1 += values[i + 1] * values[i + 1];
+            s2 += values[i + 2] * values[i + 2];
+            s3 += values[i + 3] * values[i + 3];
+        }
+        for(; i < to; i++) s0 += values[i] * values[i];
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    public static double sumsq(double value) {
+        return value * value;
+    }
+
+    public static double product(double[] values, int from, int to) {
+        double p0 = 1, p1 = 1, p2 = 1, p3 = 1;
+        int i = from;
+        for(; i < to - 3; i += 4) {
+            p0 *= values[i];
+            p1 *= values[i + 1];
+            p2 *= values[i + 2];
+            p3 *= values[i + 3];
+        }
+        for(; i < to; i++) p0 *= values[i];
+        return (p0 * p1) * (p2 * p3);
+    }
+
+    /**
+     * Minimum of the region, +Infinity if empty.
+     */
+    public static double min(double[] values, int from, int to) {
+        double m0 = Double.POSITIVE_INFINITY, m1 = m0, m2 = m0, m3 = m0;
+        int i = from;
+        for(; i < to - 3; i += 4) {
+            m0 = Math.min(m0, values[i]);
+            m1 = Math.min(m1, values[i + 1]);
+            m2 = Math.min(m2, values[i + 2]);
+            m3 = Math.min(m3, values[i + 3]);
+        }
+        for(; i < to; i++) m0 = Math.min(m0, values[i]);
+        return Math.min(Math.min(m0, m1), Math.min(m2, m3));
+    }
+
+    /**
+     * Maximum of the region, -Infinity if empty.
+     */
+    public static double max(double[] values, int from, int to) {
+        double m0 = Double.NEGATIVE_INFINITY, m1 = m0, m2 = m0, m3 = m0;
+        int i = from;
+        for(; i < to - 3; i += 4) {
+            m0 = Math.max(m0, values[i]);
+            m1 = Math.max(m1, values[i + 1]);
+            m2 = Math.max(m2, values[i + 2]);
+            m3 = Math.max(m3, values[i + 3]);
+        }
+        for(; i < to; i++) m0 = Math.max(m0, values[i]);
+        return Math.max(Math.max(m0, m1), Math.max(m2, m3));
+    }
+
+    /**
+     * Numbers of the region, errors are not counted.
+     */
+    public static double count(double[] values, int from, int to) {
+        int c0 = 0, c1 = 0, c2 = 0, c3 = 0;
+        int i = from;
+        for(; i < to - 3; i += 4) {
+            c0 += values[i] == values[i] ? 1 : 0;
+            c1 += values[i + 1] == values[i + 1] ? 1 : 0;
+            c2 += values[i + 2] == values[i + 2] ? 1 : 0;
+            c3 += values[i + 3] == values[i + 3] ? 1 : 0;
+        }
+        for(; i < to; i++) c0 += values[i] == values[i] ? 1 : 0;
+        return c0 + c1 + c2 + c3;
+    }
+
+    /**
+     * SUM, SUMSQ, PRODUCT, MIN or MAX of the values[i] with bit i set in the validity bitmap, i below length.
+     * The words with every bit set go through the dense kernels, the others bit by bit.
+     */
+    static double reduce(int statistic, double[] values, long[] valid, int length) {
+        double result = identity(statistic);
+        for(int word = 0; word < valid.length; word++) {
+            long bits = valid[word];
+            if(bits == 0) continue;
+            int base = word << 6;
+            if(bits == -1L && base + 64 <= length) {
+                result = combine(statistic, result, switch(statistic) {
+                    case SUM -> sum(values, base, base + 64);
+                    case SUMSQ -> sumsq(values, base, base + 64);
+                    case PRODUCT -> product(values, base, base + 64);
+                    case MIN -> min(values, base, base + 64);
+                    default -> max(values, base, base + 64);
+                });
+                continue;
+            }
+            for(; bits != 0; bits &= bits - 1) {
+                double value = values[base + Long.numberOfTrailingZeros(bits)];
+                result = combine(statistic, result, statistic == SUMSQ ? value * value : value);
+            }
+        }
+        return result;
+    }
+
+    static double identity(int statistic) {
+        return switch(statistic) {
+            case PRODUCT -> 1;
+            case MIN -> Double.POSITIVE_INFINITY;
+            case MAX -> Double.NEGATIVE_INFINITY;
+            default -> 0;
+        };
+    }
+
+    /**
+     * Two partial results of a statistic, SUMSQ adds squares already.
+     */
+    static double combine(int statistic, double left, double right) {
+        return switch(statistic) {
+            case PRODUCT -> left * right;
+            case MIN -> Math.min(left, right);
+            case MAX -> Math.max(left, right);
+            default -> left + right;
+        };
+    }
+
+    public static double counted(double value) {
+        return value == value ? 1 : 0;
+    }
+
+    //</editor-fold>
+
+    //<editor-fold desc="Operators">
+
+    public static double finite(double value) {
+        return Double.isFinite(value) ? value : Double.NaN;
+    }
+
+    public static double divide(double left, double right) {
+        return right == 0 ? Double.NaN : left / right;
+    }
+
+    public static double power(double left, double right) {
+        return finite(Math.pow(left, right));
+    }
+
+    public static double eq(double left, double right) {
+        return left != left || right != right ? Double.NaN : left == right ? 1 : 0;
+    }
+
+    public static double neq(double left, double right) {
+        return left != left || right != right ? Double.NaN : left != right ? 1 : 0;
+    }
+
+    public static double lt(double left, double right) {
+        return left != left || right != right ? Double.NaN : left < right ? 1 : 0;
+    }
+
+    public static double leq(double left, double right) {
+        return left != left || right != right ? Double.NaN : left <= right ? 1 : 0;
+    }
+
+    public static double gt(double left, double right) {
+        return left != left || right != right ? Double.NaN : left > right ? 1 : 0;
+    }
+
+    public static double geq(double left, double right) {
+        return left != left || right != right ? Double.NaN : left >= right ? 1 : 0;
+    }
+
+    //</editor-fold>
+
+    //<editor-fold desc="Functions">
+
+    /**
+     * IF with both branches computed, an error in the branch not taken is ignored as by Excel.
+     */
+    public static double choose(double condition, double ifTrue, double ifFalse) {
+        return condition != condition ? Double.NaN : condition != 0 ? ifTrue : ifFalse;
+    }
+
+    public static double and(double left, double right) {
+        return left != left || right != right ? Double.NaN : left != 0 && right != 0 ? 1 : 0;
+    }
+
+    public static double or(double left, double right) {
+        return left != left || right != right ? Double.NaN : left != 0 || right != 0 ? 1 : 0;
+    }
+
+    public static double not(double value) {
+        return value != value ? Double.NaN : value == 0 ? 1 : 0;
+    }
+
+    public static double sqrt(double value) {
+        return value < 0 ? Double.NaN : Math.sqrt(value);
+    }
+
+    public static double ln(double value) {
+        return value <= 0 ? Double.NaN : Math.log(value);
+    }
+
+    public static double mod(double value, double divisor) {
+        return divisor == 0 ? Double.NaN : value - divisor * Math.floor(value / divisor);
+    }
+
+    public static double round(double value, double digits) {
+        return round(value, digits, RoundingMode.HALF_UP);
+    }
+
+    public static double roundUp(double value, double digits) {
+        return round(value, digits, RoundingMode.UP);
+    }
+
+    public static double roundDown(double value, double digits) {
+        return round(value, digits, RoundingMode.DOWN);
+    }
+
+    private static double round(double value, double digits, RoundingMode mode) {
+        if(!Double.isFinite(value) || digits != digits) return Double.NaN;
+        return BigDecimal.valueOf(value).setScale((int) digits, mode).doubleValue();
+    }
+
+    //</editor-fold>
+}
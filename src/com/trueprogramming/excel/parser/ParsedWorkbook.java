@@ -0,0 +1,66 @@
+/*
+ * Efesto - Excel Formula Extractor System and Topological Ordering algorithm.
+ * Copyright (C) 2017 Massimo Caliman mcaliman@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * If AGPL Version 3.0 terms are incompatible with your use of
+ * Efesto, alternative license terms are available from Massimo Caliman
+ * please direct inquiries about Efesto licensing to mcaliman@gmail.com
+ */
+
+package com.trueprogramming.excel.parser;
+
+import com.trueprogramming.excel.graph.CircularReference;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Result of parsing and sorting a workbook, as needed to write it: a Parser after sort(), or a Snapshot of one.
+ *
+ * @author Massimo Caliman
+ */
+public interface ParsedWorkbook {
+
+    String getFilename();
+
+    int getCounterFormulas();
+
+    /**
+     * Elements in topological order.
+     */
+    StartList getList();
+
+    /**
+     * Elements partitioned by topological level, see StartGraph.getLevels()
+     */
+    List<StartList> getLevels();
+
+    List<CircularReference> getCircularReferences();
+
+    /**
+     * Listing of the cells as read, one commented line per cell.
+     */
+    String getRaw();
+
+    /**
+     * Appends the listing of getRaw() to out.
+     */
+    default void writeRaw(Appendable out) throws IOException {
+        out.append(getRaw());
+    }
+
+    Profile getProfile();
+}
@@ -29,67 +29,297 @@ import com.trueprogramming.excel.grammar.nonterm.*;
 import com.trueprogramming.excel.grammar.nonterm.binary.*;
 import com.trueprogramming.excel.grammar.nonterm.unary.Minus;
 import com.trueprogramming.excel.grammar.nonterm.unary.Plus;
+import com.trueprogramming.excel.graph.CircularReference;
 import com.trueprogramming.excel.graph.StartGraph;
 import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
 import org.apache.poi.ss.formula.ptg.*;
-import org.apache.poi.ss.usermodel.Cell;
-import org.apache.poi.ss.usermodel.Row;
-import org.apache.poi.ss.usermodel.Sheet;
-import org.apache.poi.ss.util.CellReference;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-import java.util.Stack;
-import java.util.stream.Stream;
-
-import static java.lang.System.err;
-import static java.lang.System.out;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
 
 
 /**
  * @author Massimo Caliman
  */
-public final class Parser extends AbstractParser {
+public final class Parser extends AbstractParser implements ParsedWorkbook {
+
+    private final static Map<Class<? extends Ptg>, BiConsumer<Parser, Ptg>> handlers = new HashMap<>();
+
+    static {
+        handlers.put(ArrayPtg.class, (p, t) -> p.parseConstantArray((ArrayPtg) t));
+        handlers.put(AddPtg.class, (p, t) -> p.parseAdd());
+        handlers.put(Area3DPxg.class, (p, t) -> p.parsePrefixReferenceItem((Area3DPxg) t));
+        handlers.put(AreaErrPtg.class, Parser::parseErrPtg);
+        handlers.put(AreaPtg.class, (p, t) -> p.parseRangeReference((AreaPtg) t));
+        handlers.put(AttrPtg.class, (p, t) -> p.parseSum((AttrPtg) t));
+        handlers.put(BoolPtg.class, (p, t) -> p.parseBOOL(((BoolPtg) t).getValue()));
+        handlers.put(ConcatPtg.class, (p, t) -> p.parseConcat());
+        handlers.put(Deleted3DPxg.class, Parser::parseErrPtg);
+        handlers.put(DeletedArea3DPtg.class, Parser::parseErrPtg);
+        handlers.put(DeletedRef3DPtg.class, Parser::parseErrPtg);
+        handlers.put(DividePtg.class, (p, t) -> p.parseDiv());
+        handlers.put(EqualPtg.class, (p, t) -> p.parseEq());
+        handlers.put(ErrPtg.class, (p, t) -> p.parseERROR((ErrPtg) t));
+        handlers.put(FuncPtg.class, (p, t) -> p.parseBuiltinFunction((FuncPtg) t));
+        handlers.put(FuncVarPtg.class, (p, t) -> p.parseBuiltinFunction((FuncVarPtg) t));
+        handlers.put(GreaterEqualPtg.class, (p, t) -> p.parseGteq());
+        handlers.put(GreaterThanPtg.class, (p, t) -> p.parseGt());
+        handlers.put(IntersectionPtg.class, (p, t) -> p.parseIntersection());
+        handlers.put(IntPtg.class, (p, t) -> p.parseINT(((IntPtg) t).getValue()));
+        handlers.put(LessEqualPtg.class, (p, t) -> p.parseLeq());
+        handlers.put(LessThanPtg.class, (p, t) -> p.parseLt());
+        handlers.put(MemErrPtg.class, Parser::parseErrPtg);
+        handlers.put(MissingArgPtg.class, (p, t) -> p.parseMissingArguments());
+        handlers.put(MultiplyPtg.class, (p, t) -> p.parseMult());
+        handlers.put(NamePtg.class, (p, t) -> p.parseNamedRange((NamePtg) t));
+        handlers.put(NotEqualPtg.class, (p, t) -> p.parseNeq());
+        handlers.put(NumberPtg.class, (p, t) -> p.parseNUMBER(((NumberPtg) t).getValue()));
+        handlers.put(ParenthesisPtg.class, (p, t) -> p.parseParenthesisFormula());
+        handlers.put(PercentPtg.class, (p, t) -> p.percentFormula());
+        handlers.put(PowerPtg.class, (p, t) -> p.parsePower());
+        handlers.put(Ref3DPxg.class, (p, t) -> p.parsePrefixReferenceItem((Ref3DPxg) t));
+        handlers.put(RefErrorPtg.class, (p, t) -> p.parseERRORREF());
+        handlers.put(RefPtg.class, (p, t) -> p.parseCELL((RefPtg) t));
+        handlers.put(StringPtg.class, (p, t) -> p.parseSTRING(((StringPtg) t).getValue()));
+        handlers.put(SubtractPtg.class, (p, t) -> p.parseSub());
+        handlers.put(UnaryMinusPtg.class, (p, t) -> p.parseMinus());
+        handlers.put(UnaryPlusPtg.class, (p, t) -> p.parsePlus());
+        handlers.put(UnionPtg.class, (p, t) -> p.parseUnion());
+        handlers.put(UnknownPtg.class, Parser::parseErrPtg);
+    }
 
     private boolean verbose = false;
-    private final StringBuilder raw;
-    private final List<Cell> ext;
+    private boolean sumArgument;//the token parsed now gives the argument of a SUM, see area(Start)
+
+    private final RawListing raw;//listing of the cells parsed in place or by a sheet context
+    private final List<RawListing> merged;//listings of the merged sheet contexts, in order, not copied
+    private final TreeMap<Long, List<Start>> ext;//cell of another sheet -> references to it
     private final StartList unordered;
     private StartList ordered;
+    private List<StartList> levels;
     private final StartGraph graph;
-    private final Stack<Start> stack;
+    private final StartStack stack;
+    private final List<Consumer<Parser>> journal;//updates of unordered and graph made by a sheet context, null when parsing in place
+    private Parser previous;//parse() reuses its unchanged sheets, null for a full parse
+    private List<Parser> sheets;//contexts of the last parse(), null when parsed in place
+    private final List<String> reused;//sheets taken from previous by the last parse()
+    private byte[] fingerprint;//context: digest of the cells of the sheet, computed on first use
 
     public Parser(String filename) throws IOException, InvalidFormatException {
-        super(filename);
-        this.raw = new StringBuilder();
-        this.ext = new ArrayList<>();
+        this(filename, false);
+    }
+
+    public Parser(String filename, boolean streaming) throws IOException, InvalidFormatException {
+        this(filename, streaming, null);
+    }
+
+    /**
+     * Parser of a new version of a workbook, parse() reuses the sheets of previous that have not changed.
+     * A sheet is reused when its cells and the cells of the sheets it reads are the same as in previous,
+     * the sheets of the workbook must be the same, in the same order;
+     * sheets resolving defined names are always parsed again, names are not fingerprinted.
+     * The elements of the reused sheets are shared and moved to the new workbook, previous must not be used anymore.
+     *
+     * @param previous parsed version of the workbook, null for a full parse
+     */
+    public Parser(String filename, boolean streaming, Parser previous) throws IOException, InvalidFormatException {
+        super(filename, streaming);
+        this.previous = previous;
+        this.reused = new ArrayList<>();
+        this.raw = new RawListing();
+        this.merged = new ArrayList<>();
+        this.ext = new TreeMap<>();
         this.unordered = new StartList();
         this.ordered = new StartList();
+        this.levels = List.of();
         this.graph = new StartGraph();
-        this.stack = new Stack<>();
+        this.stack = new StartStack();
+        this.journal = null;
+    }
+
+    /**
+     * Context for parsing one sheet, the updates of unordered and graph are journaled and replayed by merge()
+     */
+    private Parser(Parser parent, int sheetIndex) {
+        super(parent, sheetIndex);
+        this.verbose = parent.verbose;
+        this.raw = new RawListing();
+        this.merged = new ArrayList<>();
+        this.ext = new TreeMap<>();
+        this.unordered = null;
+        this.graph = null;
+        this.stack = new StartStack();
+        this.journal = new ArrayList<>();
+        this.reused = null;
     }
 
 
     //<editor-fold desc="Parsing">
-    protected void parse(Cell cell) {
-        if(isFormula(cell)) {
-            parseFormula(cell);
-        } else if(this.ext.contains(cell)) {
+
+    /**
+     * A workbook with more sheets is parsed one context per sheet, on the common pool when the source can be read
+     * concurrently, the contexts are then merged in sheet order so the result does not depend on scheduling.
+     */
+    @Override
+    public void parse() {
+        int noOfSheets = this.workbook.getNumberOfSheets();
+        if(noOfSheets <= 1) {
+            super.parse();
+            return;
+        }
+        this.singleSheet = false;
+        byte[][] fingerprints = compatible(this.previous) ? fingerprints() : null;
+        this.sheets = new ArrayList<>(noOfSheets);
+        List<Parser> parsed = new ArrayList<>(noOfSheets);
+        for(int index = 0; index < noOfSheets; index++) {
+            Parser sheet = fingerprints != null ? reusable(index, fingerprints) : null;
+            if(sheet != null) {
+                sheet.rebind(this);
+                this.reused.add(sheet.getSheetName());
+            } else {
+                sheet = new Parser(this, index);
+                if(fingerprints != null) sheet.fingerprint = fingerprints[index];
+                parsed.add(sheet);
+            }
+            this.sheets.add(sheet);
+        }
+        if(fingerprints != null) rebindRanges(this.previous);
+        this.previous = null;
+        (this.workbook.isConcurrent() ? parsed.parallelStream() : parsed.stream()).forEach(Parser::parseSheet);
+        for(Parser sheet : this.sheets) merge(sheet);
+    }
+
+    /**
+     * Has previous been parsed by sheet contexts, from a workbook with the same sheets?
+     */
+    private boolean compatible(Parser previous) {
+        if(previous == null || previous.sheets == null || previous.sheets.size() != this.workbook.getNumberOfSheets()) return false;
+        for(int index = 0; index < previous.sheets.size(); index++)
+            if(!previous.sheets.get(index).getSheetName().equals(this.workbook.getSheetName(index))) return false;
+        return true;
+    }
+
+    private byte[][] fingerprints() {
+        byte[][] fingerprints = new byte[this.workbook.getNumberOfSheets()][];
+        IntStream range = IntStream.range(0, fingerprints.length);
+        (this.workbook.isConcurrent() ? range.parallel() : range).forEach(index -> fingerprints[index] = fingerprint(this.workbook, index));
+        return fingerprints;
+    }
+
+    /**
+     * The context of previous for the sheet, if neither the sheet nor the sheets it reads have changed.
+     */
+    private Parser reusable(int index, byte[][] fingerprints) {
+        Parser sheet = this.previous.sheets.get(index);
+        if(sheet.names || !Arrays.equals(sheet.fingerprint(), fingerprints[index])) return null;
+        for(int dependency = sheet.dependencies.nextSetBit(0); dependency >= 0; dependency = sheet.dependencies.nextSetBit(dependency + 1))
+            if(dependency >= fingerprints.length || !Arrays.equals(this.previous.sheets.get(dependency).fingerprint(), fingerprints[dependency])) return null;
+        return sheet;
+    }
+
+    private synchronized byte[] fingerprint() {
+        if(this.fingerprint == null) this.fingerprint = fingerprint(this.workbook, getSheetIndex());
+        return this.fingerprint;
+    }
+
+    /**
+     * SHA-256 of the position, kind and text of the cells of a sheet.
+     */
+    private static byte[] fingerprint(WorkbookSource workbook, int sheetIndex) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch(NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        workbook.forEachCell(sheetIndex, cell -> {
+            String text = cell.isFormula() ? cell.getFormula() : cell.getText();
+            digest.update((cell.getRow() + ":" + cell.getColumn() + (cell.isFormula() ? "=" : ":")).getBytes(StandardCharsets.UTF_8));
+            digest.update(String.valueOf(text).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+        });
+        return digest.digest();
+    }
+
+    private void merge(Parser sheet) {
+        long start = System.nanoTime();
+        this.noOfFormulas += sheet.noOfFormulas;
+        this.merged.add(sheet.raw);
+        recover(sheet.getSheetIndex());
+        for(Consumer<Parser> update : sheet.journal) update.accept(this);
+        sheet.ext.forEach((key, references) -> this.ext.computeIfAbsent(key, k -> new ArrayList<>()).addAll(references));
+        this.profile.add(Profile.Phase.GRAPH, sheet.getSheetName(), System.nanoTime() - start, sheet.journal.size());
+    }
+
+    /**
+     * Cells of the sheet referenced by the sheets before it, in row major order.
+     */
+    private void recover(int sheetIndex) {
+        var keys = this.ext.subMap(cellKey(sheetIndex, 0, 0), cellKey(sheetIndex + 1, 0, 0));
+        for(var iterator = keys.entrySet().iterator(); iterator.hasNext(); ) {
+            var entry = iterator.next();
+            long key = entry.getKey();
+            int row = rowOf(key), column = columnOf(key);
+            if(!this.workbook.hasValue(sheetIndex, row, column)) continue;
             verbose("Recover loosed cell!");
-            Object value = parseCellValue(cell);
-            CELL elem = new CELL(cell.getRowIndex(), cell.getColumnIndex());
-            elem.setValue(value);
-            elem.setSHEET(new SHEET(getSheetName(cell), getSheetIndex(cell)));
+            this.sheetIndex = sheetIndex;
+            CELL elem = new CELL(row, column);
+            elem.setValue(this.workbook.getValue(sheetIndex, row, column));
+            elem.setSHEET(new SHEET(getSheetName(), sheetIndex));
             parseCELLlinked(elem);
-            this.ext.remove(cell);
-        } else if(!this.ext.contains(cell) && nonEmpty(cell)) {
-            this.raw.append("' " + cellAddress(cell.getRowIndex(), cell.getColumnIndex()) + " = " + cell + "\n");
+            for(Start reference : entry.getValue()) graph.addEdge(elem, reference);
+            iterator.remove();
         }
     }
 
-    void parseFormula(Cell cell) {
+    protected void parse(WorkbookSource.SheetCell cell) {
+        if(cell.isFormula()) parseFormula(cell);
+        else this.raw.append("' " + cellAddress(cell.getRow(), cell.getColumn()) + " = " + cell.getText() + "\n");
+    }
+
+    /**
+     * Updates of unordered and graph: applied now when parsing in place, journaled by a sheet context and replayed
+     * by merge(). Only the journal allocates.
+     */
+    private void list(Start elem) {
+        if(this.journal == null) this.unordered.add(elem);
+        else this.journal.add(p -> p.unordered.add(elem));
+    }
+
+    private void node(Start elem) {
+        if(this.journal == null) this.graph.addNode(elem);
+        else this.journal.add(p -> p.graph.addNode(elem));
+    }
+
+    private void node(Binary elem) {
+        if(this.journal == null) this.graph.add(elem);
+        else this.journal.add(p -> p.graph.add(elem));
+    }
+
+    private void node(EXCEL_FUNCTION elem) {
+        if(this.journal == null) this.graph.add(elem);
+        else this.journal.add(p -> p.graph.add(elem));
+    }
+
+    private void arguments(EXCEL_FUNCTION function, Start[] args) {
+        if(this.journal == null) addArguments(function, args);
+        else this.journal.add(p -> p.addArguments(function, args));
+    }
+
+    void parseFormula(WorkbookSource.SheetCell cell) {
         super.parseFormula(cell);
         this.raw.append("' " + this.formulaAddress + " = " + formulaPlainText + "\n");
         if(this.formulaPtgs == null) {
@@ -97,82 +327,70 @@ public final class Parser extends AbstractParser {
             parseUDF(this.formulaPlainText);
             return;
         }
+        long begin = System.nanoTime();
         Start start = parse(this.formulaPtgs);
         if(start != null) {
             start.setSingleSheet(this.singleSheet);
             parseFormula(start);
         }
+        elapsed(Profile.Phase.BUILD, begin);//with the graph updates made in place, GRAPH is the time of merge()
     }
 
-    private Start parse(Ptg[] ptgs) {
-        stack.empty();
+    Start parse(Ptg[] ptgs) {
+        stack.clear();
         if(Ptg.doesFormulaReferToDeletedCell(ptgs)) doesFormulaReferToDeletedCell();
-        for(Ptg ptg : ptgs) parse(ptg);
+        for(int i = 0; i < ptgs.length; i++) {
+            this.sumArgument = isSumArgument(ptgs, i);
+            parse(ptgs[i]);
+        }
+        this.sumArgument = false;
         Start start = null;
         if(!stack.empty()) start = stack.pop();
         return start;
     }
 
+    /**
+     * Is the token at i the last one of the argument of a SUM, followed by tAttrSum?
+     */
+    private static boolean isSumArgument(Ptg[] ptgs, int i) {
+        for(int j = i + 1; j < ptgs.length; j++) {
+            if(!(ptgs[j] instanceof AttrPtg attr)) return false;
+            if(attr.isSum()) return true;
+            if(!attr.isSpace()) return false;
+        }
+        return false;
+    }
+
     private void parse(Ptg p) {
-        verbose("parse: " + p.getClass().getSimpleName());
-        try(Stream<WhatIf> stream = Stream.of(
-                new WhatIf(p, arrayPtg, (Ptg t) -> parseConstantArray((ArrayPtg) t)),
-                new WhatIf(p, addPtg, (Ptg t) -> parseAdd()),
-                new WhatIf(p, area3DPxg, (Ptg t) -> parsePrefixReferenceItem((Area3DPxg) t)),
-                new WhatIf(p, areaErrPtg, this::parseErrPtg),
-                new WhatIf(p, areaPtg, (Ptg t) -> parseRangeReference((AreaPtg) t)),
-                new WhatIf(p, attrPtg, (Ptg t) -> parseSum((AttrPtg) t)),
-                new WhatIf(p, boolPtg, t -> parseBOOL(((BoolPtg) t).getValue())),
-                new WhatIf(p, concatPtg, t -> parseConcat()),
-                new WhatIf(p, deleted3DPxg, this::parseErrPtg),
-                new WhatIf(p, deletedArea3DPtg, this::parseErrPtg),
-                new WhatIf(p, deletedRef3DPtg, this::parseErrPtg),
-                new WhatIf(p, dividePtg, t -> parseDiv()),
-                new WhatIf(p, equalPtg, t -> parseEq()),
-                new WhatIf(p, errPtg, (Ptg t) -> parseERROR((ErrPtg) t)),
-                new WhatIf(p, funcPtg, (Ptg t) -> parseBuiltinFunction((FuncPtg) t)),
-                new WhatIf(p, funcVarPtg, (Ptg t) -> parseBuiltinFunction((FuncVarPtg) t)),
-                new WhatIf(p, greaterEqualPtg, t -> parseGteq()),
-                new WhatIf(p, greaterThanPtg, t -> parseGt()),
-                new WhatIf(p, intersectionPtg, t -> parseIntersection()),
-                new WhatIf(p, intPtg, t -> parseINT(((IntPtg) t).getValue())),
-                new WhatIf(p, lessEqualPtg, t -> parseLeq()),
-                new WhatIf(p, lessThanPtg, t -> parseLt()),
-                new WhatIf(p, memErrPtg, this::parseErrPtg),
-                new WhatIf(p, missingArgPtg, (Ptg t) -> parseMissingArguments()),
-                new WhatIf(p, multiplyPtg, t -> parseMult()),
-                new WhatIf(p, namePtg, (Ptg t) -> parseNamedRange((NamePtg) t)),
-                new WhatIf(p, notEqualPtg, t -> parseNeq()),
-                new WhatIf(p, numberPtg, t -> parseNUMBER(((NumberPtg) t).getValue())),
-                new WhatIf(p, parenthesisPtg, t -> parseParenthesisFormula()),
-                new WhatIf(p, percentPtg, t -> percentFormula()),
-                new WhatIf(p, powerPtg, t -> parsePower()),
-                new WhatIf(p, ref3DPxg, (Ptg t) -> parsePrefixReferenceItem((Ref3DPxg) t)),
-                new WhatIf(p, refErrorPtg, (Ptg t) -> parseERRORREF()),
-                new WhatIf(p, refPtg, (Ptg t) -> parseCELL((RefPtg) t)),
-                new WhatIf(p, stringPtg, (Ptg t) -> parseSTRING(((StringPtg) t).getValue())),
-                new WhatIf(p, subtractPtg, t -> parseSub()),
-                new WhatIf(p, unaryMinusPtg, (Ptg t) -> parseMinus()),
-                new WhatIf(p, unaryPlusPtg, (Ptg t) -> parsePlus()),
-                new WhatIf(p, unionPtg, t -> parseUnion()),
-                new WhatIf(p, unknownPtg, this::parseErrPtg)
-        )) {
-            stream.parallel().
-                    filter((WhatIf t) -> t.predicate.test(t.ptg)).
-                    forEach(t -> t.consumer.accept(t.ptg));
+        if(this.verbose) verbose("parse: " + p.getClass().getSimpleName());
+        BiConsumer<Parser, Ptg> handler = handler(p.getClass());
+        if(handler == null) return;
+        try {
+            handler.accept(this, p);
         } catch(Exception e) {
-            err.println("Parse Error: " + p.getClass().getSimpleName() + " Sheet:" + getSheetName() + " row:" + row + " column:" + column + " exception:" + e.getMessage());
-            //e.printStackTrace();
+            if(this.diagnostics.isEnabled())
+                report(Diagnostic.Kind.PARSE_ERROR, this.formulaAddress, "Parse Error: " + p.getClass().getSimpleName() + " Sheet:" + getSheetName() + " row:" + row + " column:" + column + " exception:" + e.getMessage());
         }
     }
 
+    /**
+     * Handler of a Ptg class, subclasses not registered fall back to the nearest registered superclass.
+     */
+    static BiConsumer<Parser, Ptg> handler(Class<?> type) {
+        for(Class<?> c = type; c != null && c != Ptg.class; c = c.getSuperclass()) {
+            BiConsumer<Parser, Ptg> handler = handlers.get(c);
+            if(handler != null) return handler;
+        }
+        return null;
+    }
+
     private void parseFormula(Start elem) {
         elem.setColumn(this.column);
         elem.setRow(this.row);
         elem.setSheetIndex(getSheetIndex());
         elem.setSheetName(getSheetName());
         elem.setSingleSheet(this.singleSheet);
-        unordered.add(elem);
+        list(elem);
     }
 
 //</editor-fold>
@@ -226,19 +444,19 @@ public final class Parser extends AbstractParser {
         elem.setSingleSheet(this.singleSheet);
 
         err(elem.toString());
-        graph.addNode(elem);
+        node(elem);
         stack.push(elem);
     }
 
     private void parseBOOL(Boolean bool) {
         var elem = new BOOL(bool);
-        graph.addNode(elem);
+        node(elem);
         stack.push(elem);
     }
 
     private void parseSTRING(String string) {
         var elem = new TEXT(string);
-        graph.addNode(elem);
+        node(elem);
         stack.push(elem);
     }
 
@@ -248,14 +466,14 @@ public final class Parser extends AbstractParser {
     @Deprecated
     private void parseINT(Integer value) {
         var elem = new INT(value);
-        graph.addNode(elem);
+        node(elem);
         stack.push(elem);
         throw new RuntimeException("E' un INT " + value);
     }
 
     private void parseNUMBER(Double value) {
         var elem = new FLOAT(value);
-        graph.addNode(elem);
+        node(elem);
         stack.push(elem);
     }
 //</editor-fold>
@@ -264,23 +482,16 @@ public final class Parser extends AbstractParser {
 
 
     private void parseCELL(RefPtg t) {
-        Row row = this.sheet.getRow(t.getRow());
-        if(row != null) {
-            Cell cell = row.getCell(t.getColumn());
-            Object value;
-            value = this.parseCellValue(cell);
-            CELL elem = new CELL(t.getRow(), t.getColumn());
-            elem.setValue(value);
-            elem.setColumn(this.column);
-            elem.setRow(this.row);
-            elem.setSheetIndex(getSheetIndex());
-            elem.setSheetName(getSheetName());
-            elem.setSingleSheet(singleSheet);
-            unordered.add(elem);
-            stack.push(elem);
-        } else {
-            throw new RuntimeException("Row value is null!");
-        }
+        Object value = this.parseCellValue(getSheetIndex(), t.getRow(), t.getColumn());
+        CELL elem = new CELL(t.getRow(), t.getColumn());
+        elem.setValue(value);
+        elem.setColumn(this.column);
+        elem.setRow(this.row);
+        elem.setSheetIndex(getSheetIndex());
+        elem.setSheetName(getSheetName());
+        elem.setSingleSheet(singleSheet);
+        list(elem);
+        stack.push(elem);
     }
 
     private void parseCELLlinked(CELL elem) {
@@ -289,9 +500,9 @@ public final class Parser extends AbstractParser {
         elem.setSheetIndex(getSheetIndex());
         elem.setSheetName(getSheetName());
         elem.setSingleSheet(singleSheet);
-        unordered.add(elem);
+        list(elem);
         stack.push(elem);
-        graph.addNode(elem);
+        node(elem);
     }
 
     private void parseNamedRange(NamePtg t) {
@@ -344,7 +555,8 @@ public final class Parser extends AbstractParser {
         elem.setSheetIndex(this.getSheetIndex());
         elem.setSheetName(this.getSheetName());
         elem.setSingleSheet(this.singleSheet);
-        graph.addNode(elem);
+        if(this.sumArgument) area(elem);
+        node(elem);
         stack.push(elem);
     }
 
@@ -355,7 +567,8 @@ public final class Parser extends AbstractParser {
         elem.setSheetIndex(this.getSheetIndex());
         elem.setSheetName(this.getSheetName());
         elem.setSingleSheet(this.singleSheet);
-        graph.addNode(elem);
+        if(this.sumArgument) area(elem);
+        node(elem);
         stack.push(elem);
     }
 
@@ -383,7 +596,7 @@ public final class Parser extends AbstractParser {
     private void parsePrefixReferenceItem(RANGE tRANGE, SHEET tSHEET, String area) {
         var elem = new PrefixReferenceItem(tSHEET, area, tRANGE);
         elem.setSHEET(tSHEET);
-        unordered.add(elem);
+        list(elem);
         stack.push(elem);
     }
 
@@ -399,18 +612,15 @@ public final class Parser extends AbstractParser {
         SHEET tSHEET = new SHEET(sheetName, sheetIndex);
         FILE tFILE = new FILE(extWorkbookNumber, tSHEET);
         String cellref = t.format2DRefAsString();
+        if(extWorkbookNumber > 0) parseReference(tFILE, cellref);
+        else parseReference(tSHEET, cellref);
         if(this.getSheetIndex() != sheetIndex) {
-            Sheet extSheet = this.workbook.getSheet(sheetName);
-            if(extSheet != null) {
-                CellReference cr = new CellReference(cellref);
-                Row row = extSheet.getRow(cr.getRow());
-                Cell cell = row.getCell(cr.getCol());
-                this.ext.add(cell);
+            if(sheetIndex >= 0) {
+                if(!this.workbook.hasRow(sheetIndex, t.getRow())) throw new RuntimeException("Row value is null!");
+                this.ext.computeIfAbsent(cellKey(sheetIndex, t.getRow(), t.getColumn()), k -> new ArrayList<>()).add(stack.peek());
                 verbose("Loosing!!! reference[ext] " + tSHEET + "" + cellref);
             }
         }
-        if(extWorkbookNumber > 0) parseReference(tFILE, cellref);
-        else parseReference(tSHEET, cellref);
     }
 
 //</editor-fold>
@@ -425,12 +635,11 @@ public final class Parser extends AbstractParser {
      * SUM(Arguments)
      */
     private void parseSum() {
+        long start = System.nanoTime();
         var args = stack.pop();
         if(args instanceof Reference || args instanceof OFFSET) {
-            args.setSheetIndex(this.getSheetIndex());
-            args.setSheetName(this.getSheetName());
-            args.setAsArea();
-            unordered.add(args);
+            area(args);
+            list(args);
         } else {
             err("Not RangeReference " + args.getClass().getSimpleName() + " " + args);
         }
@@ -440,9 +649,22 @@ public final class Parser extends AbstractParser {
         elem.setSheetIndex(this.getSheetIndex());
         elem.setSheetName(this.getSheetName());
         elem.setSingleSheet(this.singleSheet);
-        unordered.add(elem);
-        graph.add(elem);
+        list(elem);
+        node(elem);
         stack.push(elem);
+        elapsed("SUM", start);
+    }
+
+    /**
+     * The argument of a SUM is an area of the sheet of the formula.
+     * The elements whose key changes with it are made areas when parsed, before they are added to unordered and graph
+     * (sumArgument): their identity is a function of their current fields, changing it later would leave them
+     * under their old key. For the others it is done by parseSum and does not change the key.
+     */
+    private void area(Start elem) {
+        elem.setSheetIndex(this.getSheetIndex());
+        elem.setSheetName(this.getSheetName());
+        elem.setAsArea();
     }
 
     private void parseUDF(String arguments) {
@@ -452,7 +674,7 @@ public final class Parser extends AbstractParser {
         elem.setSheetIndex(this.getSheetIndex());
         elem.setSheetName(this.getSheetName());
         elem.setSingleSheet(this.singleSheet);
-        unordered.add(elem);
+        list(elem);
         stack.push(elem);
     }
 
@@ -471,42 +693,47 @@ public final class Parser extends AbstractParser {
     }
 
     private void parseBuiltinFunction(String name, int arity) {
+        long start = System.nanoTime();
         try {
-            var factory = new BuiltinFactory();
-            factory.create(arity, name);
-            var builtinFunction = (EXCEL_FUNCTION) factory.getBuiltInFunction();
-            Start[] args = factory.getArgs();
-            for(int i = arity - 1; i >= 0; i--) if(!stack.empty()) args[i] = stack.pop();
+            Formula[] args = new Formula[arity];
+            var builtinFunction = BuiltinFactory.create(name, args);
+            for(int i = arity - 1; i >= 0; i--) if(!stack.empty()) args[i] = (Formula) stack.pop();
 
             builtinFunction.setColumn(column);
             builtinFunction.setRow(row);
             builtinFunction.setSheetIndex(this.getSheetIndex());
             builtinFunction.setSheetName(this.getSheetName());
             builtinFunction.setSingleSheet(this.singleSheet);
+            if(this.sumArgument && builtinFunction instanceof OFFSET) area(builtinFunction);
 
-            graph.addNode(builtinFunction);
-            for(Start arg : args) {
-                if(arg instanceof RangeReference /*|| arg instanceof CELL*/ || arg instanceof PrefixReferenceItem || arg instanceof ReferenceItem) {
-                    if(unordered.add(arg)) {
-                        graph.addNode(arg);
-                        graph.addEdge(arg, builtinFunction);
-                    }
-                }
-            }
+            arguments(builtinFunction, args);
             stack.push(builtinFunction);
+            elapsed(name, start);
         } catch(UnsupportedBuiltinException e) {
-            err("Unsupported Excel ExcelFunction: " + name + " " + e);
+            err(Diagnostic.Kind.UNSUPPORTED_FUNCTION, "Unsupported Excel ExcelFunction: " + name + " " + e);
+        }
+    }
+
+    private void addArguments(EXCEL_FUNCTION builtinFunction, Start[] args) {
+        graph.addNode(builtinFunction);
+        for(Start arg : args) {
+            if(arg instanceof RangeReference /*|| arg instanceof CELL*/ || arg instanceof PrefixReferenceItem || arg instanceof ReferenceItem) {
+                if(unordered.add(arg)) {
+                    graph.addNode(arg);
+                    graph.addEdge(arg, builtinFunction);
+                }
+            }
         }
     }
 
     private void parseBuiltinFunction(String name) {
+        long start = System.nanoTime();
         try {
-            var factory = new BuiltinFactory();
-            factory.create(0, name);
-            var builtinFunction = (EXCEL_FUNCTION) factory.getBuiltInFunction();
+            var builtinFunction = BuiltinFactory.create(name);
             stack.push(builtinFunction);
+            elapsed(name, start);
         } catch(UnsupportedBuiltinException e) {
-            err("Unsupported Excel ExcelFunction: " + name + " " + e);
+            err(Diagnostic.Kind.UNSUPPORTED_FUNCTION, "Unsupported Excel ExcelFunction: " + name + " " + e);
         }
     }
 //</editor-fold>
@@ -521,7 +748,7 @@ public final class Parser extends AbstractParser {
         var elem = new Plus(formula);
         elem.setSheetIndex(this.getSheetIndex());
         elem.setSheetName(this.getSheetName());
-        graph.addNode(elem);
+        node(elem);
         stack.push(elem);
     }
 
@@ -536,7 +763,7 @@ public final class Parser extends AbstractParser {
         elem.setSheetIndex(this.getSheetIndex());
         elem.setSheetName(this.getSheetName());
         elem.setSingleSheet(this.singleSheet);
-        graph.addNode(elem);
+        node(elem);
         stack.push(elem);
     }
 //</editor-fold>
@@ -555,7 +782,7 @@ public final class Parser extends AbstractParser {
         elem.setSheetIndex(this.getSheetIndex());
         elem.setSheetName(this.getSheetName());
         elem.setSingleSheet(this.singleSheet);
-        graph.add(elem);
+        node(elem);
         stack.push(elem);
     }
 
@@ -571,7 +798,7 @@ public final class Parser extends AbstractParser {
         elem.setSheetIndex(this.getSheetIndex());
         elem.setSheetName(this.getSheetName());
         elem.setSingleSheet(this.singleSheet);
-        graph.add(elem);
+        node(elem);
         stack.push(elem);
     }
 
@@ -587,7 +814,7 @@ public final class Parser extends AbstractParser {
         elem.setSheetIndex(this.getSheetIndex());
         elem.setSheetName(this.getSheetName());
         elem.setSingleSheet(this.singleSheet);
-        graph.add(elem);
+        node(elem);
         stack.push(elem);
     }
 
@@ -603,7 +830,7 @@ public final class Parser extends AbstractParser {
         elem.setSheetIndex(this.getSheetIndex());
         elem.setSheetName(this.getSheetName());
         elem.setSingleSheet(this.singleSheet);
-        graph.add(elem);
+        node(elem);
         stack.push(elem);
     }
 
@@ -619,7 +846,7 @@ public final class Parser extends AbstractParser {
         elem.setSheetIndex(this.getSheetIndex());
         elem.setSheetName(this.getSheetName());
         elem.setSingleSheet(this.singleSheet);
-        graph.add(elem);
+        node(elem);
         stack.push(elem);
     }
 
@@ -635,7 +862,7 @@ public final class Parser extends AbstractParser {
         elem.setSheetIndex(this.getSheetIndex());
         elem.setSheetName(this.getSheetName());
         elem.setSingleSheet(this.singleSheet);
-        graph.add(elem);
+        node(elem);
         stack.push(elem);
     }
 
@@ -651,7 +878,7 @@ public final class Parser extends AbstractParser {
         elem.setSheetIndex(this.getSheetIndex());
         elem.setSheetName(this.getSheetName());
         elem.setSingleSheet(this.singleSheet);
-        graph.add(elem);
+        node(elem);
         stack.push(elem);
     }
 
@@ -667,7 +894,7 @@ public final class Parser extends AbstractParser {
         elem.setSheetIndex(this.getSheetIndex());
         elem.setSheetName(this.getSheetName());
         elem.setSingleSheet(this.singleSheet);
-        graph.add(elem);
+        node(elem);
         stack.push(elem);
     }
 
@@ -684,7 +911,7 @@ public final class Parser extends AbstractParser {
         elem.setSheetIndex(this.getSheetIndex());
         elem.setSheetName(this.getSheetName());
         elem.setSingleSheet(this.singleSheet);
-        graph.add(elem);
+        node(elem);
         stack.push(elem);
     }
 
@@ -700,7 +927,7 @@ public final class Parser extends AbstractParser {
         elem.setSheetIndex(this.getSheetIndex());
         elem.setSheetName(this.getSheetName());
         elem.setSingleSheet(this.singleSheet);
-        graph.add(elem);
+        node(elem);
         stack.push(elem);
     }
 
@@ -716,7 +943,7 @@ public final class Parser extends AbstractParser {
         elem.setSheetIndex(this.getSheetIndex());
         elem.setSheetName(this.getSheetName());
         elem.setSingleSheet(this.singleSheet);
-        graph.add(elem);
+        node(elem);
         stack.push(elem);
     }
 
@@ -736,7 +963,7 @@ public final class Parser extends AbstractParser {
         elem.setSheetIndex(this.getSheetIndex());
         elem.setSheetName(this.getSheetName());
         elem.setSingleSheet(this.singleSheet);
-        graph.addNode(elem);
+        node(elem);
         stack.push(elem);
     }
 
@@ -757,7 +984,7 @@ public final class Parser extends AbstractParser {
         elem.setSheetIndex(this.getSheetIndex());
         elem.setSheetName(this.getSheetName());
         elem.setSingleSheet(this.singleSheet);
-        graph.add(elem);
+        node(elem);
         stack.push(elem);
     }
 //</editor-fold>
@@ -777,7 +1004,7 @@ public final class Parser extends AbstractParser {
         elem.setSheetIndex(this.getSheetIndex());
         elem.setSheetName(this.getSheetName());
         elem.setSingleSheet(this.singleSheet);
-        graph.add(elem);
+        node(elem);
         stack.push(elem);
     }
 //</editor-fold>
@@ -788,7 +1015,7 @@ public final class Parser extends AbstractParser {
      * RangeReference
      */
     private void parseRangeReference(AreaPtg t) {
-        RANGE tRANGE = parseRange(sheet, t);
+        RANGE tRANGE = parseRange(getSheetIndex(), t);
         var elem = new RangeReference(tRANGE);
         elem.setColumn(column);
         elem.setRow(row);
@@ -798,7 +1025,7 @@ public final class Parser extends AbstractParser {
 
         elem.setAsArea();//is area not a cell with ref to area
         elem.add(tRANGE.values());
-        graph.addNode(elem);
+        node(elem);
         stack.push(elem);
 
     }
@@ -816,7 +1043,7 @@ public final class Parser extends AbstractParser {
         elem.setSheetIndex(this.getSheetIndex());
         elem.setSheetName(this.getSheetName());
         elem.setSingleSheet(this.singleSheet);
-        this.graph.add(elem);
+        node(elem);
         this.stack.push(elem);
     }
 
@@ -824,24 +1051,40 @@ public final class Parser extends AbstractParser {
 
     //<editor-fold desc="Sorting">
     public void sort() {
+        long start = System.nanoTime();
+        sortGraph();
+        this.profile.add(Profile.Phase.SORT, null, System.nanoTime() - start, this.ordered.size());
+    }
+
+    private void sortGraph() {
         if(this.unordered.singleton()) {
             this.ordered = new StartList();
             this.ordered.add(this.unordered.get(0));
+            this.unordered.get(0).setLevel(0);
+            this.levels = List.of(this.ordered);
             return;
         }
         this.ordered = this.graph.topologicalSort();
+        this.levels = this.graph.getLevels();
+        if(this.diagnostics.isEnabled())
+            for(CircularReference circularReference : this.graph.getCircularReferences())
+                report(Diagnostic.Kind.CIRCULAR_REFERENCE, null, circularReference.toString());
     }
 //</editor-fold>
 
 //<editor-fold desc="Utilities">
 
     private void err(String string) {
-        err.println(getCellAddress() + " error: " + string);
+        err(Diagnostic.Kind.ERROR, string);
+    }
+
+    private void err(Diagnostic.Kind kind, String string) {
+        if(this.diagnostics.isEnabled()) report(kind, getCellAddress(), string);
         //throw new RuntimeException(getCellAddress() + " error: " + string);
     }
 
     private void verbose(String text) {
-        if(this.verbose) out.println(text);
+        if(this.verbose) report(Diagnostic.Kind.VERBOSE, null, text);
     }
 
 
@@ -856,8 +1099,51 @@ public final class Parser extends AbstractParser {
         return ordered;
     }
 
+    /**
+     * Circular references found by sort()
+     */
+    public List<CircularReference> getCircularReferences() {
+        return graph.getCircularReferences();
+    }
+
+    /**
+     * Sorted formulas partitioned by level, see StartGraph.getLevels()
+     */
+    public List<StartList> getLevels() {
+        return levels;
+    }
+
+    /**
+     * The whole listing as one string, writeRaw streams it instead.
+     */
     public String getRaw() {
-        return this.raw.toString();
+        StringBuilder buff = new StringBuilder();
+        try {
+            writeRaw(buff);
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return buff.toString();
+    }
+
+    /**
+     * Streams the listing in chunks from the listings of the contexts, spilled to disk while parsing.
+     */
+    @Override
+    public void writeRaw(Appendable out) throws IOException {
+        this.raw.writeTo(out);
+        for(RawListing sheet : this.merged) sheet.writeTo(out);
+    }
+
+    StartGraph getGraph() {
+        return this.graph;
+    }
+
+    /**
+     * Sheets taken unchanged from the previous parser by the last parse(), see Parser(String, boolean, Parser)
+     */
+    public List<String> getReusedSheets() {
+        return this.reused;
     }
 
 //</editor-fold>
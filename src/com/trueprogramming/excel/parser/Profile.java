@@ -0,0 +1,213 @@
+/*
+ * Efesto - Excel Formula Extractor System and Topological Ordering algorithm.
+ * Copyright (C) 2017 Massimo Caliman mcaliman@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * If AGPL Version 3.0 terms are incompatible with your use of
+ * Efesto, alternative license terms are available from Massimo Caliman
+ * please direct inquiries about Efesto licensing to mcaliman@gmail.com
+ */
+
+package com.trueprogramming.excel.parser;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Time and counters of the phases of a run, per sheet, and of the builtin functions, per name.
+ * <p>
+ * The parser accumulates the fine grained phases of a sheet locally and adds them once the sheet is done,
+ * so a Profile is updated a few times per sheet and is safe to share between the sheet contexts.
+ * Every add is also committed as a JFR event (com.trueprogramming.excel.Phase and com.trueprogramming.excel.Function)
+ * when a recording is running, e.g. java -XX:StartFlightRecording=filename=efesto.jfr ...
+ * <p>
+ * Phases do not overlap: SCAN is the time of a sheet minus its TOKENIZE and BUILD time, GRAPH is the time of the merge
+ * of the sheet contexts (the graph updates made while parsing in place are part of BUILD).
+ * The streaming reader tokenizes the formulas while loading, there TOKENIZE is part of LOAD.
+ *
+ * @author Massimo Caliman
+ */
+public final class Profile {
+
+    public enum Phase {
+        LOAD("workbook load"),
+        SCAN("sheet scan"),
+        TOKENIZE("Ptg tokenization"),
+        BUILD("AST build"),
+        RANGES("range materialization"),
+        GRAPH("graph build"),
+        SORT("topological sort"),
+        EVALUATE("formula evaluation"),
+        COMPILE("bytecode generation"),
+        WRITE("write");
+
+        private final String label;
+
+        Phase(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    private final Map<Phase, Map<String, long[]>> phases = new EnumMap<>(Phase.class);//phase -> sheet (null for the workbook) -> nanos, count
+    private final Map<String, long[]> functions = new TreeMap<>();//name -> nanos, count
+
+    public synchronized void add(Phase phase, String sheet, long nanos, long count) {
+        long[] counter = phases.computeIfAbsent(phase, k -> new LinkedHashMap<>()).computeIfAbsent(sheet, k -> new long[2]);
+        counter[0] += nanos;
+        counter[1] += count;
+        PhaseEvent event = new PhaseEvent();
+        if(event.shouldCommit()) {
+            event.phase = phase.name();
+            event.sheet = sheet;
+            event.time = nanos;
+            event.count = count;
+            event.commit();
+        }
+    }
+
+    public synchronized void addFunction(String sheet, String name, long nanos, long count) {
+        long[] counter = functions.computeIfAbsent(name, k -> new long[2]);
+        counter[0] += nanos;
+        counter[1] += count;
+        FunctionEvent event = new FunctionEvent();
+        if(event.shouldCommit()) {
+            event.function = name;
+            event.sheet = sheet;
+            event.time = nanos;
+            event.count = count;
+            event.commit();
+        }
+    }
+
+    public synchronized long getNanos(Phase phase) {
+        long nanos = 0;
+        for(long[] counter : phases.getOrDefault(phase, Map.of()).values()) nanos += counter[0];
+        return nanos;
+    }
+
+    public synchronized long getCount(Phase phase) {
+        long count = 0;
+        for(long[] counter : phases.getOrDefault(phase, Map.of()).values()) count += counter[1];
+        return count;
+    }
+
+    public synchronized long getNanos(Phase phase, String sheet) {
+        long[] counter = phases.getOrDefault(phase, Map.of()).get(sheet);
+        return counter == null ? 0 : counter[0];
+    }
+
+    public synchronized long getCount(Phase phase, String sheet) {
+        long[] counter = phases.getOrDefault(phase, Map.of()).get(sheet);
+        return counter == null ? 0 : counter[1];
+    }
+
+    /**
+     * Sheets with a counter for phase, in the order they have been added: sheets parsed in parallel come in any order.
+     */
+    public synchronized List<String> getSheets(Phase phase) {
+        List<String> sheets = new ArrayList<>();
+        for(String sheet : phases.getOrDefault(phase, Map.of()).keySet()) if(sheet != null) sheets.add(sheet);
+        return sheets;
+    }
+
+    /**
+     * Names of the builtin functions parsed, in alphabetical order.
+     */
+    public synchronized List<String> getFunctions() {
+        return new ArrayList<>(functions.keySet());
+    }
+
+    public synchronized long getFunctionNanos(String name) {
+        long[] counter = functions.get(name);
+        return counter == null ? 0 : counter[0];
+    }
+
+    public synchronized long getFunctionCount(String name) {
+        long[] counter = functions.get(name);
+        return counter == null ? 0 : counter[1];
+    }
+
+    /**
+     * One line per phase, followed by its sheets, then one line per function.
+     */
+    @Override
+    public synchronized String toString() {
+        StringBuilder text = new StringBuilder();
+        for(Phase phase : Phase.values()) {
+            Map<String, long[]> sheets = phases.get(phase);
+            if(sheets == null) continue;
+            line(text, phase.name() + " (" + phase.getLabel() + ")", getNanos(phase), getCount(phase));
+            if(sheets.size() > 1)
+                sheets.forEach((sheet, counter) -> line(text, "  " + (sheet == null ? "(workbook)" : sheet), counter[0], counter[1]));
+        }
+        if(!functions.isEmpty()) text.append("Functions\n");
+        functions.forEach((name, counter) -> line(text, "  " + name, counter[0], counter[1]));
+        return text.toString();
+    }
+
+    private static void line(StringBuilder text, String label, long nanos, long count) {
+        text.append(String.format("%-36s %12.3f ms %,12d%n", label, nanos / 1e6, count));
+    }
+
+    @Name("com.trueprogramming.excel.Phase")
+    @Label("Phase")
+    @Category("Efesto")
+    @Description("Time and count of a parser phase on a sheet")
+    @StackTrace(false)
+    static final class PhaseEvent extends Event {
+        @Label("Phase")
+        String phase;
+        @Label("Sheet")
+        String sheet;
+        @Label("Time")
+        @Timespan
+        long time;
+        @Label("Count")
+        long count;
+    }
+
+    @Name("com.trueprogramming.excel.Function")
+    @Label("Function")
+    @Category("Efesto")
+    @Description("Time and count of the nodes built for a builtin function on a sheet")
+    @StackTrace(false)
+    static final class FunctionEvent extends Event {
+        @Label("Function")
+        String function;
+        @Label("Sheet")
+        String sheet;
+        @Label("Time")
+        @Timespan
+        long time;
+        @Label("Count")
+        long count;
+    }
+}
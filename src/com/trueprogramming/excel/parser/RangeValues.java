@@ -0,0 +1,72 @@
+/*
+ * Efesto - Excel Formula Extractor System and Topological Ordering algorithm.
+ * Copyright (C) 2017 Massimo Caliman mcaliman@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * If AGPL Version 3.0 terms are incompatible with your use of
+ * Efesto, alternative license terms are available from Massimo Caliman
+ * please direct inquiries about Efesto licensing to mcaliman@gmail.com
+ */
+
+package com.trueprogramming.excel.parser;
+
+import com.trueprogramming.excel.grammar.nonterm.ValueBlock;
+
+import java.util.function.Consumer;
+
+/**
+ * Values of an area, read from the workbook on first access into a ValueBlock.
+ * The area is clipped to the used range of the sheet, so whole column or whole row
+ * references (A:A, 1:1) cost no more than the cells actually present.
+ * Missing cells are skipped as in WorkbookSource.forEachValue.
+ *
+ * @author Massimo Caliman
+ */
+final class RangeValues extends ValueBlock {
+
+    private WorkbookSource workbook;
+    private Profile profile;
+    private final int sheetIndex;
+    private final int firstRow;
+    private final int firstColumn;
+    private final int lastRow;
+    private final int lastColumn;
+
+    RangeValues(WorkbookSource workbook, Profile profile, int sheetIndex, int firstRow, int firstColumn, int lastRow, int lastColumn) {
+        this.workbook = workbook;
+        this.profile = profile;
+        this.sheetIndex = sheetIndex;
+        this.firstRow = firstRow;
+        this.firstColumn = firstColumn;
+        this.lastRow = Math.min(lastRow, workbook.getLastRow(sheetIndex));
+        this.lastColumn = Math.min(lastColumn, workbook.getLastColumn(sheetIndex));
+    }
+
+    /**
+     * Reads the values from another workbook with the same cells in the area, see AbstractParser.rebindRanges.
+     */
+    void rebind(WorkbookSource workbook, Profile profile) {
+        this.workbook = workbook;
+        this.profile = profile;
+    }
+
+    @Override
+    protected void load(Consumer<Object> consumer) {
+        long start = System.nanoTime();
+        if(firstRow <= lastRow && firstColumn <= lastColumn)
+            this.workbook.forEachValue(sheetIndex, firstRow, firstColumn, lastRow, lastColumn, consumer);
+        this.profile.add(Profile.Phase.RANGES, this.workbook.getSheetName(sheetIndex), System.nanoTime() - start, 1);
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Efesto - Excel Formula Extractor System and Topological Ordering algorithm.
+ * Copyright (C) 2017 Massimo Caliman mcaliman@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * If AGPL Version 3.0 terms are incompatible with your use of
+ * Efesto, alternative license terms are available from Massimo Caliman
+ * please direct inquiries about Efesto licensing to mcaliman@gmail.com
+ */
+
+package com.trueprogramming.excel.parser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.ref.Cleaner;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Listing of the cells of a parser or of a sheet context (see Parser.getRaw), written to a temporary file as it is
+ * produced: at most SPILL characters are kept in memory, so the memory of a parse does not grow with the listing.
+ * The file is deleted when the listing is no longer reachable, or on exit.
+ * A listing is written by one thread and read after it, by writeTo.
+ *
+ * @author Massimo Caliman
+ */
+final class RawListing {
+
+    static final int SPILL = 1 << 16;
+    private static final int CHUNK = 8192;
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private final StringBuilder buffer = new StringBuilder();
+    private Path file;//null until the first spill
+    private Writer writer;
+
+    void append(String text) {
+        buffer.append(text);
+        if(buffer.length() >= SPILL) spill();
+    }
+
+    private void spill() {
+        try {
+            if(writer == null) {
+                Path path = Files.createTempFile("efesto", ".raw");
+                path.toFile().deleteOnExit();
+                Writer out = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+                CLEANER.register(this, () -> {
+                    try {
+                        out.close();
+                        Files.deleteIfExists(path);
+                    } catch(IOException ignored) {
+                    }
+                });
+                file = path;
+                writer = out;
+            }
+            writer.append(buffer);
+            buffer.setLength(0);
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Appends the listing to out in chunks, the part on disk first.
+     */
+    void writeTo(Appendable out) throws IOException {
+        if(writer != null) {
+            writer.flush();
+            try(Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                CharBuffer chunk = CharBuffer.allocate(CHUNK);
+                while(reader.read(chunk) > 0) {
+                    chunk.flip();
+                    out.append(chunk);
+                    chunk.clear();
+                }
+            }
+        }
+        for(int start = 0; start < buffer.length(); start += CHUNK)
+            out.append(buffer, start, Math.min(buffer.length(), start + CHUNK));
+    }
+}
@@ -0,0 +1,415 @@
+/*
+ * Efesto - Excel Formula Extractor System and Topological Ordering algorithm.
+ * Copyright (C) 2017 Massimo Caliman mcaliman@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * If AGPL Version 3.0 terms are incompatible with your use of
+ * Efesto, alternative license terms are available from Massimo Caliman
+ * please direct inquiries about Efesto licensing to mcaliman@gmail.com
+ */
+
+package com.trueprogramming.excel.parser;
+
+import com.trueprogramming.excel.grammar.nonterm.Start;
+import com.trueprogramming.excel.graph.CircularReference;
+import com.trueprogramming.excel.graph.StartGraph;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary image of a parsed and sorted workbook, stored with the SHA-256 of the workbook it comes from,
+ * so that an unchanged workbook is loaded without being opened and parsed again.
+ * <p>
+ * Every element of the sorted list is kept as it is written, key, address, id and formula text,
+ * with its level, the edges of the StartGraph and the circular references; the Ptg and the AST are not kept.
+ * Layout, integers as unsigned LEB128 varints, signed ones zigzag encoded:
+ * <pre>
+ * magic "EFS1", version, hash, formulas
+ * strings: count, (length, UTF-8 bytes)*
+ * raw: string
+ * elements: count, (key - previous key, last key - key, row, column, sheet name, id, text, level)*
+ * edges: for each element, count, (target - element)*
+ * circular references: count, (count, element*)*
+ * </pre>
+ * Strings are referenced by index in the table, optional ones by index + 1.
+ *
+ * @author Massimo Caliman
+ */
+public final class Snapshot implements ParsedWorkbook {
+
+    private static final int MAGIC = 0x45465331;//EFS1
+    private static final int VERSION = 1;
+
+    private final String filename;
+    private final String hash;
+    private final int formulas;
+    private final String raw;//the whole listing in memory, stored inline in the image unlike the spilled Parser listing
+    private final StartList list;
+    private final int[][] edges;//element -> elements referencing it
+    private final List<CircularReference> circularReferences;
+    private final Profile profile;
+    private List<StartList> levels;
+    private StartGraph graph;
+
+    private Snapshot(String filename, String hash, int formulas, String raw, StartList list, int[][] edges, List<CircularReference> circularReferences, Profile profile) {
+        this.filename = filename;
+        this.hash = hash;
+        this.formulas = formulas;
+        this.raw = raw;
+        this.list = list;
+        this.edges = edges;
+        this.circularReferences = circularReferences;
+        this.profile = profile;
+    }
+
+    /**
+     * SHA-256 of the content of a file, in hex.
+     */
+    public static String hash(File file) throws IOException {
+        try(InputStream stream = new BufferedInputStream(new FileInputStream(file))) {
+            return DigestUtils.sha256Hex(stream);
+        }
+    }
+
+    /**
+     * Snapshot of a parser after sort(), the formulas are rendered now.
+     */
+    public static Snapshot of(Parser parser, String hash) {
+        StartList list = new StartList();
+        Map<Start, Integer> index = new HashMap<>();
+        for(Start start : parser.getList()) {
+            Element element = new Element(start);
+            index.put(element, list.size());
+            list.add(element);
+        }
+        List<List<Integer>> targets = new ArrayList<>(list.size());
+        for(int i = 0; i < list.size(); i++) targets.add(new ArrayList<>(2));
+        parser.getGraph().forEachEdge((from, to) -> {
+            Integer source = index.get(from), target = index.get(to);
+            if(source != null && target != null) targets.get(source).add(target);
+        });
+        int[][] edges = new int[list.size()][];
+        for(int i = 0; i < edges.length; i++) edges[i] = targets.get(i).stream().mapToInt(Integer::intValue).sorted().toArray();
+        List<CircularReference> circularReferences = new ArrayList<>();
+        for(CircularReference circularReference : parser.getCircularReferences()) {
+            StartList cells = new StartList();
+            for(Start start : circularReference.getCells()) cells.add(list.get(index.get(start)));
+            circularReferences.add(new CircularReference(cells));
+        }
+        return new Snapshot(parser.getFilename(), hash, parser.getCounterFormulas(), parser.getRaw(), list, edges, circularReferences, parser.getProfile());
+    }
+
+    /**
+     * Reads a snapshot of the workbook filename.
+     *
+     * @param hash expected hash of the workbook
+     * @return null when the snapshot is of another content of the workbook
+     * @throws IOException when the file cannot be read or is not a snapshot of this version
+     */
+    public static Snapshot read(File file, String filename, String hash) throws IOException {
+        long start = System.nanoTime();
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            if(in.readInt() != MAGIC) throw new IOException("Not a snapshot: " + file);
+            int version = (int) readVarLong(in);
+            if(version != VERSION) throw new IOException("Unsupported snapshot version " + version + ": " + file);
+            if(!in.readUTF().equals(hash)) return null;
+            int formulas = (int) readVarLong(in);
+            String[] strings = new String[count(in)];
+            byte[] buffer = new byte[256];
+            for(int i = 0; i < strings.length; i++) {
+                int length = count(in);
+                if(length > buffer.length) buffer = new byte[Math.max(length, buffer.length * 2)];
+                in.readFully(buffer, 0, length);
+                strings[i] = new String(buffer, 0, length, StandardCharsets.UTF_8);
+            }
+            String raw = strings[count(in)];
+            int size = count(in);
+            StartList list = new StartList();
+            long key = 0;
+            for(int i = 0; i < size; i++) {
+                key += readZigZag(in);
+                long lastKey = key + readVarLong(in);
+                int row = (int) readZigZag(in), column = (int) readZigZag(in);
+                String sheetName = optional(strings, count(in));
+                String id = strings[count(in)];
+                String text = optional(strings, count(in));
+                list.add(new Element(key, lastKey, row, column, sheetName, id, text, count(in)));
+            }
+            int[][] edges = new int[size][];
+            for(int i = 0; i < size; i++) {
+                edges[i] = new int[count(in)];
+                for(int j = 0; j < edges[i].length; j++) edges[i][j] = i + (int) readZigZag(in);
+            }
+            List<CircularReference> circularReferences = new ArrayList<>();
+            for(int i = count(in); i > 0; i--) {
+                StartList cells = new StartList();
+                for(int j = count(in); j > 0; j--) cells.add(list.get(count(in)));
+                circularReferences.add(new CircularReference(cells));
+            }
+            Profile profile = new Profile();
+            profile.add(Profile.Phase.LOAD, null, System.nanoTime() - start, 1);
+            return new Snapshot(filename, hash, formulas, raw, list, edges, circularReferences, profile);
+        }
+    }
+
+    /**
+     * Writes the snapshot to a temporary file moved onto file, a reader never sees a partial snapshot.
+     */
+    public void write(File file) throws IOException {
+        File directory = file.getAbsoluteFile().getParentFile();
+        File temporary = File.createTempFile(file.getName(), ".tmp", directory);
+        try {
+            try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary), 1 << 16))) {
+                write(out);
+            }
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary.toPath());
+        }
+    }
+
+    private void write(DataOutputStream out) throws IOException {
+        Map<String, Integer> table = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        int[] references = new int[list.size() * 3];
+        for(int i = 0; i < list.size(); i++) {
+            Element element = (Element) list.get(i);
+            references[3 * i] = element.getSheetName() == null ? 0 : 1 + intern(table, strings, element.getSheetName());
+            references[3 * i + 1] = intern(table, strings, element.id);
+            references[3 * i + 2] = element.text == null ? 0 : 1 + intern(table, strings, element.text);
+        }
+        int rawIndex = intern(table, strings, raw);
+
+        out.writeInt(MAGIC);
+        writeVarLong(out, VERSION);
+        out.writeUTF(hash);
+        writeVarLong(out, formulas);
+        writeVarLong(out, strings.size());
+        for(String string : strings) {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(out, bytes.length);
+            out.write(bytes);
+        }
+        writeVarLong(out, rawIndex);
+        writeVarLong(out, list.size());
+        long previous = 0;
+        for(int i = 0; i < list.size(); i++) {
+            Element element = (Element) list.get(i);
+            writeZigZag(out, element.key - previous);
+            writeVarLong(out, element.lastKey - element.key);
+            writeZigZag(out, element.getRow());
+            writeZigZag(out, element.getColumn());
+            writeVarLong(out, references[3 * i]);
+            writeVarLong(out, references[3 * i + 1]);
+            writeVarLong(out, references[3 * i + 2]);
+            writeVarLong(out, element.getLevel());
+            previous = element.key;
+        }
+        for(int i = 0; i < edges.length; i++) {
+            writeVarLong(out, edges[i].length);
+            for(int target : edges[i]) writeZigZag(out, target - i);
+        }
+        Map<Start, Integer> index = new HashMap<>();
+        for(int i = 0; i < list.size(); i++) index.put(list.get(i), i);
+        writeVarLong(out, circularReferences.size());
+        for(CircularReference circularReference : circularReferences) {
+            writeVarLong(out, circularReference.getCells().size());
+            for(Start start : circularReference.getCells()) writeVarLong(out, index.get(start));
+        }
+    }
+
+    private static int intern(Map<String, Integer> table, List<String> strings, String string) {
+        return table.computeIfAbsent(string, k -> {
+            strings.add(k);
+            return strings.size() - 1;
+        });
+    }
+
+    private static String optional(String[] strings, int index) {
+        return index == 0 ? null : strings[index - 1];
+    }
+
+    //<editor-fold desc="Varint">
+    static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static void writeZigZag(DataOutputStream out, long value) throws IOException {
+        writeVarLong(out, (value << 1) ^ (value >> 63));
+    }
+
+    static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for(int shift = 0; shift < 64; shift += 7) {
+            int b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    static long readZigZag(DataInputStream in) throws IOException {
+        long value = readVarLong(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static int count(DataInputStream in) throws IOException {
+        long value = readVarLong(in);
+        if(value < 0 || value > Integer.MAX_VALUE) throw new EOFException("Malformed count " + value);
+        return (int) value;
+    }
+    //</editor-fold>
+
+    //<editor-fold desc="ParsedWorkbook">
+    @Override
+    public String getFilename() {
+        return filename;
+    }
+
+    /**
+     * SHA-256 of the workbook the snapshot has been taken from.
+     */
+    public String getHash() {
+        return hash;
+    }
+
+    @Override
+    public int getCounterFormulas() {
+        return formulas;
+    }
+
+    @Override
+    public StartList getList() {
+        return list;
+    }
+
+    @Override
+    public synchronized List<StartList> getLevels() {
+        if(levels == null) {
+            levels = new ArrayList<>();
+            for(Start start : list) {
+                while(levels.size() <= start.getLevel()) levels.add(new StartList());
+                levels.get(start.getLevel()).add(start);
+            }
+        }
+        return levels;
+    }
+
+    @Override
+    public List<CircularReference> getCircularReferences() {
+        return circularReferences;
+    }
+
+    @Override
+    public String getRaw() {
+        return raw;
+    }
+
+    @Override
+    public Profile getProfile() {
+        return profile;
+    }
+
+    /**
+     * The StartGraph of the elements, built on first use.
+     */
+    public synchronized StartGraph getGraph() {
+        if(graph == null) {
+            graph = new StartGraph();
+            for(Start start : list) graph.addNode(start);
+            for(int i = 0; i < edges.length; i++)
+                for(int target : edges[i]) graph.addEdge(list.get(i), list.get(target));
+        }
+        return graph;
+    }
+    //</editor-fold>
+
+    /**
+     * Element of the sorted list as it is written, with the identity of the element it stands for.
+     */
+    private static final class Element extends Start {
+
+        private final long key;
+        private final long lastKey;
+        private final String id;
+        private final String text;//null when the element cannot be rendered
+
+        Element(Start start) {
+            this(start.key(), start.lastKey(), start.getRow(), start.getColumn(), start.getSheetName(), start.id(), render(start), start.getLevel());
+        }
+
+        Element(long key, long lastKey, int row, int column, String sheetName, String id, String text, int level) {
+            this.key = key;
+            this.lastKey = lastKey;
+            this.id = id;
+            this.text = text;
+            setRow(row);
+            setColumn(column);
+            setSheetIndex((int) (key >>> 34) & 0xFFFF);
+            setSheetName(sheetName);
+            setLevel(level);
+        }
+
+        private static String render(Start start) {
+            try {
+                return start.toString();
+            } catch(Exception e) {
+                return null;
+            }
+        }
+
+        @Override
+        public long key() {
+            return key;
+        }
+
+        @Override
+        public long lastKey() {
+            return lastKey;
+        }
+
+        @Override
+        public String id() {
+            return id;
+        }
+
+        @Override
+        public String toString() {
+            if(text == null) throw new IllegalStateException("Element " + id + " cannot be rendered");
+            return text;
+        }
+    }
+}
@@ -24,33 +24,98 @@ package com.trueprogramming.excel.parser;
 
 import com.trueprogramming.excel.grammar.nonterm.Start;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
 
 /**
+ * Insertion ordered list of unique elements, uniqueness is checked in O(1) on the Start key.
+ *
  * @author Massimo Caliman
  */
-public final class StartList extends ArrayList<Start> implements List<Start> {
+public final class StartList extends AbstractList<Start> implements List<Start>, RandomAccess {
+
+    private final ArrayList<Start> elements;
+    private final Map<Start, Integer> index;//element -> number of equal elements
 
     public StartList() {
+        this.elements = new ArrayList<>();
+        this.index = new HashMap<>();
     }
 
     @Override
     public boolean add(Start object) {
         if(!contains(object)) {
-            return super.add(object);
+            add(size(), object);
         }
         return true;
     }
 
+    @Override
+    public void add(int i, Start object) {
+        this.elements.add(i, object);
+        this.index.merge(object, 1, Integer::sum);
+        this.modCount++;
+    }
+
+    @Override
+    public Start set(int i, Start object) {
+        Start old = this.elements.set(i, object);
+        unindex(old);
+        this.index.merge(object, 1, Integer::sum);
+        return old;
+    }
+
+    @Override
+    public Start remove(int i) {
+        Start old = this.elements.remove(i);
+        unindex(old);
+        this.modCount++;
+        return old;
+    }
+
+    @Override
+    public void clear() {
+        this.elements.clear();
+        this.index.clear();
+        this.modCount++;
+    }
+
+    @Override
+    public Start get(int i) {
+        return this.elements.get(i);
+    }
+
+    @Override
+    public int size() {
+        return this.elements.size();
+    }
+
+    @Override
     public boolean contains(Object o) {
-        return indexOf(o) >= 0;
+        return this.index.containsKey(o);
+    }
+
+    @Override
+    public int indexOf(Object o) {
+        return contains(o) ? this.elements.indexOf(o) : -1;
+    }
+
+    @Override
+    public int lastIndexOf(Object o) {
+        return contains(o) ? this.elements.lastIndexOf(o) : -1;
+    }
+
+    private void unindex(Start start) {
+        this.index.computeIfPresent(start, (k, count) -> count == 1 ? null : count - 1);
     }
 
     public boolean singleton() {
         return this.size() == 1;
     }
-
     private boolean testToFunctional(int index, String text) {
         return this.get(index).testToFunctional(text);
     }
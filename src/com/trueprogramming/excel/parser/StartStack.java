@@ -0,0 +1,78 @@
+/*
+ * Efesto - Excel Formula Extractor System and Topological Ordering algorithm.
+ * Copyright (C) 2017 Massimo Caliman mcaliman@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * If AGPL Version 3.0 terms are incompatible with your use of
+ * Efesto, alternative license terms are available from Massimo Caliman
+ * please direct inquiries about Efesto licensing to mcaliman@gmail.com
+ */
+
+package com.trueprogramming.excel.parser;
+
+import com.trueprogramming.excel.grammar.nonterm.Start;
+
+import java.util.Arrays;
+import java.util.EmptyStackException;
+
+/**
+ * Unsynchronized array backed stack used by the Parser as working stack,
+ * replaces java.util.Stack (Vector) in the token loop.
+ *
+ * @author Massimo Caliman
+ */
+final class StartStack {
+
+    private Start[] elements;
+    private int size;
+
+    StartStack() {
+        this(16);
+    }
+
+    StartStack(int capacity) {
+        this.elements = new Start[capacity];
+    }
+
+    void push(Start elem) {
+        if(this.size == this.elements.length) this.elements = Arrays.copyOf(this.elements, this.size << 1);
+        this.elements[this.size++] = elem;
+    }
+
+    Start pop() {
+        if(this.size == 0) throw new EmptyStackException();
+        Start elem = this.elements[--this.size];
+        this.elements[this.size] = null;
+        return elem;
+    }
+
+    Start peek() {
+        if(this.size == 0) throw new EmptyStackException();
+        return this.elements[this.size - 1];
+    }
+
+    boolean empty() {
+        return this.size == 0;
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    void clear() {
+        Arrays.fill(this.elements, 0, this.size, null);
+        this.size = 0;
+    }
+}
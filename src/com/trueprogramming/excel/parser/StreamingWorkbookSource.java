@@ -0,0 +1,919 @@
+/*
+ * Efesto - Excel Formula Extractor System and Topological Ordering algorithm.
+ * Copyright (C) 2017 Massimo Caliman mcaliman@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * If AGPL Version 3.0 terms are incompatible with your use of
+ * Efesto, alternative license terms are available from Massimo Caliman
+ * please direct inquiries about Efesto licensing to mcaliman@gmail.com
+ */
+
+package com.trueprogramming.excel.parser;
+
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.SpreadsheetVersion;
+import org.apache.poi.ss.formula.EvaluationName;
+import org.apache.poi.ss.formula.EvaluationWorkbook;
+import org.apache.poi.ss.formula.FormulaParseException;
+import org.apache.poi.ss.formula.FormulaParser;
+import org.apache.poi.ss.formula.FormulaParsingWorkbook;
+import org.apache.poi.ss.formula.FormulaRenderer;
+import org.apache.poi.ss.formula.FormulaRenderingWorkbook;
+import org.apache.poi.ss.formula.FormulaType;
+import org.apache.poi.ss.formula.SharedFormula;
+import org.apache.poi.ss.formula.SheetIdentifier;
+import org.apache.poi.ss.formula.ptg.*;
+import org.apache.poi.ss.formula.udf.UDFFinder;
+import org.apache.poi.ss.usermodel.BuiltinFormats;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.ss.util.AreaReference;
+import org.apache.poi.ss.util.CellRangeAddress;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * WorkbookSource over the SAX event reader of an .xlsx package.
+ * <p>
+ * The sheets XML is never loaded as a DOM, it is streamed twice:
+ * the first pass tokenizes the formula cells and collects the areas they refer to,
+ * the second pass keeps only the values of the cells inside those areas.
+ * Shared strings are resolved for the retained cells only.
+ * Memory depends on the number of formulas and of referenced cells, not on the size of the workbook.
+ * <p>
+ * Plain cells not referenced by any formula are not retained,
+ * so they are not reported by forEachCell.
+ *
+ * @author Massimo Caliman
+ */
+final class StreamingWorkbookSource implements WorkbookSource, FormulaParsingWorkbook, FormulaRenderingWorkbook {
+
+    private static final SpreadsheetVersion SPREADSHEET_VERSION = SpreadsheetVersion.EXCEL2007;
+    private static final String RELATIONSHIPS_NS = "http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+    private static final int COLUMN_BITS = 14;
+
+    private final List<SheetContents> sheets = new ArrayList<>();
+    private final List<DefinedName> names = new ArrayList<>();
+    private final Map<Integer, String> numberFormats = new HashMap<>();
+    private final FormulaTemplates templates = new FormulaTemplates();
+    private final List<Integer> cellStyles = new ArrayList<>();
+    private final SAXParserFactory factory;
+    private boolean date1904;
+
+    StreamingWorkbookSource(File file) throws IOException, InvalidFormatException {
+        this.factory = SAXParserFactory.newInstance();
+        this.factory.setNamespaceAware(true);
+        OPCPackage pkg = OPCPackage.open(file, PackageAccess.READ);
+        try {
+            XSSFReader reader = new XSSFReader(pkg);
+            read(reader.getWorkbookData(), new WorkbookHandler());
+            read(reader.getStylesData(), new StylesHandler());
+            for(int index = 0; index < sheets.size(); index++)
+                read(reader.getSheet(sheets.get(index).relationId), new FormulasHandler(index));
+            for(int index = 0; index < sheets.size(); index++)
+                if(!sheets.get(index).areas.isEmpty())
+                    read(reader.getSheet(sheets.get(index).relationId), new ValuesHandler(index));
+            BitSet indexes = new BitSet();
+            for(SheetContents sheet : sheets)
+                for(int index : sheet.sharedStrings.values()) indexes.set(index);
+            if(!indexes.isEmpty()) {
+                SharedStringsHandler handler = new SharedStringsHandler(indexes);
+                read(reader.getSharedStringsData(), handler);
+                for(SheetContents sheet : sheets)
+                    sheet.sharedStrings.forEach((key, index) -> sheet.values.put(key, handler.strings.get(index)));
+            }
+        } catch(InvalidFormatException e) {
+            throw e;
+        } catch(OpenXML4JException | SAXException | ParserConfigurationException e) {
+            throw new IOException(e);
+        } finally {
+            pkg.revert();
+        }
+    }
+
+    private void read(InputStream stream, DefaultHandler handler) throws IOException, SAXException, ParserConfigurationException {
+        if(stream == null) return;
+        try(stream) {
+            XMLReader reader = this.factory.newSAXParser().getXMLReader();
+            reader.setContentHandler(handler);
+            reader.parse(new InputSource(stream));
+        }
+    }
+
+    private static long key(int row, int column) {
+        return ((long) row << COLUMN_BITS) | column;
+    }
+
+    private static int rowOf(long key) {
+        return (int) (key >>> COLUMN_BITS);
+    }
+
+    private static int columnOf(long key) {
+        return (int) (key & ((1 << COLUMN_BITS) - 1));
+    }
+
+    //<editor-fold desc="WorkbookSource">
+    @Override
+    public int getNumberOfSheets() {
+        return sheets.size();
+    }
+
+    /**
+     * The contents are read only once loaded.
+     */
+    @Override
+    public boolean isConcurrent() {
+        return true;
+    }
+
+    @Override
+    public String getSheetName(int sheetIndex) {
+        return sheets.get(sheetIndex).name;
+    }
+
+    @Override
+    public int getSheetIndex(String sheetName) {
+        for(int index = 0; index < sheets.size(); index++)
+            if(sheets.get(index).name.equalsIgnoreCase(sheetName)) return index;
+        return -1;
+    }
+
+    @Override
+    public void forEachCell(int sheetIndex, Consumer<SheetCell> consumer) {
+        SheetContents sheet = sheets.get(sheetIndex);
+        CellView view = new CellView();
+        Iterator<FormulaCell> formulas = sheet.formulas.values().iterator();
+        Iterator<Map.Entry<Long, Object>> values = sheet.values.entrySet().iterator();
+        FormulaCell formula = formulas.hasNext() ? formulas.next() : null;
+        Map.Entry<Long, Object> value = values.hasNext() ? values.next() : null;
+        while(formula != null || value != null) {
+            if(value != null && sheet.formulas.containsKey(value.getKey())) {
+                value = values.hasNext() ? values.next() : null;
+            } else if(value == null || (formula != null && key(formula.row, formula.column) < value.getKey())) {
+                view.set(formula.row, formula.column, formula.text, null, formula.text);
+                consumer.accept(view);
+                formula = formulas.hasNext() ? formulas.next() : null;
+            } else {
+                long key = value.getKey();
+                view.set(rowOf(key), columnOf(key), null, value.getValue(), text(sheet, key, value.getValue()));
+                consumer.accept(view);
+                value = values.hasNext() ? values.next() : null;
+            }
+        }
+    }
+
+    @Override
+    public boolean hasRow(int sheetIndex, int row) {
+        return sheets.get(sheetIndex).rows.get(row);
+    }
+
+    @Override
+    public int getLastRow(int sheetIndex) {
+        SheetContents sheet = sheets.get(sheetIndex);
+        return Math.max(sheet.rows.length() - 1, sheet.values.isEmpty() ? -1 : rowOf(sheet.values.lastKey()));
+    }
+
+    @Override
+    public int getLastColumn(int sheetIndex) {
+        SheetContents sheet = sheets.get(sheetIndex);
+        if(sheet.lastColumn == null) {
+            int last = -1;
+            for(long key : sheet.values.keySet()) last = Math.max(last, columnOf(key));
+            sheet.lastColumn = last;
+        }
+        return sheet.lastColumn;
+    }
+
+    @Override
+    public Object getValue(int sheetIndex, int row, int column) {
+        return sheets.get(sheetIndex).values.get(key(row, column));
+    }
+
+    @Override
+    public boolean hasValue(int sheetIndex, int row, int column) {
+        SheetContents sheet = sheets.get(sheetIndex);
+        long key = key(row, column);
+        return sheet.values.containsKey(key) && !sheet.formulas.containsKey(key);
+    }
+
+    @Override
+    public void forEachValue(int sheetIndex, int firstRow, int firstColumn, int lastRow, int lastColumn, Consumer<Object> consumer) {
+        SheetContents sheet = sheets.get(sheetIndex);
+        var area = sheet.values.subMap(key(firstRow, firstColumn), true, key(lastRow, lastColumn), true);
+        for(Map.Entry<Long, Object> entry : area.entrySet()) {
+            int column = columnOf(entry.getKey());
+            if(column >= firstColumn && column <= lastColumn) consumer.accept(entry.getValue());
+        }
+    }
+
+    @Override
+    public Ptg[] getFormulaTokens(int sheetIndex, int row, int column) throws FormulaParseException {
+        FormulaCell formula = sheets.get(sheetIndex).formulas.get(key(row, column));
+        if(formula == null) return null;
+        if(formula.error != null) throw formula.error;
+        return formula.ptgs;
+    }
+
+    @Override
+    public Ptg[] getNameDefinition(NamePtg t) {
+        return names.get(t.getIndex()).getNameDefinition();
+    }
+
+    @Override
+    public String getNameText(NamePtg t) {
+        return names.get(t.getIndex()).name;
+    }
+    //</editor-fold>
+
+    //<editor-fold desc="FormulaParsingWorkbook, FormulaRenderingWorkbook">
+    @Override
+    public EvaluationName getName(String name, int sheetIndex) {
+        for(DefinedName definedName : names)
+            if(name.equalsIgnoreCase(definedName.name) && (definedName.sheetIndex == -1 || definedName.sheetIndex == sheetIndex))
+                return definedName;
+        return sheetIndex == -1 ? null : getName(name, -1);
+    }
+
+    @Override
+    public Ptg getNameXPtg(String name, SheetIdentifier sheet) {
+        if(UDFFinder.DEFAULT.findFunction(name) != null) return new NameXPxg(null, name);
+        if(sheet == null) {
+            for(DefinedName definedName : names)
+                if(name.equalsIgnoreCase(definedName.name)) return new NameXPxg(null, name);
+            return null;
+        }
+        if(sheet.getSheetIdentifier() == null) return new NameXPxg(resolveBookIndex(sheet.getBookName()), null, name);
+        String sheetName = sheet.getSheetIdentifier().getName();
+        if(sheet.getBookName() != null) return new NameXPxg(resolveBookIndex(sheet.getBookName()), sheetName, name);
+        return new NameXPxg(sheetName, name);
+    }
+
+    @Override
+    public Ptg get3DReferencePtg(CellReference cell, SheetIdentifier sheet) {
+        if(sheet.getBookName() != null) return new Ref3DPxg(resolveBookIndex(sheet.getBookName()), sheet, cell);
+        return new Ref3DPxg(sheet, cell);
+    }
+
+    @Override
+    public Ptg get3DReferencePtg(AreaReference area, SheetIdentifier sheet) {
+        if(sheet.getBookName() != null) return new Area3DPxg(resolveBookIndex(sheet.getBookName()), sheet, area);
+        return new Area3DPxg(sheet, area);
+    }
+
+    @Override
+    public int getExternalSheetIndex(String sheetName) {
+        return getSheetIndex(sheetName);
+    }
+
+    @Override
+    public int getExternalSheetIndex(String workbookName, String sheetName) {
+        throw new RuntimeException("not implemented yet");
+    }
+
+    @Override
+    public SpreadsheetVersion getSpreadsheetVersion() {
+        return SPREADSHEET_VERSION;
+    }
+
+    @Override
+    public EvaluationWorkbook.ExternalSheet getExternalSheet(int externSheetIndex) {
+        throw new IllegalStateException("HSSF-style external references are not used in XSSF");
+    }
+
+    @Override
+    public String getSheetFirstNameByExternSheet(int externSheetIndex) {
+        return getSheetName(externSheetIndex);
+    }
+
+    @Override
+    public String getSheetLastNameByExternSheet(int externSheetIndex) {
+        return getSheetName(externSheetIndex);
+    }
+
+    @Override
+    public String resolveNameXText(NameXPtg t) {
+        return names.get(t.getNameIndex()).name;
+    }
+
+    private int resolveBookIndex(String bookName) {
+        if(bookName.startsWith("[") && bookName.endsWith("]")) bookName = bookName.substring(1, bookName.length() - 1);
+        try {
+            return Integer.parseInt(bookName);
+        } catch(NumberFormatException e) {
+            throw new RuntimeException("Book not linked for filename " + bookName);
+        }
+    }
+    //</editor-fold>
+
+    //<editor-fold desc="Cells">
+    private void addFormula(int sheetIndex, int row, int column, String text) {
+        SheetContents sheet = sheets.get(sheetIndex);
+        FormulaCell formula = new FormulaCell(row, column, text);
+        try {
+            formula.ptgs = templates.tokens(sheetIndex, row, column, text, t -> FormulaParser.parse(t, this, FormulaType.CELL, sheetIndex));
+            references(sheetIndex, formula.ptgs);
+        } catch(FormulaParseException e) {
+            formula.error = e;
+        }
+        sheet.formulas.put(key(row, column), formula);
+    }
+
+    /**
+     * Mark the cells referred by the tokens as needed by the second pass.
+     */
+    private void references(int sheetIndex, Ptg[] ptgs) {
+        for(Ptg ptg : ptgs) {
+            if(ptg instanceof Area3DPxg t) {
+                if(t.getExternalWorkbookNumber() <= 0)
+                    reference(getSheetIndex(t.getSheetName()), t.getFirstRow(), t.getFirstColumn(), t.getLastRow(), t.getLastColumn());
+            } else if(ptg instanceof AreaPtg t) {
+                reference(sheetIndex, t.getFirstRow(), t.getFirstColumn(), t.getLastRow(), t.getLastColumn());
+            } else if(ptg instanceof Ref3DPxg t) {
+                if(t.getExternalWorkbookNumber() <= 0)
+                    reference(getSheetIndex(t.getSheetName()), t.getRow(), t.getColumn(), t.getRow(), t.getColumn());
+            } else if(ptg instanceof RefPtg t) {
+                reference(sheetIndex, t.getRow(), t.getColumn(), t.getRow(), t.getColumn());
+            } else if(ptg instanceof NamePtg t) {
+                DefinedName name = names.get(t.getIndex());
+                if(!name.referenced) {
+                    name.referenced = true;
+                    Ptg[] definition = name.getNameDefinition();
+                    if(definition != null) references(Math.max(name.sheetIndex, 0), definition);
+                }
+            }
+        }
+    }
+
+    private void reference(int sheetIndex, int firstRow, int firstColumn, int lastRow, int lastColumn) {
+        if(sheetIndex < 0) return;
+        sheets.get(sheetIndex).areas.add(new Area(firstRow, firstColumn, lastRow, lastColumn));
+    }
+
+    private boolean isDateFormatted(int style, double value) {
+        if(!DateUtil.isValidExcelDate(value)) return false;
+        int formatIndex = style < cellStyles.size() ? cellStyles.get(style) : 0;
+        String format = numberFormats.get(formatIndex);
+        if(format == null) format = BuiltinFormats.getBuiltinFormat(formatIndex);
+        return DateUtil.isADateFormat(formatIndex, format);
+    }
+
+    private String text(SheetContents sheet, long key, Object value) {
+        if(value == null) return sheet.errors.getOrDefault(key, "");
+        if(value instanceof Boolean bool) return bool ? "TRUE" : "FALSE";
+        if(value instanceof Date date) return new SimpleDateFormat("dd-MMM-yyyy").format(date);
+        return value.toString();
+    }
+    //</editor-fold>
+
+    //<editor-fold desc="Data">
+    private static final class SheetContents {
+
+        private final String name;
+        private final String relationId;
+        private final BitSet rows = new BitSet();
+        private final Map<Long, FormulaCell> formulas = new LinkedHashMap<>();
+        private final Set<Area> areas = new HashSet<>();
+        private final TreeMap<Long, Object> values = new TreeMap<>();
+        private final Map<Long, Integer> sharedStrings = new HashMap<>();
+        private final Map<Long, String> errors = new HashMap<>();
+        private Integer lastColumn;
+
+        SheetContents(String name, String relationId) {
+            this.name = name;
+            this.relationId = relationId;
+        }
+    }
+
+    private static final class FormulaCell {
+
+        private final int row;
+        private final int column;
+        private final String text;
+        private Ptg[] ptgs;
+        private FormulaParseException error;
+
+        FormulaCell(int row, int column, String text) {
+            this.row = row;
+            this.column = column;
+            this.text = text;
+        }
+    }
+
+    private static final class Area {
+
+        private final int firstRow;
+        private final int firstColumn;
+        private final int lastRow;
+        private final int lastColumn;
+
+        Area(int firstRow, int firstColumn, int lastRow, int lastColumn) {
+            this.firstRow = firstRow;
+            this.firstColumn = firstColumn;
+            this.lastRow = lastRow;
+            this.lastColumn = lastColumn;
+        }
+
+        boolean containsColumn(int column) {
+            return column >= firstColumn && column <= lastColumn;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = 7;
+            hash = 31 * hash + firstRow;
+            hash = 31 * hash + firstColumn;
+            hash = 31 * hash + lastRow;
+            hash = 31 * hash + lastColumn;
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if(this == obj) return true;
+            if(!(obj instanceof Area that)) return false;
+            return firstRow == that.firstRow && firstColumn == that.firstColumn &&
+                    lastRow == that.lastRow && lastColumn == that.lastColumn;
+        }
+    }
+
+    private final class DefinedName implements EvaluationName {
+
+        private final int index;
+        private final String name;
+        private final int sheetIndex;
+        private final String formula;
+        private Ptg[] definition;
+        private boolean referenced;
+
+        DefinedName(int index, String name, int sheetIndex, String formula) {
+            this.index = index;
+            this.name = name;
+            this.sheetIndex = sheetIndex;
+            this.formula = formula;
+        }
+
+        @Override
+        public String getNameText() {
+            return name;
+        }
+
+        @Override
+        public boolean isFunctionName() {
+            return false;
+        }
+
+        @Override
+        public boolean hasFormula() {
+            return formula != null && !formula.isEmpty();
+        }
+
+        @Override
+        public Ptg[] getNameDefinition() {
+            if(definition == null && hasFormula())
+                definition = FormulaParser.parse(formula, StreamingWorkbookSource.this, FormulaType.NAMEDRANGE, sheetIndex);
+            return definition;
+        }
+
+        @Override
+        public boolean isRange() {
+            return hasFormula();
+        }
+
+        @Override
+        public NamePtg createPtg() {
+            return new NamePtg(index);
+        }
+    }
+
+    private static final class CellView implements SheetCell {
+
+        private int row;
+        private int column;
+        private String formula;
+        private Object value;
+        private String text;
+
+        void set(int row, int column, String formula, Object value, String text) {
+            this.row = row;
+            this.column = column;
+            this.formula = formula;
+            this.value = value;
+            this.text = text;
+        }
+
+        @Override
+        public int getRow() {
+            return row;
+        }
+
+        @Override
+        public int getColumn() {
+            return column;
+        }
+
+        @Override
+        public boolean isFormula() {
+            return formula != null;
+        }
+
+        @Override
+        public String getFormula() {
+            return formula;
+        }
+
+        @Override
+        public Object getValue() {
+            return isFormula() ? WorkbookSource.formulaValue(formula) : value;
+        }
+
+        @Override
+        public String getText() {
+            return text;
+        }
+    }
+    //</editor-fold>
+
+    //<editor-fold desc="SAX handlers">
+
+    /**
+     * workbook.xml: sheets, defined names and date system.
+     */
+    private final class WorkbookHandler extends DefaultHandler {
+
+        private final StringBuilder text = new StringBuilder();
+        private String name;
+        private int localSheetId;
+        private boolean inDefinedName;
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            switch(localName) {
+                case "workbookPr" -> {
+                    String value = attributes.getValue("date1904");
+                    date1904 = "1".equals(value) || "true".equalsIgnoreCase(value);
+                }
+                case "sheet" -> sheets.add(new SheetContents(attributes.getValue("name"), attributes.getValue(RELATIONSHIPS_NS, "id")));
+                case "definedName" -> {
+                    name = attributes.getValue("name");
+                    String value = attributes.getValue("localSheetId");
+                    localSheetId = value == null ? -1 : Integer.parseInt(value);
+                    text.setLength(0);
+                    inDefinedName = true;
+                }
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            if(inDefinedName) text.append(ch, start, length);
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            if(localName.equals("definedName")) {
+                names.add(new DefinedName(names.size(), name, localSheetId, text.toString()));
+                inDefinedName = false;
+            }
+        }
+    }
+
+    /**
+     * styles.xml: number format of each cell style, used to recognize dates.
+     */
+    private final class StylesHandler extends DefaultHandler {
+
+        private boolean inCellXfs;
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            switch(localName) {
+                case "numFmt" -> numberFormats.put(Integer.parseInt(attributes.getValue("numFmtId")), attributes.getValue("formatCode"));
+                case "cellXfs" -> inCellXfs = true;
+                case "xf" -> {
+                    if(inCellXfs) {
+                        String value = attributes.getValue("numFmtId");
+                        cellStyles.add(value == null ? 0 : Integer.parseInt(value));
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            if(localName.equals("cellXfs")) inCellXfs = false;
+        }
+    }
+
+    /**
+     * sharedStrings.xml: keep only the strings used by the retained cells.
+     */
+    private static final class SharedStringsHandler extends DefaultHandler {
+
+        private final BitSet indexes;
+        private final Map<Integer, String> strings = new HashMap<>();
+        private final StringBuilder text = new StringBuilder();
+        private int index = -1;
+        private boolean inText;
+        private boolean inPhonetic;
+
+        SharedStringsHandler(BitSet indexes) {
+            this.indexes = indexes;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            switch(localName) {
+                case "si" -> {
+                    index++;
+                    text.setLength(0);
+                }
+                case "rPh" -> inPhonetic = true;
+                case "t" -> inText = !inPhonetic && indexes.get(index);
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            if(inText) text.append(ch, start, length);
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            switch(localName) {
+                case "si" -> {
+                    if(indexes.get(index)) strings.put(index, text.toString());
+                }
+                case "rPh" -> inPhonetic = false;
+                case "t" -> inText = false;
+            }
+        }
+    }
+
+    /**
+     * Common cell tracking for the sheet passes.
+     */
+    private abstract class SheetHandler extends DefaultHandler {
+
+        final int sheetIndex;
+        final SheetContents sheet;
+        private final boolean readValues;
+        final StringBuilder formula = new StringBuilder();
+        final StringBuilder value = new StringBuilder();
+        int row = -1;
+        int column = -1;
+        String type;
+        int style;
+        boolean hasFormula;
+        String formulaType;
+        String sharedIndex;
+        String formulaRef;
+        private boolean wanted;
+        private boolean inFormula;
+        private boolean inValue;
+        private boolean inInlineString;
+
+        SheetHandler(int sheetIndex, boolean readValues) {
+            this.sheetIndex = sheetIndex;
+            this.sheet = sheets.get(sheetIndex);
+            this.readValues = readValues;
+        }
+
+        abstract void startRow();
+
+        abstract boolean startCell();
+
+        abstract void endCell();
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            switch(localName) {
+                case "row" -> {
+                    String r = attributes.getValue("r");
+                    row = r == null ? row + 1 : Integer.parseInt(r) - 1;
+                    column = -1;
+                    startRow();
+                }
+                case "c" -> {
+                    String r = attributes.getValue("r");
+                    column = r == null ? column + 1 : columnIndex(r);
+                    type = attributes.getValue("t");
+                    String s = attributes.getValue("s");
+                    style = s == null ? 0 : Integer.parseInt(s);
+                    hasFormula = false;
+                    formulaType = null;
+                    sharedIndex = null;
+                    formulaRef = null;
+                    formula.setLength(0);
+                    value.setLength(0);
+                    wanted = startCell();
+                }
+                case "f" -> {
+                    hasFormula = true;
+                    formulaType = attributes.getValue("t");
+                    sharedIndex = attributes.getValue("si");
+                    formulaRef = attributes.getValue("ref");
+                    inFormula = wanted;
+                }
+                case "v" -> inValue = wanted && readValues;
+                case "t" -> inInlineString = wanted && readValues && "inlineStr".equals(type);
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            if(inFormula) formula.append(ch, start, length);
+            else if(inValue || inInlineString) value.append(ch, start, length);
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            switch(localName) {
+                case "f" -> inFormula = false;
+                case "v" -> inValue = false;
+                case "t" -> inInlineString = false;
+                case "c" -> {
+                    if(wanted) endCell();
+                    wanted = false;
+                }
+            }
+        }
+
+        private int columnIndex(String reference) {
+            int result = 0;
+            for(int i = 0; i < reference.length(); i++) {
+                char c = reference.charAt(i);
+                if(c < 'A' || c > 'Z') break;
+                result = result * 26 + (c - 'A' + 1);
+            }
+            return result - 1;
+        }
+    }
+
+    /**
+     * First pass: formula cells, shared and array formulas included.
+     */
+    private final class FormulasHandler extends SheetHandler {
+
+        private final Map<String, SharedMaster> shared = new HashMap<>();
+        private final List<SharedMaster> arrays = new ArrayList<>();//array formulas whose area reaches the current row
+
+        FormulasHandler(int sheetIndex) {
+            super(sheetIndex, false);
+        }
+
+        @Override
+        void startRow() {
+            sheet.rows.set(row);
+            arrays.removeIf(array -> array.ref.getLastRow() < row);
+        }
+
+        @Override
+        boolean startCell() {
+            return true;
+        }
+
+        @Override
+        void endCell() {
+            String text = null;
+            if(hasFormula && "shared".equals(formulaType)) {
+                SharedMaster master = shared.get(sharedIndex);
+                if(master == null && formula.length() > 0) {
+                    CellRangeAddress ref = formulaRef != null ? CellRangeAddress.valueOf(formulaRef) : new CellRangeAddress(row, row, column, column);
+                    master = new SharedMaster(ref, formula.toString());
+                    shared.put(sharedIndex, master);
+                }
+                if(master != null) text = master.shift(sheetIndex, row, column);
+            } else if(hasFormula) {
+                text = formula.toString();
+                if("array".equals(formulaType) && formulaRef != null)
+                    arrays.add(new SharedMaster(CellRangeAddress.valueOf(formulaRef), text));
+            } else {
+                for(SharedMaster array : arrays)
+                    if(array.ref.isInRange(row, column)) {
+                        text = array.text;
+                        break;
+                    }
+            }
+            if(text != null) addFormula(sheetIndex, row, column, text);
+        }
+    }
+
+    /**
+     * Formula shared by a block of cells, or array formula, with its anchor area.
+     */
+    private final class SharedMaster {
+
+        private final CellRangeAddress ref;
+        private final String text;
+        private Ptg[] ptgs;
+
+        SharedMaster(CellRangeAddress ref, String text) {
+            this.ref = ref;
+            this.text = text;
+        }
+
+        /**
+         * Formula text relative to the given cell, as XSSFCell does for shared formulas.
+         */
+        String shift(int sheetIndex, int row, int column) {
+            try {
+                if(ptgs == null) ptgs = FormulaParser.parse(text, StreamingWorkbookSource.this, FormulaType.CELL, sheetIndex);
+                SharedFormula sharedFormula = new SharedFormula(SPREADSHEET_VERSION);
+                Ptg[] shifted = sharedFormula.convertSharedFormulas(ptgs, row - ref.getFirstRow(), column - ref.getFirstColumn());
+                return FormulaRenderer.toFormulaString(StreamingWorkbookSource.this, shifted);
+            } catch(FormulaParseException e) {
+                return text;
+            }
+        }
+    }
+
+    /**
+     * Second pass: values of the cells inside the referenced areas.
+     */
+    private final class ValuesHandler extends SheetHandler {
+
+        private final List<Area> pending;
+        private final List<Area> active = new ArrayList<>();
+        private int next;
+
+        ValuesHandler(int sheetIndex) {
+            super(sheetIndex, true);
+            this.pending = new ArrayList<>(sheet.areas);
+            this.pending.sort(Comparator.comparingInt((Area area) -> area.firstRow));
+        }
+
+        @Override
+        void startRow() {
+            active.removeIf(area -> area.lastRow < row);
+            while(next < pending.size() && pending.get(next).firstRow <= row) {
+                Area area = pending.get(next++);
+                if(area.lastRow >= row) active.add(area);
+            }
+        }
+
+        @Override
+        boolean startCell() {
+            for(Area area : active) if(area.containsColumn(column)) return true;
+            return false;
+        }
+
+        @Override
+        void endCell() {
+            long key = key(row, column);
+            FormulaCell formulaCell = sheet.formulas.get(key);
+            if(formulaCell != null) {
+                sheet.values.put(key, WorkbookSource.formulaValue(formulaCell.text));
+                return;
+            }
+            String text = value.toString();
+            if(type == null || type.equals("n")) {
+                if(text.isEmpty()) {
+                    sheet.values.put(key, "");
+                } else {
+                    double number = Double.parseDouble(text);
+                    sheet.values.put(key, isDateFormatted(style, number) ? DateUtil.getJavaDate(number, date1904) : number);
+                }
+            } else switch(type) {
+                case "s" -> {
+                    sheet.values.put(key, null);
+                    sheet.sharedStrings.put(key, Integer.parseInt(text.trim()));
+                }
+                case "b" -> sheet.values.put(key, text.equals("1") || text.equalsIgnoreCase("true"));
+                case "e" -> {
+                    sheet.values.put(key, null);
+                    sheet.errors.put(key, text);
+                }
+                default -> sheet.values.put(key, text);
+            }
+        }
+    }
+    //</editor-fold>
+}
@@ -0,0 +1,126 @@
+/*
+ * Efesto - Excel Formula Extractor System and Topological Ordering algorithm.
+ * Copyright (C) 2017 Massimo Caliman mcaliman@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * If AGPL Version 3.0 terms are incompatible with your use of
+ * Efesto, alternative license terms are available from Massimo Caliman
+ * please direct inquiries about Efesto licensing to mcaliman@gmail.com
+ */
+
+package com.trueprogramming.excel.parser;
+
+import org.apache.poi.ss.formula.FormulaParseException;
+import org.apache.poi.ss.formula.ptg.NamePtg;
+import org.apache.poi.ss.formula.ptg.Ptg;
+
+import java.util.function.Consumer;
+
+/**
+ * Read access to the sheets, cells and names of a workbook,
+ * independent of how the workbook has been loaded (full DOM or SAX streaming).
+ *
+ * Cell values follow the conventions of the original DOM parser:
+ * String, Double, Boolean or Date for plain cells, the formula text for formula cells,
+ * null for missing or error cells.
+ *
+ * @author Massimo Caliman
+ */
+interface WorkbookSource {
+
+    int getNumberOfSheets();
+
+    String getSheetName(int sheetIndex);
+
+    int getSheetIndex(String sheetName);
+
+    /**
+     * Visit the cells of a sheet in row major order.
+     * The SheetCell instance may be reused between calls.
+     */
+    void forEachCell(int sheetIndex, Consumer<SheetCell> consumer);
+
+    boolean hasRow(int sheetIndex, int row);
+
+    /**
+     * Index of the last row with cells, -1 for an empty sheet.
+     */
+    int getLastRow(int sheetIndex);
+
+    /**
+     * Index of the last column with cells in any row, -1 for an empty sheet.
+     */
+    int getLastColumn(int sheetIndex);
+
+    Object getValue(int sheetIndex, int row, int column);
+
+    /**
+     * Is there a cell, not a formula, at row and column?
+     */
+    boolean hasValue(int sheetIndex, int row, int column);
+
+    /**
+     * Visit the values of the existing cells of an area in row major order, missing cells are skipped.
+     */
+    void forEachValue(int sheetIndex, int firstRow, int firstColumn, int lastRow, int lastColumn, Consumer<Object> consumer);
+
+    Ptg[] getFormulaTokens(int sheetIndex, int row, int column) throws FormulaParseException;
+
+    /**
+     * Source for a context parsing sheetIndex: it shares the workbook, not the state that would serialize the contexts.
+     * Returns this source when it is safe to share.
+     */
+    default WorkbookSource forSheet(int sheetIndex) {
+        return this;
+    }
+
+    /**
+     * Can the sheets be read from more threads at the same time? If not the sheet contexts are parsed one at a time.
+     */
+    default boolean isConcurrent() {
+        return false;
+    }
+
+    Ptg[] getNameDefinition(NamePtg t);
+
+    String getNameText(NamePtg t);
+
+    /**
+     * Value of a formula cell, the formula text itself.
+     */
+    static Object formulaValue(String formula) {
+        if(formula != null && formula.equalsIgnoreCase("TRUE")) return true;
+        else if(formula != null && formula.equalsIgnoreCase("FALSE")) return true;
+        return formula;
+    }
+
+    interface SheetCell {
+
+        int getRow();
+
+        int getColumn();
+
+        boolean isFormula();
+
+        String getFormula();
+
+        Object getValue();
+
+        /**
+         * Text of the cell as shown by POI Cell.toString()
+         */
+        String getText();
+    }
+}
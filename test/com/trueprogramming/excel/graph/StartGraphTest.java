@@ -0,0 +1,163 @@
+/*
+ * Efesto - Excel Formula Extractor System and Topological Ordering algorithm.
+ * Copyright (C) 2017 Massimo Caliman mcaliman@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * If AGPL Version 3.0 terms are incompatible with your use of
+ * Efesto, alternative license terms are available from Massimo Caliman
+ * please direct inquiries about Efesto licensing to mcaliman@gmail.com
+ */
+
+package com.trueprogramming.excel.graph;
+
+import com.trueprogramming.excel.grammar.lexicaltokens.CELL;
+import com.trueprogramming.excel.grammar.lexicaltokens.RANGE;
+import com.trueprogramming.excel.grammar.nonterm.NamedRange;
+import com.trueprogramming.excel.grammar.nonterm.ReferenceItem;
+import com.trueprogramming.excel.parser.StartList;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Massimo Caliman
+ */
+class StartGraphTest {
+
+    private static CELL cell(int row, int column) {
+        CELL cell = new CELL(row, column);
+        cell.setSheetName("Sheet1");
+        cell.setSheetIndex(0);
+        return cell;
+    }
+
+    private static NamedRange named(String name, int firstRow, int firstColumn, int lastRow, int lastColumn) {
+        NamedRange range = new NamedRange(name, new RANGE(new CELL(firstRow, firstColumn), new CELL(lastRow, lastColumn)));
+        range.setSheetIndex(0);
+        range.setSheetName("Sheet1");
+        return range;
+    }
+
+    @Test
+    void testTopologicalSort() {
+        StartGraph graph = new StartGraph();
+        CELL a1 = cell(0, 0), a2 = cell(1, 0), a3 = cell(2, 0), a4 = cell(3, 0);
+        graph.addNode(a4);
+        graph.addNode(a3);
+        graph.addNode(a2);
+        graph.addNode(a1);
+        graph.addEdge(a1, a2);
+        graph.addEdge(a1, a3);
+        graph.addEdge(a2, a4);
+        graph.addEdge(a3, a4);
+        StartList list = graph.topologicalSort();
+        assertEquals(4, list.size());
+        assertTrue(list.indexOf(a1) < list.indexOf(a2));
+        assertTrue(list.indexOf(a1) < list.indexOf(a3));
+        assertTrue(list.indexOf(a2) < list.indexOf(a4));
+        assertTrue(list.indexOf(a3) < list.indexOf(a4));
+        assertTrue(graph.getCircularReferences().isEmpty());
+    }
+
+    @Test
+    void testTopologicalSortWithCycle() {
+        StartGraph graph = new StartGraph();
+        CELL a1 = cell(0, 0), b1 = cell(0, 1), b2 = cell(1, 1), c1 = cell(0, 2);
+        graph.addNode(a1);
+        graph.addNode(b1);
+        graph.addNode(b2);
+        graph.addNode(c1);
+        graph.addEdge(a1, b1);
+        graph.addEdge(b1, b2);
+        graph.addEdge(b2, b1);
+        graph.addEdge(b2, c1);
+        StartList list = graph.topologicalSort();
+        assertEquals(4, list.size());
+        assertEquals(a1, list.get(0));
+        assertEquals(c1, list.get(3));
+        List<CircularReference> cycles = graph.getCircularReferences();
+        assertEquals(1, cycles.size());
+        assertEquals(List.of("Sheet1!B1", "Sheet1!B2"), cycles.get(0).getAddresses());
+        assertEquals(b1.getLevel(), b2.getLevel());
+        assertEquals(2, c1.getLevel());
+    }
+
+    @Test
+    void testLevels() {
+        StartGraph graph = new StartGraph();
+        CELL a1 = cell(0, 0), a2 = cell(1, 0), a3 = cell(2, 0), a4 = cell(3, 0), b1 = cell(0, 1);
+        graph.addNode(a1);
+        graph.addNode(a2);
+        graph.addNode(a3);
+        graph.addNode(a4);
+        graph.addNode(b1);
+        graph.addEdge(a1, a2);
+        graph.addEdge(a2, a3);
+        graph.addEdge(a1, a4);
+        graph.addEdge(a3, a4);
+        graph.addEdge(b1, a4);
+        graph.topologicalSort();
+        List<StartList> levels = graph.getLevels();
+        assertEquals(4, levels.size());
+        assertEquals(2, levels.get(0).size());
+        assertTrue(levels.get(0).contains(a1) && levels.get(0).contains(b1));
+        assertEquals(a2, levels.get(1).get(0));
+        assertEquals(a3, levels.get(2).get(0));
+        assertEquals(a4, levels.get(3).get(0));
+        assertEquals(0, b1.getLevel());
+        assertEquals(3, a4.getLevel());
+    }
+    @Test
+    void testKey() {
+        CELL a1 = cell(0, 0), other = cell(0, 0);
+        assertEquals(a1.key(), other.key());
+        assertEquals(a1, other);
+        assertEquals(a1.hashCode(), other.hashCode());
+        assertTrue(cell(1, 0).key() > cell(0, 16383).key());
+        CELL sheet2 = new CELL(0, 0);
+        sheet2.setSheetIndex(1);
+        assertTrue(!a1.equals(sheet2));
+    }
+
+    @Test
+    void testKeyFollowsFields() {
+        ReferenceItem a1 = new ReferenceItem("A1"), other = new ReferenceItem("A1");
+        a1.setRow(0);
+        a1.setColumn(0);
+        assertEquals(a1.hashCode(), cell(0, 0).hashCode());
+        a1.setAsArea();
+        other.setAsArea();
+        assertEquals(a1, other);
+        assertEquals(a1.hashCode(), other.hashCode());
+        a1.setSheetIndex(1);
+        assertTrue(!a1.equals(other));
+    }
+
+    @Test
+    void testNamedRangeKey() {
+        NamedRange alpha = named("Alpha", 0, 0, 2, 0), beta = named("Beta", 0, 1, 2, 1);
+        StartList list = new StartList();
+        list.add(alpha);
+        list.add(beta);
+        list.add(cell(1_048_575, 16_383));
+        assertEquals(3, list.size());
+        assertEquals(alpha, named("Gamma", 0, 0, 2, 0));//same area
+        assertTrue(!alpha.equals(named("Alpha", 0, 0, 3, 0)));
+    }
+
+}
@@ -0,0 +1,62 @@
+/*
+ * Efesto - Excel Formula Extractor System and Topological Ordering algorithm.
+ * Copyright (C) 2017 Massimo Caliman mcaliman@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * If AGPL Version 3.0 terms are incompatible with your use of
+ * Efesto, alternative license terms are available from Massimo Caliman
+ * please direct inquiries about Efesto licensing to mcaliman@gmail.com
+ */
+
+package com.trueprogramming.excel.nonterm;
+
+import com.trueprogramming.excel.grammar.lexicaltokens.FLOAT;
+import com.trueprogramming.excel.grammar.nonterm.FunctionCall;
+import com.trueprogramming.excel.grammar.nonterm.ParenthesisFormula;
+import com.trueprogramming.excel.grammar.nonterm.PercentFormula;
+import com.trueprogramming.excel.grammar.nonterm.Renderer;
+import com.trueprogramming.excel.grammar.nonterm.binary.Add;
+import com.trueprogramming.excel.grammar.nonterm.binary.Mult;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RendererTest {
+
+    @Test
+    void testToString() {
+        Add add = new Add(new FLOAT(1.0), new FLOAT(2.0));
+        Mult mult = new Mult(new ParenthesisFormula(add), new PercentFormula(new FLOAT(3.0)));
+        assertEquals("1.0+2.0", add.toString());
+        assertEquals("(1.0+2.0)*3.0%", mult.toString());
+        assertEquals(mult.toString(), new Renderer().render(mult).toString());
+    }
+
+    @Test
+    void testReuse() {
+        FunctionCall call = new FunctionCall() {
+            @Override
+            public void render(Renderer renderer) {
+                renderer.append("X");
+            }
+        };
+        Renderer renderer = new Renderer();
+        CharSequence first = renderer.render(new Add(call, call));
+        assertEquals("X+X", first.toString());
+        CharSequence second = renderer.render(new Mult(call, new FLOAT(2.0)));
+        assertSame(first, second);
+        assertEquals("X*2.0", second.toString());
+    }
+}
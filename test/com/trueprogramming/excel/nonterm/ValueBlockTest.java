@@ -0,0 +1,84 @@
+/*
+ * Efesto - Excel Formula Extractor System and Topological Ordering algorithm.
+ * Copyright (C) 2017 Massimo Caliman mcaliman@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * If AGPL Version 3.0 terms are incompatible with your use of
+ * Efesto, alternative license terms are available from Massimo Caliman
+ * please direct inquiries about Efesto licensing to mcaliman@gmail.com
+ */
+
+package com.trueprogramming.excel.nonterm;
+
+import com.trueprogramming.excel.grammar.lexicaltokens.CELL;
+import com.trueprogramming.excel.grammar.lexicaltokens.RANGE;
+import com.trueprogramming.excel.grammar.nonterm.RangeReference;
+import com.trueprogramming.excel.grammar.nonterm.ValueBlock;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ValueBlockTest {
+
+    @Test
+    void testValues() {
+        Date date = new Date(1500000000000L);
+        List<Object> values = Arrays.asList(1.5, "a", true, null, date, "a", false, -0.0, 7);
+        ValueBlock block = ValueBlock.of(values);
+        assertEquals(values, block);
+        assertEquals(values.size(), block.size());
+        assertEquals(ValueBlock.NUMBER, block.type(0));
+        assertEquals(ValueBlock.TEXT, block.type(5));
+        assertEquals("a", block.text(5));
+        assertEquals(ValueBlock.BOOLEAN, block.type(6));
+        assertEquals(ValueBlock.BLANK, block.type(3));
+        assertEquals(ValueBlock.DATE, block.type(4));
+        assertEquals(date.getTime(), block.number(4));
+        assertEquals(ValueBlock.OTHER, block.type(8));
+        assertEquals(-0.0, block.get(7));
+        assertThrows(IndexOutOfBoundsException.class, () -> block.type(values.size()));
+    }
+
+    @Test
+    void testNumbers() {
+        List<Object> values = new ArrayList<>();
+        for(int i = 0; i < 1000; i++) values.add(i % 100 == 0 ? null : i * 0.25);
+        ValueBlock block = ValueBlock.of(values);
+        assertEquals(values, block);
+        for(int i = 1; i < 100; i++) assertEquals(ValueBlock.NUMBER, block.type(i));
+        assertEquals(ValueBlock.BLANK, block.type(900));
+        assertEquals(0, ValueBlock.of(List.of()).size());
+    }
+
+    @Test
+    void testRender() {
+        List<Object> values = List.of(1.0, "x\"y", 2.5, true, 3e20, "z");
+        assertEquals(render(new ArrayList<>(values), 3), render(ValueBlock.of(values), 3));
+        assertEquals(render(new ArrayList<>(values), 1), render(ValueBlock.of(values), 1));
+    }
+
+    private static String render(List<Object> values, int columns) {
+        RANGE range = new RANGE(new CELL(0, 0), new CELL(values.size() / columns - 1, columns - 1));
+        range.add(values);
+        RangeReference reference = new RangeReference(range);
+        reference.add(range.values());
+        return reference.toString();
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Efesto - Excel Formula Extractor System and Topological Ordering algorithm.
+ * Copyright (C) 2017 Massimo Caliman mcaliman@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * If AGPL Version 3.0 terms are incompatible with your use of
+ * Efesto, alternative license terms are available from Massimo Caliman
+ * please direct inquiries about Efesto licensing to mcaliman@gmail.com
+ */
+
+package com.trueprogramming.excel.parser;
+
+import com.trueprogramming.excel.grammar.functions.builtin.NOW;
+import com.trueprogramming.excel.grammar.functions.builtin.SUM;
+import com.trueprogramming.excel.grammar.nonterm.Formula;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Massimo Caliman
+ */
+class BuiltinFactoryTest {
+
+    @Test
+    void testCreate() throws UnsupportedBuiltinException {
+        assertTrue(BuiltinFactory.create("SUM", new Formula[1]) instanceof SUM);
+        assertTrue(BuiltinFactory.create("NOW") instanceof NOW);
+    }
+
+    @Test
+    void testUnsupported() {
+        assertThrows(UnsupportedBuiltinException.class, () -> BuiltinFactory.create("NOSUCHFUNCTION", new Formula[1]));
+        assertThrows(UnsupportedBuiltinException.class, () -> BuiltinFactory.create("SUM"));
+    }
+}
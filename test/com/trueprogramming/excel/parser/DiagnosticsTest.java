@@ -0,0 +1,102 @@
+/*
+ * Efesto - Excel Formula Extractor System and Topological Ordering algorithm.
+ * Copyright (C) 2017 Massimo Caliman mcaliman@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * If AGPL Version 3.0 terms are incompatible with your use of
+ * Efesto, alternative license terms are available from Massimo Caliman
+ * please direct inquiries about Efesto licensing to mcaliman@gmail.com
+ */
+
+package com.trueprogramming.excel.parser;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Massimo Caliman
+ */
+class DiagnosticsTest {
+
+    private static long lines(ByteArrayOutputStream stream) {
+        return stream.toString(StandardCharsets.UTF_8).lines().count();
+    }
+
+    @Test
+    void testAsync() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(), err = new ByteArrayOutputStream();
+        AsyncDiagnostics diagnostics = new AsyncDiagnostics(new PrintStream(out), new PrintStream(err), 1 << 16);
+        IntStream.range(0, 10_000).parallel().forEach(i -> {
+            diagnostics.report(new Diagnostic(Diagnostic.Kind.FORMULA, "A" + (i + 1), "1+" + i));
+            if(i % 10 == 0) diagnostics.report(new Diagnostic(Diagnostic.Kind.ERROR, "A" + (i + 1), "error"));
+        });
+        diagnostics.flush();
+        assertEquals(10_000, lines(out));
+        assertEquals(1_000, lines(err));
+    }
+
+    @Test
+    void testBounded() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(), err = new ByteArrayOutputStream();
+        AsyncDiagnostics diagnostics = new AsyncDiagnostics(new PrintStream(out), new PrintStream(err), 16);
+        for(int i = 0; i < 100_000; i++) diagnostics.report(new Diagnostic(Diagnostic.Kind.FORMULA, "A1", "1"));
+        diagnostics.flush();
+        assertTrue(lines(out) <= 100_000);
+        assertEquals(100_000, lines(out) + (lines(err) == 0 ? 0 : Long.parseLong(err.toString(StandardCharsets.UTF_8).split(" ")[0])));
+    }
+
+    @Test
+    void testErrorsKept() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(), err = new ByteArrayOutputStream();
+        AsyncDiagnostics diagnostics = new AsyncDiagnostics(new PrintStream(out), new PrintStream(err), 16);
+        for(int i = 0; i < 10_000; i++) {
+            diagnostics.report(new Diagnostic(Diagnostic.Kind.FORMULA, "A1", "1"));
+            if(i % 10 == 0) diagnostics.report(new Diagnostic(Diagnostic.Kind.PARSE_ERROR, "A1", "error"));
+        }
+        diagnostics.flush();
+        assertEquals(1_000, err.toString(StandardCharsets.UTF_8).lines().filter("error"::equals).count());
+    }
+
+    @Test
+    void testWakeup() throws InterruptedException {
+        for(int trial = 0; trial < 50; trial++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            AsyncDiagnostics diagnostics = new AsyncDiagnostics(new PrintStream(out, true), new PrintStream(new ByteArrayOutputStream()), 1 << 16);
+            IntStream.range(0, 4).parallel().forEach(p -> {
+                for(int i = 0; i < 2_000; i++) diagnostics.report(new Diagnostic(Diagnostic.Kind.FORMULA, "A1", "1"));
+            });
+            long deadline = System.nanoTime() + 5_000_000_000L;//no flush(): the drainer has to wake up by itself
+            while(lines(out) < 8_000 && System.nanoTime() < deadline) Thread.sleep(10);
+            assertEquals(8_000, lines(out));
+        }
+    }
+
+    @Test
+    void testSilent() {
+        assertFalse(Diagnostics.SILENT.isEnabled());
+        assertEquals("Formula Plain Text: A1 = 1+2", new Diagnostic(Diagnostic.Kind.FORMULA, "A1", "1+2").toString());
+        Diagnostic verbose = new Diagnostic(Diagnostic.Kind.VERBOSE, null, "parse: RefPtg");
+        assertTrue(verbose.isOutput());
+        assertEquals("parse: RefPtg", verbose.toString());
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Efesto - Excel Formula Extractor System and Topological Ordering algorithm.
+ * Copyright (C) 2017 Massimo Caliman mcaliman@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * If AGPL Version 3.0 terms are incompatible with your use of
+ * Efesto, alternative license terms are available from Massimo Caliman
+ * please direct inquiries about Efesto licensing to mcaliman@gmail.com
+ */
+
+package com.trueprogramming.excel.parser;
+
+import com.trueprogramming.excel.test.WorkbookGenerator;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.trueprogramming.excel.parser.Fixtures.evaluate;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * @author Massimo Caliman
+ */
+class EvaluatorTest {
+
+    private static Map<String, String> texts(Evaluator evaluator) {
+        Map<String, String> texts = new HashMap<>();
+        for(int i = 0; i < evaluator.size(); i++) texts.put(evaluator.getFormula(i).id(), evaluator.getText(i));
+        return texts;
+    }
+
+    @Test
+    void testFixtures() throws Exception {
+        assertEquals(Map.of("B5", "2"), texts(evaluate("test/01-horizontal-range-index.xlsx")));
+        assertEquals(Map.of("A2", "14"), texts(evaluate("test/11-UnOpPrefix.xlsx")));
+        assertEquals(Map.of("B4", "2"), texts(evaluate("test/12-String-COUNTIF.xlsx")));
+        assertEquals(Map.of("A8", "21"), texts(evaluate("test/13-NamedRange.xlsx")));
+        assertEquals(Map.of("A1", "0"), texts(evaluate("test/17-IF-into-IF.xlsx")));
+    }
+
+    @Test
+    void testGenerated() throws Exception {
+        File input = File.createTempFile("evaluate", ".xlsx");
+        try {
+            WorkbookGenerator generator = new WorkbookGenerator(1200);
+            generator.setShapes(List.of("chain", "fanin", "copydown", "lookup"));
+            generator.setWidth(10);
+            generator.generate(input);
+            Evaluator evaluator = evaluate(input.getPath());
+            assertEquals(generator.getFormulas(), evaluator.size());
+            int rows = 1;
+            for(; evaluator.getValue("Chain", rows, 0) != null; rows++)
+                assertEquals(rows + 1.0, evaluator.getValue("Chain", rows, 0));
+            assertFalse(rows == 1);
+            assertNull(evaluator.getValue("Chain", 0, 0));//a value
+            double total = 0;
+            for(int row = 0; evaluator.getValue("FanIn", row, 1) != null; row++)
+                total += (Double) evaluator.getValue("FanIn", row, 1);
+            assertEquals(55.0, evaluator.getValue("FanIn", 0, 1));
+            assertEquals(total, evaluator.getValue("FanIn", 0, 2));
+            for(int row = 0; evaluator.getValue("CopyDown", row, 1) != null; row++) {
+                double a = row % 100, b = a * 2 + 43;
+                assertEquals(b, evaluator.getValue("CopyDown", row, 1));
+                assertEquals(b > 43 ? a : -a, evaluator.getValue("CopyDown", row, 2));
+            }
+            rows = 0;
+            while(evaluator.getValue("Lookup", rows, 0) != null) rows++;
+            for(int row = 0; row < rows; row++)
+                assertEquals(row * 7L % rows * 1.5, evaluator.getValue("Lookup", row, 0));
+            for(int i = 0; i < evaluator.size(); i++) assertFalse(evaluator.getText(i).startsWith("#"), evaluator.getFormula(i).id());
+        } finally {
+            input.delete();
+        }
+    }
+
+    @Test
+    void testFormat() {
+        assertEquals("3", Evaluator.format(3));
+        assertEquals("0.1", Evaluator.format(0.1));
+        assertEquals("-1.5", Evaluator.format(-1.5));
+        assertEquals("0.333333333333333", Evaluator.format(1.0 / 3));
+        assertEquals("1E+20", Evaluator.format(1e20));
+    }
+}
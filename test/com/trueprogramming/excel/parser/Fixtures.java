@@ -0,0 +1,87 @@
+/*
+ * Efesto - Excel Formula Extractor System and Topological Ordering algorithm.
+ * Copyright (C) 2017 Massimo Caliman mcaliman@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * If AGPL Version 3.0 terms are incompatible with your use of
+ * Efesto, alternative license terms are available from Massimo Caliman
+ * please direct inquiries about Efesto licensing to mcaliman@gmail.com
+ */
+
+package com.trueprogramming.excel.parser;
+
+import com.trueprogramming.excel.grammar.nonterm.Start;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Helpers shared by the parser tests.
+ *
+ * @author Massimo Caliman
+ */
+final class Fixtures {
+
+    private Fixtures() {
+    }
+
+    /**
+     * The workbook read by the streaming source, parsed, sorted and evaluated, without diagnostics.
+     */
+    static Evaluator evaluate(String filename) throws Exception {
+        Parser parser = new Parser(filename, true);
+        parser.setDiagnostics(Diagnostics.SILENT);
+        parser.parse();
+        parser.sort();
+        Evaluator evaluator = new Evaluator(parser);
+        evaluator.evaluate();
+        return evaluator;
+    }
+
+    /**
+     * The workbook parsed and sorted without diagnostics, reusing the unchanged sheets of previous if not null.
+     */
+    static Parser parse(File file, boolean streaming, Parser previous) throws Exception {
+        Parser parser = new Parser(file.getPath(), streaming, previous);
+        parser.setDiagnostics(Diagnostics.SILENT);
+        parser.parse();
+        parser.sort();
+        return parser;
+    }
+
+    /**
+     * The transpiled formulas, as written after the raw listing.
+     */
+    static List<String> lines(Parser parser) {
+        List<String> lines = new ArrayList<>();
+        for(Start start : parser.getList()) lines.add(start.id() + " = " + start);
+        return lines;
+    }
+
+    /**
+     * Deletes a temporary directory and its contents.
+     */
+    static void delete(Path directory) throws IOException {
+        try(Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Efesto - Excel Formula Extractor System and Topological Ordering algorithm.
+ * Copyright (C) 2017 Massimo Caliman mcaliman@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * If AGPL Version 3.0 terms are incompatible with your use of
+ * Efesto, alternative license terms are available from Massimo Caliman
+ * please direct inquiries about Efesto licensing to mcaliman@gmail.com
+ */
+
+package com.trueprogramming.excel.parser;
+
+import com.trueprogramming.excel.test.WorkbookGenerator;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.List;
+
+import static com.trueprogramming.excel.parser.Fixtures.evaluate;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Massimo Caliman
+ */
+class FormulaCompilerTest {
+
+    @Test
+    void testFixture() throws Exception {
+        Evaluator evaluator = evaluate("test/Union.xlsx");
+        FormulaCompiler compiler = new FormulaCompiler(evaluator);
+        compiler.compile();
+        compiler.recalculate();
+        assertEquals(1, compiler.getChunks());
+        assertEquals(25, compiler.getValue("Foglio1", 4, 0));
+    }
+
+    @Test
+    void testRecalculate() throws Exception {
+        File input = File.createTempFile("compile", ".xlsx");
+        try {
+            WorkbookGenerator generator = new WorkbookGenerator(12000);
+            generator.setShapes(List.of("chain", "fanin", "copydown", "lookup"));
+            generator.setWidth(10);
+            generator.generate(input);
+            Evaluator evaluator = evaluate(input.getPath());
+            FormulaCompiler compiler = new FormulaCompiler(evaluator);
+            compiler.compile();
+            compiler.recalculate();
+            assertTrue(compiler.getChunks() > 1);
+            int rows = 1;
+            for(; evaluator.getValue("Chain", rows, 0) != null; rows++)
+                assertEquals(evaluator.getValue("Chain", rows, 0), compiler.getValue("Chain", rows, 0));
+            assertEquals(evaluator.getValue("FanIn", 0, 2), compiler.getValue("FanIn", 0, 2));
+            assertFalse(compiler.isCompiled("Lookup", 0, 0));//VLOOKUP
+            assertThrows(IllegalArgumentException.class, () -> compiler.getValue("Lookup", 0, 0));
+
+            compiler.setValue("Chain", 0, 0, 10);
+            compiler.setValue("FanIn", 0, 0, 101);
+            compiler.setValue("CopyDown", 0, 3, 100);//Rates
+            compiler.recalculate();
+            assertEquals(rows + 9, compiler.getValue("Chain", rows - 1, 0));
+            assertEquals(155, compiler.getValue("FanIn", 0, 1));
+            assertEquals((Double) evaluator.getValue("FanIn", 0, 2) + 100, compiler.getValue("FanIn", 0, 2));
+            for(int row = 0; evaluator.getValue("CopyDown", row, 1) != null; row++) {
+                double a = row % 100, b = a * 2 + 100;
+                assertEquals(b, compiler.getValue("CopyDown", row, 1));
+                assertEquals(b > 100 ? a : -a, compiler.getValue("CopyDown", row, 2));
+            }
+        } finally {
+            input.delete();
+        }
+    }
+}
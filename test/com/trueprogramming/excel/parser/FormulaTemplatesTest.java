@@ -0,0 +1,100 @@
+/*
+ * Efesto - Excel Formula Extractor System and Topological Ordering algorithm.
+ * Copyright (C) 2017 Massimo Caliman mcaliman@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * If AGPL Version 3.0 terms are incompatible with your use of
+ * Efesto, alternative license terms are available from Massimo Caliman
+ * please direct inquiries about Efesto licensing to mcaliman@gmail.com
+ */
+
+package com.trueprogramming.excel.parser;
+
+import org.apache.poi.hssf.usermodel.HSSFEvaluationWorkbook;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.formula.FormulaParser;
+import org.apache.poi.ss.formula.FormulaType;
+import org.apache.poi.ss.formula.ptg.Ptg;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * @author Massimo Caliman
+ */
+class FormulaTemplatesTest {
+
+    private static final HSSFWorkbook workbook = new HSSFWorkbook();
+
+    static {
+        workbook.createSheet("Sheet1");
+        workbook.createSheet("Other Sheet");
+    }
+
+    private final Function<String, Ptg[]> parser = text -> FormulaParser.parse(text, HSSFEvaluationWorkbook.create(workbook), FormulaType.CELL, 0);
+
+    private void assertTokens(FormulaTemplates templates, String formula, int row, int column) {
+        assertEquals(Arrays.toString(parser.apply(formula)), Arrays.toString(templates.tokens(0, row, column, formula, parser)));
+    }
+
+    @Test
+    void testCopiedDown() {
+        FormulaTemplates templates = new FormulaTemplates();
+        for(int row = 1; row < 100; row++)
+            assertTokens(templates, "IF(A" + (row + 1) + ">0,SUM($B$1:B" + (row + 1) + "),'Other Sheet'!C" + row + "*2)", row, 3);
+        assertEquals(1, templates.size());
+    }
+
+    @Test
+    void testCopiedAcross() {
+        FormulaTemplates templates = new FormulaTemplates();
+        String[] columns = {"A", "B", "C", "D"};
+        for(int column = 0; column < columns.length; column++)
+            assertTokens(templates, "LOG10(" + columns[column] + "1)+" + columns[column] + "$2", 5, column + 1);
+        assertEquals(1, templates.size());
+    }
+
+    @Test
+    void testBounded() {
+        FormulaTemplates templates = new FormulaTemplates(2);
+        int[] parsed = {0};
+        Function<String, Ptg[]> counting = text -> {
+            parsed[0]++;
+            return parser.apply(text);
+        };
+        templates.tokens(0, 0, 1, "A1*2", counting);
+        templates.tokens(0, 0, 1, "A1*3", counting);
+        templates.tokens(0, 1, 1, "A2*2", counting);//hit, A1*2 is the most recently used
+        templates.tokens(0, 0, 1, "A1*4", counting);//evicts A1*3
+        assertEquals(2, templates.size());
+        assertEquals(3, parsed[0]);
+        templates.tokens(0, 2, 1, "A3*2", counting);
+        assertEquals(3, parsed[0]);
+        templates.tokens(0, 1, 1, "A2*3", counting);
+        assertEquals(4, parsed[0]);
+    }
+
+    @Test
+    void testNotReferences() {
+        FormulaTemplates templates = new FormulaTemplates();
+        assertTokens(templates, "SUM(A:A)+\"A1\"", 0, 1);
+        assertTokens(templates, "SUM(B:B)+\"A1\"", 0, 2);
+        assertTokens(templates, "SUM(A:A)+\"A1\"", 1, 1);
+        assertEquals(2, templates.size());
+    }
+}
@@ -0,0 +1,435 @@
+/*
+ * Efesto - Excel Formula Extractor System and Topological Ordering algorithm.
+ * Copyright (C) 2017 Massimo Caliman mcaliman@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * If AGPL Version 3.0 terms are incompatible with your use of
+ * Efesto, alternative license terms are available from Massimo Caliman
+ * please direct inquiries about Efesto licensing to mcaliman@gmail.com
+ */
+
+package com.trueprogramming.excel.parser;
+
+import com.trueprogramming.excel.ToolkitCommand;
+import com.trueprogramming.excel.ToolkitOptions;
+import com.trueprogramming.excel.grammar.lexicaltokens.CELL;
+import com.trueprogramming.excel.grammar.lexicaltokens.RANGE;
+import com.trueprogramming.excel.grammar.nonterm.Formula;
+import com.trueprogramming.excel.grammar.nonterm.RangeReference;
+import com.trueprogramming.excel.grammar.nonterm.Start;
+import com.trueprogramming.excel.grammar.nonterm.ValueBlock;
+import com.trueprogramming.excel.graph.StartGraph;
+import com.trueprogramming.excel.test.WorkbookGenerator;
+import org.apache.poi.hssf.usermodel.HSSFEvaluationWorkbook;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.formula.FormulaParseException;
+import org.apache.poi.ss.formula.FormulaParser;
+import org.apache.poi.ss.formula.FormulaType;
+import org.apache.poi.ss.formula.ptg.*;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.usermodel.WorkbookFactory;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Throughput of the hot paths: Parser.parse(Ptg[]), the Ptg dispatch of Parser, BuiltinFactory.create,
+ * StartGraph.topologicalSort, StartList.add, Reference.values rendering of boxed lists and of ValueBlock, ToolkitCommand.write,
+ * Evaluator.evaluate, compared with the POI formula evaluator on the same workbook, FormulaCompiler.recalculate and
+ * the aggregate Kernels.
+ * Every benchmark runs for each value of its parameters, after a warm up, and prints the mean time per operation,
+ * so the numbers of two builds can be compared before a release.
+ * <p>
+ * Usage: HotPathBenchmarks [name...] [formulas=1000,10000] [range=10,1000] [depth=1,100] [file=test/15-Others-FUN.xlsx]
+ * [cells=30000] [shapes=chain,fanin,copydown,web,lookup] [column=1000,1000000] [threads=1,4] [streaming=true]
+ * [warmup=5] [iterations=10]
+ * <p>
+ * dispatch looks up the tokens of file in the table of Parser, against one predicate per Ptg class streamed for every
+ * token; list adds to StartList, against an ArrayList with a linear contains().
+ * evaluate, poi and recalculate run on a generated workbook of cells cells, or on file when given;
+ * aggregate reduces a column of column numbers; sheets parses that workbook, its sheets on threads threads.
+ *
+ * @author Massimo Caliman
+ */
+public final class HotPathBenchmarks {
+
+    private static final String[] FUNCTIONS = {"SUM", "IF", "VLOOKUP", "INDEX", "MATCH", "AVERAGE", "ROUND", "MAX", "MIN", "COUNTIF"};
+
+    private static final Class<?>[] PTG_CLASSES = {
+            ArrayPtg.class, AddPtg.class, Area3DPxg.class, AreaErrPtg.class, AreaPtg.class, AttrPtg.class,
+            BoolPtg.class, ConcatPtg.class, Deleted3DPxg.class, DeletedArea3DPtg.class, DeletedRef3DPtg.class,
+            DividePtg.class, EqualPtg.class, ErrPtg.class, FuncPtg.class, FuncVarPtg.class, GreaterEqualPtg.class,
+            GreaterThanPtg.class, IntersectionPtg.class, IntPtg.class, LessEqualPtg.class, LessThanPtg.class,
+            MemErrPtg.class, MissingArgPtg.class, MultiplyPtg.class, NamePtg.class, NotEqualPtg.class,
+            NumberPtg.class, ParenthesisPtg.class, PercentPtg.class, PowerPtg.class, Ref3DPxg.class,
+            RefErrorPtg.class, RefPtg.class, StringPtg.class, SubtractPtg.class, UnaryMinusPtg.class,
+            UnaryPlusPtg.class, UnionPtg.class, UnknownPtg.class
+    };
+
+    private static volatile Object sink;//keeps the results alive
+
+    private final Map<String, String> options = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+    private final int warmup;
+    private final int iterations;
+
+    private HotPathBenchmarks(String[] args) {
+        for(String arg : args) {
+            int equals = arg.indexOf('=');
+            if(equals > 0) options.put(arg.substring(0, equals), arg.substring(equals + 1));
+            else names.add(arg);
+        }
+        this.warmup = Integer.parseInt(options.getOrDefault("warmup", "5"));
+        this.iterations = Integer.parseInt(options.getOrDefault("iterations", "10"));
+    }
+
+    public static void main(String[] args) throws Exception {
+        new HotPathBenchmarks(args).run();
+    }
+
+    private void run() throws Exception {
+        Map<String, Benchmark> benchmarks = new LinkedHashMap<>();
+        benchmarks.put("parse", this::parse);
+        benchmarks.put("dispatch", this::dispatch);
+        benchmarks.put("builtin", this::builtin);
+        benchmarks.put("sort", this::sort);
+        benchmarks.put("list", this::list);
+        benchmarks.put("values", this::values);
+        benchmarks.put("write", this::write);
+        benchmarks.put("evaluate", this::evaluate);
+        benchmarks.put("poi", this::poi);
+        benchmarks.put("recalculate", this::recalculate);
+        benchmarks.put("sheets", this::sheets);
+        benchmarks.put("aggregate", this::aggregate);
+        for(Map.Entry<String, Benchmark> benchmark : benchmarks.entrySet())
+            if(names.isEmpty() || names.contains(benchmark.getKey())) benchmark.getValue().run();
+        Diagnostics.console().flush();
+    }
+
+    private int[] ints(String name, String defaults) {
+        return Arrays.stream(options.getOrDefault(name, defaults).split(",")).mapToInt(Integer::parseInt).toArray();
+    }
+
+    /**
+     * Parser.parse(Ptg[]) on formulas SUM(A1:A{range})+B{i}*2, the token arrays are prepared once.
+     */
+    private void parse() throws Exception {
+        String file = options.getOrDefault("file", "test/15-Others-FUN.xlsx");
+        HSSFWorkbook workbook = new HSSFWorkbook();
+        workbook.createSheet("Sheet1");
+        HSSFEvaluationWorkbook evaluation = HSSFEvaluationWorkbook.create(workbook);
+        for(int formulas : ints("formulas", "1000,10000"))
+            for(int range : ints("range", "10,1000")) {
+                Ptg[][] tokens = new Ptg[formulas][];
+                for(int i = 0; i < formulas; i++)
+                    tokens[i] = FormulaParser.parse("SUM(A1:A" + range + ")+B" + (i + 1) + "*2", evaluation, FormulaType.CELL, 0);
+                measure("parse formulas=" + formulas + " range=" + range, formulas, () -> {
+                    Parser parser = new Parser(file, true);
+                    parser.setDiagnostics(Diagnostics.SILENT);
+                    Start last = null;
+                    for(Ptg[] ptgs : tokens) last = parser.parse(ptgs);
+                    return last;
+                });
+            }
+    }
+
+    /**
+     * Handler lookup of every token of the formulas of file.
+     */
+    private void dispatch() throws Exception {
+        String file = options.getOrDefault("file", "test/15-Others-FUN.xlsx");
+        Ptg[] tokens = tokens(new File(file));
+        measure("dispatch table tokens=" + tokens.length, tokens.length, () -> {
+            long matched = 0;
+            for(Ptg ptg : tokens) if(Parser.handler(ptg.getClass()) != null) matched++;
+            return matched;
+        });
+        measure("dispatch stream tokens=" + tokens.length, tokens.length, () -> {
+            AtomicLong matched = new AtomicLong();
+            for(Ptg ptg : tokens)
+                Stream.of(PTG_CLASSES).parallel().filter(c -> c.isInstance(ptg)).forEach(c -> matched.incrementAndGet());
+            return matched.get();
+        });
+    }
+
+    private void builtin() throws Exception {
+        for(int formulas : ints("formulas", "1000,10000"))
+            measure("builtin formulas=" + formulas, formulas, () -> {
+                Object last = null;
+                for(int i = 0; i < formulas; i++) last = BuiltinFactory.create(FUNCTIONS[i % FUNCTIONS.length], new Formula[2]);
+                return last;
+            });
+    }
+
+    /**
+     * Topological sort of formulas chained depth levels deep, each cell depends on the cell above.
+     */
+    private void sort() throws Exception {
+        for(int formulas : ints("formulas", "1000,10000"))
+            for(int depth : ints("depth", "1,100"))
+                measure("sort formulas=" + formulas + " depth=" + depth, formulas, () -> {
+                    StartGraph graph = new StartGraph();
+                    CELL[] cells = cells(formulas, depth);
+                    for(CELL cell : cells) graph.addNode(cell);
+                    for(int i = 0; i < cells.length; i++)
+                        if(i % depth != 0) graph.addEdge(cells[i - 1], cells[i]);
+                    return graph.topologicalSort();
+                });
+    }
+
+    private void list() throws Exception {
+        for(int formulas : ints("formulas", "1000,10000")) {
+            CELL[] cells = cells(formulas, 1);
+            measure("list formulas=" + formulas, formulas, () -> {
+                StartList list = new StartList();
+                for(CELL cell : cells) list.add(cell);
+                for(CELL cell : cells) list.add(cell);//referenced twice
+                return list;
+            });
+            measure("list linear formulas=" + formulas, formulas, () -> {
+                List<Start> list = new ArrayList<>();
+                for(CELL cell : cells) if(!list.contains(cell)) list.add(cell);
+                for(CELL cell : cells) if(!list.contains(cell)) list.add(cell);
+                return list;
+            });
+        }
+    }
+
+    /**
+     * Rendering of a vertical and of a two column range.
+     */
+    private void values() throws Exception {
+        for(int range : ints("range", "10,1000"))
+            for(int columns = 1; columns <= 2; columns++) {
+                List<Object> values = new ArrayList<>();
+                for(int i = 0; i < range * columns; i++) values.add(i % 3 == 0 ? "text" + i : (double) i);
+                for(List<Object> list : List.of(values, ValueBlock.of(values))) {
+                    RANGE tRANGE = new RANGE(new CELL(0, 0), new CELL(range - 1, columns - 1));
+                    tRANGE.add(list);
+                    RangeReference reference = new RangeReference(tRANGE);
+                    reference.add(tRANGE.values());
+                    String storage = list instanceof ValueBlock ? "block" : "boxed";
+                    measure("values " + storage + " range=" + range + " columns=" + columns, range * columns, reference::toString);
+                }
+            }
+    }
+
+    private void write() throws Exception {
+        String file = options.getOrDefault("file", "test/15-Others-FUN.xlsx");
+        ToolkitOptions toolkitOptions = new ToolkitOptions();
+        toolkitOptions.setStreaming(true);
+        toolkitOptions.setSilent(true);
+        ToolkitCommand command = new ToolkitCommand(file, toolkitOptions);
+        command.execute();
+        File output = File.createTempFile("benchmark", ".vb");
+        output.deleteOnExit();
+        measure("write file=" + file, 1, () -> {
+            command.write(output.getPath());
+            return output;
+        });
+    }
+
+    /**
+     * Evaluator.evaluate on a parsed and sorted workbook, the parse is done once.
+     */
+    private void evaluate() throws Exception {
+        File file = evaluated();
+        try {
+            Parser parser = new Parser(file.getPath(), true);
+            parser.setDiagnostics(Diagnostics.SILENT);
+            parser.parse();
+            parser.sort();
+            int formulas = new Evaluator(parser).size();
+            measure("evaluate file=" + file.getName() + " formulas=" + formulas, Math.max(1, formulas), () -> {
+                Evaluator evaluator = new Evaluator(parser);
+                evaluator.evaluate();
+                return evaluator;
+            });
+        } finally {
+            if(!options.containsKey("file")) file.delete();
+        }
+    }
+
+    /**
+     * POI evaluateAll on the workbook of the evaluate benchmark, for comparison; needs the full XSSF model.
+     */
+    private void poi() throws Exception {
+        File file = evaluated();
+        try(Workbook workbook = WorkbookFactory.create(file)) {
+            measure("poi file=" + file.getName(), 1, () -> {
+                workbook.getCreationHelper().createFormulaEvaluator().evaluateAll();
+                return workbook;
+            });
+        } catch(NoClassDefFoundError | RuntimeException e) {
+            System.out.printf("%-40s unavailable (%s)%n", "poi file=" + file.getName(), e);
+        } finally {
+            if(!options.containsKey("file")) file.delete();
+        }
+    }
+
+    /**
+     * FormulaCompiler.recalculate of the compiled formulas of the workbook of the evaluate benchmark.
+     */
+    private void recalculate() throws Exception {
+        File file = evaluated();
+        try {
+            Parser parser = new Parser(file.getPath(), true);
+            parser.setDiagnostics(Diagnostics.SILENT);
+            parser.parse();
+            parser.sort();
+            Evaluator evaluator = new Evaluator(parser);
+            evaluator.evaluate();
+            FormulaCompiler compiler = new FormulaCompiler(evaluator);
+            compiler.compile();
+            measure("recalculate file=" + file.getName() + " formulas=" + compiler.size(), Math.max(1, compiler.size()), () -> {
+                compiler.recalculate();
+                return compiler;
+            });
+        } finally {
+            if(!options.containsKey("file")) file.delete();
+        }
+    }
+
+    /**
+     * SUM of a column as boxed values, the way Reference keeps them, against the unrolled kernels on a double[],
+     * dense and through a validity bitmap with one blank in ten as in an Evaluator block.
+     */
+    private void aggregate() throws Exception {
+        for(int column : ints("column", "1000,1000000")) {
+            double[] values = new double[column];
+            long[] valid = new long[(column + 63) >>> 6];
+            List<Object> boxed = new ArrayList<>(column);
+            for(int i = 0; i < column; i++) {
+                values[i] = i % 1000 * 0.5;
+                boxed.add(values[i]);
+                if(i % 10 != 9) valid[i >>> 6] |= 1L << i;
+            }
+            measure("aggregate boxed column=" + column, column, () -> {
+                double sum = 0;
+                for(Object value : boxed) if(value instanceof Double number) sum += number;
+                return sum;
+            });
+            measure("aggregate loop column=" + column, column, () -> {
+                double sum = 0;
+                for(double value : values) sum += value;
+                return sum;
+            });
+            measure("aggregate sum column=" + column, column, () -> Kernels.sum(values, 0, column));
+            measure("aggregate sumsq column=" + column, column, () -> Kernels.sumsq(values, 0, column));
+            measure("aggregate min column=" + column, column, () -> Kernels.min(values, 0, column));
+            measure("aggregate max column=" + column, column, () -> Kernels.max(values, 0, column));
+            measure("aggregate count column=" + column, column, () -> Kernels.count(values, 0, column));
+            measure("aggregate masked column=" + column, column, () -> Kernels.reduce(Kernels.SUM, values, valid, column));
+        }
+    }
+
+    /**
+     * Parser.parse of the workbook of the evaluate benchmark in a pool of threads threads, the sheet contexts of the
+     * streaming source run in parallel: with threads=1,N the ratio of the two times is the speed up of the parallel parse.
+     * The DOM source parses its sheets one at a time (WorkbookSource.isConcurrent).
+     */
+    private void sheets() throws Exception {
+        File file = evaluated();
+        boolean streaming = Boolean.parseBoolean(options.getOrDefault("streaming", "true"));
+        try {
+            for(int threads : ints("threads", "1," + Runtime.getRuntime().availableProcessors())) {
+                ForkJoinPool pool = new ForkJoinPool(threads);
+                try {
+                    measure("sheets file=" + file.getName() + " streaming=" + streaming + " threads=" + threads, 1, () -> pool.submit(() -> {
+                        Parser parser = new Parser(file.getPath(), streaming);
+                        parser.setDiagnostics(Diagnostics.SILENT);
+                        parser.parse();
+                        return parser;
+                    }).get());
+                } finally {
+                    pool.shutdown();
+                }
+            }
+        } catch(ExecutionException | NoClassDefFoundError e) {
+            System.out.printf("%-40s unavailable (%s)%n", "sheets file=" + file.getName(), e.getCause() != null ? e.getCause() : e);
+        } finally {
+            if(!options.containsKey("file")) file.delete();
+        }
+    }
+
+    private File evaluated() throws Exception {
+        if(options.containsKey("file")) return new File(options.get("file"));
+        File file = File.createTempFile("benchmark", ".xlsx");
+        WorkbookGenerator generator = new WorkbookGenerator(Integer.parseInt(options.getOrDefault("cells", "30000")));
+        if(options.containsKey("shapes")) generator.setShapes(Arrays.asList(options.get("shapes").split(",")));
+        generator.generate(file);
+        return file;
+    }
+
+    private static Ptg[] tokens(File file) throws Exception {
+        var source = new StreamingWorkbookSource(file);
+        List<Ptg> tokens = new ArrayList<>();
+        for(int index = 0; index < source.getNumberOfSheets(); index++) {
+            final int sheetIndex = index;
+            source.forEachCell(index, cell -> {
+                if(!cell.isFormula()) return;
+                try {
+                    Ptg[] ptgs = source.getFormulaTokens(sheetIndex, cell.getRow(), cell.getColumn());
+                    if(ptgs != null) tokens.addAll(List.of(ptgs));
+                } catch(FormulaParseException e) {
+                    //UDF, not a token stream
+                }
+            });
+        }
+        return tokens.toArray(new Ptg[0]);
+    }
+
+    private static CELL[] cells(int n, int depth) {
+        CELL[] cells = new CELL[n];
+        for(int i = 0; i < n; i++) {
+            CELL cell = new CELL(i % depth, i / depth);
+            cell.setSheetIndex(0);
+            cell.setSheetName("Sheet1");
+            cells[i] = cell;
+        }
+        return cells;
+    }
+
+    private void measure(String label, int operations, Operation operation) throws Exception {
+        for(int i = 0; i < warmup; i++) sink = operation.run();
+        long best = Long.MAX_VALUE, total = 0;
+        for(int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            sink = operation.run();
+            long elapsed = System.nanoTime() - start;
+            best = Math.min(best, elapsed);
+            total += elapsed;
+        }
+        double mean = (double) total / iterations / operations;
+        System.out.printf("%-40s %,12.1f ns/op (best %,.1f ns/op)%n", label, mean, (double) best / operations);
+    }
+
+    private interface Benchmark {
+        void run() throws Exception;
+    }
+
+    private interface Operation {
+        Object run() throws Exception;
+    }
+}
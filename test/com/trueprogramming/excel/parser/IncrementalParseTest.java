@@ -0,0 +1,134 @@
+/*
+ * Efesto - Excel Formula Extractor System and Topological Ordering algorithm.
+ * Copyright (C) 2017 Massimo Caliman mcaliman@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * If AGPL Version 3.0 terms are incompatible with your use of
+ * Efesto, alternative license terms are available from Massimo Caliman
+ * please direct inquiries about Efesto licensing to mcaliman@gmail.com
+ */
+
+package com.trueprogramming.excel.parser;
+
+import com.trueprogramming.excel.test.WorkbookGenerator;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import static com.trueprogramming.excel.parser.Fixtures.lines;
+import static com.trueprogramming.excel.parser.Fixtures.parse;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Massimo Caliman
+ */
+class IncrementalParseTest {
+
+    /**
+     * Copy of the workbook with the first occurrence of text replaced in the part of a sheet.
+     */
+    private static File edit(File file, int sheet, String text, String replacement) throws Exception {
+        File edited = File.createTempFile("edited", ".xlsx");
+        String part = "xl/worksheets/sheet" + sheet + ".xml";
+        try(ZipInputStream in = new ZipInputStream(new FileInputStream(file)); ZipOutputStream out = new ZipOutputStream(new FileOutputStream(edited))) {
+            for(ZipEntry entry = in.getNextEntry(); entry != null; entry = in.getNextEntry()) {
+                byte[] bytes = in.readAllBytes();
+                if(entry.getName().equals(part)) {
+                    String xml = new String(bytes, StandardCharsets.UTF_8);
+                    assertTrue(xml.contains(text), text);
+                    bytes = xml.replaceFirst(Pattern.quote(text), Matcher.quoteReplacement(replacement)).getBytes(StandardCharsets.UTF_8);
+                }
+                out.putNextEntry(new ZipEntry(entry.getName()));
+                out.write(bytes);
+            }
+        }
+        return edited;
+    }
+
+    @Test
+    void testReuse() throws Exception {
+        File file = File.createTempFile("incremental", ".xlsx");
+        List<File> edits = new ArrayList<>();
+        try {
+            WorkbookGenerator generator = new WorkbookGenerator(1000);
+            generator.setShapes(List.of("chain", "fanin", "web"));
+            generator.setWidth(20);
+            generator.setWebs(3);
+            generator.generate(file);
+            Parser first = parse(file, true, null);
+            assertEquals(List.of(), first.getReusedSheets());
+
+            //Chain (sheet 1) is read by no other sheet
+            edits.add(edit(file, 1, "<f>A1+1</f>", "<f>A1+2</f>"));
+            Parser second = parse(edits.get(0), true, first);
+            assertEquals(List.of("FanIn", "Web1", "Web2", "Web3"), second.getReusedSheets());
+            assertEquals(lines(parse(edits.get(0), true, null)), lines(second));
+            assertEquals(parse(edits.get(0), true, null).getRaw(), second.getRaw());
+
+            //Web1 (sheet 3) is read by Web2 and Web3
+            edits.add(edit(edits.get(0), 3, "<v>0</v>", "<v>7</v>"));
+            Parser third = parse(edits.get(1), true, second);
+            assertEquals(List.of("Chain", "FanIn"), third.getReusedSheets());
+            assertEquals(lines(parse(edits.get(1), true, null)), lines(third));
+
+            Parser unchanged = parse(edits.get(1), true, third);
+            assertEquals(List.of("Chain", "FanIn", "Web1", "Web2", "Web3"), unchanged.getReusedSheets());
+            assertEquals(lines(third), lines(unchanged));
+            assertEquals(third.getCounterFormulas(), unchanged.getCounterFormulas());
+        } finally {
+            file.delete();
+            for(File edit : edits) edit.delete();
+        }
+    }
+
+    @Test
+    void testReleasePrevious() throws Exception {
+        File file = File.createTempFile("incremental", ".xlsx"), edited = null;
+        try {
+            WorkbookGenerator generator = new WorkbookGenerator(1000);
+            generator.setShapes(List.of("chain", "fanin", "web"));
+            generator.setWidth(20);
+            generator.generate(file);
+            Parser first = parse(file, true, null);
+            WeakReference<WorkbookSource> workbook = new WeakReference<>(first.workbook);
+            edited = edit(file, 1, "<f>A1+1</f>", "<f>A1+2</f>");
+            Parser second = parse(edited, true, first);
+            assertEquals(List.of("FanIn", "Web1", "Web2", "Web3", "Web4"), second.getReusedSheets());
+            first = null;
+            for(int i = 0; i < 20 && workbook.get() != null; i++) {
+                System.gc();
+                Thread.sleep(10);
+            }
+            assertNull(workbook.get());
+            assertEquals(lines(parse(edited, true, null)), lines(second));//the values of the reused sheets are read now
+        } finally {
+            file.delete();
+            if(edited != null) edited.delete();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Efesto - Excel Formula Extractor System and Topological Ordering algorithm.
+ * Copyright (C) 2017 Massimo Caliman mcaliman@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * If AGPL Version 3.0 terms are incompatible with your use of
+ * Efesto, alternative license terms are available from Massimo Caliman
+ * please direct inquiries about Efesto licensing to mcaliman@gmail.com
+ */
+
+package com.trueprogramming.excel.parser;
+
+import com.trueprogramming.excel.grammar.nonterm.Start;
+import com.trueprogramming.excel.test.WorkbookGenerator;
+import org.junit.jupiter.api.Test;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.StringWriter;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static com.trueprogramming.excel.parser.Fixtures.delete;
+import static com.trueprogramming.excel.parser.Fixtures.evaluate;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Massimo Caliman
+ */
+class JavaWriterTest {
+
+    /**
+     * An instance of the class written for the evaluator, compiled with the system Java compiler.
+     */
+    private static Object compile(Evaluator evaluator, Path directory) throws Exception {
+        StringWriter source = new StringWriter();
+        new JavaWriter(evaluator).write(source, "model.Model");
+        assertFalse(source.toString().contains("org.apache.poi"));
+        Path file = directory.resolve("Model.java");
+        Files.writeString(file, source.toString());
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        assertEquals(0, javac.run(null, null, null, "-d", directory.toString(), "-cp", System.getProperty("java.class.path"), file.toString()));
+        URLClassLoader loader = new URLClassLoader(new URL[]{directory.toUri().toURL()}, JavaWriterTest.class.getClassLoader());
+        return loader.loadClass("model.Model").getConstructor().newInstance();
+    }
+
+    private static double get(Object model, String name) throws Exception {
+        return (Double) model.getClass().getMethod("get" + name).invoke(model);
+    }
+
+    @Test
+    void testWrite() throws Exception {
+        File input = File.createTempFile("model", ".xlsx");
+        Path directory = Files.createTempDirectory("model");
+        try {
+            WorkbookGenerator generator = new WorkbookGenerator(1500);
+            generator.setShapes(List.of("chain", "fanin", "copydown", "web"));
+            generator.setWidth(10);
+            generator.setWebs(3);
+            generator.generate(input);
+            Evaluator evaluator = evaluate(input.getPath());
+            Object model = compile(evaluator, directory);
+            for(int i = 0; i < evaluator.size(); i++) {
+                Start start = evaluator.getFormula(i);
+                Object value = evaluator.getValue(start.getSheetName(), start.getRow(), start.getColumn());
+                assertEquals(value, get(model, start.getSheetName() + "_" + AbstractParser.cellAddress(start.getRow(), start.getColumn())));
+            }
+            int rows = 1;
+            while(evaluator.getValue("Chain", rows, 0) != null) rows++;
+            model.getClass().getMethod("setChain_A1", double.class).invoke(model, 10.0);
+            model.getClass().getMethod("setFanIn_A1", double.class).invoke(model, 101.0);
+            model.getClass().getMethod("calculate").invoke(model);
+            assertEquals(rows + 9, get(model, "Chain_" + AbstractParser.cellAddress(rows - 1, 0)));
+            assertEquals(155, get(model, "FanIn_B1"));
+            assertEquals((Double) evaluator.getValue("FanIn", 0, 2) + 100, get(model, "FanIn_C1"));
+        } finally {
+            input.delete();
+            delete(directory);
+        }
+    }
+
+    @Test
+    void testNotCompiled() throws Exception {
+        StringWriter source = new StringWriter();
+        new JavaWriter(evaluate("test/904-terminals-formulas.xlsx")).write(source, "Model");
+        assertTrue(source.toString().contains(" * Not compiled, see the Evaluator:\n * Foglio1!A7 = A1&A2\n"), source.toString());
+        assertTrue(source.toString().contains("public void setFoglio1_A1(double value)"));
+        assertThrows(IllegalArgumentException.class, () -> new JavaWriter(evaluate("test/904-terminals-formulas.xlsx")).write(new StringWriter(), "a.1Model"));
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Efesto - Excel Formula Extractor System and Topological Ordering algorithm.
+ * Copyright (C) 2017 Massimo Caliman mcaliman@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * If AGPL Version 3.0 terms are incompatible with your use of
+ * Efesto, alternative license terms are available from Massimo Caliman
+ * please direct inquiries about Efesto licensing to mcaliman@gmail.com
+ */
+
+package com.trueprogramming.excel.parser;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Massimo Caliman
+ */
+class KernelsTest {
+
+    @Test
+    void testUnrolled() {
+        double[] values = new double[103];
+        for(int i = 0; i < values.length; i++) values[i] = (i * 37 % 101) - 50;
+        for(int from = 0; from < 5; from++)
+            for(int to = from; to < values.length; to += 7) {
+                double sum = 0, sumsq = 0, min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+                for(int i = from; i < to; i++) {
+                    sum += values[i];
+                    sumsq += values[i] * values[i];
+                    min = Math.min(min, values[i]);
+                    max = Math.max(max, values[i]);
+                }
+                assertEquals(sum, Kernels.sum(values, from, to));
+                assertEquals(sumsq, Kernels.sumsq(values, from, to));
+                assertEquals(min, Kernels.min(values, from, to));
+                assertEquals(max, Kernels.max(values, from, to));
+                assertEquals(to - from, Kernels.count(values, from, to));
+            }
+        assertEquals(24.0, Kernels.product(new double[]{1, 2, 3, 4, 0}, 0, 4));
+        assertEquals(1.0, Kernels.product(values, 3, 3));
+    }
+
+    @Test
+    void testErrors() {
+        double[] values = {1, 2, Double.NaN, 4, 5, 6};
+        assertTrue(Double.isNaN(Kernels.sum(values, 0, 6)));
+        assertTrue(Double.isNaN(Kernels.min(values, 0, 6)));
+        assertTrue(Double.isNaN(Kernels.max(values, 0, 6)));
+        assertEquals(5.0, Kernels.count(values, 0, 6));
+    }
+
+    @Test
+    void testReduce() {
+        double[] values = new double[200];
+        long[] valid = new long[4];
+        double sum = 0, sumsq = 0;
+        for(int i = 0; i < values.length; i++) {
+            values[i] = i % 3 == 0 ? 1 : i;//a boolean or a blank reads 1 or 0 and stays out of the bitmap
+            if(i < 64 || i % 3 != 0) {
+                valid[i >>> 6] |= 1L << i;
+                sum += values[i];
+                sumsq += values[i] * values[i];
+            }
+        }
+        assertEquals(-1L, valid[0]);//dense word
+        assertEquals(sum, Kernels.reduce(Kernels.SUM, values, valid, values.length));
+        assertEquals(sumsq, Kernels.reduce(Kernels.SUMSQ, values, valid, values.length));
+        assertEquals(1.0, Kernels.reduce(Kernels.MIN, values, valid, values.length));
+        assertEquals(199.0, Kernels.reduce(Kernels.MAX, values, valid, values.length));
+        assertEquals(0.0, Kernels.reduce(Kernels.SUM, values, new long[4], values.length));
+        assertEquals(Double.POSITIVE_INFINITY, Kernels.reduce(Kernels.MIN, values, new long[4], values.length));
+    }
+}
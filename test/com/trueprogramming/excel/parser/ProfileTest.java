@@ -0,0 +1,117 @@
+/*
+ * Efesto - Excel Formula Extractor System and Topological Ordering algorithm.
+ * Copyright (C) 2017 Massimo Caliman mcaliman@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * If AGPL Version 3.0 terms are incompatible with your use of
+ * Efesto, alternative license terms are available from Massimo Caliman
+ * please direct inquiries about Efesto licensing to mcaliman@gmail.com
+ */
+
+package com.trueprogramming.excel.parser;
+
+import com.trueprogramming.excel.ToolkitCommand;
+import com.trueprogramming.excel.ToolkitOptions;
+import com.trueprogramming.excel.test.WorkbookGenerator;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Massimo Caliman
+ */
+class ProfileTest {
+
+    private static ToolkitCommand run(String filename, File output) throws Exception {
+        ToolkitOptions options = new ToolkitOptions();
+        options.setStreaming(true);
+        options.setSilent(true);
+        options.setProfile(true);
+        ToolkitCommand command = new ToolkitCommand(filename, options);
+        command.execute();
+        command.write(output.getPath());
+        return command;
+    }
+
+    @Test
+    void testPhases() throws Exception {
+        File input = File.createTempFile("profile", ".xlsx");
+        File output = File.createTempFile("profile", ".vb");
+        try {
+            WorkbookGenerator generator = new WorkbookGenerator(400);
+            generator.setShapes(List.of("fanin", "web"));
+            generator.setWidth(10);
+            generator.setWebs(3);
+            generator.generate(input);
+            Profile profile = run(input.getPath(), output).getProfile();
+            assertEquals(4, profile.getCount(Profile.Phase.LOAD));//sheets
+            assertEquals(Set.of("FanIn", "Web1", "Web2", "Web3"), Set.copyOf(profile.getSheets(Profile.Phase.SCAN)));
+            assertEquals(generator.getFormulas(), profile.getCount(Profile.Phase.TOKENIZE));
+            assertEquals(generator.getFormulas(), profile.getCount(Profile.Phase.BUILD));
+            assertEquals(0, profile.getCount(Profile.Phase.BUILD, "Web1"));
+            assertTrue(profile.getCount(Profile.Phase.GRAPH, "Web2") > 0);
+            assertTrue(profile.getCount(Profile.Phase.RANGES) > 0);
+            assertTrue(profile.getCount(Profile.Phase.SORT) > 0);
+            assertEquals(profile.getCount(Profile.Phase.SORT), profile.getCount(Profile.Phase.WRITE));
+            assertEquals(List.of("SUM"), profile.getFunctions());
+            assertEquals(profile.getCount(Profile.Phase.BUILD, "FanIn"), profile.getFunctionCount("SUM"));
+            String text = Files.readString(output.toPath());
+            assertTrue(text.contains("' Profile - Start\n' LOAD (workbook load)"), text);
+        } finally {
+            input.delete();
+            output.delete();
+        }
+    }
+
+    @Test
+    void testEvents() throws Exception {
+        File output = File.createTempFile("profile", ".vb");
+        Path jfr = Files.createTempFile("profile", ".jfr");
+        try {
+            Profile profile;
+            try(Recording recording = new Recording()) {
+                recording.enable("com.trueprogramming.excel.Phase");
+                recording.enable("com.trueprogramming.excel.Function");
+                recording.start();
+                profile = run("test/15-Others-FUN.xlsx", output).getProfile();
+                recording.stop();
+                recording.dump(jfr);
+            }
+            long phases = 0, functions = 0;
+            for(RecordedEvent event : RecordingFile.readAllEvents(jfr)) {
+                String name = event.getEventType().getName();
+                if(name.equals("com.trueprogramming.excel.Phase") && event.getString("phase").equals("BUILD")) phases += event.getLong("count");
+                else if(name.equals("com.trueprogramming.excel.Function")) functions += event.getLong("count");
+            }
+            assertEquals(profile.getCount(Profile.Phase.BUILD), phases);
+            long expected = 0;
+            for(String function : profile.getFunctions()) expected += profile.getFunctionCount(function);
+            assertEquals(expected, functions);
+        } finally {
+            output.delete();
+            Files.deleteIfExists(jfr);
+        }
+    }
+}
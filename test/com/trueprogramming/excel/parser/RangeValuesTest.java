@@ -0,0 +1,147 @@
+/*
+ * Efesto - Excel Formula Extractor System and Topological Ordering algorithm.
+ * Copyright (C) 2017 Massimo Caliman mcaliman@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * If AGPL Version 3.0 terms are incompatible with your use of
+ * Efesto, alternative license terms are available from Massimo Caliman
+ * please direct inquiries about Efesto licensing to mcaliman@gmail.com
+ */
+
+package com.trueprogramming.excel.parser;
+
+import org.apache.poi.ss.formula.ptg.NamePtg;
+import org.apache.poi.ss.formula.ptg.Ptg;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * @author Massimo Caliman
+ */
+class RangeValuesTest {
+
+    /**
+     * A sheet with the cells A1, A2, B3 only, counting the cells visited.
+     */
+    private static final class Sheet implements WorkbookSource {
+
+        private final TreeMap<Long, Object> cells = new TreeMap<>();
+        private int visits;
+
+        Sheet() {
+            cells.put(key(0, 0), 1.0);
+            cells.put(key(1, 0), 2.0);
+            cells.put(key(2, 1), 3.0);
+        }
+
+        private static long key(int row, int column) {
+            return ((long) row << 14) | column;
+        }
+
+        @Override
+        public int getNumberOfSheets() {
+            return 1;
+        }
+
+        @Override
+        public String getSheetName(int sheetIndex) {
+            return "Sheet1";
+        }
+
+        @Override
+        public int getSheetIndex(String sheetName) {
+            return 0;
+        }
+
+        @Override
+        public void forEachCell(int sheetIndex, Consumer<SheetCell> consumer) {
+        }
+
+        @Override
+        public boolean hasRow(int sheetIndex, int row) {
+            return row <= 2;
+        }
+
+        @Override
+        public int getLastRow(int sheetIndex) {
+            return 2;
+        }
+
+        @Override
+        public int getLastColumn(int sheetIndex) {
+            return 1;
+        }
+
+        @Override
+        public boolean hasValue(int sheetIndex, int row, int column) {
+            return cells.containsKey(key(row, column));
+        }
+
+        @Override
+        public Object getValue(int sheetIndex, int row, int column) {
+            return cells.get(key(row, column));
+        }
+
+        @Override
+        public void forEachValue(int sheetIndex, int firstRow, int firstColumn, int lastRow, int lastColumn, Consumer<Object> consumer) {
+            for(int row = firstRow; row <= lastRow; row++)
+                for(int column = firstColumn; column <= lastColumn; column++) {
+                    visits++;
+                    Object value = cells.get(key(row, column));
+                    if(value != null) consumer.accept(value);
+                }
+        }
+
+        @Override
+        public Ptg[] getFormulaTokens(int sheetIndex, int row, int column) {
+            return null;
+        }
+
+        @Override
+        public Ptg[] getNameDefinition(NamePtg t) {
+            return null;
+        }
+
+        @Override
+        public String getNameText(NamePtg t) {
+            return null;
+        }
+    }
+
+    @Test
+    void testWholeColumn() {
+        Sheet sheet = new Sheet();
+        Profile profile = new Profile();
+        List<Object> values = new RangeValues(sheet, profile, 0, 0, 0, 1048575, 0);
+        assertEquals(0, sheet.visits);
+        assertEquals(List.of(1.0, 2.0), values);
+        assertEquals(3, sheet.visits);
+        assertEquals(2, values.size());
+        assertEquals(3, sheet.visits);
+        assertEquals(1, profile.getCount(Profile.Phase.RANGES, "Sheet1"));
+    }
+
+    @Test
+    void testOutsideUsedRange() {
+        Sheet sheet = new Sheet();
+        assertEquals(0, new RangeValues(sheet, new Profile(), 0, 10, 0, 20, 5).size());
+        assertEquals(0, sheet.visits);
+    }
+}
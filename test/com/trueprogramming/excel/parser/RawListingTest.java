@@ -0,0 +1,61 @@
+/*
+ * Efesto - Excel Formula Extractor System and Topological Ordering algorithm.
+ * Copyright (C) 2017 Massimo Caliman mcaliman@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * If AGPL Version 3.0 terms are incompatible with your use of
+ * Efesto, alternative license terms are available from Massimo Caliman
+ * please direct inquiries about Efesto licensing to mcaliman@gmail.com
+ */
+
+package com.trueprogramming.excel.parser;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * @author Massimo Caliman
+ */
+class RawListingTest {
+
+    @Test
+    void testSpill() throws Exception {
+        RawListing listing = new RawListing();
+        StringBuilder expected = new StringBuilder();
+        for(int i = 0; expected.length() < 3 * RawListing.SPILL; i++) {
+            String line = "' A" + (i + 1) + " = Città " + i + "\n";
+            listing.append(line);
+            expected.append(line);
+        }
+        StringBuilder out = new StringBuilder();
+        listing.writeTo(out);
+        assertEquals(expected.toString(), out.toString());
+        listing.append("' B1 = 1\n");
+        expected.append("' B1 = 1\n");
+        out.setLength(0);
+        listing.writeTo(out);
+        assertEquals(expected.toString(), out.toString());
+    }
+
+    @Test
+    void testSmall() throws Exception {
+        RawListing listing = new RawListing();
+        listing.append("' A1 = 1\n");
+        StringBuilder out = new StringBuilder();
+        listing.writeTo(out);
+        assertEquals("' A1 = 1\n", out.toString());
+    }
+}
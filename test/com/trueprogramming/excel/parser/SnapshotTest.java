@@ -0,0 +1,124 @@
+/*
+ * Efesto - Excel Formula Extractor System and Topological Ordering algorithm.
+ * Copyright (C) 2017 Massimo Caliman mcaliman@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * If AGPL Version 3.0 terms are incompatible with your use of
+ * Efesto, alternative license terms are available from Massimo Caliman
+ * please direct inquiries about Efesto licensing to mcaliman@gmail.com
+ */
+
+package com.trueprogramming.excel.parser;
+
+import com.trueprogramming.excel.ToolkitCommand;
+import com.trueprogramming.excel.ToolkitOptions;
+import com.trueprogramming.excel.grammar.nonterm.Start;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.trueprogramming.excel.parser.Fixtures.delete;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Massimo Caliman
+ */
+class SnapshotTest {
+
+    private static final String[] FILES = {"test/13-NamedRange.xlsx", "test/17-IF-into-IF.xlsx", "test/SHEET-QUOTED.xlsx", "test/15-Others-FUN.xlsx"};
+
+    private static ToolkitCommand run(Path workbook, Path output) throws Exception {
+        ToolkitOptions options = new ToolkitOptions();
+        options.setStreaming(true);
+        options.setSilent(true);
+        options.setCache(true);
+        ToolkitCommand command = new ToolkitCommand(workbook.toString(), options);
+        command.execute();
+        command.write(output.toString());
+        return command;
+    }
+
+    @Test
+    void testCache() throws Exception {
+        Path directory = Files.createTempDirectory("snapshot");
+        try {
+            for(String file : FILES) {
+                Path workbook = directory.resolve(new File(file).getName());
+                Files.copy(Path.of(file), workbook, StandardCopyOption.REPLACE_EXISTING);
+                Path output = directory.resolve("output.vb");
+                assertFalse(run(workbook, output).isCached(), file);
+                String parsed = Files.readString(output);
+                assertTrue(Files.isRegularFile(Path.of(workbook + ".efs")), file);
+                assertTrue(run(workbook, output).isCached(), file);
+                assertEquals(parsed, Files.readString(output), file);
+            }
+        } finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    void testChangedWorkbook() throws Exception {
+        Path directory = Files.createTempDirectory("snapshot");
+        try {
+            Path workbook = directory.resolve("book.xlsx"), output = directory.resolve("book.vb");
+            Files.copy(Path.of(FILES[0]), workbook);
+            run(workbook, output);
+            Files.copy(Path.of(FILES[1]), workbook, StandardCopyOption.REPLACE_EXISTING);
+            assertNull(Snapshot.read(new File(workbook + ".efs"), workbook.toString(), Snapshot.hash(workbook.toFile())));
+            assertFalse(run(workbook, output).isCached());
+            assertTrue(run(workbook, output).isCached());
+        } finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    void testGraph() throws Exception {
+        Parser parser = new Parser(FILES[1], true);
+        parser.setDiagnostics(Diagnostics.SILENT);
+        parser.parse();
+        parser.sort();
+        File file = File.createTempFile("snapshot", ".efs");
+        try {
+            Snapshot.of(parser, "hash").write(file);
+            Snapshot snapshot = Snapshot.read(file, FILES[1], "hash");
+            assertEquals(parser.getCounterFormulas(), snapshot.getCounterFormulas());
+            assertEquals(parser.getRaw(), snapshot.getRaw());
+            assertEquals(parser.getList().size(), snapshot.getList().size());
+            for(int i = 0; i < parser.getList().size(); i++) {
+                Start expected = parser.getList().get(i), actual = snapshot.getList().get(i);
+                assertEquals(expected, actual);
+                assertEquals(expected.getAddress(), actual.getAddress());
+                assertEquals(expected.getLevel(), actual.getLevel());
+            }
+            assertEquals(parser.getLevels().size(), snapshot.getLevels().size());
+            AtomicInteger expected = new AtomicInteger(), actual = new AtomicInteger();
+            parser.getGraph().forEachEdge((from, to) -> expected.incrementAndGet());
+            snapshot.getGraph().forEachEdge((from, to) -> actual.incrementAndGet());
+            assertEquals(expected.get(), actual.get());
+            assertEquals(snapshot.getList(), snapshot.getGraph().topologicalSort());
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Efesto - Excel Formula Extractor System and Topological Ordering algorithm.
+ * Copyright (C) 2017 Massimo Caliman mcaliman@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * If AGPL Version 3.0 terms are incompatible with your use of
+ * Efesto, alternative license terms are available from Massimo Caliman
+ * please direct inquiries about Efesto licensing to mcaliman@gmail.com
+ */
+
+package com.trueprogramming.excel.parser;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static com.trueprogramming.excel.parser.Fixtures.lines;
+import static com.trueprogramming.excel.parser.Fixtures.parse;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * @author Massimo Caliman
+ */
+class StreamingWorkbookSourceTest {
+
+    /**
+     * The SAX source transpiles every fixture to the formulas of the DOM source.
+     * The raw listing is not compared, the SAX source lists only the cells it retains.
+     */
+    @Test
+    void testSameAsDom() throws Exception {
+        List<Path> fixtures;
+        try(Stream<Path> files = Files.walk(Path.of("test"))) {
+            fixtures = files.filter(file -> file.toString().endsWith(".xlsx")).sorted().toList();
+        }
+        assertEquals(37, fixtures.size());
+        for(Path fixture : fixtures)
+            assertEquals(lines(parse(fixture.toFile(), false, null)), lines(parse(fixture.toFile(), true, null)), fixture.toString());
+    }
+}
@@ -0,0 +1,416 @@
+/*
+ * Efesto - Excel Formula Extractor System and Topological Ordering algorithm.
+ * Copyright (C) 2017 Massimo Caliman mcaliman@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * If AGPL Version 3.0 terms are incompatible with your use of
+ * Efesto, alternative license terms are available from Massimo Caliman
+ * please direct inquiries about Efesto licensing to mcaliman@gmail.com
+ */
+
+package com.trueprogramming.excel.test;
+
+import com.trueprogramming.excel.parser.AbstractParser;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes large .xlsx workbooks with controlled shapes, to benchmark and soak test the parser, the sorter and
+ * the writer at 10^5 to 10^7 cells without production files.
+ * <p>
+ * The SpreadsheetML parts are streamed row by row into the package, nothing is kept in memory,
+ * so the size of the workbook is bounded only by the disk. The cell budget is split evenly among the shapes:
+ * <ul>
+ * <li>chain: every formula refers to the previous cell, a dependency chain as deep as the budget</li>
+ * <li>fanin: SUMs of blocks of width values and a SUM of the blocks</li>
+ * <li>copydown: a shared formula and a plain formula copied down, both referring to the named range Rates</li>
+ * <li>web: sheets Web1..WebN whose cells refer to random cells of the previous sheets (Ref3DPxg)</li>
+ * <li>lookup: VLOOKUPs into the named range Lookup over a table of shared strings and numbers</li>
+ * </ul>
+ * The workbooks are acyclic; formula cells carry no cached value.
+ * <p>
+ * Usage: WorkbookGenerator output.xlsx [cells=100000] [shapes=chain,fanin,copydown,web,lookup] [width=1000]
+ * [webs=4] [seed=1]
+ *
+ * @author Massimo Caliman
+ */
+public final class WorkbookGenerator {
+
+    public static final List<String> SHAPES = List.of("chain", "fanin", "copydown", "web", "lookup");
+
+    private static final int MAX_ROWS = 1_048_576;
+    private static final String MAIN_NS = "http://schemas.openxmlformats.org/spreadsheetml/2006/main";
+    private static final String RELATIONSHIPS_NS = "http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+    private static final String PACKAGE_RELATIONSHIPS_NS = "http://schemas.openxmlformats.org/package/2006/relationships";
+    private static final String OFFICE_DOCUMENT = "http://schemas.openxmlformats.org/officeDocument/2006/relationships/";
+
+    private final int cells;
+    private List<String> shapes = SHAPES;
+    private int width = 1000;
+    private int webs = 4;
+    private long seed = 1;
+
+    private final List<String> sheets = new ArrayList<>();
+    private int formulas;
+    private int strings;
+
+    public WorkbookGenerator(int cells) {
+        this.cells = cells;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if(args.length == 0) {
+            System.err.println("Usage: WorkbookGenerator output.xlsx [cells=100000] [shapes=" + String.join(",", SHAPES) + "] [width=1000] [webs=4] [seed=1]");
+            return;
+        }
+        int cells = 100_000;
+        String shapes = null;
+        int width = 1000, webs = 4;
+        long seed = 1;
+        for(int i = 1; i < args.length; i++) {
+            String[] option = args[i].split("=", 2);
+            switch(option[0]) {
+                case "cells" -> cells = Integer.parseInt(option[1]);
+                case "shapes" -> shapes = option[1];
+                case "width" -> width = Integer.parseInt(option[1]);
+                case "webs" -> webs = Integer.parseInt(option[1]);
+                case "seed" -> seed = Long.parseLong(option[1]);
+                default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        WorkbookGenerator generator = new WorkbookGenerator(cells);
+        if(shapes != null) generator.setShapes(Arrays.asList(shapes.split(",")));
+        generator.setWidth(width);
+        generator.setWebs(webs);
+        generator.setSeed(seed);
+        long start = System.nanoTime();
+        generator.generate(new File(args[0]));
+        System.out.printf("%s: %,d cells, %,d formulas, %d sheets in %d ms%n", args[0], cells, generator.getFormulas(),
+                generator.sheets.size(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    public void setShapes(List<String> shapes) {
+        for(String shape : shapes)
+            if(!SHAPES.contains(shape)) throw new IllegalArgumentException("Unknown shape " + shape);
+        this.shapes = shapes;
+    }
+
+    /**
+     * Number of values summed by each SUM of the fanin shape.
+     */
+    public void setWidth(int width) {
+        this.width = width;
+    }
+
+    /**
+     * Number of sheets of the web shape.
+     */
+    public void setWebs(int webs) {
+        this.webs = webs;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Number of formula cells written by the last generate.
+     */
+    public int getFormulas() {
+        return formulas;
+    }
+
+    public void generate(File file) throws IOException {
+        sheets.clear();
+        formulas = 0;
+        strings = 0;
+        int budget = Math.max(1, cells / shapes.size());
+        try(ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(file))) {
+            zip.setLevel(Deflater.BEST_SPEED);
+            Writer out = new BufferedWriter(new OutputStreamWriter(zip, StandardCharsets.UTF_8), 1 << 16);
+            List<String> names = new ArrayList<>();
+            for(String shape : shapes)
+                switch(shape) {
+                    case "chain" -> chain(zip, out, budget);
+                    case "fanin" -> fanin(zip, out, budget);
+                    case "copydown" -> names.add(copydown(zip, out, budget));
+                    case "web" -> web(zip, out, budget);
+                    case "lookup" -> names.add(lookup(zip, out, budget));
+                }
+            workbook(zip, out, names);
+            styles(zip, out);
+            if(strings > 0) sharedStrings(zip, out);
+            contentTypes(zip, out);
+        }
+    }
+
+    //<editor-fold desc="Shapes">
+    private void chain(ZipOutputStream zip, Writer out, int n) throws IOException {
+        SheetWriter sheet = new SheetWriter(zip, out, "Chain");
+        int rows = Math.min(n, MAX_ROWS);
+        for(int row = 0; row < rows; row++) {
+            sheet.row(row);
+            for(int k = row, column = 0; k < n; k += MAX_ROWS, column++)
+                if(k == 0) sheet.number(row, column, 1);
+                else sheet.formula(row, column, address(k - 1) + "+1");
+        }
+        sheet.close();
+    }
+
+    private static String address(int k) {
+        return AbstractParser.cellAddress(k % MAX_ROWS, k / MAX_ROWS);
+    }
+
+    private void fanin(ZipOutputStream zip, Writer out, int n) throws IOException {
+        SheetWriter sheet = new SheetWriter(zip, out, "FanIn");
+        int w = Math.max(1, Math.min(width, MAX_ROWS));
+        int values = Math.min(Math.max(1, n - n / w - 1), MAX_ROWS);
+        int blocks = (values + w - 1) / w;
+        for(int row = 0; row < values; row++) {
+            sheet.row(row);
+            sheet.number(row, 0, row + 1);
+            if(row < blocks)
+                sheet.formula(row, 1, "SUM(A" + (row * w + 1) + ":A" + Math.min(values, (row + 1) * w) + ")");
+            if(row == 0) sheet.formula(row, 2, "SUM(B1:B" + blocks + ")");
+        }
+        sheet.close();
+    }
+
+    private String copydown(ZipOutputStream zip, Writer out, int n) throws IOException {
+        SheetWriter sheet = new SheetWriter(zip, out, "CopyDown");
+        int rows = Math.min(Math.max(1, n / 3), MAX_ROWS);
+        for(int row = 0; row < rows; row++) {
+            sheet.row(row);
+            sheet.number(row, 0, row % 100);
+            if(row == 0) sheet.shared(row, 1, 0, "B1:B" + rows, "A1*2+MAX(Rates)");
+            else sheet.shared(row, 1, 0, null, null);
+            sheet.formula(row, 2, "IF(B" + (row + 1) + ">MAX(Rates),A" + (row + 1) + ",-A" + (row + 1) + ")");
+            if(row < 2) sheet.number(row, 3, 42 + row);
+        }
+        sheet.close();
+        return "<definedName name=\"Rates\">CopyDown!$D$1:$D$2</definedName>";
+    }
+
+    private void web(ZipOutputStream zip, Writer out, int n) throws IOException {
+        Random random = new Random(seed);
+        int count = Math.max(1, webs);
+        int rows = Math.min(Math.max(1, n / count / 2), MAX_ROWS);
+        for(int index = 1; index <= count; index++) {
+            SheetWriter sheet = new SheetWriter(zip, out, "Web" + index);
+            for(int row = 0; row < rows; row++) {
+                sheet.row(row);
+                if(index == 1) {
+                    sheet.number(row, 0, row);
+                    sheet.number(row, 1, random.nextInt(1000));
+                    continue;
+                }
+                sheet.formula(row, 0, "Web" + (index - 1) + "!A" + (row + 1) + "+1");
+                int other = 1 + random.nextInt(index - 1);
+                sheet.formula(row, 1, "Web" + other + "!" + AbstractParser.cellAddress(random.nextInt(rows), random.nextInt(2))
+                        + "*Web" + (index - 1) + "!B" + (row + 1));
+            }
+            sheet.close();
+        }
+    }
+
+    private String lookup(ZipOutputStream zip, Writer out, int n) throws IOException {
+        int rows = Math.min(Math.max(1, n / 3), MAX_ROWS);
+        SheetWriter table = new SheetWriter(zip, out, "Table");
+        for(int row = 0; row < rows; row++) {
+            table.row(row);
+            table.string(row, 0, strings++);
+            table.number(row, 1, row * 1.5);
+        }
+        table.close();
+        SheetWriter sheet = new SheetWriter(zip, out, "Lookup");
+        for(int row = 0; row < rows; row++) {
+            sheet.row(row);
+            sheet.formula(row, 0, "VLOOKUP(\"K" + (row * 7L % rows) + "\",Lookup,2,FALSE)");
+        }
+        sheet.close();
+        return "<definedName name=\"Lookup\">Table!$A$1:$B$" + rows + "</definedName>";
+    }
+    //</editor-fold>
+
+    //<editor-fold desc="Package parts">
+    private void workbook(ZipOutputStream zip, Writer out, List<String> names) throws IOException {
+        entry(zip, out, "_rels/.rels");
+        out.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n<Relationships xmlns=\"" + PACKAGE_RELATIONSHIPS_NS + "\">"
+                + "<Relationship Id=\"rId1\" Type=\"" + OFFICE_DOCUMENT + "officeDocument\" Target=\"xl/workbook.xml\"/></Relationships>");
+        entry(zip, out, "xl/workbook.xml");
+        out.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n<workbook xmlns=\"" + MAIN_NS + "\" xmlns:r=\"" + RELATIONSHIPS_NS + "\"><sheets>");
+        for(int i = 0; i < sheets.size(); i++)
+            out.write("<sheet name=\"" + sheets.get(i) + "\" sheetId=\"" + (i + 1) + "\" r:id=\"rId" + (i + 1) + "\"/>");
+        out.write("</sheets>");
+        if(!names.isEmpty()) out.write("<definedNames>" + String.join("", names) + "</definedNames>");
+        out.write("</workbook>");
+        entry(zip, out, "xl/_rels/workbook.xml.rels");
+        out.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n<Relationships xmlns=\"" + PACKAGE_RELATIONSHIPS_NS + "\">");
+        for(int i = 0; i < sheets.size(); i++)
+            out.write("<Relationship Id=\"rId" + (i + 1) + "\" Type=\"" + OFFICE_DOCUMENT + "worksheet\" Target=\"worksheets/sheet" + (i + 1) + ".xml\"/>");
+        int id = sheets.size();
+        out.write("<Relationship Id=\"rId" + (++id) + "\" Type=\"" + OFFICE_DOCUMENT + "styles\" Target=\"styles.xml\"/>");
+        if(strings > 0)
+            out.write("<Relationship Id=\"rId" + (++id) + "\" Type=\"" + OFFICE_DOCUMENT + "sharedStrings\" Target=\"sharedStrings.xml\"/>");
+        out.write("</Relationships>");
+        out.flush();
+    }
+
+    private void styles(ZipOutputStream zip, Writer out) throws IOException {
+        entry(zip, out, "xl/styles.xml");
+        out.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n<styleSheet xmlns=\"" + MAIN_NS + "\">"
+                + "<fonts count=\"1\"><font><sz val=\"11\"/><name val=\"Calibri\"/></font></fonts>"
+                + "<fills count=\"1\"><fill><patternFill patternType=\"none\"/></fill></fills>"
+                + "<borders count=\"1\"><border><left/><right/><top/><bottom/><diagonal/></border></borders>"
+                + "<cellStyleXfs count=\"1\"><xf numFmtId=\"0\" fontId=\"0\" fillId=\"0\" borderId=\"0\"/></cellStyleXfs>"
+                + "<cellXfs count=\"1\"><xf numFmtId=\"0\" fontId=\"0\" fillId=\"0\" borderId=\"0\" xfId=\"0\"/></cellXfs></styleSheet>");
+        out.flush();
+    }
+
+    /**
+     * The lookup keys K0..Kn, written after the sheets since the index of a string is its row.
+     */
+    private void sharedStrings(ZipOutputStream zip, Writer out) throws IOException {
+        entry(zip, out, "xl/sharedStrings.xml");
+        out.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n<sst xmlns=\"" + MAIN_NS + "\" count=\"" + strings
+                + "\" uniqueCount=\"" + strings + "\">");
+        for(int i = 0; i < strings; i++) {
+            out.write("<si><t>K");
+            out.write(Integer.toString(i));
+            out.write("</t></si>");
+        }
+        out.write("</sst>");
+        out.flush();
+    }
+
+    private void contentTypes(ZipOutputStream zip, Writer out) throws IOException {
+        entry(zip, out, "[Content_Types].xml");
+        out.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\">"
+                + "<Default Extension=\"rels\" ContentType=\"application/vnd.openxmlformats-package.relationships+xml\"/>"
+                + "<Default Extension=\"xml\" ContentType=\"application/xml\"/>"
+                + "<Override PartName=\"/xl/workbook.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.sheet.main+xml\"/>"
+                + "<Override PartName=\"/xl/styles.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.styles+xml\"/>");
+        if(strings > 0)
+            out.write("<Override PartName=\"/xl/sharedStrings.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.sharedStrings+xml\"/>");
+        for(int i = 0; i < sheets.size(); i++)
+            out.write("<Override PartName=\"/xl/worksheets/sheet" + (i + 1) + ".xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.worksheet+xml\"/>");
+        out.write("</Types>");
+        out.flush();
+    }
+
+    private static void entry(ZipOutputStream zip, Writer out, String name) throws IOException {
+        out.flush();
+        zip.putNextEntry(new ZipEntry(name));
+    }
+    //</editor-fold>
+
+    /**
+     * Streams the rows of one worksheet part, rows and cells must be written in order.
+     */
+    private final class SheetWriter {
+
+        private final Writer out;
+        private boolean open;
+
+        SheetWriter(ZipOutputStream zip, Writer out, String name) throws IOException {
+            this.out = out;
+            sheets.add(name);
+            entry(zip, out, "xl/worksheets/sheet" + sheets.size() + ".xml");
+            out.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n<worksheet xmlns=\"" + MAIN_NS + "\"><sheetData>");
+        }
+
+        void row(int row) throws IOException {
+            if(open) out.write("</row>");
+            out.write("<row r=\"");
+            out.write(Integer.toString(row + 1));
+            out.write("\">");
+            open = true;
+        }
+
+        void number(int row, int column, double value) throws IOException {
+            start(row, column, null);
+            out.write("<v>");
+            out.write(value == Math.rint(value) ? Long.toString((long) value) : Double.toString(value));
+            out.write("</v></c>");
+        }
+
+        void string(int row, int column, int index) throws IOException {
+            start(row, column, "s");
+            out.write("<v>");
+            out.write(Integer.toString(index));
+            out.write("</v></c>");
+        }
+
+        void formula(int row, int column, String text) throws IOException {
+            start(row, column, null);
+            out.write("<f>");
+            escape(text);
+            out.write("</f></c>");
+            formulas++;
+        }
+
+        /**
+         * Cell of a shared formula, the master carries the text and the area it is copied to.
+         */
+        void shared(int row, int column, int index, String ref, String text) throws IOException {
+            start(row, column, null);
+            if(text == null) {
+                out.write("<f t=\"shared\" si=\"" + index + "\"/></c>");
+            } else {
+                out.write("<f t=\"shared\" ref=\"" + ref + "\" si=\"" + index + "\">");
+                escape(text);
+                out.write("</f></c>");
+            }
+            formulas++;
+        }
+
+        private void start(int row, int column, String type) throws IOException {
+            out.write("<c r=\"");
+            out.write(AbstractParser.cellAddress(row, column));
+            out.write(type == null ? "\">" : "\" t=\"" + type + "\">");
+        }
+
+        private void escape(String text) throws IOException {
+            for(int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                switch(c) {
+                    case '&' -> out.write("&amp;");
+                    case '<' -> out.write("&lt;");
+                    case '>' -> out.write("&gt;");
+                    default -> out.write(c);
+                }
+            }
+        }
+
+        void close() throws IOException {
+            if(open) out.write("</row>");
+            out.write("</sheetData></worksheet>");
+            out.flush();
+        }
+    }
+}
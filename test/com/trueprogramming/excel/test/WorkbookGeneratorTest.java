@@ -0,0 +1,80 @@
+/*
+ * Efesto - Excel Formula Extractor System and Topological Ordering algorithm.
+ * Copyright (C) 2017 Massimo Caliman mcaliman@gmail.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * If AGPL Version 3.0 terms are incompatible with your use of
+ * Efesto, alternative license terms are available from Massimo Caliman
+ * please direct inquiries about Efesto licensing to mcaliman@gmail.com
+ */
+
+package com.trueprogramming.excel.test;
+
+import com.trueprogramming.excel.parser.Diagnostics;
+import com.trueprogramming.excel.parser.Parser;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Massimo Caliman
+ */
+class WorkbookGeneratorTest {
+
+    @Test
+    void testShapes() throws Exception {
+        for(String shape : WorkbookGenerator.SHAPES) {
+            File file = File.createTempFile(shape, ".xlsx");
+            try {
+                WorkbookGenerator generator = new WorkbookGenerator(600);
+                generator.setShapes(List.of(shape));
+                generator.setWidth(20);
+                generator.generate(file);
+                assertTrue(generator.getFormulas() > 0, shape);
+
+                Parser parser = new Parser(file.getPath(), true);
+                parser.setDiagnostics(Diagnostics.SILENT);
+                parser.parse();
+                parser.sort();
+                assertEquals(generator.getFormulas(), parser.getCounterFormulas(), shape);
+                assertTrue(parser.getCircularReferences().isEmpty(), shape);
+            } finally {
+                file.delete();
+            }
+        }
+    }
+
+    @Test
+    void testChainDepth() throws Exception {
+        File file = File.createTempFile("chain", ".xlsx");
+        try {
+            WorkbookGenerator generator = new WorkbookGenerator(300);
+            generator.setShapes(List.of("chain"));
+            generator.generate(file);
+            Parser parser = new Parser(file.getPath(), true);
+            parser.setDiagnostics(Diagnostics.SILENT);
+            parser.parse();
+            parser.sort();
+            assertEquals(299, generator.getFormulas());
+            assertEquals(300, parser.getLevels().size());
+        } finally {
+            file.delete();
+        }
+    }
+}
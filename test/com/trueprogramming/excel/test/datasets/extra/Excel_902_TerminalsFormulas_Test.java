@@ -41,12 +41,12 @@ class Excel_902_TerminalsFormulas_Test {
         assertTrue(toolkitCommand.testToFormula(
                 0,
                 "A1 = TRUE",
-                "A5 = \"1/0\"",
+                "A2 = 1.838226",
                 "A3 = 24.0",
                 "A4 = \"This is a string\"",
-                "A2 = 1.838226",
-                "A9 = IF(A1,A5,A3)",
+                "A5 = 1/0",
                 "A7 = IF(A1,A2,A3)",
+                "A9 = IF(A1,A5,A3)",
                 "A8 = IF(A1,A4,A7)"
         ));
         toolkitCommand.write("test/902-terminals-formulas.vb");
@@ -40,14 +40,14 @@ class Excel_904_TerminalsFormulas_Test {
         toolkitCommand.toFormula();
         assertTrue(toolkitCommand.testToFormula(
                 0,
-                "A2 = 20.0",
                 "A1 = 10.0",
+                "A2 = 20.0",
+                "A3 = A1+A2",
                 "A4 = A1-A2",
                 "A5 = A1*A2",
                 "A6 = A1/A2",
-                "A3 = A1+A2",
-                "A8 = A1^A2",
-                "A7 = A1&A2"
+                "A7 = A1&A2",
+                "A8 = A1^A2"
         ));
         toolkitCommand.write("test/904-terminals-formulas.vb");
     }